@@ -0,0 +1,90 @@
+package dev.danvega.workshop;
+
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * In-process models for benchmarks, so a measurement covers only the code around the model call.
+ */
+public final class BenchmarkModels {
+
+    private BenchmarkModels() {
+    }
+
+    /**
+     * Answers every prompt with {@code answer} immediately.
+     */
+    public static ChatModel chatModel(String answer) {
+        ChatResponse response = new ChatResponse(List.of(new Generation(new AssistantMessage(answer))));
+        return new ChatModel() {
+
+            @Override
+            public ChatResponse call(Prompt prompt) {
+                return response;
+            }
+
+            @Override
+            public Flux<ChatResponse> stream(Prompt prompt) {
+                return Flux.just(response);
+            }
+
+        };
+    }
+
+    /**
+     * Embeds each text as a unit vector seeded by its hash, so equal texts get equal vectors.
+     */
+    public static EmbeddingModel embeddingModel(int dimensions) {
+        return new EmbeddingModel() {
+
+            @Override
+            public EmbeddingResponse call(EmbeddingRequest request) {
+                List<Embedding> embeddings = new ArrayList<>(request.getInstructions().size());
+                for (String text : request.getInstructions()) {
+                    embeddings.add(new Embedding(vector(text.hashCode(), dimensions), embeddings.size()));
+                }
+                return new EmbeddingResponse(embeddings);
+            }
+
+            @Override
+            public float[] embed(Document document) {
+                return vector(document.getText().hashCode(), dimensions);
+            }
+
+            @Override
+            public int dimensions() {
+                return dimensions;
+            }
+
+        };
+    }
+
+    public static float[] vector(long seed, int dimensions) {
+        SplittableRandom random = new SplittableRandom(seed);
+        float[] vector = new float[dimensions];
+        double norm = 0;
+        for (int i = 0; i < dimensions; i++) {
+            vector[i] = (float) random.nextGaussian();
+            norm += vector[i] * vector[i];
+        }
+        float scale = (float) (1 / Math.sqrt(norm));
+        for (int i = 0; i < dimensions; i++) {
+            vector[i] *= scale;
+        }
+        return vector;
+    }
+
+}
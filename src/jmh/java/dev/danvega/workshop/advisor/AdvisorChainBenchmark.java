@@ -0,0 +1,88 @@
+package dev.danvega.workshop.advisor;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import dev.danvega.workshop.BenchmarkModels;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.client.advisor.api.Advisor;
+import org.springframework.ai.chat.client.advisor.vectorstore.QuestionAnswerAdvisor;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SimpleVectorStore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one blocking {@code ChatClient} call against a model that answers instantly, with no advisors, with
+ * {@link EmojiLoggingAdvisor} (DEBUG off, and on with records rendered then discarded off-thread), and with a
+ * {@link QuestionAnswerAdvisor} over a small {@link SimpleVectorStore}. The difference to {@code none} is the
+ * advisor's overhead per request.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AdvisorChainBenchmark {
+
+    @Param({"none", "emoji-logging", "emoji-logging-debug", "question-answer"})
+    String advisors;
+
+    private final Logger logger = (Logger) LoggerFactory.getLogger(EmojiLoggingAdvisor.class);
+    private AsyncLogWriter writer;
+    private ChatClient chatClient;
+
+    @Setup
+    public void setup() {
+        this.logger.setLevel(this.advisors.equals("emoji-logging-debug") ? Level.DEBUG : Level.INFO);
+        // records are rendered on the writer thread but reach no appender
+        this.logger.setAdditive(false);
+        this.writer = new AsyncLogWriter(8192);
+        List<Advisor> chain = new ArrayList<>();
+        switch (this.advisors) {
+            case "emoji-logging", "emoji-logging-debug" -> chain.add(EmojiLoggingAdvisor.builder().writer(this.writer).build());
+            case "question-answer" -> chain.add(QuestionAnswerAdvisor.builder(vectorStore()).build());
+            default -> {
+            }
+        }
+        this.chatClient = ChatClient.builder(BenchmarkModels.chatModel("Because it was too tired."))
+                .defaultAdvisors(chain)
+                .build();
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        this.writer.close();
+    }
+
+    @Benchmark
+    public String call() {
+        return this.chatClient.prompt().user("Why did the dog sit in the shade?").call().content();
+    }
+
+    private static SimpleVectorStore vectorStore() {
+        SimpleVectorStore vectorStore = SimpleVectorStore.builder(BenchmarkModels.embeddingModel(384)).build();
+        List<Document> documents = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            documents.add(new Document("Model " + i + " has a context window of " + (i * 1000) + " tokens."));
+        }
+        vectorStore.add(documents);
+        return vectorStore;
+    }
+
+}
@@ -0,0 +1,118 @@
+package dev.danvega.workshop.memory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code save}: one turn saved to a conversation that keeps its newest 20 messages, so each save appends one message
+ * and drops one, against a {@link LogChatMemoryRepository} that commits in the background.
+ * {@code recover}: opening a log of 1M messages, 50,000 conversations of 20, and rebuilding its index.
+ */
+@Fork(1)
+public class LogChatMemoryRepositoryBenchmark {
+
+    private static final int WINDOW = 20;
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 3, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    public List<Message> save(Appending state) {
+        state.window.remove(0);
+        state.window.add(new UserMessage("turn " + state.turn++ + ": what's a good vacation plan for three days in Cleveland?"));
+        state.repository.saveAll("c", state.window);
+        return state.window;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public int recover(Recovering state) throws IOException {
+        try (LogChatMemoryRepository repository = LogChatMemoryRepository.builder(state.directory).build()) {
+            return repository.findConversationIds().size();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Appending {
+
+        Path directory;
+        LogChatMemoryRepository repository;
+        List<Message> window;
+        long turn;
+
+        @Setup
+        public void setup() throws IOException {
+            this.directory = Files.createTempDirectory("chat-memory-save");
+            this.repository = LogChatMemoryRepository.builder(this.directory).build();
+            this.window = new ArrayList<>(turns(WINDOW));
+            this.repository.saveAll("c", this.window);
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            this.repository.close();
+            FileSystemUtils.deleteRecursively(this.directory);
+        }
+
+    }
+
+    @State(Scope.Benchmark)
+    public static class Recovering {
+
+        Path directory;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            this.directory = Files.createTempDirectory("chat-memory-recover");
+            List<Message> turns = turns(WINDOW);
+            try (LogChatMemoryRepository repository = LogChatMemoryRepository.builder(this.directory).build()) {
+                for (int conversation = 0; conversation < 50_000; conversation++) {
+                    // two saves each, the second an append, as a conversation grows
+                    repository.saveAll("conversation-" + conversation, turns.subList(0, WINDOW / 2));
+                    repository.saveAll("conversation-" + conversation, turns);
+                }
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            FileSystemUtils.deleteRecursively(this.directory);
+        }
+
+    }
+
+    private static List<Message> turns(int count) {
+        List<Message> turns = new ArrayList<>(count);
+        for (int i = 0; i < count; i += 2) {
+            turns.add(new UserMessage("question " + i + ": what's a good vacation plan for three days in Cleveland?"));
+            turns.add(new AssistantMessage("answer " + i + ": start at the Rock and Roll Hall of Fame, then walk the lakefront."));
+        }
+        return turns;
+    }
+
+}
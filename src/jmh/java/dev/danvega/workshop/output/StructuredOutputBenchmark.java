@@ -0,0 +1,83 @@
+package dev.danvega.workshop.output;
+
+import dev.danvega.workshop.rag.Models;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ai.converter.BeanOutputConverter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON conversion behind {@code entity(Itinerary.class)} and {@code entity(Models.class)}. {@code entity(Class)}
+ * creates a {@link BeanOutputConverter}, and with it the JSON schema, on every call; {@code *NewConverter} measures
+ * that path, {@code *Convert} only the parsing a reused converter does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StructuredOutputBenchmark {
+
+    private static final String ITINERARY = """
+            ```json
+            {"itinerary": [
+              {"activity": "Rock and Roll Hall of Fame", "location": "1100 E 9th St", "day": "Day 1", "time": "10:00 AM"},
+              {"activity": "West Side Market", "location": "1979 W 25th St", "day": "Day 1", "time": "1:00 PM"},
+              {"activity": "Cleveland Museum of Art", "location": "11150 East Blvd", "day": "Day 2", "time": "10:00 AM"},
+              {"activity": "Edgewater Park", "location": "6500 Cleveland Memorial Shoreway", "day": "Day 2", "time": "4:00 PM"},
+              {"activity": "Cuyahoga Valley National Park", "location": "Brecksville", "day": "Day 3", "time": "9:00 AM"}
+            ]}
+            ```""";
+
+    private static final String MODELS = """
+            {"models": [
+              {"company": "OpenAI", "model": "GPT-4o", "contextWindowSize": 128000},
+              {"company": "OpenAI", "model": "GPT-4o mini", "contextWindowSize": 128000},
+              {"company": "Anthropic", "model": "Claude 3.5 Sonnet", "contextWindowSize": 200000},
+              {"company": "Google", "model": "Gemini 1.5 Pro", "contextWindowSize": 2000000}
+            ]}""";
+
+    private BeanOutputConverter<Itinerary> itineraryConverter;
+    private BeanOutputConverter<Models> modelsConverter;
+
+    @Setup
+    public void setup() {
+        this.itineraryConverter = new BeanOutputConverter<>(Itinerary.class);
+        this.modelsConverter = new BeanOutputConverter<>(Models.class);
+    }
+
+    @Benchmark
+    public Itinerary itineraryNewConverter() {
+        BeanOutputConverter<Itinerary> converter = new BeanOutputConverter<>(Itinerary.class);
+        converter.getFormat();
+        return converter.convert(ITINERARY);
+    }
+
+    @Benchmark
+    public Itinerary itineraryConvert() {
+        return this.itineraryConverter.convert(ITINERARY);
+    }
+
+    @Benchmark
+    public Models modelsNewConverter() {
+        BeanOutputConverter<Models> converter = new BeanOutputConverter<>(Models.class);
+        converter.getFormat();
+        return converter.convert(MODELS);
+    }
+
+    @Benchmark
+    public Models modelsConvert() {
+        return this.modelsConverter.convert(MODELS);
+    }
+
+}
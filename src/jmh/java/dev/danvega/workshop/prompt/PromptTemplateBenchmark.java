@@ -0,0 +1,100 @@
+package dev.danvega.workshop.prompt;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.chat.prompt.PromptTemplate;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering the controllers' {@code {topic}} and {@code {destination}} templates: a template built per request, as
+ * the endpoints did through {@code .user(u -> u.text(...).param(...))}, against one built once and reused, and against
+ * the {@link CompiledTemplate} the {@link PromptTemplateRegistry} hands out. The {@code blogPost} pair renders the
+ * article endpoint's system and user prompts both ways.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PromptTemplateBenchmark {
+
+    private static final String TOPIC = "Tell me a dad joke about {topic}";
+    private static final String DESTINATION = "What's a good vacation plan while I'm in {destination} for 3 days?";
+
+    private PromptTemplate topicTemplate;
+    private PromptTemplate destinationTemplate;
+    private CompiledTemplate topicCompiled;
+    private PromptTemplateRegistry registry;
+    private String blogPostGuidelines;
+
+    @Setup
+    public void setup() throws IOException {
+        this.topicTemplate = new PromptTemplate(TOPIC);
+        this.destinationTemplate = new PromptTemplate(DESTINATION);
+        this.topicCompiled = CompiledTemplate.compile("topic", TOPIC, new JTokkitTokenCountEstimator());
+        this.registry = new PromptTemplateRegistry(new PathMatchingResourcePatternResolver(), "classpath:/prompts/", false,
+                new JTokkitTokenCountEstimator());
+        this.blogPostGuidelines = new ClassPathResource("prompts/blog-post-guidelines.st").getContentAsString(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public String topicPerRequest() {
+        return new PromptTemplate(TOPIC).render(Map.of("topic", "dogs"));
+    }
+
+    @Benchmark
+    public String topicReused() {
+        return this.topicTemplate.render(Map.of("topic", "dogs"));
+    }
+
+    @Benchmark
+    public String topicCompiled() {
+        return this.topicCompiled.render("topic", "dogs");
+    }
+
+    @Benchmark
+    public Prompt destinationPerRequest() {
+        return new PromptTemplate(DESTINATION).create(Map.of("destination", "Cleveland, OH"));
+    }
+
+    @Benchmark
+    public Prompt destinationReused() {
+        return this.destinationTemplate.create(Map.of("destination", "Cleveland, OH"));
+    }
+
+    @Benchmark
+    public String destinationRegistry() {
+        return this.registry.render("vacation-plan", "destination", "Cleveland, OH");
+    }
+
+    @Benchmark
+    public void blogPostPerRequest(Blackhole blackhole) {
+        blackhole.consume(new PromptTemplate(this.blogPostGuidelines).render());
+        blackhole.consume(new PromptTemplate("Write me a blog post about {topic}").render(Map.of("topic", "JDK Virtual Threads")));
+    }
+
+    @Benchmark
+    public void blogPostRegistry(Blackhole blackhole) {
+        blackhole.consume(this.registry.render("blog-post-guidelines", Map.of()));
+        blackhole.consume(this.registry.render("blog-post-request", "topic", "JDK Virtual Threads"));
+    }
+
+}
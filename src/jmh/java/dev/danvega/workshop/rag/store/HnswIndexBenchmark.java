@@ -0,0 +1,76 @@
+package dev.danvega.workshop.rag.store;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Top-10 search on a 20,000-vector {@link HnswIndex} at several {@code efSearch}, against the brute-force scan it
+ * approximates. {@code HnswIndexTest} holds the recall these settings reach.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Benchmark)
+public class HnswIndexBenchmark {
+
+    private static final int DIMENSIONS = 64;
+    private static final int CORPUS = 20_000;
+    private static final int QUERIES = 256;
+    private static final int K = 10;
+
+    @Param({"16", "32", "64", "128", "256"})
+    int efSearch;
+
+    private HnswIndex index;
+    private float[][] queries;
+    private int next;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(7);
+        this.index = new HnswIndex(DIMENSIONS, 16, 200, 64, 42L);
+        for (int i = 0; i < CORPUS; i++) {
+            this.index.add(clustered(random));
+        }
+        this.queries = new float[QUERIES][];
+        for (int i = 0; i < QUERIES; i++) {
+            this.queries[i] = clustered(random);
+        }
+    }
+
+    @Benchmark
+    public List<HnswIndex.Match> hnsw() {
+        return this.index.search(this.queries[this.next++ & (QUERIES - 1)], K, this.efSearch, null);
+    }
+
+    @Benchmark
+    public List<HnswIndex.Match> exact() {
+        return this.index.exactSearch(this.queries[this.next++ & (QUERIES - 1)], K, null);
+    }
+
+    // same clustered distribution as the test
+    private static float[] clustered(Random random) {
+        Random centroids = new Random(random.nextInt(32));
+        float[] vector = new float[DIMENSIONS];
+        for (int i = 0; i < DIMENSIONS; i++) {
+            vector[i] = (float) (centroids.nextGaussian() + 0.35 * random.nextGaussian());
+        }
+        return vector;
+    }
+
+}
@@ -0,0 +1,97 @@
+package dev.danvega.workshop.rag.store;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Scalar vs. Vector API similarity kernels at common embedding sizes. {@code *Pair} scores a single pair of
+ * vectors; {@code *Query} scores one query against a block of {@value #BLOCK} stored vectors, which is the per-query
+ * cost of a brute-force scan and an upper bound on what one HNSW search spends on similarity.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Benchmark)
+public class VectorSimilarityBenchmark {
+
+    private static final int BLOCK = 1024;
+
+    @Param({"384", "768", "1536", "3072"})
+    int dimensions;
+
+    private VectorSimilarity.Kernel scalar;
+    private VectorSimilarity.Kernel simd;
+    private float[] query;
+    private float[] vectors;
+    private int[] ordinals;
+    private float[] scores;
+
+    @Setup
+    public void setup() {
+        this.scalar = VectorSimilarity.SCALAR;
+        this.simd = VectorSimilarity.simdKernel();
+        if (this.simd == null) {
+            throw new IllegalStateException("Run with --add-modules jdk.incubator.vector");
+        }
+        Random random = new Random(42);
+        this.query = VectorSimilarity.normalize(randomVector(random, this.dimensions));
+        this.vectors = new float[BLOCK * this.dimensions];
+        for (int i = 0; i < BLOCK; i++) {
+            System.arraycopy(VectorSimilarity.normalize(randomVector(random, this.dimensions)), 0, this.vectors, i * this.dimensions, this.dimensions);
+        }
+        // shuffled, like the neighbour lists an HNSW search walks
+        List<Integer> shuffled = new ArrayList<>(IntStream.range(0, BLOCK).boxed().toList());
+        Collections.shuffle(shuffled, random);
+        this.ordinals = shuffled.stream().mapToInt(Integer::intValue).toArray();
+        this.scores = new float[BLOCK];
+    }
+
+    @Benchmark
+    public float scalarPair() {
+        return this.scalar.dot(this.query, 0, this.vectors, 0, this.dimensions);
+    }
+
+    @Benchmark
+    public float simdPair() {
+        return this.simd.dot(this.query, 0, this.vectors, 0, this.dimensions);
+    }
+
+    @Benchmark
+    public float[] scalarQuery() {
+        this.scalar.dotBlock(this.query, this.vectors, this.ordinals, BLOCK, this.dimensions, this.scores);
+        return this.scores;
+    }
+
+    @Benchmark
+    public float[] simdQuery() {
+        this.simd.dotBlock(this.query, this.vectors, this.ordinals, BLOCK, this.dimensions, this.scores);
+        return this.scores;
+    }
+
+    private static float[] randomVector(Random random, int dimensions) {
+        float[] vector = new float[dimensions];
+        for (int i = 0; i < dimensions; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+
+}
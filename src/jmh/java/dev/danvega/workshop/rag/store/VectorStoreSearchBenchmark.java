@@ -0,0 +1,78 @@
+package dev.danvega.workshop.rag.store;
+
+import dev.danvega.workshop.BenchmarkModels;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.SimpleVectorStore;
+import org.springframework.ai.vectorstore.VectorStore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Top-4 {@code similaritySearch} at several corpus sizes, on Spring AI's {@link SimpleVectorStore} (a full scan) and
+ * on {@link HnswVectorStore} with its default settings. Both include embedding the query with an in-process model,
+ * which costs a few microseconds.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules=jdk.incubator.vector", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class VectorStoreSearchBenchmark {
+
+    private static final int QUERIES = 64;
+
+    @Param({"1000", "10000", "50000"})
+    int corpusSize;
+
+    @Param({"simple", "hnsw"})
+    String store;
+
+    @Param({"768"})
+    int dimensions;
+
+    private VectorStore vectorStore;
+    private List<SearchRequest> requests;
+    private int next;
+
+    @Setup
+    public void setup() {
+        EmbeddingModel embeddingModel = BenchmarkModels.embeddingModel(this.dimensions);
+        this.vectorStore = this.store.equals("hnsw")
+                ? HnswVectorStore.builder(embeddingModel).build()
+                : SimpleVectorStore.builder(embeddingModel).build();
+        List<Document> documents = new ArrayList<>(this.corpusSize);
+        for (int i = 0; i < this.corpusSize; i++) {
+            documents.add(new Document("document " + i));
+        }
+        for (int from = 0; from < documents.size(); from += 1000) {
+            this.vectorStore.add(documents.subList(from, Math.min(documents.size(), from + 1000)));
+        }
+        this.requests = new ArrayList<>(QUERIES);
+        for (int i = 0; i < QUERIES; i++) {
+            this.requests.add(SearchRequest.builder().query("query " + i).topK(4).build());
+        }
+    }
+
+    @Benchmark
+    public List<Document> similaritySearch() {
+        SearchRequest request = this.requests.get(this.next++ & (QUERIES - 1));
+        return this.vectorStore.similaritySearch(request);
+    }
+
+}
@@ -0,0 +1,73 @@
+package dev.danvega.workshop.tools;
+
+import dev.danvega.workshop.tools.action.TaskManagementTools;
+import dev.danvega.workshop.tools.weather.WeatherTools;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ai.model.tool.DefaultToolCallingChatOptions;
+import org.springframework.ai.model.tool.ToolCallingManager;
+import org.springframework.ai.support.ToolCallbacks;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.definition.ToolDefinition;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.client.RestClient;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turning {@code @Tool} objects into callbacks, which {@code .tools(...)} does on every request, and resolving the
+ * tool definitions sent to the model from callbacks that already exist.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ToolResolutionBenchmark {
+
+    private TaskManagementTools taskManagementTools;
+    private WeatherTools weatherTools;
+    private ToolCallingManager toolCallingManager;
+    private DefaultToolCallingChatOptions options;
+
+    @Setup
+    public void setup() {
+        this.taskManagementTools = new TaskManagementTools();
+        this.weatherTools = new WeatherTools(RestClient.builder(), "https://api.weather.gov", new BigDecimal("0.02"),
+                Duration.ofDays(7), DataSize.ofMegabytes(8), Duration.ofSeconds(10), 8, Duration.ofSeconds(10),
+                new StaticListableBeanFactory().getBeanProvider(MeterRegistry.class));
+        this.toolCallingManager = ToolCallingManager.builder().build();
+        this.options = new DefaultToolCallingChatOptions();
+        this.options.setToolCallbacks(List.of(ToolCallbacks.from(this.taskManagementTools, this.weatherTools)));
+    }
+
+    @Benchmark
+    public ToolCallback[] taskManagementCallbacks() {
+        return ToolCallbacks.from(this.taskManagementTools);
+    }
+
+    @Benchmark
+    public ToolCallback[] weatherCallbacks() {
+        return ToolCallbacks.from(this.weatherTools);
+    }
+
+    @Benchmark
+    public List<ToolDefinition> resolveDefinitions() {
+        return this.toolCallingManager.resolveToolDefinitions(this.options);
+    }
+
+}
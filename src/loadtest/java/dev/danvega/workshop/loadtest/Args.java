@@ -0,0 +1,61 @@
+package dev.danvega.workshop.loadtest;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@code --name value} command line options; a name may repeat.
+ */
+final class Args {
+
+    private final Map<String, List<String>> values = new HashMap<>();
+
+    Args(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 == args.length) {
+                throw new IllegalArgumentException("Expected --name value, got: " + args[i]);
+            }
+            this.values.computeIfAbsent(args[i].substring(2), name -> new ArrayList<>()).add(args[++i]);
+        }
+    }
+
+    String get(String name, String defaultValue) {
+        List<String> values = this.values.get(name);
+        return values == null ? defaultValue : values.get(values.size() - 1);
+    }
+
+    List<String> all(String name, List<String> defaultValues) {
+        return this.values.getOrDefault(name, defaultValues);
+    }
+
+    int getInt(String name, int defaultValue) {
+        return Integer.parseInt(get(name, String.valueOf(defaultValue)));
+    }
+
+    /**
+     * Durations like {@code 30s}, {@code 2m} or {@code 500ms}.
+     */
+    Duration getDuration(String name, Duration defaultValue) {
+        String value = get(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (value.endsWith("ms")) {
+            return Duration.ofMillis(Long.parseLong(value.substring(0, value.length() - 2)));
+        }
+        long amount = Long.parseLong(value.substring(0, value.length() - 1));
+        return switch (value.charAt(value.length() - 1)) {
+            case 's' -> Duration.ofSeconds(amount);
+            case 'm' -> Duration.ofMinutes(amount);
+            default -> throw new IllegalArgumentException("Unknown duration: " + value);
+        };
+    }
+
+    Latency getLatency(String name, String defaultValue) {
+        return Latency.parse(get(name, defaultValue));
+    }
+
+}
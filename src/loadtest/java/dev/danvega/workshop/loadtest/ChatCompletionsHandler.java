@@ -0,0 +1,207 @@
+package dev.danvega.workshop.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * {@code POST /v1/chat/completions}, blocking or as server-sent events.
+ * <p>
+ * The answer is {@code completionTokens} words of filler text, unless the prompt carries a JSON schema (in
+ * {@code response_format} or in the format instructions Spring AI appends to the user message), in which case it is
+ * an instance of that schema. When the request offers tools and no tool result has come back yet, the answer is a
+ * call to the first tool with sample arguments, so tool-calling endpoints make their usual second round trip.
+ * <p>
+ * The first token arrives after a sample of {@code timeToFirstToken}; the rest follow at {@code tokensPerSecond}.
+ */
+class ChatCompletionsHandler implements HttpHandler {
+
+    private static final Pattern FORMAT_SCHEMA = Pattern.compile("JSON Schema.*?```(?:json)?\\s*(\\{.*})\\s*```", Pattern.DOTALL);
+
+    private static final String[] WORDS = {"the", "model", "answers", "with", "a", "stub", "response", "for", "load",
+            "testing", "spring", "ai", "workshop", "endpoints", "offline"};
+
+    private final ObjectMapper objectMapper;
+    private final Latency timeToFirstToken;
+    private final int tokensPerSecond;
+    private final int completionTokens;
+    private final boolean toolCalls;
+
+    ChatCompletionsHandler(ObjectMapper objectMapper, Latency timeToFirstToken, int tokensPerSecond,
+            int completionTokens, boolean toolCalls) {
+        this.objectMapper = objectMapper;
+        this.timeToFirstToken = timeToFirstToken;
+        this.tokensPerSecond = tokensPerSecond;
+        this.completionTokens = completionTokens;
+        this.toolCalls = toolCalls;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        JsonNode request = this.objectMapper.readTree(exchange.getRequestBody());
+        String model = request.path("model").asText("gpt-4o");
+        int promptTokens = estimateTokens(request.path("messages").toString());
+        Answer answer = answer(request);
+
+        if (request.path("stream").asBoolean()) {
+            stream(exchange, model, promptTokens, answer, request.path("stream_options").path("include_usage").asBoolean());
+        }
+        else {
+            Latency.sleep(this.timeToFirstToken.sampleMillis() + tokenMillis(answer.tokens().size() - 1));
+            ObjectNode message = this.objectMapper.createObjectNode().put("role", "assistant");
+            if (answer.toolCall() != null) {
+                message.putNull("content");
+                message.putArray("tool_calls").add(answer.toolCall());
+            }
+            else {
+                message.put("content", String.join("", answer.tokens()));
+            }
+            ObjectNode completion = completion("chat.completion", model);
+            completion.putArray("choices").addObject()
+                    .put("index", 0)
+                    .<ObjectNode>set("message", message)
+                    .put("finish_reason", answer.finishReason());
+            completion.set("usage", usage(promptTokens, answer.completionTokens()));
+            OpenAiStubServer.sendJson(exchange, this.objectMapper, completion);
+        }
+    }
+
+    private void stream(HttpExchange exchange, String model, int promptTokens, Answer answer, boolean includeUsage)
+            throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream body = exchange.getResponseBody()) {
+            this.timeToFirstToken.sleep();
+            if (answer.toolCall() != null) {
+                ObjectNode toolCall = answer.toolCall().deepCopy().put("index", 0);
+                send(body, chunk(model, delta().<ObjectNode>set("tool_calls", this.objectMapper.createArrayNode().add(toolCall)), null));
+            }
+            else {
+                for (int i = 0; i < answer.tokens().size(); i++) {
+                    if (i > 0) {
+                        Latency.sleep(tokenMillis(1));
+                    }
+                    send(body, chunk(model, delta().put("content", answer.tokens().get(i)), null));
+                }
+            }
+            send(body, chunk(model, this.objectMapper.createObjectNode(), answer.finishReason()));
+            if (includeUsage) {
+                ObjectNode usage = completion("chat.completion.chunk", model);
+                usage.putArray("choices");
+                usage.set("usage", usage(promptTokens, answer.completionTokens()));
+                send(body, usage);
+            }
+            body.write("data: [DONE]\n\n".getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private Answer answer(JsonNode request) throws IOException {
+        JsonNode messages = request.path("messages");
+        JsonNode tools = request.path("tools");
+        JsonNode last = messages.isArray() && !messages.isEmpty() ? messages.get(messages.size() - 1) : null;
+        if (this.toolCalls && tools.isArray() && !tools.isEmpty() && last != null && !"tool".equals(last.path("role").asText())) {
+            JsonNode function = tools.get(0).path("function");
+            JsonNode arguments = function.has("parameters")
+                    ? new JsonSchemaSampler(function.get("parameters")).sample()
+                    : this.objectMapper.createObjectNode();
+            ObjectNode toolCall = this.objectMapper.createObjectNode()
+                    .put("id", "call_" + UUID.randomUUID().toString().replace("-", ""))
+                    .put("type", "function");
+            toolCall.putObject("function")
+                    .put("name", function.path("name").asText())
+                    .put("arguments", this.objectMapper.writeValueAsString(arguments));
+            return new Answer(List.of(), toolCall, "tool_calls");
+        }
+        JsonNode schema = schema(request, last);
+        if (schema != null) {
+            String json = this.objectMapper.writeValueAsString(new JsonSchemaSampler(schema).sample());
+            List<String> tokens = new ArrayList<>();
+            for (int i = 0; i < json.length(); i += 4) {
+                tokens.add(json.substring(i, Math.min(json.length(), i + 4)));
+            }
+            return new Answer(tokens, null, "stop");
+        }
+        List<String> tokens = new ArrayList<>(this.completionTokens);
+        for (int i = 0; i < this.completionTokens; i++) {
+            tokens.add((i == 0 ? "" : " ") + WORDS[i % WORDS.length]);
+        }
+        return new Answer(tokens, null, "stop");
+    }
+
+    private JsonNode schema(JsonNode request, JsonNode last) throws IOException {
+        JsonNode responseFormat = request.path("response_format").path("json_schema").path("schema");
+        if (!responseFormat.isMissingNode()) {
+            return responseFormat;
+        }
+        if (last == null || !"user".equals(last.path("role").asText())) {
+            return null;
+        }
+        JsonNode content = last.path("content");
+        String text = content.isArray() ? content.findValuesAsText("text").toString() : content.asText();
+        Matcher matcher = FORMAT_SCHEMA.matcher(text);
+        return matcher.find() ? this.objectMapper.readTree(matcher.group(1)) : null;
+    }
+
+    private ObjectNode completion(String object, String model) {
+        return this.objectMapper.createObjectNode()
+                .put("id", "chatcmpl-stub")
+                .put("object", object)
+                .put("created", System.currentTimeMillis() / 1000)
+                .put("model", model);
+    }
+
+    private ObjectNode chunk(String model, ObjectNode delta, String finishReason) {
+        ObjectNode chunk = completion("chat.completion.chunk", model);
+        ArrayNode choices = chunk.putArray("choices");
+        choices.addObject().put("index", 0).<ObjectNode>set("delta", delta).put("finish_reason", finishReason);
+        return chunk;
+    }
+
+    private ObjectNode delta() {
+        return this.objectMapper.createObjectNode().put("role", "assistant");
+    }
+
+    private ObjectNode usage(int promptTokens, int completionTokens) {
+        return this.objectMapper.createObjectNode()
+                .put("prompt_tokens", promptTokens)
+                .put("completion_tokens", completionTokens)
+                .put("total_tokens", promptTokens + completionTokens);
+    }
+
+    private void send(OutputStream body, JsonNode event) throws IOException {
+        body.write(("data: " + this.objectMapper.writeValueAsString(event) + "\n\n").getBytes(StandardCharsets.UTF_8));
+        body.flush();
+    }
+
+    private long tokenMillis(int tokens) {
+        return this.tokensPerSecond <= 0 || tokens <= 0 ? 0 : tokens * 1000L / this.tokensPerSecond;
+    }
+
+    /**
+     * Roughly four characters per token, as for English text.
+     */
+    static int estimateTokens(String text) {
+        return Math.max(1, text.length() / 4);
+    }
+
+    private record Answer(List<String> tokens, ObjectNode toolCall, String finishReason) {
+
+        int completionTokens() {
+            return this.toolCall != null ? estimateTokens(this.toolCall.toString()) : this.tokens.size();
+        }
+
+    }
+
+}
@@ -0,0 +1,95 @@
+package dev.danvega.workshop.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Builds a small instance that satisfies a JSON schema, so structured output requests ({@code .entity(...)}) get a
+ * response their converter can parse. Covers what Spring AI's schema generator emits: objects, arrays, enums,
+ * scalars and local {@code $ref}s.
+ */
+final class JsonSchemaSampler {
+
+    private static final JsonNodeFactory nodes = JsonNodeFactory.instance;
+    private static final int ARRAY_ITEMS = 3;
+    private static final int MAX_DEPTH = 8;
+
+    private final JsonNode root;
+
+    JsonSchemaSampler(JsonNode root) {
+        this.root = root;
+    }
+
+    JsonNode sample() {
+        return sample(this.root, "value", 0);
+    }
+
+    private JsonNode sample(JsonNode schema, String name, int depth) {
+        if (schema.has("$ref")) {
+            return sample(resolve(schema.get("$ref").asText()), name, depth);
+        }
+        if (schema.has("enum")) {
+            return schema.get("enum").get(0);
+        }
+        if (schema.has("const")) {
+            return schema.get("const");
+        }
+        if (schema.has("anyOf") || schema.has("oneOf")) {
+            return sample((schema.has("anyOf") ? schema.get("anyOf") : schema.get("oneOf")).get(0), name, depth);
+        }
+        String type = type(schema);
+        if (depth > MAX_DEPTH) {
+            return nodes.nullNode();
+        }
+        return switch (type) {
+            case "object" -> {
+                ObjectNode object = nodes.objectNode();
+                Iterator<Map.Entry<String, JsonNode>> properties = schema.path("properties").fields();
+                while (properties.hasNext()) {
+                    Map.Entry<String, JsonNode> property = properties.next();
+                    object.set(property.getKey(), sample(property.getValue(), property.getKey(), depth + 1));
+                }
+                yield object;
+            }
+            case "array" -> {
+                ArrayNode array = nodes.arrayNode();
+                for (int i = 0; i < ARRAY_ITEMS; i++) {
+                    array.add(sample(schema.path("items"), name, depth + 1));
+                }
+                yield array;
+            }
+            case "integer" -> nodes.numberNode(1);
+            case "number" -> nodes.numberNode(1.5);
+            case "boolean" -> nodes.booleanNode(true);
+            case "null" -> nodes.nullNode();
+            default -> nodes.textNode("stub " + name);
+        };
+    }
+
+    private static String type(JsonNode schema) {
+        JsonNode type = schema.path("type");
+        if (type.isArray()) {
+            // e.g. ["string", "null"]: the first non-null type
+            for (JsonNode candidate : type) {
+                if (!"null".equals(candidate.asText())) {
+                    return candidate.asText();
+                }
+            }
+            return "null";
+        }
+        return type.isMissingNode() ? (schema.has("properties") ? "object" : "string") : type.asText();
+    }
+
+    private JsonNode resolve(String ref) {
+        if (!ref.startsWith("#")) {
+            throw new IllegalArgumentException("Only local references are supported: " + ref);
+        }
+        return this.root.at(ref.substring(1));
+    }
+
+}
@@ -0,0 +1,86 @@
+package dev.danvega.workshop.loadtest;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A latency distribution, parsed from {@code fixed:200}, {@code uniform:100-500} or {@code lognormal:300,0.5}
+ * (median and sigma of the underlying normal). Values are milliseconds.
+ */
+sealed interface Latency {
+
+    Latency NONE = new Fixed(0);
+
+    long sampleMillis();
+
+    default void sleep() {
+        sleep(sampleMillis());
+    }
+
+    static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(Duration.ofMillis(millis));
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    static Latency parse(String spec) {
+        int colon = spec.indexOf(':');
+        String kind = colon < 0 ? "fixed" : spec.substring(0, colon);
+        String value = spec.substring(colon + 1);
+        return switch (kind) {
+            case "fixed" -> new Fixed(Long.parseLong(value));
+            case "uniform" -> {
+                String[] range = value.split("-");
+                yield new Uniform(Long.parseLong(range[0]), Long.parseLong(range[1]));
+            }
+            case "lognormal" -> {
+                String[] parameters = value.split(",");
+                yield new LogNormal(Double.parseDouble(parameters[0]), Double.parseDouble(parameters[1]));
+            }
+            default -> throw new IllegalArgumentException("Unknown latency distribution: " + spec);
+        };
+    }
+
+    record Fixed(long millis) implements Latency {
+
+        @Override
+        public long sampleMillis() {
+            return this.millis;
+        }
+
+    }
+
+    record Uniform(long min, long max) implements Latency {
+
+        public Uniform {
+            if (min > max) {
+                throw new IllegalArgumentException("min must not exceed max");
+            }
+        }
+
+        @Override
+        public long sampleMillis() {
+            return ThreadLocalRandom.current().nextLong(this.min, this.max + 1);
+        }
+
+    }
+
+    /**
+     * Long-tailed like real provider latency: most samples near the median, a few far above it.
+     */
+    record LogNormal(double median, double sigma) implements Latency {
+
+        @Override
+        public long sampleMillis() {
+            return Math.round(this.median * Math.exp(this.sigma * ThreadLocalRandom.current().nextGaussian()));
+        }
+
+    }
+
+}
@@ -0,0 +1,198 @@
+package dev.danvega.workshop.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Closed-loop load against the application's endpoints: {@code concurrency} simulated users each send a request,
+ * wait for the whole response and send the next, cycling through the endpoints. Each concurrency step runs with the
+ * users on virtual threads and on a pool of platform threads, and prints throughput, p50/p99 latency and time to
+ * first byte per endpoint; the step where throughput stops rising and p99 climbs is the saturation point.
+ * <p>
+ * Options:
+ * <ul>
+ * <li>{@code --target} ({@code http://localhost:8080})</li>
+ * <li>{@code --endpoint}, repeatable path and query ({@code /java}, {@code /stream}, {@code /jokes-by-topic?topic=cats},
+ * {@code /vacation/structured})</li>
+ * <li>{@code --concurrency}, comma separated steps ({@code 8,32,128,512})</li>
+ * <li>{@code --threads} {@code virtual}, {@code platform} or {@code both} ({@code both})</li>
+ * <li>{@code --duration} per step ({@code 30s}), {@code --warmup} before each step ({@code 5s}),
+ * {@code --timeout} per request ({@code 60s})</li>
+ * </ul>
+ * For {@code text/event-stream} endpoints the time to first byte is the time to the first event.
+ */
+public final class LoadDriver {
+
+    private static final List<String> DEFAULT_ENDPOINTS = List.of("/java", "/stream", "/jokes-by-topic?topic=cats",
+            "/vacation/structured");
+
+    private final HttpClient client;
+    private final String target;
+    private final List<String> endpoints;
+    private final Duration timeout;
+
+    LoadDriver(HttpClient client, String target, List<String> endpoints, Duration timeout) {
+        this.client = client;
+        this.target = target;
+        this.endpoints = endpoints;
+        this.timeout = timeout;
+    }
+
+    public static void main(String[] arguments) throws InterruptedException {
+        Args args = new Args(arguments);
+        Duration duration = args.getDuration("duration", Duration.ofSeconds(30));
+        Duration warmup = args.getDuration("warmup", Duration.ofSeconds(5));
+        String threads = args.get("threads", "both");
+        List<Integer> steps = Arrays.stream(args.get("concurrency", "8,32,128,512").split(","))
+                .map(String::trim)
+                .map(Integer::parseInt)
+                .toList();
+        try (HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build()) {
+            LoadDriver driver = new LoadDriver(client, args.get("target", "http://localhost:8080"),
+                    args.all("endpoint", DEFAULT_ENDPOINTS), args.getDuration("timeout", Duration.ofSeconds(60)));
+            for (int concurrency : steps) {
+                for (boolean virtual : List.of(true, false)) {
+                    if (threads.equals("both") || threads.equals(virtual ? "virtual" : "platform")) {
+                        driver.run(virtual, concurrency, warmup);
+                        Map<String, Stats> stats = driver.run(virtual, concurrency, duration);
+                        print(virtual, concurrency, duration, stats);
+                    }
+                }
+            }
+        }
+    }
+
+    Map<String, Stats> run(boolean virtual, int concurrency, Duration duration) throws InterruptedException {
+        Map<String, Stats> stats = new LinkedHashMap<>();
+        this.endpoints.forEach(endpoint -> stats.put(endpoint, new Stats()));
+        long deadline = System.nanoTime() + duration.toNanos();
+        ExecutorService users = virtual
+                ? Executors.newVirtualThreadPerTaskExecutor()
+                : Executors.newFixedThreadPool(concurrency, Thread.ofPlatform().name("load-user-", 0).factory());
+        try (users) {
+            for (int user = 0; user < concurrency; user++) {
+                int first = user;
+                users.execute(() -> {
+                    for (int i = first; System.nanoTime() < deadline; i++) {
+                        String endpoint = this.endpoints.get(i % this.endpoints.size());
+                        exchange(endpoint, stats.get(endpoint));
+                    }
+                });
+            }
+            users.shutdown();
+            users.awaitTermination(duration.toNanos() + this.timeout.toNanos(), TimeUnit.NANOSECONDS);
+        }
+        return stats;
+    }
+
+    private void exchange(String endpoint, Stats stats) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(this.target + endpoint)).timeout(this.timeout).GET().build();
+        long start = System.nanoTime();
+        try {
+            HttpResponse<InputStream> response = this.client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            long firstByte;
+            try (InputStream body = response.body()) {
+                body.read();
+                firstByte = System.nanoTime() - start;
+                body.transferTo(OutputStream.nullOutputStream());
+            }
+            if (response.statusCode() >= 400) {
+                stats.error();
+            }
+            else {
+                stats.record(System.nanoTime() - start, firstByte);
+            }
+        }
+        catch (IOException ex) {
+            stats.error();
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void print(boolean virtual, int concurrency, Duration duration, Map<String, Stats> stats) {
+        System.out.printf("%nthreads=%s concurrency=%d duration=%ds%n", virtual ? "virtual" : "platform", concurrency,
+                duration.toSeconds());
+        System.out.printf("%-40s %9s %7s %9s %9s %9s %9s %9s%n", "endpoint", "requests", "errors", "req/s", "p50 ms",
+                "p99 ms", "ttfb p50", "ttfb p99");
+        Stats total = new Stats();
+        stats.forEach((endpoint, endpointStats) -> {
+            print(endpoint, endpointStats, duration);
+            total.addAll(endpointStats);
+        });
+        print("total", total, duration);
+    }
+
+    private static void print(String endpoint, Stats stats, Duration duration) {
+        long[] latencies = stats.latencies();
+        long[] firstBytes = stats.firstBytes();
+        System.out.printf("%-40s %9d %7d %9.1f %9.1f %9.1f %9.1f %9.1f%n", endpoint, latencies.length, stats.errors(),
+                latencies.length / (duration.toMillis() / 1000.0), millis(latencies, 0.50), millis(latencies, 0.99),
+                millis(firstBytes, 0.50), millis(firstBytes, 0.99));
+    }
+
+    private static double millis(long[] sortedNanos, double quantile) {
+        if (sortedNanos.length == 0) {
+            return Double.NaN;
+        }
+        int index = (int) Math.ceil(quantile * sortedNanos.length) - 1;
+        return sortedNanos[Math.max(0, index)] / 1_000_000.0;
+    }
+
+    /**
+     * Latencies of one endpoint in nanoseconds; kept in full so percentiles are exact.
+     */
+    static final class Stats {
+
+        private final List<long[]> samples = new ArrayList<>();
+        private long errors;
+
+        synchronized void record(long latency, long firstByte) {
+            this.samples.add(new long[] {latency, firstByte});
+        }
+
+        synchronized void error() {
+            this.errors++;
+        }
+
+        synchronized long errors() {
+            return this.errors;
+        }
+
+        synchronized void addAll(Stats other) {
+            synchronized (other) {
+                this.samples.addAll(other.samples);
+                this.errors += other.errors;
+            }
+        }
+
+        synchronized long[] latencies() {
+            return this.samples.stream().mapToLong(sample -> sample[0]).sorted().toArray();
+        }
+
+        synchronized long[] firstBytes() {
+            return this.samples.stream().mapToLong(sample -> sample[1]).sorted().toArray();
+        }
+
+    }
+
+}
@@ -0,0 +1,179 @@
+package dev.danvega.workshop.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Executors;
+
+/**
+ * An offline stand-in for the OpenAI API, so the application's own overhead can be measured without network or
+ * provider variance. Run the application against it with
+ * <pre>
+ * spring.ai.openai.base-url=http://localhost:9090
+ * spring.ai.openai.api-key=stub
+ * </pre>
+ * Serves chat completions (see {@link ChatCompletionsHandler}), embeddings, image generation and speech. Every
+ * request runs on its own virtual thread, so simulated latency costs the stub nothing.
+ * <p>
+ * Options (latencies are {@link Latency} specs in milliseconds):
+ * <ul>
+ * <li>{@code --port} (9090)</li>
+ * <li>{@code --chat-latency} time to first token ({@code lognormal:400,0.4}), {@code --tokens-per-second} (60),
+ * {@code --completion-tokens} (120), {@code --tool-calls} ({@code true})</li>
+ * <li>{@code --embedding-latency} ({@code lognormal:60,0.3}), {@code --embedding-dimensions} (1536)</li>
+ * <li>{@code --image-latency} ({@code lognormal:8000,0.3}), {@code --speech-latency} ({@code lognormal:1500,0.3})</li>
+ * </ul>
+ * With {@code --tool-calls true} the application really runs the tools it is asked to call; tools that reach out
+ * to other services still do.
+ */
+public final class OpenAiStubServer {
+
+    // a 1x1 transparent PNG
+    private static final String PIXEL = "iVBORw0KGgoAAAANSUhEUgAAAAEAAAABCAQAAAC1HAwCAAAAC0lEQVR42mNkYAAAAAYAAjCB0C8AAAAASUVORK5CYII=";
+
+    private final HttpServer server;
+
+    OpenAiStubServer(Args args) throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        int port = args.getInt("port", 9090);
+        this.server = HttpServer.create(new InetSocketAddress(port), 1024);
+        this.server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        this.server.createContext("/v1/chat/completions", post(new ChatCompletionsHandler(objectMapper,
+                args.getLatency("chat-latency", "lognormal:400,0.4"),
+                args.getInt("tokens-per-second", 60),
+                args.getInt("completion-tokens", 120),
+                Boolean.parseBoolean(args.get("tool-calls", "true")))));
+        this.server.createContext("/v1/embeddings", post(embeddings(objectMapper,
+                args.getLatency("embedding-latency", "lognormal:60,0.3"), args.getInt("embedding-dimensions", 1536))));
+        this.server.createContext("/v1/images/generations", post(images(objectMapper,
+                args.getLatency("image-latency", "lognormal:8000,0.3"), port)));
+        this.server.createContext("/v1/audio/speech", post(speech(objectMapper,
+                args.getLatency("speech-latency", "lognormal:1500,0.3"))));
+        this.server.createContext("/stub.png", exchange -> send(exchange, 200, "image/png", Base64.getDecoder().decode(PIXEL)));
+    }
+
+    public static void main(String[] args) throws IOException {
+        OpenAiStubServer stub = new OpenAiStubServer(new Args(args));
+        stub.server.start();
+        System.out.println("OpenAI stub listening on http://localhost:" + stub.server.getAddress().getPort());
+    }
+
+    /**
+     * One deterministic unit vector per input text, so identical texts embed identically and caches behave as they
+     * would against the real API.
+     */
+    private static HttpHandler embeddings(ObjectMapper objectMapper, Latency latency, int dimensions) {
+        return exchange -> {
+            JsonNode request = objectMapper.readTree(exchange.getRequestBody());
+            List<String> inputs = new ArrayList<>();
+            JsonNode input = request.path("input");
+            if (input.isArray()) {
+                input.forEach(text -> inputs.add(text.asText()));
+            }
+            else {
+                inputs.add(input.asText());
+            }
+            latency.sleep();
+            ObjectNode response = objectMapper.createObjectNode().put("object", "list")
+                    .put("model", request.path("model").asText("text-embedding-ada-002"));
+            ArrayNode data = response.putArray("data");
+            int tokens = 0;
+            for (int i = 0; i < inputs.size(); i++) {
+                ArrayNode embedding = data.addObject().put("object", "embedding").put("index", i).putArray("embedding");
+                for (float value : embed(inputs.get(i), dimensions)) {
+                    embedding.add(value);
+                }
+                tokens += ChatCompletionsHandler.estimateTokens(inputs.get(i));
+            }
+            response.putObject("usage").put("prompt_tokens", tokens).put("total_tokens", tokens);
+            sendJson(exchange, objectMapper, response);
+        };
+    }
+
+    private static HttpHandler images(ObjectMapper objectMapper, Latency latency, int port) {
+        return exchange -> {
+            JsonNode request = objectMapper.readTree(exchange.getRequestBody());
+            latency.sleep();
+            ObjectNode response = objectMapper.createObjectNode().put("created", System.currentTimeMillis() / 1000);
+            ArrayNode data = response.putArray("data");
+            for (int i = 0; i < request.path("n").asInt(1); i++) {
+                ObjectNode image = data.addObject().put("revised_prompt", request.path("prompt").asText());
+                if ("b64_json".equals(request.path("response_format").asText())) {
+                    image.put("b64_json", PIXEL);
+                }
+                else {
+                    image.put("url", "http://localhost:" + port + "/stub.png");
+                }
+            }
+            sendJson(exchange, objectMapper, response);
+        };
+    }
+
+    /**
+     * Silence, sized like real speech at about 16 kB per second and 15 characters per second.
+     */
+    private static HttpHandler speech(ObjectMapper objectMapper, Latency latency) {
+        return exchange -> {
+            JsonNode request = objectMapper.readTree(exchange.getRequestBody());
+            latency.sleep();
+            int seconds = Math.max(1, request.path("input").asText().length() / 15);
+            send(exchange, 200, "audio/mpeg", new byte[seconds * 16 * 1024]);
+        };
+    }
+
+    private static float[] embed(String text, int dimensions) {
+        SplittableRandom random = new SplittableRandom(text.hashCode());
+        float[] vector = new float[dimensions];
+        double norm = 0;
+        for (int i = 0; i < dimensions; i++) {
+            vector[i] = (float) (random.nextDouble() * 2 - 1);
+            norm += vector[i] * vector[i];
+        }
+        float scale = (float) (1 / Math.sqrt(norm));
+        for (int i = 0; i < dimensions; i++) {
+            vector[i] *= scale;
+        }
+        return vector;
+    }
+
+    private static HttpHandler post(HttpHandler handler) {
+        return exchange -> {
+            try (exchange) {
+                if (!"POST".equals(exchange.getRequestMethod())) {
+                    send(exchange, 405, "text/plain", new byte[0]);
+                    return;
+                }
+                handler.handle(exchange);
+            }
+            catch (RuntimeException ex) {
+                send(exchange, 500, "text/plain", String.valueOf(ex).getBytes(StandardCharsets.UTF_8));
+            }
+        };
+    }
+
+    static void sendJson(HttpExchange exchange, ObjectMapper objectMapper, JsonNode body) throws IOException {
+        send(exchange, 200, "application/json", objectMapper.writeValueAsBytes(body));
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+}
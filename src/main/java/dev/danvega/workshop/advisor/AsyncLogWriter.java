@@ -0,0 +1,135 @@
+package dev.danvega.workshop.advisor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.event.Level;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Moves log formatting and I/O off the request thread. Callers {@link #submit} a record whose message is only
+ * rendered on the writer thread; the record goes into a bounded buffer and is dropped, never waited for, when the
+ * buffer is full.
+ * <p>
+ * One daemon thread drains the buffer in batches. Dropped records are counted and reported by the writer itself
+ * once it catches up.
+ */
+public class AsyncLogWriter implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(AsyncLogWriter.class);
+
+    private static final int BATCH = 64;
+
+    private static volatile AsyncLogWriter shared;
+
+    private final BlockingQueue<LogRecord> buffer;
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread thread;
+    private volatile boolean closed;
+    private long droppedReported;
+
+    /**
+     * @param capacity records buffered before new ones are dropped
+     */
+    public AsyncLogWriter(int capacity) {
+        Assert.isTrue(capacity > 0, "capacity must be positive");
+        this.buffer = new ArrayBlockingQueue<>(capacity);
+        this.thread = Thread.ofPlatform().name("chat-log-writer").daemon().start(this::drain);
+    }
+
+    /**
+     * Process-wide writer used by advisors that are not given one, buffering up to 8192 records.
+     */
+    public static AsyncLogWriter shared() {
+        AsyncLogWriter writer = shared;
+        if (writer == null) {
+            synchronized (AsyncLogWriter.class) {
+                writer = shared;
+                if (writer == null) {
+                    writer = new AsyncLogWriter(8192);
+                    shared = writer;
+                }
+            }
+        }
+        return writer;
+    }
+
+    /**
+     * Queues a record without blocking. The caller checks the level first, so a disabled logger costs nothing.
+     *
+     * @return {@code false} if the buffer was full and the record was dropped
+     */
+    public boolean submit(Logger logger, Level level, String prefix, Supplier<String> message) {
+        if (this.closed || !this.buffer.offer(new LogRecord(logger, level, prefix, message))) {
+            this.dropped.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    public long written() {
+        return this.written.get();
+    }
+
+    public long dropped() {
+        return this.dropped.get();
+    }
+
+    /**
+     * Stops accepting records and waits briefly for the ones already queued to be written.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        this.closed = true;
+        this.thread.interrupt();
+        this.thread.join(1000);
+    }
+
+    private void drain() {
+        List<LogRecord> batch = new ArrayList<>(BATCH);
+        while (true) {
+            try {
+                batch.add(this.buffer.take());
+            }
+            catch (InterruptedException ex) {
+                if (!this.closed) {
+                    continue;
+                }
+                this.buffer.drainTo(batch);
+                write(batch);
+                return;
+            }
+            this.buffer.drainTo(batch, BATCH - 1);
+            write(batch);
+            batch.clear();
+        }
+    }
+
+    private void write(List<LogRecord> batch) {
+        for (LogRecord record : batch) {
+            try {
+                record.logger().atLevel(record.level()).log("{} {}", record.prefix(), record.message().get());
+                this.written.incrementAndGet();
+            }
+            catch (RuntimeException ex) {
+                log.warn("Could not render log record for {}", record.logger().getName(), ex);
+            }
+        }
+        long dropped = this.dropped.get();
+        if (dropped != this.droppedReported) {
+            log.warn("Log buffer full, dropped {} records so far", dropped);
+            this.droppedReported = dropped;
+        }
+    }
+
+    private record LogRecord(Logger logger, Level level, String prefix, Supplier<String> message) {
+    }
+
+}
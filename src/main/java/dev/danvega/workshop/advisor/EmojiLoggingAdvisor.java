@@ -2,6 +2,7 @@ package dev.danvega.workshop.advisor;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.event.Level;
 import org.springframework.ai.chat.client.ChatClientMessageAggregator;
 import org.springframework.ai.chat.client.ChatClientRequest;
 import org.springframework.ai.chat.client.ChatClientResponse;
@@ -12,11 +13,22 @@ import org.springframework.ai.chat.client.advisor.api.StreamAdvisorChain;
 import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.ai.model.ModelOptionsUtils;
 import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
 import reactor.core.publisher.Flux;
 
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.function.Function;
 
-public class EmojiLoggingAdvisor implements CallAdvisor {
+/**
+ * Logs each request and its response at DEBUG, for both blocking and streaming calls. A streamed response is logged
+ * once, aggregated, when the stream completes.
+ * <p>
+ * Nothing is formatted on the request thread: when DEBUG is off the advisor costs a level check, and when it is on
+ * the request and response are handed to an {@link AsyncLogWriter}, which renders them on its own thread and drops
+ * records rather than block if it falls behind. {@code sampleRate} logs only that fraction of exchanges, and
+ * payloads longer than {@code maxPayloadLength} characters are cut.
+ */
+public class EmojiLoggingAdvisor implements CallAdvisor, StreamAdvisor {
 
     public static final Function<ChatClientRequest, String> DEFAULT_REQUEST_TO_STRING = ChatClientRequest::toString;
     public static final Function<ChatResponse, String> DEFAULT_RESPONSE_TO_STRING = ModelOptionsUtils::toJsonStringPrettyPrinter;
@@ -24,34 +36,79 @@ public class EmojiLoggingAdvisor implements CallAdvisor {
     private final Function<ChatClientRequest, String> requestToString;
     private final Function<ChatResponse, String> responseToString;
     private final int order;
+    private final double sampleRate;
+    private final int maxPayloadLength;
+    private final AsyncLogWriter writer;
 
     public EmojiLoggingAdvisor() {
-        this(DEFAULT_REQUEST_TO_STRING, DEFAULT_RESPONSE_TO_STRING, 0);
+        this(builder());
     }
 
     public EmojiLoggingAdvisor(int order) {
-        this(DEFAULT_REQUEST_TO_STRING, DEFAULT_RESPONSE_TO_STRING, order);
+        this(builder().order(order));
     }
 
     public EmojiLoggingAdvisor(@Nullable Function<ChatClientRequest, String> requestToString, @Nullable Function<ChatResponse, String> responseToString, int order) {
-        this.requestToString = requestToString != null ? requestToString : DEFAULT_REQUEST_TO_STRING;
-        this.responseToString = responseToString != null ? responseToString : DEFAULT_RESPONSE_TO_STRING;
-        this.order = order;
+        this(builder().requestToString(requestToString).responseToString(responseToString).order(order));
     }
 
+    private EmojiLoggingAdvisor(Builder builder) {
+        this.requestToString = builder.requestToString != null ? builder.requestToString : DEFAULT_REQUEST_TO_STRING;
+        this.responseToString = builder.responseToString != null ? builder.responseToString : DEFAULT_RESPONSE_TO_STRING;
+        this.order = builder.order;
+        this.sampleRate = builder.sampleRate;
+        this.maxPayloadLength = builder.maxPayloadLength;
+        this.writer = builder.writer != null ? builder.writer : AsyncLogWriter.shared();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
     public ChatClientResponse adviseCall(ChatClientRequest chatClientRequest, CallAdvisorChain callAdvisorChain) {
+        if (!sampled()) {
+            return callAdvisorChain.nextCall(chatClientRequest);
+        }
         this.logRequest(chatClientRequest);
+        long start = System.nanoTime();
         ChatClientResponse chatClientResponse = callAdvisorChain.nextCall(chatClientRequest);
-        this.logResponse(chatClientResponse);
+        this.logResponse(chatClientResponse, start);
         return chatClientResponse;
     }
 
+    @Override
+    public Flux<ChatClientResponse> adviseStream(ChatClientRequest chatClientRequest, StreamAdvisorChain streamAdvisorChain) {
+        if (!sampled()) {
+            return streamAdvisorChain.nextStream(chatClientRequest);
+        }
+        return Flux.defer(() -> {
+            this.logRequest(chatClientRequest);
+            long start = System.nanoTime();
+            return new ChatClientMessageAggregator().aggregateChatClientResponse(
+                    streamAdvisorChain.nextStream(chatClientRequest), aggregated -> this.logResponse(aggregated, start));
+        });
+    }
+
+    private boolean sampled() {
+        return logger.isDebugEnabled() && (this.sampleRate >= 1.0 || ThreadLocalRandom.current().nextDouble() < this.sampleRate);
+    }
+
     private void logRequest(ChatClientRequest request) {
-        logger.debug("\uD83E\uDD16 Request: {}", this.requestToString.apply(request));
+        this.writer.submit(logger, Level.DEBUG, "\uD83E\uDD16 Request:", () -> truncate(this.requestToString.apply(request)));
     }
 
-    private void logResponse(ChatClientResponse chatClientResponse) {
-        logger.debug("\uD83E\uDD16 Response: {}", this.responseToString.apply(chatClientResponse.chatResponse()));
+    private void logResponse(ChatClientResponse chatClientResponse, long startNanos) {
+        long millis = (System.nanoTime() - startNanos) / 1_000_000;
+        this.writer.submit(logger, Level.DEBUG, "\uD83E\uDD16 Response (" + millis + " ms):",
+                () -> truncate(this.responseToString.apply(chatClientResponse.chatResponse())));
+    }
+
+    private String truncate(String payload) {
+        if (payload == null || payload.length() <= this.maxPayloadLength) {
+            return payload;
+        }
+        return payload.substring(0, this.maxPayloadLength) + "… (" + (payload.length() - this.maxPayloadLength) + " more chars)";
     }
 
     public String getName() {
@@ -62,4 +119,63 @@ public class EmojiLoggingAdvisor implements CallAdvisor {
         return this.order;
     }
 
+    public static class Builder {
+
+        @Nullable
+        private Function<ChatClientRequest, String> requestToString;
+        @Nullable
+        private Function<ChatResponse, String> responseToString;
+        private int order;
+        private double sampleRate = 1.0;
+        private int maxPayloadLength = 4000;
+        @Nullable
+        private AsyncLogWriter writer;
+
+        private Builder() {
+        }
+
+        public Builder requestToString(@Nullable Function<ChatClientRequest, String> requestToString) {
+            this.requestToString = requestToString;
+            return this;
+        }
+
+        public Builder responseToString(@Nullable Function<ChatResponse, String> responseToString) {
+            this.responseToString = responseToString;
+            return this;
+        }
+
+        public Builder order(int order) {
+            this.order = order;
+            return this;
+        }
+
+        /**
+         * Fraction of exchanges to log, from 0 (none) to 1 (all).
+         */
+        public Builder sampleRate(double sampleRate) {
+            Assert.isTrue(sampleRate >= 0 && sampleRate <= 1, "sampleRate must be between 0 and 1");
+            this.sampleRate = sampleRate;
+            return this;
+        }
+
+        public Builder maxPayloadLength(int maxPayloadLength) {
+            Assert.isTrue(maxPayloadLength > 0, "maxPayloadLength must be positive");
+            this.maxPayloadLength = maxPayloadLength;
+            return this;
+        }
+
+        /**
+         * Defaults to {@link AsyncLogWriter#shared()}.
+         */
+        public Builder writer(@Nullable AsyncLogWriter writer) {
+            this.writer = writer;
+            return this;
+        }
+
+        public EmojiLoggingAdvisor build() {
+            return new EmojiLoggingAdvisor(this);
+        }
+
+    }
+
 }
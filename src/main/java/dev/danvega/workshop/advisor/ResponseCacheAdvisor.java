@@ -0,0 +1,314 @@
+package dev.danvega.workshop.advisor;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Ticker;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.ai.chat.client.ChatClientAttributes;
+import org.springframework.ai.chat.client.ChatClientMessageAggregator;
+import org.springframework.ai.chat.client.ChatClientRequest;
+import org.springframework.ai.chat.client.ChatClientResponse;
+import org.springframework.ai.chat.client.advisor.api.Advisor;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisor;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisorChain;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisor;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisorChain;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.content.Media;
+import org.springframework.ai.content.MediaContent;
+import org.springframework.ai.model.ModelOptionsUtils;
+import org.springframework.ai.model.tool.ToolCallingChatOptions;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+import org.springframework.util.CollectionUtils;
+import org.springframework.util.StringUtils;
+import reactor.core.publisher.Flux;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Serves a stored response when exactly the same prompt is sent again, without calling the model.
+ * <p>
+ * The key is the first 128 bits of a SHA-256 over every message (type, text, and a digest of any attached media),
+ * the prompt's chat options serialized to JSON, and the requested structured output format. Entries live in a
+ * Caffeine cache, whose W-TinyLFU policy admits a new entry only if it is likely to be requested more often than the
+ * one it would displace, bounded by an estimate of the bytes held and a time-to-live.
+ * <p>
+ * Prompts that carry tools are never cached, since a replay would skip the tools' side effects; neither are requests
+ * that set {@link #BYPASS} in the advisor context, or responses with tool calls or no text.
+ */
+public class ResponseCacheAdvisor implements CallAdvisor, StreamAdvisor {
+
+    /**
+     * What is kept per entry: the whole {@link ChatResponse} including metadata and usage, or just the generated
+     * text, which is smaller but replays without metadata.
+     */
+    public enum Storage {
+        FULL_RESPONSE, CONTENT_ONLY
+    }
+
+    /**
+     * Advisor context key; {@code true} sends the request to the model even if an answer is cached.
+     */
+    public static final String BYPASS = "response_cache_bypass";
+
+    /**
+     * Set to {@code true} on the response context when the response came from the cache.
+     */
+    public static final String CACHE_HIT = "response_cache_hit";
+
+    /**
+     * After the chat memory advisors, so the key covers the conversation so far and a cached turn is still recorded
+     * in memory, but ahead of retrieval.
+     */
+    public static final int DEFAULT_ORDER = Advisor.DEFAULT_CHAT_MEMORY_PRECEDENCE_ORDER + 100;
+
+    private final Cache<ResponseKey, CachedResponse> cache;
+    private final Storage storage;
+    private final int order;
+
+    private ResponseCacheAdvisor(Builder builder) {
+        this.storage = builder.storage;
+        this.order = builder.order;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(builder.maxBytes)
+                .weigher((ResponseKey key, CachedResponse value) -> value.bytes())
+                .expireAfterWrite(builder.timeToLive)
+                .ticker(builder.ticker)
+                .recordStats()
+                .build();
+        if (builder.meterRegistry != null) {
+            CaffeineCacheMetrics.monitor(builder.meterRegistry, this.cache, "chat.response");
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public ChatClientResponse adviseCall(ChatClientRequest chatClientRequest, CallAdvisorChain callAdvisorChain) {
+        ResponseKey key = key(chatClientRequest);
+        if (key == null) {
+            return callAdvisorChain.nextCall(chatClientRequest);
+        }
+        CachedResponse cached = this.cache.getIfPresent(key);
+        if (cached != null) {
+            return cached.toResponse(chatClientRequest);
+        }
+        ChatClientResponse chatClientResponse = callAdvisorChain.nextCall(chatClientRequest);
+        store(key, chatClientResponse.chatResponse());
+        return chatClientResponse;
+    }
+
+    @Override
+    public Flux<ChatClientResponse> adviseStream(ChatClientRequest chatClientRequest, StreamAdvisorChain streamAdvisorChain) {
+        return Flux.defer(() -> {
+            ResponseKey key = key(chatClientRequest);
+            if (key == null) {
+                return streamAdvisorChain.nextStream(chatClientRequest);
+            }
+            CachedResponse cached = this.cache.getIfPresent(key);
+            if (cached != null) {
+                return Flux.just(cached.toResponse(chatClientRequest));
+            }
+            return new ChatClientMessageAggregator().aggregateChatClientResponse(
+                    streamAdvisorChain.nextStream(chatClientRequest),
+                    aggregated -> store(key, aggregated.chatResponse()));
+        });
+    }
+
+    @Override
+    public String getName() {
+        return this.getClass().getSimpleName();
+    }
+
+    @Override
+    public int getOrder() {
+        return this.order;
+    }
+
+    public long size() {
+        return this.cache.estimatedSize();
+    }
+
+    public void clear() {
+        this.cache.invalidateAll();
+    }
+
+    /**
+     * Runs Caffeine's pending maintenance (evictions, expirations) now rather than on the next access.
+     */
+    void cleanUp() {
+        this.cache.cleanUp();
+    }
+
+    private void store(ResponseKey key, @Nullable ChatResponse response) {
+        if (response == null || response.getResults().isEmpty()) {
+            return;
+        }
+        for (Generation generation : response.getResults()) {
+            if (generation.getOutput().hasToolCalls() || !StringUtils.hasText(generation.getOutput().getText())) {
+                return;
+            }
+        }
+        this.cache.put(key, CachedResponse.of(response, this.storage));
+    }
+
+    /**
+     * @return the request's cache key, or {@code null} if the request must not be cached
+     */
+    @Nullable
+    static ResponseKey key(ChatClientRequest request) {
+        if (Boolean.TRUE.equals(request.context().get(BYPASS))) {
+            return null;
+        }
+        ChatOptions options = request.prompt().getOptions();
+        if (options instanceof ToolCallingChatOptions toolOptions
+                && (!CollectionUtils.isEmpty(toolOptions.getToolCallbacks()) || !CollectionUtils.isEmpty(toolOptions.getToolNames()))) {
+            return null;
+        }
+        MessageDigest digest = sha256();
+        for (Message message : request.prompt().getInstructions()) {
+            update(digest, message.getMessageType().getValue());
+            update(digest, message.getText());
+            if (message instanceof MediaContent mediaContent) {
+                for (Media media : mediaContent.getMedia()) {
+                    update(digest, media.getMimeType().toString());
+                    if (media.getData() instanceof byte[] bytes) {
+                        digest.update(sha256().digest(bytes));
+                    }
+                    else {
+                        update(digest, String.valueOf(media.getData()));
+                    }
+                }
+            }
+        }
+        if (options != null) {
+            update(digest, options.getClass().getName());
+            try {
+                update(digest, ModelOptionsUtils.toJsonString(options));
+            }
+            catch (RuntimeException ex) {
+                // options that cannot be rendered cannot be told apart, so they are not cached
+                return null;
+            }
+        }
+        update(digest, String.valueOf(request.context().get(ChatClientAttributes.OUTPUT_FORMAT.getKey())));
+        ByteBuffer hash = ByteBuffer.wrap(digest.digest());
+        return new ResponseKey(hash.getLong(), hash.getLong());
+    }
+
+    private static void update(MessageDigest digest, @Nullable String value) {
+        if (value != null) {
+            digest.update(value.getBytes(StandardCharsets.UTF_8));
+        }
+        digest.update((byte) 0);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 not available", ex);
+        }
+    }
+
+    record ResponseKey(long high, long low) {
+    }
+
+    /**
+     * @param response the full response, or {@code null} when only {@code texts} are kept
+     * @param bytes rough heap footprint, used as the entry's weight
+     */
+    private record CachedResponse(@Nullable ChatResponse response, List<String> texts, int bytes) {
+
+        private static final int ENTRY_OVERHEAD = 128;
+        private static final int METADATA_OVERHEAD = 512;
+
+        static CachedResponse of(ChatResponse response, Storage storage) {
+            List<String> texts = response.getResults().stream().map(generation -> generation.getOutput().getText()).toList();
+            long bytes = ENTRY_OVERHEAD + texts.stream().mapToLong(text -> 40L + 2L * text.length()).sum();
+            if (storage == Storage.FULL_RESPONSE) {
+                // the text is held once by the response itself
+                return new CachedResponse(response, List.of(), (int) Math.min(Integer.MAX_VALUE, bytes + METADATA_OVERHEAD));
+            }
+            return new CachedResponse(null, texts, (int) Math.min(Integer.MAX_VALUE, bytes));
+        }
+
+        ChatClientResponse toResponse(ChatClientRequest request) {
+            ChatResponse chatResponse = this.response != null ? this.response
+                    : new ChatResponse(this.texts.stream().map(text -> new Generation(new AssistantMessage(text))).toList());
+            return ChatClientResponse.builder()
+                    .chatResponse(chatResponse)
+                    .context(request.context())
+                    .context(CACHE_HIT, true)
+                    .build();
+        }
+
+    }
+
+    public static class Builder {
+
+        private long maxBytes = 16L * 1024 * 1024;
+        private Duration timeToLive = Duration.ofMinutes(10);
+        private Storage storage = Storage.FULL_RESPONSE;
+        private Ticker ticker = Ticker.systemTicker();
+        private int order = DEFAULT_ORDER;
+        @Nullable
+        private MeterRegistry meterRegistry;
+
+        private Builder() {
+        }
+
+        public Builder maxBytes(long maxBytes) {
+            Assert.isTrue(maxBytes > 0, "maxBytes must be positive");
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        public Builder timeToLive(Duration timeToLive) {
+            Assert.isTrue(timeToLive != null && timeToLive.isPositive(), "timeToLive must be positive");
+            this.timeToLive = timeToLive;
+            return this;
+        }
+
+        public Builder storage(Storage storage) {
+            Assert.notNull(storage, "storage must not be null");
+            this.storage = storage;
+            return this;
+        }
+
+        public Builder ticker(Ticker ticker) {
+            this.ticker = ticker;
+            return this;
+        }
+
+        public Builder order(int order) {
+            this.order = order;
+            return this;
+        }
+
+        public Builder meterRegistry(@Nullable MeterRegistry meterRegistry) {
+            this.meterRegistry = meterRegistry;
+            return this;
+        }
+
+        public ResponseCacheAdvisor build() {
+            return new ResponseCacheAdvisor(this);
+        }
+
+    }
+
+}
@@ -0,0 +1,46 @@
+package dev.danvega.workshop.advisor;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.chat.client.ChatClientCustomizer;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+/**
+ * Puts the exact-match {@link ResponseCacheAdvisor} in front of every {@code ChatClient} built from the
+ * auto-configured {@code ChatClient.Builder}.
+ */
+@Configuration
+@ConditionalOnProperty(name = "workshop.chat.response-cache.enabled", havingValue = "true")
+public class ResponseCacheConfiguration {
+
+    @Value("${workshop.chat.response-cache.max-size:16MB}")
+    private DataSize maxSize;
+
+    @Value("${workshop.chat.response-cache.ttl:10m}")
+    private Duration ttl;
+
+    @Value("${workshop.chat.response-cache.storage:full-response}")
+    private ResponseCacheAdvisor.Storage storage;
+
+    @Bean
+    ResponseCacheAdvisor responseCacheAdvisor(ObjectProvider<MeterRegistry> meterRegistry) {
+        return ResponseCacheAdvisor.builder()
+                .maxBytes(maxSize.toBytes())
+                .timeToLive(ttl)
+                .storage(storage)
+                .meterRegistry(meterRegistry.getIfAvailable())
+                .build();
+    }
+
+    @Bean
+    ChatClientCustomizer responseCacheCustomizer(ResponseCacheAdvisor responseCacheAdvisor) {
+        return builder -> builder.defaultAdvisors(responseCacheAdvisor);
+    }
+
+}
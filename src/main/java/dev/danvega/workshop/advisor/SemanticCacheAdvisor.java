@@ -0,0 +1,400 @@
+package dev.danvega.workshop.advisor;
+
+import dev.danvega.workshop.rag.store.HnswVectorStore;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.chat.client.ChatClientAttributes;
+import org.springframework.ai.chat.client.ChatClientMessageAggregator;
+import org.springframework.ai.chat.client.ChatClientRequest;
+import org.springframework.ai.chat.client.ChatClientResponse;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisor;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisorChain;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisor;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisorChain;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+import org.springframework.core.Ordered;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Returns a stored response when a request is a paraphrase of one answered before, instead of calling the model.
+ * <p>
+ * The user-visible conversation (every non-system message) is embedded and looked up in an {@link HnswVectorStore};
+ * the closest earlier prompt is a hit if its cosine similarity is at least {@code similarityThreshold}. Only prompts
+ * in the same partition are compared: the same scope, {@link #PARTITION_KEY}, system text, chat options and structured
+ * output format, so a paraphrase never borrows an answer produced under different instructions.
+ * <p>
+ * Caching is opt-in per request: the advisor only engages when the advisor context carries {@link #SCOPE}, so one
+ * instance can sit in a client's default advisors and each endpoint decides whether its answers may be reused.
+ * Entries expire after {@code timeToLive}, and the least recently used entry is evicted beyond {@code maxEntries}.
+ * Responses with tool calls or no text are never stored.
+ */
+public class SemanticCacheAdvisor implements CallAdvisor, StreamAdvisor {
+
+    /**
+     * Advisor context key naming the cache partition, usually the endpoint. Requests without it bypass the cache.
+     */
+    public static final String SCOPE = "semantic_cache_scope";
+
+    /**
+     * Optional advisor context key whose value must match exactly, ignoring case and surrounding whitespace, for two
+     * requests to share an answer. Endpoints that render a fixed template around a request parameter put the
+     * parameter here: their prompts differ only in that word, which similarity alone cannot tell apart.
+     */
+    public static final String PARTITION_KEY = "semantic_cache_partition_key";
+
+    /**
+     * Optional advisor context key overriding {@code similarityThreshold} for one request.
+     */
+    public static final String SIMILARITY_THRESHOLD = "semantic_cache_similarity_threshold";
+
+    /**
+     * Set to {@code true} on the response context when the response came from the cache.
+     */
+    public static final String CACHE_HIT = "semantic_cache_hit";
+
+    /**
+     * Ahead of retrieval and memory advisors, so a hit skips their work as well.
+     */
+    public static final int DEFAULT_ORDER = Ordered.HIGHEST_PRECEDENCE + 100;
+
+    private static final String PARTITION = "partition";
+
+    private final EmbeddingModel embeddingModel;
+    private final HnswVectorStore index;
+    private final double similarityThreshold;
+    private final Duration timeToLive;
+    private final int maxEntries;
+    private final Clock clock;
+    private final int order;
+    @Nullable
+    private final MeterRegistry meterRegistry;
+
+    // access-ordered, guarded by itself
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private SemanticCacheAdvisor(Builder builder) {
+        this.embeddingModel = builder.embeddingModel;
+        this.index = HnswVectorStore.builder(builder.embeddingModel)
+                .indexedMetadataKeys(PARTITION)
+                .build();
+        this.similarityThreshold = builder.similarityThreshold;
+        this.timeToLive = builder.timeToLive;
+        this.maxEntries = builder.maxEntries;
+        this.clock = builder.clock;
+        this.order = builder.order;
+        this.meterRegistry = builder.meterRegistry;
+        if (this.meterRegistry != null) {
+            Gauge.builder("chat.cache.semantic.size", this, SemanticCacheAdvisor::size).register(this.meterRegistry);
+        }
+    }
+
+    public static Builder builder(EmbeddingModel embeddingModel) {
+        return new Builder(embeddingModel);
+    }
+
+    @Override
+    public ChatClientResponse adviseCall(ChatClientRequest chatClientRequest, CallAdvisorChain callAdvisorChain) {
+        Object scope = chatClientRequest.context().get(SCOPE);
+        if (scope == null) {
+            return callAdvisorChain.nextCall(chatClientRequest);
+        }
+        CacheKey key = key(scope.toString(), chatClientRequest);
+        ChatResponse cached = lookup(key);
+        if (cached != null) {
+            return cachedResponse(chatClientRequest, cached);
+        }
+        ChatClientResponse chatClientResponse = callAdvisorChain.nextCall(chatClientRequest);
+        store(key, chatClientResponse.chatResponse());
+        return chatClientResponse;
+    }
+
+    @Override
+    public Flux<ChatClientResponse> adviseStream(ChatClientRequest chatClientRequest, StreamAdvisorChain streamAdvisorChain) {
+        Object scope = chatClientRequest.context().get(SCOPE);
+        if (scope == null) {
+            return streamAdvisorChain.nextStream(chatClientRequest);
+        }
+        // embedding the prompt blocks, keep it off the caller's event loop
+        return Mono.fromCallable(() -> {
+                    CacheKey key = key(scope.toString(), chatClientRequest);
+                    return new Lookup(key, Optional.ofNullable(lookup(key)));
+                })
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMapMany(lookup -> lookup.cached().isPresent()
+                        ? Flux.just(cachedResponse(chatClientRequest, lookup.cached().get()))
+                        : new ChatClientMessageAggregator().aggregateChatClientResponse(
+                                streamAdvisorChain.nextStream(chatClientRequest),
+                                aggregated -> store(lookup.key(), aggregated.chatResponse())));
+    }
+
+    @Override
+    public String getName() {
+        return this.getClass().getSimpleName();
+    }
+
+    @Override
+    public int getOrder() {
+        return this.order;
+    }
+
+    public long hits() {
+        return this.hits.get();
+    }
+
+    public long misses() {
+        return this.misses.get();
+    }
+
+    public int size() {
+        synchronized (this.entries) {
+            return this.entries.size();
+        }
+    }
+
+    /**
+     * Drops every cached response.
+     */
+    public void clear() {
+        List<String> ids;
+        synchronized (this.entries) {
+            ids = new ArrayList<>(this.entries.keySet());
+            this.entries.clear();
+        }
+        this.index.delete(ids);
+    }
+
+    @Nullable
+    private ChatResponse lookup(CacheKey key) {
+        List<Document> nearest = this.index.similaritySearch(key.embedding(), SearchRequest.builder()
+                .topK(1)
+                .similarityThreshold(key.similarityThreshold())
+                .filterExpression(new FilterExpressionBuilder().eq(PARTITION, key.partition()).build())
+                .build());
+        if (!nearest.isEmpty()) {
+            String id = nearest.get(0).getId();
+            Entry entry;
+            synchronized (this.entries) {
+                entry = this.entries.get(id);
+                if (entry != null && entry.expired(this.clock.instant())) {
+                    this.entries.remove(id);
+                    entry = null;
+                }
+            }
+            if (entry != null) {
+                count(key.scope(), "hit", this.hits);
+                return entry.response();
+            }
+            this.index.delete(List.of(id));
+        }
+        count(key.scope(), "miss", this.misses);
+        return null;
+    }
+
+    private void store(CacheKey key, @Nullable ChatResponse response) {
+        if (!cacheable(response)) {
+            return;
+        }
+        String id = UUID.randomUUID().toString();
+        this.index.add(new Document(id, key.text(), Map.of(PARTITION, key.partition())), key.embedding());
+        List<String> evicted = new ArrayList<>();
+        synchronized (this.entries) {
+            Instant now = this.clock.instant();
+            this.entries.put(id, new Entry(response, now.plus(this.timeToLive)));
+            if (this.entries.size() > this.maxEntries) {
+                for (Iterator<Map.Entry<String, Entry>> it = this.entries.entrySet().iterator(); it.hasNext(); ) {
+                    Map.Entry<String, Entry> eldest = it.next();
+                    if (eldest.getValue().expired(now)) {
+                        evicted.add(eldest.getKey());
+                        it.remove();
+                    }
+                }
+                for (Iterator<String> it = this.entries.keySet().iterator(); this.entries.size() > this.maxEntries; ) {
+                    evicted.add(it.next());
+                    it.remove();
+                }
+            }
+        }
+        if (!evicted.isEmpty()) {
+            this.index.delete(evicted);
+        }
+    }
+
+    private CacheKey key(String scope, ChatClientRequest request) {
+        StringBuilder partition = new StringBuilder(scope).append('\0');
+        Object partitionKey = request.context().get(PARTITION_KEY);
+        if (partitionKey != null) {
+            partition.append(partitionKey.toString().strip().toLowerCase(Locale.ROOT)).append('\0');
+        }
+        StringBuilder conversation = new StringBuilder();
+        for (Message message : request.prompt().getInstructions()) {
+            if (message.getMessageType() == MessageType.SYSTEM) {
+                partition.append(message.getText()).append('\0');
+            }
+            else if (StringUtils.hasText(message.getText())) {
+                if (!conversation.isEmpty()) {
+                    conversation.append('\n');
+                }
+                conversation.append(message.getMessageType().getValue()).append(": ").append(message.getText().strip());
+            }
+        }
+        ChatOptions options = request.prompt().getOptions();
+        if (options != null) {
+            partition.append(options.getModel()).append('\0')
+                    .append(options.getTemperature()).append('\0')
+                    .append(options.getTopP()).append('\0')
+                    .append(options.getTopK()).append('\0')
+                    .append(options.getMaxTokens()).append('\0')
+                    .append(options.getFrequencyPenalty()).append('\0')
+                    .append(options.getPresencePenalty()).append('\0')
+                    .append(options.getStopSequences()).append('\0');
+        }
+        partition.append(request.context().get(ChatClientAttributes.OUTPUT_FORMAT.getKey()));
+        String text = conversation.toString();
+        double threshold = request.context().get(SIMILARITY_THRESHOLD) instanceof Number override
+                ? override.doubleValue() : this.similarityThreshold;
+        return new CacheKey(scope, scope + ":" + sha256(partition.toString()), text, this.embeddingModel.embed(text), threshold);
+    }
+
+    private ChatClientResponse cachedResponse(ChatClientRequest request, ChatResponse response) {
+        return ChatClientResponse.builder()
+                .chatResponse(response)
+                .context(request.context())
+                .context(CACHE_HIT, true)
+                .build();
+    }
+
+    private void count(String scope, String result, AtomicLong total) {
+        total.incrementAndGet();
+        if (this.meterRegistry != null) {
+            Counter.builder("chat.cache.semantic.requests")
+                    .tag("scope", scope)
+                    .tag("result", result)
+                    .register(this.meterRegistry)
+                    .increment();
+        }
+    }
+
+    private static boolean cacheable(@Nullable ChatResponse response) {
+        if (response == null || response.getResults().isEmpty()) {
+            return false;
+        }
+        for (Generation generation : response.getResults()) {
+            if (generation.getOutput().hasToolCalls() || !StringUtils.hasText(generation.getOutput().getText())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String sha256(String value) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8)));
+        }
+        catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 not available", ex);
+        }
+    }
+
+    private record CacheKey(String scope, String partition, String text, float[] embedding, double similarityThreshold) {
+    }
+
+    private record Entry(ChatResponse response, Instant expiresAt) {
+
+        boolean expired(Instant now) {
+            return !now.isBefore(this.expiresAt);
+        }
+
+    }
+
+    private record Lookup(CacheKey key, Optional<ChatResponse> cached) {
+    }
+
+    public static class Builder {
+
+        private final EmbeddingModel embeddingModel;
+        private double similarityThreshold = 0.95;
+        private Duration timeToLive = Duration.ofHours(1);
+        private int maxEntries = 1000;
+        private Clock clock = Clock.systemUTC();
+        private int order = DEFAULT_ORDER;
+        @Nullable
+        private MeterRegistry meterRegistry;
+
+        private Builder(EmbeddingModel embeddingModel) {
+            Assert.notNull(embeddingModel, "EmbeddingModel must not be null");
+            this.embeddingModel = embeddingModel;
+        }
+
+        public Builder similarityThreshold(double similarityThreshold) {
+            Assert.isTrue(similarityThreshold > 0 && similarityThreshold <= 1, "similarityThreshold must be in (0, 1]");
+            this.similarityThreshold = similarityThreshold;
+            return this;
+        }
+
+        public Builder timeToLive(Duration timeToLive) {
+            Assert.isTrue(timeToLive != null && timeToLive.isPositive(), "timeToLive must be positive");
+            this.timeToLive = timeToLive;
+            return this;
+        }
+
+        public Builder maxEntries(int maxEntries) {
+            Assert.isTrue(maxEntries > 0, "maxEntries must be positive");
+            this.maxEntries = maxEntries;
+            return this;
+        }
+
+        public Builder clock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        public Builder order(int order) {
+            this.order = order;
+            return this;
+        }
+
+        public Builder meterRegistry(@Nullable MeterRegistry meterRegistry) {
+            this.meterRegistry = meterRegistry;
+            return this;
+        }
+
+        public SemanticCacheAdvisor build() {
+            return new SemanticCacheAdvisor(this);
+        }
+
+    }
+
+}
@@ -0,0 +1,36 @@
+package dev.danvega.workshop.advisor;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Configuration
+@ConditionalOnProperty(name = "workshop.chat.semantic-cache.enabled", havingValue = "true")
+public class SemanticCacheConfiguration {
+
+    @Value("${workshop.chat.semantic-cache.similarity-threshold:0.95}")
+    private double similarityThreshold;
+
+    @Value("${workshop.chat.semantic-cache.ttl:1h}")
+    private Duration ttl;
+
+    @Value("${workshop.chat.semantic-cache.max-entries:1000}")
+    private int maxEntries;
+
+    @Bean
+    SemanticCacheAdvisor semanticCacheAdvisor(EmbeddingModel embeddingModel, ObjectProvider<MeterRegistry> meterRegistry) {
+        return SemanticCacheAdvisor.builder(embeddingModel)
+                .similarityThreshold(similarityThreshold)
+                .timeToLive(ttl)
+                .maxEntries(maxEntries)
+                .meterRegistry(meterRegistry.getIfAvailable())
+                .build();
+    }
+
+}
@@ -0,0 +1,177 @@
+package dev.danvega.workshop.advisor;
+
+import dev.danvega.workshop.advisor.ResponseCacheAdvisor.ResponseKey;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.chat.client.ChatClientRequest;
+import org.springframework.ai.chat.client.ChatClientResponse;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisor;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisorChain;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisor;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisorChain;
+import org.springframework.lang.Nullable;
+import reactor.core.publisher.Flux;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Collapses identical requests that are in flight at the same time into one model call.
+ * <p>
+ * The first request for a key (the same canonical key {@link ResponseCacheAdvisor} uses) goes down the chain; every
+ * identical request that arrives before it finishes waits for that call and receives the same response, or the
+ * same exception. Streamed requests share one replaying {@link Flux}, so a late joiner still sees every chunk from
+ * the start; the upstream call is cancelled only once every subscriber has cancelled.
+ * <p>
+ * Nothing is kept once the call completes: this caps provider load during a burst of identical requests, it is not
+ * a cache. Requests the response cache refuses (tools, {@link ResponseCacheAdvisor#BYPASS}) are never coalesced.
+ */
+public class SingleFlightAdvisor implements CallAdvisor, StreamAdvisor {
+
+    /**
+     * Set to {@code true} on the response context when the response was shared from another caller's request.
+     */
+    public static final String COALESCED = "single_flight_coalesced";
+
+    /**
+     * Just after the exact-match response cache, so only misses are coalesced, and ahead of retrieval, so followers
+     * skip it too.
+     */
+    public static final int DEFAULT_ORDER = ResponseCacheAdvisor.DEFAULT_ORDER + 100;
+
+    private final Map<ResponseKey, CompletableFuture<ChatClientResponse>> calls = new ConcurrentHashMap<>();
+    private final Map<ResponseKey, Flux<ChatClientResponse>> streams = new ConcurrentHashMap<>();
+    private final AtomicLong leaders = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final int order;
+
+    public SingleFlightAdvisor() {
+        this(DEFAULT_ORDER);
+    }
+
+    public SingleFlightAdvisor(int order) {
+        this.order = order;
+    }
+
+    @Override
+    public ChatClientResponse adviseCall(ChatClientRequest chatClientRequest, CallAdvisorChain callAdvisorChain) {
+        ResponseKey key = ResponseCacheAdvisor.key(chatClientRequest);
+        if (key == null) {
+            return callAdvisorChain.nextCall(chatClientRequest);
+        }
+        CompletableFuture<ChatClientResponse> call = new CompletableFuture<>();
+        CompletableFuture<ChatClientResponse> inFlight = this.calls.putIfAbsent(key, call);
+        if (inFlight != null) {
+            this.coalesced.incrementAndGet();
+            return shared(chatClientRequest, join(inFlight));
+        }
+        this.leaders.incrementAndGet();
+        try {
+            ChatClientResponse chatClientResponse = callAdvisorChain.nextCall(chatClientRequest);
+            this.calls.remove(key, call);
+            call.complete(chatClientResponse);
+            return chatClientResponse;
+        }
+        catch (Throwable ex) {
+            this.calls.remove(key, call);
+            call.completeExceptionally(ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public Flux<ChatClientResponse> adviseStream(ChatClientRequest chatClientRequest, StreamAdvisorChain streamAdvisorChain) {
+        return Flux.defer(() -> {
+            ResponseKey key = ResponseCacheAdvisor.key(chatClientRequest);
+            if (key == null) {
+                return streamAdvisorChain.nextStream(chatClientRequest);
+            }
+            AtomicReference<Flux<ChatClientResponse>> created = new AtomicReference<>();
+            Flux<ChatClientResponse> stream = this.streams.computeIfAbsent(key, k -> {
+                AtomicReference<Flux<ChatClientResponse>> self = new AtomicReference<>();
+                self.set(streamAdvisorChain.nextStream(chatClientRequest)
+                        .doFinally(signal -> this.streams.remove(k, self.get()))
+                        .replay()
+                        .refCount(1));
+                created.set(self.get());
+                return self.get();
+            });
+            if (stream == created.get()) {
+                this.leaders.incrementAndGet();
+                return stream;
+            }
+            this.coalesced.incrementAndGet();
+            return stream.map(chunk -> shared(chatClientRequest, chunk));
+        });
+    }
+
+    @Override
+    public String getName() {
+        return this.getClass().getSimpleName();
+    }
+
+    @Override
+    public int getOrder() {
+        return this.order;
+    }
+
+    /**
+     * Requests that went to the model.
+     */
+    public long leaders() {
+        return this.leaders.get();
+    }
+
+    /**
+     * Requests answered by another caller's in-flight request.
+     */
+    public long coalesced() {
+        return this.coalesced.get();
+    }
+
+    public int inFlight() {
+        return this.calls.size() + this.streams.size();
+    }
+
+    /**
+     * Publishes leader and coalesced request counts and the number of distinct requests in flight.
+     */
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("chat.single-flight.requests", this.leaders, AtomicLong::get)
+                .tag("result", "leader")
+                .register(registry);
+        FunctionCounter.builder("chat.single-flight.requests", this.coalesced, AtomicLong::get)
+                .tag("result", "coalesced")
+                .register(registry);
+        Gauge.builder("chat.single-flight.in-flight", this, SingleFlightAdvisor::inFlight).register(registry);
+    }
+
+    private static ChatClientResponse shared(ChatClientRequest request, @Nullable ChatClientResponse response) {
+        return ChatClientResponse.builder()
+                .chatResponse(response != null ? response.chatResponse() : null)
+                .context(request.context())
+                .context(COALESCED, true)
+                .build();
+    }
+
+    private static ChatClientResponse join(CompletableFuture<ChatClientResponse> call) {
+        try {
+            return call.join();
+        }
+        catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            if (ex.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw ex;
+        }
+    }
+
+}
@@ -0,0 +1,30 @@
+package dev.danvega.workshop.advisor;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.chat.client.ChatClientCustomizer;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Coalesces identical in-flight requests on every {@code ChatClient} built from the auto-configured
+ * {@code ChatClient.Builder}.
+ */
+@Configuration
+@ConditionalOnProperty(name = "workshop.chat.single-flight.enabled", havingValue = "true")
+public class SingleFlightConfiguration {
+
+    @Bean
+    SingleFlightAdvisor singleFlightAdvisor(ObjectProvider<MeterRegistry> meterRegistry) {
+        var singleFlightAdvisor = new SingleFlightAdvisor();
+        meterRegistry.ifAvailable(singleFlightAdvisor::bindTo);
+        return singleFlightAdvisor;
+    }
+
+    @Bean
+    ChatClientCustomizer singleFlightCustomizer(SingleFlightAdvisor singleFlightAdvisor) {
+        return builder -> builder.defaultAdvisors(singleFlightAdvisor);
+    }
+
+}
@@ -1,6 +1,9 @@
 package dev.danvega.workshop.async;
 
+import dev.danvega.workshop.advisor.EmojiLoggingAdvisor;
+import dev.danvega.workshop.advisor.SemanticCacheAdvisor;
 import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RestController;
 import reactor.core.publisher.Flux;
@@ -10,13 +13,17 @@ public class AsyncChatController {
 
     private final ChatClient chatClient;
 
-    public AsyncChatController(ChatClient.Builder builder) {
-        this.chatClient = builder.build();
+    public AsyncChatController(ChatClient.Builder builder, ObjectProvider<SemanticCacheAdvisor> semanticCache) {
+        semanticCache.ifAvailable(advisor -> builder.defaultAdvisors(advisor));
+        this.chatClient = builder
+                .defaultAdvisors(new EmojiLoggingAdvisor())
+                .build();
     }
 
     @GetMapping("/stream")
     public Flux<String> stream() {
         return chatClient.prompt()
+                .advisors(a -> a.param(SemanticCacheAdvisor.SCOPE, "stream"))
                 .user("I am visiting Charleston, SC can you give me 10 places I must visit")
                 .stream()
                 .content();
@@ -1,7 +1,10 @@
 package dev.danvega.workshop.chat;
 
+import dev.danvega.workshop.advisor.SemanticCacheAdvisor;
+import dev.danvega.workshop.prompt.PromptTemplateRegistry;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
@@ -10,10 +13,14 @@ import org.springframework.web.bind.annotation.RestController;
 public class ChatController {
 
     private final ChatClient chatClient;
+    private final PromptTemplateRegistry promptTemplates;
 
-    public ChatController(ChatClient.Builder builder) {
+    public ChatController(ChatClient.Builder builder, ObjectProvider<SemanticCacheAdvisor> semanticCache,
+                          PromptTemplateRegistry promptTemplates) {
+        semanticCache.ifAvailable(advisor -> builder.defaultAdvisors(advisor));
         this.chatClient = builder
                 .build();
+        this.promptTemplates = promptTemplates;
     }
 
     @GetMapping("/")
@@ -27,7 +34,9 @@ public class ChatController {
     @GetMapping("/jokes-by-topic")
     public String jokesByTopic(@RequestParam String topic) {
         return chatClient.prompt()
-                .user(u -> u.text("Tell me a joke about {topic}").param("topic",topic))
+                .advisors(a -> a.param(SemanticCacheAdvisor.SCOPE, "jokes-by-topic")
+                        .param(SemanticCacheAdvisor.PARTITION_KEY, topic))
+                .user(promptTemplates.render("joke-by-topic", "topic", topic))
                 .call()
                 .content();
     }
@@ -1,30 +1,194 @@
 package dev.danvega.workshop.evals;
 
+import dev.danvega.workshop.advisor.ResponseCacheAdvisor;
+import dev.danvega.workshop.observability.TimedOutputConverter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.openai.OpenAiChatOptions;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
 @Service
 public class ReviewService {
 
+    private static final Logger log = LoggerFactory.getLogger(ReviewService.class);
+
+    private static final String SYSTEM_PROMPT = """
+            Classify the sentiment of the following text as POSITIVE, NEGATIVE, or NEUTRAL. \
+            Your response must be only one of these three words.""";
+
+    private static final String BATCH_SYSTEM_PROMPT = """
+            Classify the sentiment of each of the following reviews as POSITIVE, NEGATIVE, or NEUTRAL. \
+            Each review is on its own line and starts with its index in square brackets. \
+            Return exactly one entry per review with the review's index and its sentiment.""";
+
+    // the "[index] " prefix and line break around every review
+    private static final int TOKENS_PER_REVIEW = 8;
+
     private final ChatClient chatClient;
+    private final TimedOutputConverter<IndexedSentiments> batchConverter = TimedOutputConverter.of(IndexedSentiments.class);
+    private final int batchMaxTokens;
+    private final int batchMaxReviews;
+    private final int batchConcurrency;
+    private final int batchMaxAttempts;
 
-    public ReviewService(ChatClient.Builder builder) {
+    public ReviewService(ChatClient.Builder builder,
+                         @Value("${workshop.reviews.batch.max-tokens:4000}") int batchMaxTokens,
+                         @Value("${workshop.reviews.batch.max-reviews:100}") int batchMaxReviews,
+                         @Value("${workshop.reviews.batch.concurrency:4}") int batchConcurrency,
+                         @Value("${workshop.reviews.batch.max-attempts:3}") int batchMaxAttempts) {
         this.chatClient = builder
                 .defaultOptions(OpenAiChatOptions.builder().temperature(0.1d).build())
                 .build();
+        this.batchMaxTokens = batchMaxTokens;
+        this.batchMaxReviews = batchMaxReviews;
+        this.batchConcurrency = batchConcurrency;
+        this.batchMaxAttempts = batchMaxAttempts;
     }
 
     public Sentiment classifySentiment(String review) {
-        String systemPrompt = """
-                Classify the sentiment of the following text as POSITIVE, NEGATIVE, or NEUTRAL. \
-                Your response must be only one of these three words.""";
-
         return chatClient.prompt()
-                .system(systemPrompt)
+                .system(SYSTEM_PROMPT)
                 .user(review)
                 .call()
-                .entity(Sentiment.class);
+                .entity(TimedOutputConverter.of(Sentiment.class));
+    }
+
+    /**
+     * Classifies many reviews with a few calls instead of one each. Reviews are packed into chunks of at most
+     * {@code max-reviews} reviews and {@code max-tokens} estimated prompt tokens, and up to {@code concurrency}
+     * chunks are classified at once. Reviews the model skips, repeats or labels with something else, and every
+     * review of a chunk whose call fails, are packed again and retried, up to {@code max-attempts} rounds. Retries
+     * bypass the response cache, which would otherwise replay the reply that failed for an identical chunk. Whatever
+     * is still unclassified after that goes through {@link #classifySentiment(String)} one by one.
+     *
+     * @return the sentiments in the order of {@code reviews}
+     */
+    public List<Sentiment> classifySentiments(List<String> reviews) {
+        Sentiment[] sentiments = new Sentiment[reviews.size()];
+        List<Integer> pending = new ArrayList<>(reviews.size());
+        for (int i = 0; i < reviews.size(); i++) {
+            pending.add(i);
+        }
+        for (int attempt = 1; attempt <= this.batchMaxAttempts && !pending.isEmpty(); attempt++) {
+            classifyChunks(reviews, chunk(reviews, pending), sentiments, attempt > 1);
+            pending = pending.stream().filter(index -> sentiments[index] == null).toList();
+            if (!pending.isEmpty()) {
+                log.debug("Batch sentiment attempt {} left {} of {} reviews unclassified", attempt, pending.size(), reviews.size());
+            }
+        }
+        for (int index : pending) {
+            sentiments[index] = classifySentiment(reviews.get(index));
+        }
+        return Arrays.asList(sentiments);
+    }
+
+    List<List<Integer>> chunk(List<String> reviews, List<Integer> indexes) {
+        List<List<Integer>> chunks = new ArrayList<>();
+        List<Integer> chunk = new ArrayList<>();
+        int tokens = 0;
+        for (int index : indexes) {
+            int reviewTokens = reviews.get(index).length() / 4 + TOKENS_PER_REVIEW;
+            if (!chunk.isEmpty() && (chunk.size() == this.batchMaxReviews || tokens + reviewTokens > this.batchMaxTokens)) {
+                chunks.add(chunk);
+                chunk = new ArrayList<>();
+                tokens = 0;
+            }
+            chunk.add(index);
+            tokens += reviewTokens;
+        }
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    private void classifyChunks(List<String> reviews, List<List<Integer>> chunks, Sentiment[] sentiments, boolean retry) {
+        Semaphore permits = new Semaphore(this.batchConcurrency);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> calls = new ArrayList<>(chunks.size());
+            for (List<Integer> chunk : chunks) {
+                permits.acquireUninterruptibly();
+                calls.add(executor.submit(() -> {
+                    try {
+                        classifyChunk(reviews, chunk, sentiments, retry);
+                    }
+                    finally {
+                        permits.release();
+                    }
+                }));
+            }
+            for (Future<?> call : calls) {
+                call.get();
+            }
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while classifying reviews", ex);
+        }
+        catch (ExecutionException ex) {
+            throw new IllegalStateException("Batch sentiment classification failed", ex.getCause());
+        }
+    }
+
+    /**
+     * Reviews are numbered from 1 within the chunk, so a missing or invented index is easy to spot. Only entries
+     * that name an index of this chunk exactly once are kept.
+     */
+    private void classifyChunk(List<String> reviews, List<Integer> chunk, Sentiment[] sentiments, boolean retry) {
+        StringBuilder user = new StringBuilder();
+        for (int i = 0; i < chunk.size(); i++) {
+            user.append('[').append(i + 1).append("] ")
+                    .append(reviews.get(chunk.get(i)).replaceAll("\\s+", " ").strip())
+                    .append('\n');
+        }
+        IndexedSentiments result;
+        try {
+            result = chatClient.prompt()
+                    .advisors(a -> a.param(ResponseCacheAdvisor.BYPASS, retry))
+                    .system(BATCH_SYSTEM_PROMPT)
+                    .user(user.toString())
+                    .call()
+                    .entity(this.batchConverter);
+        }
+        catch (RuntimeException ex) {
+            log.debug("Batch of {} reviews failed, retrying them", chunk.size(), ex);
+            return;
+        }
+        if (result == null || result.sentiments() == null) {
+            return;
+        }
+        Sentiment[] found = new Sentiment[chunk.size()];
+        boolean[] repeated = new boolean[chunk.size()];
+        for (IndexedSentiment entry : result.sentiments()) {
+            if (entry == null || entry.index() < 1 || entry.index() > chunk.size() || entry.sentiment() == null) {
+                continue;
+            }
+            int i = entry.index() - 1;
+            repeated[i] = found[i] != null;
+            found[i] = entry.sentiment();
+        }
+        for (int i = 0; i < chunk.size(); i++) {
+            if (found[i] != null && !repeated[i]) {
+                sentiments[chunk.get(i)] = found[i];
+            }
+        }
+    }
+
+    record IndexedSentiment(int index, Sentiment sentiment) {
+    }
+
+    record IndexedSentiments(List<IndexedSentiment> sentiments) {
     }
 
 }
@@ -0,0 +1,144 @@
+package dev.danvega.workshop.governor;
+
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.openai.OpenAiChatOptions;
+import org.springframework.lang.Nullable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs every call and stream of a {@link ChatModel} under a {@link ModelGovernor} permit for the requested model.
+ * <p>
+ * Tokens are estimated as the prompt's characters over four plus the completion budget, {@code maxTokens} (or
+ * {@code maxCompletionTokens}) when set and {@code defaultCompletionTokens} otherwise. The permit is corrected to
+ * the total the provider reports, which includes any tool-calling round trips made inside the call.
+ */
+public class GovernedChatModel implements ChatModel {
+
+    private final ChatModel delegate;
+    private final ModelGovernor governor;
+    private final long defaultCompletionTokens;
+
+    public GovernedChatModel(ChatModel delegate, ModelGovernor governor, long defaultCompletionTokens) {
+        this.delegate = delegate;
+        this.governor = governor;
+        this.defaultCompletionTokens = defaultCompletionTokens;
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        ModelGovernor.Permit permit = this.governor.acquire(model(prompt), estimateTokens(prompt));
+        try {
+            ChatResponse response = this.delegate.call(prompt);
+            Long actual = totalTokens(response);
+            if (actual != null) {
+                permit.complete(actual);
+            }
+            return response;
+        }
+        finally {
+            permit.close();
+        }
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        return Flux.defer(() -> {
+            // a subscriber that cancels while the caller is queued never sees the permit it is then granted, so
+            // whichever of the grant and the cancel comes second closes it
+            AtomicBoolean cancelled = new AtomicBoolean();
+            AtomicReference<ModelGovernor.Permit> granted = new AtomicReference<>();
+            // waiting for a permit blocks, keep it off the subscriber's thread
+            return Mono.fromCallable(() -> {
+                        ModelGovernor.Permit permit = this.governor.acquire(model(prompt), estimateTokens(prompt));
+                        granted.set(permit);
+                        if (cancelled.get()) {
+                            permit.close();
+                        }
+                        return permit;
+                    })
+                    .subscribeOn(Schedulers.boundedElastic())
+                    .doOnCancel(() -> {
+                        cancelled.set(true);
+                        ModelGovernor.Permit permit = granted.get();
+                        if (permit != null) {
+                            permit.close();
+                        }
+                    })
+                    .flatMapMany(permit -> {
+                        AtomicReference<Long> actual = new AtomicReference<>();
+                        return this.delegate.stream(prompt)
+                                .doOnNext(response -> {
+                                    Long tokens = totalTokens(response);
+                                    if (tokens != null) {
+                                        actual.set(tokens);
+                                    }
+                                })
+                                .doFinally(signal -> {
+                                    if (actual.get() != null) {
+                                        permit.complete(actual.get());
+                                    }
+                                    permit.close();
+                                });
+                    });
+        });
+    }
+
+    @Override
+    public ChatOptions getDefaultOptions() {
+        return this.delegate.getDefaultOptions();
+    }
+
+    String model(Prompt prompt) {
+        String model = prompt.getOptions() != null ? prompt.getOptions().getModel() : null;
+        if (model == null && this.delegate.getDefaultOptions() != null) {
+            model = this.delegate.getDefaultOptions().getModel();
+        }
+        return model != null ? model : "default";
+    }
+
+    long estimateTokens(Prompt prompt) {
+        long characters = 0;
+        for (Message message : prompt.getInstructions()) {
+            characters += message.getText() != null ? message.getText().length() : 0;
+        }
+        Integer completion = completionBudget(prompt.getOptions());
+        if (completion == null) {
+            completion = completionBudget(this.delegate.getDefaultOptions());
+        }
+        return characters / 4 + (completion != null ? completion : this.defaultCompletionTokens);
+    }
+
+    @Nullable
+    private static Integer completionBudget(@Nullable ChatOptions options) {
+        if (options == null) {
+            return null;
+        }
+        if (options instanceof OpenAiChatOptions openAiOptions && openAiOptions.getMaxCompletionTokens() != null) {
+            return openAiOptions.getMaxCompletionTokens();
+        }
+        return options.getMaxTokens();
+    }
+
+    @Nullable
+    private static Long totalTokens(@Nullable ChatResponse response) {
+        if (response == null || response.getMetadata() == null) {
+            return null;
+        }
+        Usage usage = response.getMetadata().getUsage();
+        if (usage == null || usage.getTotalTokens() == null || usage.getTotalTokens() <= 0) {
+            return null;
+        }
+        return usage.getTotalTokens().longValue();
+    }
+
+}
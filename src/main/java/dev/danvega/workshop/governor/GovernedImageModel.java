@@ -0,0 +1,32 @@
+package dev.danvega.workshop.governor;
+
+import org.springframework.ai.image.ImageModel;
+import org.springframework.ai.image.ImagePrompt;
+import org.springframework.ai.image.ImageResponse;
+
+/**
+ * Runs every call of an {@link ImageModel} under a {@link ModelGovernor} permit. Image models are limited by requests
+ * and concurrency, so no tokens are charged.
+ */
+public class GovernedImageModel implements ImageModel {
+
+    private final ImageModel delegate;
+    private final ModelGovernor governor;
+    private final String defaultModel;
+
+    public GovernedImageModel(ImageModel delegate, ModelGovernor governor, String defaultModel) {
+        this.delegate = delegate;
+        this.governor = governor;
+        this.defaultModel = defaultModel;
+    }
+
+    @Override
+    public ImageResponse call(ImagePrompt request) {
+        String model = request.getOptions() != null && request.getOptions().getModel() != null
+                ? request.getOptions().getModel() : this.defaultModel;
+        try (ModelGovernor.Permit permit = this.governor.acquire(model, 0)) {
+            return this.delegate.call(request);
+        }
+    }
+
+}
@@ -0,0 +1,52 @@
+package dev.danvega.workshop.governor;
+
+import org.springframework.ai.audio.tts.TextToSpeechModel;
+import org.springframework.ai.audio.tts.TextToSpeechOptions;
+import org.springframework.ai.audio.tts.TextToSpeechPrompt;
+import org.springframework.ai.audio.tts.TextToSpeechResponse;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Runs every call and stream of a {@link TextToSpeechModel} under a {@link ModelGovernor} permit. Speech is limited
+ * by requests and concurrency, so no tokens are charged.
+ */
+public class GovernedTextToSpeechModel implements TextToSpeechModel {
+
+    private final TextToSpeechModel delegate;
+    private final ModelGovernor governor;
+
+    public GovernedTextToSpeechModel(TextToSpeechModel delegate, ModelGovernor governor) {
+        this.delegate = delegate;
+        this.governor = governor;
+    }
+
+    @Override
+    public TextToSpeechResponse call(TextToSpeechPrompt prompt) {
+        try (ModelGovernor.Permit permit = this.governor.acquire(model(prompt), 0)) {
+            return this.delegate.call(prompt);
+        }
+    }
+
+    @Override
+    public Flux<TextToSpeechResponse> stream(TextToSpeechPrompt prompt) {
+        return Mono.fromCallable(() -> this.governor.acquire(model(prompt), 0))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMapMany(permit -> this.delegate.stream(prompt).doFinally(signal -> permit.close()));
+    }
+
+    @Override
+    public TextToSpeechOptions getDefaultOptions() {
+        return this.delegate.getDefaultOptions();
+    }
+
+    private String model(TextToSpeechPrompt prompt) {
+        if (prompt.getOptions() != null && prompt.getOptions().getModel() != null) {
+            return prompt.getOptions().getModel();
+        }
+        TextToSpeechOptions defaults = this.delegate.getDefaultOptions();
+        return defaults != null && defaults.getModel() != null ? defaults.getModel() : "default";
+    }
+
+}
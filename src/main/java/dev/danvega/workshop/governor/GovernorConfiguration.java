@@ -0,0 +1,77 @@
+package dev.danvega.workshop.governor;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.openai.OpenAiAudioSpeechModel;
+import org.springframework.ai.openai.OpenAiChatModel;
+import org.springframework.ai.openai.OpenAiImageModel;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Puts a {@link ModelGovernor} in front of the OpenAI chat, image and speech models. Limits for individual models are
+ * read from {@code workshop.governor.models.<model>.*}; other models get {@code workshop.governor.defaults.*}.
+ */
+@Configuration
+@ConditionalOnProperty(name = "workshop.governor.enabled", havingValue = "true")
+public class GovernorConfiguration {
+
+    @Value("${workshop.governor.max-wait:10s}")
+    private Duration maxWait;
+
+    @Value("${workshop.governor.default-completion-tokens:512}")
+    private long defaultCompletionTokens;
+
+    @Value("${workshop.governor.defaults.max-concurrency:0}")
+    private int defaultMaxConcurrency;
+
+    @Value("${workshop.governor.defaults.requests-per-minute:0}")
+    private long defaultRequestsPerMinute;
+
+    @Value("${workshop.governor.defaults.tokens-per-minute:0}")
+    private long defaultTokensPerMinute;
+
+    @Value("${spring.ai.openai.image.options.model:dall-e-3}")
+    private String imageModelName;
+
+    @Bean
+    ModelGovernor modelGovernor(Environment environment, ObjectProvider<MeterRegistry> meterRegistry) {
+        Map<String, ModelLimits> limits = Binder.get(environment)
+                .bind("workshop.governor.models", Bindable.mapOf(String.class, ModelLimits.class))
+                .orElse(Map.of());
+        return ModelGovernor.builder()
+                .limits(limits)
+                .defaultLimits(new ModelLimits(defaultMaxConcurrency, defaultRequestsPerMinute, defaultTokensPerMinute))
+                .maxWait(maxWait)
+                .meterRegistry(meterRegistry.getIfAvailable())
+                .build();
+    }
+
+    @Bean
+    @Primary
+    GovernedChatModel governedChatModel(OpenAiChatModel openAiChatModel, ModelGovernor modelGovernor) {
+        return new GovernedChatModel(openAiChatModel, modelGovernor, defaultCompletionTokens);
+    }
+
+    @Bean
+    @Primary
+    GovernedImageModel governedImageModel(OpenAiImageModel openAiImageModel, ModelGovernor modelGovernor) {
+        return new GovernedImageModel(openAiImageModel, modelGovernor, imageModelName);
+    }
+
+    @Bean
+    @Primary
+    GovernedTextToSpeechModel governedTextToSpeechModel(OpenAiAudioSpeechModel openAiAudioSpeechModel, ModelGovernor modelGovernor) {
+        return new GovernedTextToSpeechModel(openAiAudioSpeechModel, modelGovernor);
+    }
+
+}
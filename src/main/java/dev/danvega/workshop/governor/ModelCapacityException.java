@@ -0,0 +1,23 @@
+package dev.danvega.workshop.governor;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Thrown instead of calling the model when the call could not start within the caller's wait budget.
+ */
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class ModelCapacityException extends RuntimeException {
+
+    private final String model;
+
+    public ModelCapacityException(String model, String message) {
+        super(message);
+        this.model = model;
+    }
+
+    public String getModel() {
+        return this.model;
+    }
+
+}
@@ -0,0 +1,420 @@
+package dev.danvega.workshop.governor;
+
+import com.github.benmanes.caffeine.cache.Ticker;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admission control for outbound model calls, one lane per model name.
+ * <p>
+ * A call {@link #acquire acquires} a permit before it starts and releases it when it ends. A lane admits a call when
+ * fewer than {@code maxConcurrency} calls are in flight and its two token buckets, one for requests and one for
+ * tokens per minute, hold the request and its estimated token count. The estimate is debited up front and corrected
+ * to the actual usage on {@link Permit#complete(long)}, so underestimates are paid back by later callers.
+ * <p>
+ * Callers queue in arrival order; only the head of the queue may start. On arrival the lane predicts how long the
+ * caller would wait, from the queued token and request demand and the average call duration, and throws
+ * {@link ModelCapacityException} at once if that exceeds the caller's wait budget, rather than letting it time out
+ * at the end of the queue. A caller that is still queued when its budget runs out is rejected too.
+ */
+public class ModelGovernor {
+
+    private final Map<String, ModelLimits> limits;
+    private final ModelLimits defaultLimits;
+    private final Duration maxWait;
+    private final Ticker ticker;
+    @Nullable
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+
+    private ModelGovernor(Builder builder) {
+        this.limits = Map.copyOf(builder.limits);
+        this.defaultLimits = builder.defaultLimits;
+        this.maxWait = builder.maxWait;
+        this.ticker = builder.ticker;
+        this.meterRegistry = builder.meterRegistry;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Waits up to the configured {@code maxWait} for a permit.
+     */
+    public Permit acquire(String model, long estimatedTokens) {
+        return acquire(model, estimatedTokens, this.maxWait);
+    }
+
+    /**
+     * @throws ModelCapacityException if the call cannot start within {@code maxWait}
+     */
+    public Permit acquire(String model, long estimatedTokens, Duration maxWait) {
+        return this.lanes.computeIfAbsent(model, this::lane).acquire(Math.max(0, estimatedTokens), maxWait.toNanos());
+    }
+
+    public int inFlight(String model) {
+        Lane lane = this.lanes.get(model);
+        return lane != null ? lane.inFlight() : 0;
+    }
+
+    private Lane lane(String model) {
+        return new Lane(model, this.limits.getOrDefault(model, this.defaultLimits), this.ticker, this.meterRegistry);
+    }
+
+    /**
+     * An admitted call. Release it exactly once, with {@link #complete(long)} when the actual token usage is known or
+     * {@link #close()} when it is not.
+     */
+    public static final class Permit implements AutoCloseable {
+
+        private final Lane lane;
+        private final long estimatedTokens;
+        private final long startNanos;
+        private boolean released;
+
+        private Permit(Lane lane, long estimatedTokens, long startNanos) {
+            this.lane = lane;
+            this.estimatedTokens = estimatedTokens;
+            this.startNanos = startNanos;
+        }
+
+        /**
+         * Releases the permit and corrects the token budget from the estimate to {@code actualTokens}.
+         */
+        public void complete(long actualTokens) {
+            release(actualTokens);
+        }
+
+        /**
+         * Releases the permit, keeping the estimate as the tokens spent.
+         */
+        @Override
+        public void close() {
+            release(this.estimatedTokens);
+        }
+
+        private synchronized void release(long actualTokens) {
+            if (!this.released) {
+                this.released = true;
+                this.lane.release(this.estimatedTokens, actualTokens, this.lane.ticker.read() - this.startNanos);
+            }
+        }
+
+    }
+
+    /**
+     * A budget that refills continuously up to one minute's worth. It may go negative when actual usage exceeds the
+     * estimate that was taken.
+     */
+    private static final class TokenBucket {
+
+        private final double capacity;
+        private final double perNano;
+        private double available;
+        private long refilledAt;
+
+        TokenBucket(long perMinute, long now) {
+            this.capacity = perMinute;
+            this.perNano = perMinute / (double) TimeUnit.MINUTES.toNanos(1);
+            this.available = perMinute;
+            this.refilledAt = now;
+        }
+
+        boolean unlimited() {
+            return this.capacity <= 0;
+        }
+
+        void refill(long now) {
+            this.available = Math.min(this.capacity, this.available + (now - this.refilledAt) * this.perNano);
+            this.refilledAt = now;
+        }
+
+        /**
+         * Requests above the capacity are clamped so they can still run once the bucket is full.
+         */
+        double demand(long amount) {
+            return Math.min(amount, this.capacity);
+        }
+
+        /**
+         * Nanoseconds until {@code amount} beyond what is already owed is available.
+         */
+        long nanosUntil(double amount) {
+            if (unlimited() || this.available >= amount) {
+                return 0;
+            }
+            return (long) Math.ceil((amount - this.available) / this.perNano);
+        }
+
+    }
+
+    private static final class Lane {
+
+        private static final double HOLD_SMOOTHING = 0.2;
+
+        private final String model;
+        private final ModelLimits limits;
+        private final Ticker ticker;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = this.lock.newCondition();
+        private final ArrayDeque<Waiter> queue = new ArrayDeque<>();
+        private final TokenBucket requests;
+        private final TokenBucket tokens;
+        private int inFlight;
+        private long queuedTokens;
+        private double averageHoldNanos;
+        @Nullable
+        private final Timer waitTimer;
+        @Nullable
+        private final Counter shedCounter;
+        @Nullable
+        private final Counter timeoutCounter;
+
+        Lane(String model, ModelLimits limits, Ticker ticker, @Nullable MeterRegistry registry) {
+            this.model = model;
+            this.limits = limits;
+            this.ticker = ticker;
+            long now = ticker.read();
+            this.requests = new TokenBucket(limits.requestsPerMinute(), now);
+            this.tokens = new TokenBucket(limits.tokensPerMinute(), now);
+            if (registry != null) {
+                this.waitTimer = Timer.builder("model.governor.wait").tag("model", model).register(registry);
+                this.shedCounter = Counter.builder("model.governor.rejected").tags("model", model, "reason", "predicted-wait").register(registry);
+                this.timeoutCounter = Counter.builder("model.governor.rejected").tags("model", model, "reason", "deadline").register(registry);
+                Gauge.builder("model.governor.in-flight", this, Lane::inFlight).tag("model", model).register(registry);
+                Gauge.builder("model.governor.queued", this, Lane::queued).tag("model", model).register(registry);
+            }
+            else {
+                this.waitTimer = null;
+                this.shedCounter = null;
+                this.timeoutCounter = null;
+            }
+        }
+
+        Permit acquire(long estimatedTokens, long maxWaitNanos) {
+            long arrived = this.ticker.read();
+            long deadline = arrived + maxWaitNanos;
+            this.lock.lock();
+            try {
+                long now = arrived;
+                refill(now);
+                if (this.queue.isEmpty() && canStart(estimatedTokens)) {
+                    return start(estimatedTokens, arrived, now);
+                }
+                long predicted = predictedWait(estimatedTokens);
+                if (predicted > maxWaitNanos) {
+                    increment(this.shedCounter);
+                    throw new ModelCapacityException(this.model, "%s is at capacity, expected wait %d ms exceeds %d ms"
+                            .formatted(this.model, TimeUnit.NANOSECONDS.toMillis(predicted), TimeUnit.NANOSECONDS.toMillis(maxWaitNanos)));
+                }
+                Waiter waiter = new Waiter();
+                this.queue.addLast(waiter);
+                this.queuedTokens += estimatedTokens;
+                try {
+                    while (true) {
+                        refill(now);
+                        boolean head = this.queue.peekFirst() == waiter;
+                        if (head && canStart(estimatedTokens)) {
+                            this.queue.pollFirst();
+                            waiter.started = true;
+                            this.queuedTokens -= estimatedTokens;
+                            this.changed.signalAll();
+                            return start(estimatedTokens, arrived, now);
+                        }
+                        long remaining = deadline - now;
+                        if (remaining <= 0) {
+                            increment(this.timeoutCounter);
+                            throw new ModelCapacityException(this.model, "%s is at capacity, no slot within %d ms"
+                                    .formatted(this.model, TimeUnit.NANOSECONDS.toMillis(maxWaitNanos)));
+                        }
+                        // the head wakes itself when the buckets refill, everyone else when the queue moves
+                        long refill = head ? bucketWait(estimatedTokens) : 0;
+                        this.changed.awaitNanos(refill > 0 ? Math.min(refill, remaining) : remaining);
+                        now = this.ticker.read();
+                    }
+                }
+                catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new ModelCapacityException(this.model, "Interrupted while waiting for " + this.model);
+                }
+                finally {
+                    if (!waiter.started) {
+                        this.queue.remove(waiter);
+                        this.queuedTokens -= estimatedTokens;
+                        this.changed.signalAll();
+                    }
+                }
+            }
+            finally {
+                this.lock.unlock();
+            }
+        }
+
+        void release(long estimatedTokens, long actualTokens, long heldNanos) {
+            this.lock.lock();
+            try {
+                this.inFlight--;
+                if (!this.tokens.unlimited()) {
+                    this.tokens.available += estimatedTokens - actualTokens;
+                }
+                this.averageHoldNanos = this.averageHoldNanos == 0
+                        ? heldNanos : this.averageHoldNanos + HOLD_SMOOTHING * (heldNanos - this.averageHoldNanos);
+                this.changed.signalAll();
+            }
+            finally {
+                this.lock.unlock();
+            }
+        }
+
+        int inFlight() {
+            this.lock.lock();
+            try {
+                return this.inFlight;
+            }
+            finally {
+                this.lock.unlock();
+            }
+        }
+
+        int queued() {
+            this.lock.lock();
+            try {
+                return this.queue.size();
+            }
+            finally {
+                this.lock.unlock();
+            }
+        }
+
+        private Permit start(long estimatedTokens, long arrived, long now) {
+            this.inFlight++;
+            if (!this.requests.unlimited()) {
+                this.requests.available -= 1;
+            }
+            if (!this.tokens.unlimited()) {
+                this.tokens.available -= estimatedTokens;
+            }
+            if (this.waitTimer != null) {
+                this.waitTimer.record(now - arrived, TimeUnit.NANOSECONDS);
+            }
+            return new Permit(this, estimatedTokens, now);
+        }
+
+        private boolean canStart(long estimatedTokens) {
+            return (this.limits.maxConcurrency() <= 0 || this.inFlight < this.limits.maxConcurrency())
+                    && bucketWait(estimatedTokens) == 0;
+        }
+
+        private long bucketWait(long estimatedTokens) {
+            return Math.max(this.requests.nanosUntil(this.requests.demand(1)),
+                    this.tokens.nanosUntil(this.tokens.demand(estimatedTokens)));
+        }
+
+        /**
+         * How long a new arrival would wait: for the buckets to cover everything queued ahead of it plus itself, and
+         * for enough calls to finish to free a slot for it.
+         */
+        private long predictedWait(long estimatedTokens) {
+            int ahead = this.queue.size();
+            long wait = Math.max(this.requests.nanosUntil(ahead + this.requests.demand(1)),
+                    this.tokens.nanosUntil(this.queuedTokens + this.tokens.demand(estimatedTokens)));
+            int maxConcurrency = this.limits.maxConcurrency();
+            if (maxConcurrency > 0) {
+                int slotsNeeded = ahead + 1 - (maxConcurrency - this.inFlight);
+                if (slotsNeeded > 0) {
+                    long rounds = (slotsNeeded + maxConcurrency - 1) / maxConcurrency;
+                    wait = Math.max(wait, (long) (rounds * this.averageHoldNanos));
+                }
+            }
+            return wait;
+        }
+
+        private void refill(long now) {
+            this.requests.refill(now);
+            this.tokens.refill(now);
+        }
+
+        private static void increment(@Nullable Counter counter) {
+            if (counter != null) {
+                counter.increment();
+            }
+        }
+
+    }
+
+    private static final class Waiter {
+
+        private boolean started;
+
+    }
+
+    public static final class Builder {
+
+        private final Map<String, ModelLimits> limits = new HashMap<>();
+        private ModelLimits defaultLimits = ModelLimits.UNLIMITED;
+        private Duration maxWait = Duration.ofSeconds(10);
+        private Ticker ticker = Ticker.systemTicker();
+        @Nullable
+        private MeterRegistry meterRegistry;
+
+        private Builder() {
+        }
+
+        public Builder limits(String model, ModelLimits limits) {
+            this.limits.put(model, limits);
+            return this;
+        }
+
+        public Builder limits(Map<String, ModelLimits> limits) {
+            this.limits.putAll(limits);
+            return this;
+        }
+
+        /**
+         * Limits for models without their own entry; unlimited by default.
+         */
+        public Builder defaultLimits(ModelLimits defaultLimits) {
+            this.defaultLimits = defaultLimits;
+            return this;
+        }
+
+        public Builder maxWait(Duration maxWait) {
+            Assert.isTrue(!maxWait.isNegative(), "maxWait must not be negative");
+            this.maxWait = maxWait;
+            return this;
+        }
+
+        /**
+         * Source of the nanosecond time the buckets refill and deadlines expire by.
+         */
+        public Builder ticker(Ticker ticker) {
+            this.ticker = ticker;
+            return this;
+        }
+
+        public Builder meterRegistry(@Nullable MeterRegistry meterRegistry) {
+            this.meterRegistry = meterRegistry;
+            return this;
+        }
+
+        public ModelGovernor build() {
+            return new ModelGovernor(this);
+        }
+
+    }
+
+}
@@ -0,0 +1,14 @@
+package dev.danvega.workshop.governor;
+
+/**
+ * Outbound limits for one model. A value of zero or less leaves that dimension unlimited.
+ *
+ * @param maxConcurrency calls in flight at once
+ * @param requestsPerMinute requests started per minute, allowing a burst of one minute's budget
+ * @param tokensPerMinute prompt plus completion tokens per minute, allowing a burst of one minute's budget
+ */
+public record ModelLimits(int maxConcurrency, long requestsPerMinute, long tokensPerMinute) {
+
+    public static final ModelLimits UNLIMITED = new ModelLimits(0, 0, 0);
+
+}
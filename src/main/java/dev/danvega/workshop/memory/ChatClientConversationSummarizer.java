@@ -0,0 +1,49 @@
+package dev.danvega.workshop.memory;
+
+import dev.danvega.workshop.prompt.PromptTemplateRegistry;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.lang.Nullable;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Summarizes with the {@code conversation-summary} prompt template. Tool calls and their results are left out, the
+ * answers built from them are not.
+ */
+public class ChatClientConversationSummarizer implements ConversationSummarizer {
+
+    private final ChatClient chatClient;
+    private final PromptTemplateRegistry promptTemplates;
+    private final int maxWords;
+
+    public ChatClientConversationSummarizer(ChatClient chatClient, PromptTemplateRegistry promptTemplates, int maxWords) {
+        this.chatClient = chatClient;
+        this.promptTemplates = promptTemplates;
+        this.maxWords = maxWords;
+    }
+
+    @Override
+    public String summarize(@Nullable String previousSummary, List<Message> turns) {
+        StringBuilder transcript = new StringBuilder();
+        for (Message message : turns) {
+            if ((message.getMessageType() == MessageType.USER || message.getMessageType() == MessageType.ASSISTANT)
+                    && message.getText() != null && !message.getText().isBlank()) {
+                transcript.append(message.getMessageType() == MessageType.USER ? "User: " : "Assistant: ")
+                        .append(message.getText().strip())
+                        .append('\n');
+            }
+        }
+        String prompt = this.promptTemplates.render("conversation-summary", Map.of(
+                "summary", previousSummary != null ? previousSummary : "(none yet)",
+                "turns", transcript,
+                "maxWords", this.maxWords));
+        return this.chatClient.prompt()
+                .user(prompt)
+                .call()
+                .content();
+    }
+
+}
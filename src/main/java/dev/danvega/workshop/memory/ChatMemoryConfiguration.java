@@ -0,0 +1,107 @@
+package dev.danvega.workshop.memory;
+
+import dev.danvega.workshop.prompt.PromptTemplateRegistry;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.openai.OpenAiChatOptions;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Replaces the auto-configured message-window {@code ChatMemory} with a {@link ShardedChatMemory}, compacted by a
+ * {@link ChatClientConversationSummarizer} when {@code workshop.chat.memory.compaction.enabled} is set and saved to a
+ * {@link LogChatMemoryRepository} when {@code workshop.chat.memory.log.enabled} is. Compaction and
+ * {@code workshop.chat.memory.long-term.enabled} work together: the {@link LongTermMemoryAdvisor} puts the latest
+ * summary into the prompt next to the turns it recalls.
+ */
+@Configuration
+@ConditionalOnProperty(name = "workshop.chat.memory.enabled", havingValue = "true")
+public class ChatMemoryConfiguration {
+
+    @Value("${workshop.chat.memory.shards:64}")
+    private int shards;
+
+    @Value("${workshop.chat.memory.max-tokens-per-conversation:2000}")
+    private int maxTokensPerConversation;
+
+    @Value("${workshop.chat.memory.max-total-tokens:20000000}")
+    private long maxTotalTokens;
+
+    @Value("${workshop.chat.memory.compaction.threshold-tokens:1200}")
+    private int compactionThresholdTokens;
+
+    @Value("${workshop.chat.memory.compaction.keep-recent-tokens:400}")
+    private int keepRecentTokens;
+
+    @Value("${workshop.chat.memory.compaction.max-concurrent:16}")
+    private int maxConcurrentCompactions;
+
+    @Value("${workshop.chat.memory.compaction.summary-max-words:150}")
+    private int summaryMaxWords;
+
+    @Value("${workshop.chat.memory.log.directory:.cache/chat-memory}")
+    private Path logDirectory;
+
+    @Value("${workshop.chat.memory.log.segment-size:64MB}")
+    private DataSize segmentSize;
+
+    @Value("${workshop.chat.memory.log.sync:false}")
+    private boolean sync;
+
+    @Value("${workshop.chat.memory.log.commit-interval:10ms}")
+    private Duration commitInterval;
+
+    @Value("${workshop.chat.memory.log.compaction-interval:1m}")
+    private Duration logCompactionInterval;
+
+    @Value("${workshop.chat.memory.log.compaction-dead-ratio:0.5}")
+    private double compactionDeadRatio;
+
+    // the log type rather than ChatMemoryRepository, which Spring AI auto-configures in memory
+    @Bean
+    ShardedChatMemory chatMemory(ObjectProvider<ConversationSummarizer> summarizer, ObjectProvider<LogChatMemoryRepository> repository,
+            ObjectProvider<MeterRegistry> meterRegistry) {
+        return ShardedChatMemory.builder()
+                .shards(shards)
+                .maxTokensPerConversation(maxTokensPerConversation)
+                .maxTotalTokens(maxTotalTokens)
+                .summarizer(summarizer.getIfAvailable())
+                .compactionThresholdTokens(compactionThresholdTokens)
+                .keepRecentTokens(keepRecentTokens)
+                .maxConcurrentCompactions(maxConcurrentCompactions)
+                .repository(repository.getIfAvailable())
+                .meterRegistry(meterRegistry.getIfAvailable())
+                .build();
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "workshop.chat.memory.log.enabled", havingValue = "true")
+    LogChatMemoryRepository logChatMemoryRepository(ObjectProvider<MeterRegistry> meterRegistry) throws IOException {
+        LogChatMemoryRepository repository = LogChatMemoryRepository.builder(logDirectory)
+                .segmentBytes(segmentSize.toBytes())
+                .sync(sync)
+                .commitInterval(commitInterval)
+                .compactionInterval(logCompactionInterval)
+                .compactionDeadRatio(compactionDeadRatio)
+                .build();
+        meterRegistry.ifAvailable(repository::bindTo);
+        return repository;
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "workshop.chat.memory.compaction.enabled", havingValue = "true")
+    ChatClientConversationSummarizer conversationSummarizer(ChatClient.Builder builder, PromptTemplateRegistry promptTemplates) {
+        // low temperature: a summary should restate, not embellish
+        ChatClient chatClient = builder.defaultOptions(OpenAiChatOptions.builder().temperature(0.2d).build()).build();
+        return new ChatClientConversationSummarizer(chatClient, promptTemplates, summaryMaxWords);
+    }
+
+}
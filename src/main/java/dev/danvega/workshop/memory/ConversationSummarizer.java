@@ -0,0 +1,21 @@
+package dev.danvega.workshop.memory;
+
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.lang.Nullable;
+
+import java.util.List;
+
+/**
+ * Folds older turns of a conversation into a rolling summary.
+ */
+@FunctionalInterface
+public interface ConversationSummarizer {
+
+    /**
+     * @param previousSummary the summary the turns follow, {@code null} for the start of the conversation
+     * @param turns the messages to fold in, oldest first
+     * @return the summary of {@code previousSummary} and {@code turns} together
+     */
+    String summarize(@Nullable String previousSummary, List<Message> turns);
+
+}
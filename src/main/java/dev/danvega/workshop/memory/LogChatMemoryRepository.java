@@ -0,0 +1,800 @@
+package dev.danvega.workshop.memory;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.util.Assert;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * A {@link ChatMemoryRepository} on local, segmented, append-only log files, with an in-memory index of where each
+ * conversation's records are.
+ * <p>
+ * Record layout, little-endian:
+ * <pre>
+ * int32  payload length
+ * int32  CRC32C of the payload
+ * byte   operation   1 replace, 2 append, 3 delete
+ * int32  conversation id length, then the id in UTF-8
+ * int32  messages dropped from the head before appending (append only)
+ * int32  message count, then per message its int64 fingerprint, int32 length and {@link MessageCodec} bytes
+ * </pre>
+ * {@link #saveAll} compares fingerprints with the index and, when the new list is the stored one with some messages
+ * dropped from the head and some appended, writes only that difference; otherwise, and every so often to keep reads
+ * short, it writes the whole conversation. Writes go to the page cache and a commit thread forces them to disk, one
+ * {@code fsync} for everything written since the last one, every {@code commitInterval}. With {@code sync} on, a save
+ * returns only once its commit is done, and the commit runs as soon as there is anything to force.
+ * <p>
+ * Segments roll at {@code segmentBytes}. When the closed segments are more than {@code compactionDeadRatio} dead, the
+ * conversations that still have records in them are rewritten to the active segment and they are deleted. On open,
+ * every segment is memory-mapped and scanned to rebuild the index, reading fingerprints but skipping message bodies;
+ * a record torn by a crash is truncated away. A bad record in an older segment ends recovery there: the log is kept up to
+ * it and the later segments are renamed to {@code .corrupt} rather than replayed over the gap.
+ */
+public class LogChatMemoryRepository implements ChatMemoryRepository, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(LogChatMemoryRepository.class);
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("chat-memory-(\\d{6})\\.log");
+    private static final int RECORD_HEADER_BYTES = Integer.BYTES * 2;
+    private static final byte REPLACE = 1;
+    private static final byte APPEND = 2;
+    private static final byte DELETE = 3;
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final boolean sync;
+    private final long commitIntervalNanos;
+    private final double compactionDeadRatio;
+    private final long compactionIntervalNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition work = this.lock.newCondition();
+    private final Condition committed = this.lock.newCondition();
+    private final Condition stopping = this.lock.newCondition();
+    private final Map<String, ConversationLog> conversations = new HashMap<>();
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private Segment active;
+    private long writtenSequence;
+    private long durableSequence;
+    private boolean closed;
+    private final Thread committer;
+    private final Thread compactor;
+
+    private LogChatMemoryRepository(Builder builder) throws IOException {
+        this.directory = builder.directory;
+        this.segmentBytes = builder.segmentBytes;
+        this.sync = builder.sync;
+        this.commitIntervalNanos = builder.commitInterval.toNanos();
+        this.compactionDeadRatio = builder.compactionDeadRatio;
+        this.compactionIntervalNanos = builder.compactionInterval.toNanos();
+        Files.createDirectories(this.directory);
+        long start = System.nanoTime();
+        long records = recover();
+        log.info("Chat memory log {} holds {} conversations in {} records, recovered in {} ms", this.directory,
+                this.conversations.size(), records, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        this.committer = Thread.ofVirtual().name("chat-memory-log-commit").start(this::commitLoop);
+        this.compactor = Thread.ofVirtual().name("chat-memory-log-compact").start(this::compactLoop);
+    }
+
+    public static Builder builder(Path directory) {
+        return new Builder(directory);
+    }
+
+    @Override
+    public List<String> findConversationIds() {
+        this.lock.lock();
+        try {
+            return new ArrayList<>(this.conversations.keySet());
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public List<Message> findByConversationId(String conversationId) {
+        List<StoredMessage> stored;
+        this.lock.lock();
+        try {
+            ConversationLog conversation = this.conversations.get(conversationId);
+            if (conversation == null) {
+                return List.of();
+            }
+            stored = read(conversation);
+        }
+        finally {
+            this.lock.unlock();
+        }
+        List<Message> messages = new ArrayList<>(stored.size());
+        for (StoredMessage message : stored) {
+            messages.add(MessageCodec.decode(message.body()));
+        }
+        return messages;
+    }
+
+    @Override
+    public void saveAll(String conversationId, List<Message> messages) {
+        Assert.hasText(conversationId, "conversationId must not be empty");
+        if (messages.isEmpty()) {
+            deleteByConversationId(conversationId);
+            return;
+        }
+        long[] fingerprints = new long[messages.size()];
+        for (int i = 0; i < fingerprints.length; i++) {
+            fingerprints[i] = MessageCodec.fingerprint(messages.get(i));
+        }
+        long sequence;
+        this.lock.lock();
+        try {
+            ConversationLog conversation = this.conversations.get(conversationId);
+            int dropped = conversation != null ? conversation.dropped(fingerprints) : -1;
+            if (dropped >= 0 && !conversation.needsCheckpoint()) {
+                int kept = conversation.messages - dropped;
+                if (dropped == 0 && kept == fingerprints.length) {
+                    return;
+                }
+                List<StoredMessage> appended = new ArrayList<>(fingerprints.length - kept);
+                for (int i = kept; i < fingerprints.length; i++) {
+                    appended.add(new StoredMessage(fingerprints[i], MessageCodec.encode(messages.get(i))));
+                }
+                int length = write(APPEND, conversationId, dropped, appended);
+                conversation.append(this.active.id, this.active.size - length, length, fingerprints);
+                this.active.liveBytes += length;
+            }
+            else {
+                List<StoredMessage> all = new ArrayList<>(fingerprints.length);
+                for (int i = 0; i < fingerprints.length; i++) {
+                    all.add(new StoredMessage(fingerprints[i], MessageCodec.encode(messages.get(i))));
+                }
+                replace(conversationId, all);
+            }
+            sequence = this.writtenSequence;
+        }
+        finally {
+            this.lock.unlock();
+        }
+        awaitDurable(sequence);
+    }
+
+    @Override
+    public void deleteByConversationId(String conversationId) {
+        long sequence;
+        this.lock.lock();
+        try {
+            ConversationLog conversation = this.conversations.remove(conversationId);
+            if (conversation == null) {
+                return;
+            }
+            release(conversation);
+            // a tombstone is dead from the start, it only has to outlive the records it deletes
+            write(DELETE, conversationId, 0, List.of());
+            sequence = this.writtenSequence;
+        }
+        finally {
+            this.lock.unlock();
+        }
+        awaitDurable(sequence);
+    }
+
+    /**
+     * Rewrites the conversations that have records in closed segments and deletes those segments, if enough of them
+     * is dead. Runs on its own every {@code compactionInterval}.
+     *
+     * @return the number of segments deleted
+     */
+    public int compact() {
+        int cutoff;
+        List<String> pending = new ArrayList<>();
+        this.lock.lock();
+        try {
+            Map<Integer, Segment> closedSegments = this.segments.headMap(this.active.id);
+            long size = 0;
+            long live = 0;
+            for (Segment segment : closedSegments.values()) {
+                size += segment.size;
+                live += segment.liveBytes;
+            }
+            if (closedSegments.isEmpty() || size - live < size * this.compactionDeadRatio) {
+                return 0;
+            }
+            cutoff = this.active.id - 1;
+            this.conversations.forEach((id, conversation) -> {
+                if (conversation.minimumSegment() <= cutoff) {
+                    pending.add(id);
+                }
+            });
+        }
+        finally {
+            this.lock.unlock();
+        }
+        // one conversation per lock hold, so saves keep flowing while this runs
+        for (String id : pending) {
+            this.lock.lock();
+            try {
+                ConversationLog conversation = this.conversations.get(id);
+                if (conversation != null && conversation.minimumSegment() <= cutoff) {
+                    replace(id, read(conversation));
+                }
+            }
+            finally {
+                this.lock.unlock();
+            }
+        }
+        int deleted = 0;
+        this.lock.lock();
+        try {
+            // oldest first and only while nothing is live, so a delete record never goes before what it deletes
+            for (Segment segment : List.copyOf(this.segments.headMap(cutoff, true).values())) {
+                if (segment.liveBytes != 0) {
+                    break;
+                }
+                this.segments.remove(segment.id);
+                segment.channel.close();
+                Files.delete(segment.path);
+                deleted++;
+            }
+        }
+        catch (IOException ex) {
+            throw new UncheckedIOException("Could not delete compacted chat memory segment", ex);
+        }
+        finally {
+            this.lock.unlock();
+        }
+        log.info("Compacted chat memory log: rewrote {} conversations, deleted {} segments", pending.size(), deleted);
+        return deleted;
+    }
+
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("chat.memory.log.size", this, repository -> repository.bytes(false))
+                .description("Bytes in the chat memory log").baseUnit("bytes").register(registry);
+        Gauge.builder("chat.memory.log.live", this, repository -> repository.bytes(true))
+                .description("Bytes in the chat memory log that are still read").baseUnit("bytes").register(registry);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.lock.lock();
+        try {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            this.work.signalAll();
+            this.stopping.signalAll();
+        }
+        finally {
+            this.lock.unlock();
+        }
+        try {
+            this.committer.join();
+            this.compactor.join();
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        this.lock.lock();
+        try {
+            this.active.channel.force(false);
+            for (Segment segment : this.segments.values()) {
+                segment.channel.close();
+            }
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    private long bytes(boolean live) {
+        this.lock.lock();
+        try {
+            long bytes = 0;
+            for (Segment segment : this.segments.values()) {
+                bytes += live ? segment.liveBytes : segment.size;
+            }
+            return bytes;
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void replace(String conversationId, List<StoredMessage> messages) {
+        ConversationLog conversation = this.conversations.computeIfAbsent(conversationId, id -> new ConversationLog());
+        release(conversation);
+        int length = write(REPLACE, conversationId, 0, messages);
+        long[] fingerprints = new long[messages.size()];
+        for (int i = 0; i < fingerprints.length; i++) {
+            fingerprints[i] = messages.get(i).fingerprint();
+        }
+        conversation.replace(this.active.id, this.active.size - length, length, fingerprints);
+        this.active.liveBytes += length;
+    }
+
+    private void release(ConversationLog conversation) {
+        for (int i = 0; i < conversation.records; i++) {
+            Segment segment = this.segments.get(ConversationLog.segment(conversation.locations[i]));
+            if (segment != null) {
+                segment.liveBytes -= conversation.lengths[i];
+            }
+        }
+        conversation.records = 0;
+    }
+
+    /**
+     * Appends one record to the active segment, rolling it first if the record would not fit.
+     *
+     * @return the record's length, header included
+     */
+    private int write(byte operation, String conversationId, int dropped, List<StoredMessage> messages) {
+        byte[] id = conversationId.getBytes(StandardCharsets.UTF_8);
+        int payloadLength = 1 + Integer.BYTES + id.length + (operation == DELETE ? 0 : Integer.BYTES * 2);
+        for (StoredMessage message : messages) {
+            payloadLength += Long.BYTES + Integer.BYTES + message.body().length;
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + payloadLength).order(ByteOrder.LITTLE_ENDIAN);
+        record.position(RECORD_HEADER_BYTES);
+        record.put(operation).putInt(id.length).put(id);
+        if (operation != DELETE) {
+            record.putInt(dropped).putInt(messages.size());
+            for (StoredMessage message : messages) {
+                record.putLong(message.fingerprint()).putInt(message.body().length).put(message.body());
+            }
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(record.array(), RECORD_HEADER_BYTES, payloadLength);
+        record.putInt(0, payloadLength).putInt(Integer.BYTES, (int) crc.getValue());
+        record.flip();
+        try {
+            if (this.active.size > 0 && this.active.size + record.remaining() > this.segmentBytes) {
+                roll();
+            }
+            long position = this.active.size;
+            while (record.hasRemaining()) {
+                position += this.active.channel.write(record, position);
+            }
+            this.active.size = position;
+        }
+        catch (IOException ex) {
+            throw new UncheckedIOException("Could not append to chat memory log " + this.active.path, ex);
+        }
+        this.writtenSequence++;
+        this.work.signal();
+        return record.limit();
+    }
+
+    private void roll() throws IOException {
+        // the commit thread only forces the active segment, so the one being closed is forced here
+        this.active.channel.force(false);
+        this.active = openSegment(this.active.id + 1);
+    }
+
+    private List<StoredMessage> read(ConversationLog conversation) {
+        List<StoredMessage> messages = new ArrayList<>(conversation.messages);
+        for (int i = 0; i < conversation.records; i++) {
+            Segment segment = this.segments.get(ConversationLog.segment(conversation.locations[i]));
+            ByteBuffer record = ByteBuffer.allocate(conversation.lengths[i]).order(ByteOrder.LITTLE_ENDIAN);
+            try {
+                long position = ConversationLog.position(conversation.locations[i]);
+                while (record.hasRemaining()) {
+                    if (segment.channel.read(record, position + record.position()) < 0) {
+                        throw new IOException("Unexpected end of " + segment.path);
+                    }
+                }
+            }
+            catch (IOException ex) {
+                throw new UncheckedIOException("Could not read chat memory log " + segment.path, ex);
+            }
+            record.position(RECORD_HEADER_BYTES);
+            byte operation = record.get();
+            int idLength = record.getInt();
+            record.position(record.position() + idLength);
+            int dropped = record.getInt();
+            if (operation == REPLACE) {
+                messages.clear();
+            }
+            else {
+                messages.subList(0, dropped).clear();
+            }
+            for (int count = record.getInt(); count > 0; count--) {
+                long fingerprint = record.getLong();
+                byte[] body = new byte[record.getInt()];
+                record.get(body);
+                messages.add(new StoredMessage(fingerprint, body));
+            }
+        }
+        return messages;
+    }
+
+    private void awaitDurable(long sequence) {
+        if (!this.sync) {
+            return;
+        }
+        this.lock.lock();
+        try {
+            while (this.durableSequence < sequence && !this.closed) {
+                this.committed.awaitUninterruptibly();
+            }
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void commitLoop() {
+        while (true) {
+            long target;
+            FileChannel channel;
+            this.lock.lock();
+            try {
+                while (!this.closed && this.durableSequence == this.writtenSequence) {
+                    this.work.awaitUninterruptibly();
+                }
+                if (this.closed) {
+                    this.committed.signalAll();
+                    return;
+                }
+                if (!this.sync) {
+                    // let a batch build up; close() cuts the wait short
+                    this.stopping.awaitNanos(this.commitIntervalNanos);
+                }
+                target = this.writtenSequence;
+                channel = this.active.channel;
+            }
+            catch (InterruptedException ex) {
+                return;
+            }
+            finally {
+                this.lock.unlock();
+            }
+            try {
+                channel.force(false);
+            }
+            catch (IOException ex) {
+                // the segment was rolled, and forced, or deleted in the meantime
+                log.debug("Chat memory log commit skipped", ex);
+            }
+            this.lock.lock();
+            try {
+                this.durableSequence = Math.max(this.durableSequence, target);
+                this.committed.signalAll();
+            }
+            finally {
+                this.lock.unlock();
+            }
+        }
+    }
+
+    private void compactLoop() {
+        while (true) {
+            this.lock.lock();
+            try {
+                long remaining = this.compactionIntervalNanos;
+                while (!this.closed && remaining > 0) {
+                    remaining = this.stopping.awaitNanos(remaining);
+                }
+                if (this.closed) {
+                    return;
+                }
+            }
+            catch (InterruptedException ex) {
+                return;
+            }
+            finally {
+                this.lock.unlock();
+            }
+            try {
+                compact();
+            }
+            catch (RuntimeException ex) {
+                log.warn("Chat memory log compaction failed", ex);
+            }
+        }
+    }
+
+    private long recover() throws IOException {
+        List<Integer> ids = new ArrayList<>();
+        try (Stream<Path> files = Files.list(this.directory)) {
+            files.forEach(file -> {
+                Matcher matcher = SEGMENT_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    ids.add(Integer.parseInt(matcher.group(1)));
+                }
+            });
+        }
+        ids.sort(null);
+        long records = 0;
+        for (int i = 0; i < ids.size(); i++) {
+            Segment segment = openSegment(ids.get(i));
+            records += scan(segment);
+            long invalid = segment.channel.size() - segment.size;
+            if (invalid == 0) {
+                continue;
+            }
+            if (i == ids.size() - 1) {
+                log.warn("Truncating {} bytes of incomplete chat memory record in {}", invalid, segment.path);
+                segment.channel.truncate(segment.size);
+                break;
+            }
+            // A bad record in a sealed segment is not a torn write: the segments after it were written on top of the
+            // state it held, so replaying them over the gap would resurrect or mangle conversations. Keep the log up
+            // to the last good record, and set the rest aside for inspection.
+            List<Integer> later = ids.subList(i + 1, ids.size());
+            log.error("Chat memory record at offset {} of {} is corrupt; discarding the {} bytes after it and moving "
+                    + "{} later segments aside", segment.size, segment.path, invalid, later.size());
+            segment.channel.truncate(segment.size);
+            for (int id : later) {
+                Path path = segmentPath(id);
+                Files.move(path, path.resolveSibling(path.getFileName() + ".corrupt"), StandardCopyOption.REPLACE_EXISTING);
+            }
+            break;
+        }
+        if (this.active == null) {
+            this.active = openSegment(1);
+        }
+        return records;
+    }
+
+    private long scan(Segment segment) throws IOException {
+        long size = segment.channel.size();
+        MappedByteBuffer map = segment.channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        map.order(ByteOrder.LITTLE_ENDIAN);
+        CRC32C crc = new CRC32C();
+        int position = 0;
+        long records = 0;
+        while (position + RECORD_HEADER_BYTES <= size) {
+            int payloadLength = map.getInt(position);
+            if (payloadLength <= 0 || position + RECORD_HEADER_BYTES + (long) payloadLength > size) {
+                break;
+            }
+            crc.reset();
+            crc.update(map.slice(position + RECORD_HEADER_BYTES, payloadLength));
+            if ((int) crc.getValue() != map.getInt(position + Integer.BYTES)) {
+                break;
+            }
+            apply(segment, map, position, RECORD_HEADER_BYTES + payloadLength);
+            position += RECORD_HEADER_BYTES + payloadLength;
+            records++;
+        }
+        segment.size = position;
+        return records;
+    }
+
+    /**
+     * Replays one record into the index, reading fingerprints and skipping over message bodies.
+     */
+    private void apply(Segment segment, ByteBuffer map, int position, int length) {
+        int at = position + RECORD_HEADER_BYTES;
+        byte operation = map.get(at);
+        int idLength = map.getInt(at + 1);
+        byte[] id = new byte[idLength];
+        map.get(at + 1 + Integer.BYTES, id);
+        String conversationId = new String(id, StandardCharsets.UTF_8);
+        at += 1 + Integer.BYTES + idLength;
+        if (operation == DELETE) {
+            ConversationLog conversation = this.conversations.remove(conversationId);
+            if (conversation != null) {
+                release(conversation);
+            }
+            return;
+        }
+        int dropped = map.getInt(at);
+        int count = map.getInt(at + Integer.BYTES);
+        at += Integer.BYTES * 2;
+        long[] fingerprints = new long[count];
+        for (int i = 0; i < count; i++) {
+            fingerprints[i] = map.getLong(at);
+            at += Long.BYTES + Integer.BYTES + map.getInt(at + Long.BYTES);
+        }
+        ConversationLog conversation = this.conversations.get(conversationId);
+        if (operation == REPLACE) {
+            if (conversation == null) {
+                conversation = new ConversationLog();
+                this.conversations.put(conversationId, conversation);
+            }
+            release(conversation);
+            conversation.replace(segment.id, position, length, fingerprints);
+        }
+        else {
+            if (conversation == null) {
+                return;
+            }
+            long[] all = Arrays.copyOf(Arrays.copyOfRange(conversation.fingerprints, dropped, conversation.messages),
+                    conversation.messages - dropped + count);
+            System.arraycopy(fingerprints, 0, all, conversation.messages - dropped, count);
+            conversation.append(segment.id, position, length, all);
+        }
+        segment.liveBytes += length;
+    }
+
+    private Segment openSegment(int id) throws IOException {
+        Path path = segmentPath(id);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Segment segment = new Segment(id, path, channel);
+        segment.size = channel.size();
+        this.segments.put(id, segment);
+        this.active = segment;
+        return segment;
+    }
+
+    private Path segmentPath(int id) {
+        return this.directory.resolve("chat-memory-%06d.log".formatted(id));
+    }
+
+    private record StoredMessage(long fingerprint, byte[] body) {
+    }
+
+    private static final class Segment {
+
+        private final int id;
+        private final Path path;
+        private final FileChannel channel;
+        private long size;
+        private long liveBytes;
+
+        Segment(int id, Path path, FileChannel channel) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+        }
+
+    }
+
+    /**
+     * Where a conversation's records are, oldest first, starting at its last replace record, and the fingerprints of
+     * the messages they add up to.
+     */
+    private static final class ConversationLog {
+
+        private long[] locations = new long[4];
+        private int[] lengths = new int[4];
+        private int records;
+        private long[] fingerprints = new long[0];
+        private int messages;
+
+        static long location(int segment, long position) {
+            return (long) segment << 40 | position;
+        }
+
+        static int segment(long location) {
+            return (int) (location >>> 40);
+        }
+
+        static long position(long location) {
+            return location & ((1L << 40) - 1);
+        }
+
+        /**
+         * How many stored messages {@code next} drops from the head, if the rest of the stored messages start
+         * {@code next}, otherwise -1.
+         */
+        int dropped(long[] next) {
+            for (int dropped = 0; dropped < this.messages; dropped++) {
+                int kept = this.messages - dropped;
+                if (kept <= next.length
+                        && Arrays.equals(this.fingerprints, dropped, this.messages, next, 0, kept)) {
+                    return dropped;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Appends stop paying off once replaying them reads much more than the conversation holds.
+         */
+        boolean needsCheckpoint() {
+            return this.records >= Math.max(8, this.messages);
+        }
+
+        void replace(int segment, long position, int length, long[] fingerprints) {
+            this.records = 0;
+            addRecord(segment, position, length);
+            this.fingerprints = fingerprints;
+            this.messages = fingerprints.length;
+        }
+
+        void append(int segment, long position, int length, long[] fingerprints) {
+            addRecord(segment, position, length);
+            this.fingerprints = fingerprints;
+            this.messages = fingerprints.length;
+        }
+
+        int minimumSegment() {
+            int minimum = Integer.MAX_VALUE;
+            for (int i = 0; i < this.records; i++) {
+                minimum = Math.min(minimum, segment(this.locations[i]));
+            }
+            return minimum;
+        }
+
+        private void addRecord(int segment, long position, int length) {
+            if (this.records == this.locations.length) {
+                this.locations = Arrays.copyOf(this.locations, this.records * 2);
+                this.lengths = Arrays.copyOf(this.lengths, this.records * 2);
+            }
+            this.locations[this.records] = location(segment, position);
+            this.lengths[this.records] = length;
+            this.records++;
+        }
+
+    }
+
+    public static final class Builder {
+
+        private final Path directory;
+        private long segmentBytes = 64L * 1024 * 1024;
+        private boolean sync;
+        private Duration commitInterval = Duration.ofMillis(10);
+        private double compactionDeadRatio = 0.5;
+        private Duration compactionInterval = Duration.ofMinutes(1);
+
+        private Builder(Path directory) {
+            this.directory = directory;
+        }
+
+        public Builder segmentBytes(long segmentBytes) {
+            Assert.isTrue(segmentBytes > 0 && segmentBytes <= Integer.MAX_VALUE, "segmentBytes must be between 1 and 2GB");
+            this.segmentBytes = segmentBytes;
+            return this;
+        }
+
+        /**
+         * Whether a save waits for its write to be forced to disk.
+         */
+        public Builder sync(boolean sync) {
+            this.sync = sync;
+            return this;
+        }
+
+        public Builder commitInterval(Duration commitInterval) {
+            this.commitInterval = commitInterval;
+            return this;
+        }
+
+        public Builder compactionDeadRatio(double compactionDeadRatio) {
+            Assert.isTrue(compactionDeadRatio > 0 && compactionDeadRatio < 1, "compactionDeadRatio must be between 0 and 1");
+            this.compactionDeadRatio = compactionDeadRatio;
+            return this;
+        }
+
+        public Builder compactionInterval(Duration compactionInterval) {
+            this.compactionInterval = compactionInterval;
+            return this;
+        }
+
+        public LogChatMemoryRepository build() throws IOException {
+            return new LogChatMemoryRepository(this);
+        }
+
+    }
+
+}
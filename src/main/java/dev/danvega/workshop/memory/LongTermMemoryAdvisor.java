@@ -0,0 +1,531 @@
+package dev.danvega.workshop.memory;
+
+import dev.danvega.workshop.prompt.CompiledTemplate;
+import dev.danvega.workshop.rag.store.HnswVectorStore;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.client.ChatClientMessageAggregator;
+import org.springframework.ai.chat.client.ChatClientRequest;
+import org.springframework.ai.chat.client.ChatClientResponse;
+import org.springframework.ai.chat.client.advisor.api.Advisor;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisor;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisorChain;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisor;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisorChain;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Chat memory that recalls by relevance rather than by recency: the prompt gets the newest {@code recentMessages}
+ * from a {@link ChatMemory} verbatim, plus up to {@code topK} older turns of the same conversation that are the most
+ * similar to the new user message, together held to {@code maxTokens}. Prompt size stays flat however long the
+ * conversation gets, and a fact from days ago is still found when it is asked about.
+ * <p>
+ * Each turn, the user message with the answer to it, is embedded into an {@link HnswVectorStore} partitioned by
+ * conversation id. The turn goes into the {@link ChatMemory} right away, but is embedded on {@code indexingExecutor}
+ * once the response has been returned, so a turn never waits for it; it is recalled by relevance from then on. A
+ * conversation keeps its newest {@code maxTurnsPerConversation} turns in the index, and the index holds at most
+ * {@code maxTurns} across conversations: past that, the least recently used conversations are dropped from it whole,
+ * never the one being written, so the index stays bounded however many sessions come and go.
+ * <p>
+ * The latest rolling summary a {@link ShardedChatMemory} keeps, when it compacts, comes after the recent messages in
+ * the budget and before recalled turns. Recalled turns are rendered with {@code memoryTemplate} into the system
+ * message, in the order they happened.
+ */
+public class LongTermMemoryAdvisor implements CallAdvisor, StreamAdvisor {
+
+    private static final Logger log = LoggerFactory.getLogger(LongTermMemoryAdvisor.class);
+
+    private static final String CONVERSATION = "conversation_id";
+    private static final String TURN = "turn";
+
+    private final ChatMemory chatMemory;
+    private final EmbeddingModel embeddingModel;
+    private final CompiledTemplate memoryTemplate;
+    private final HnswVectorStore index;
+    private final int topK;
+    private final double similarityThreshold;
+    private final int recentMessages;
+    private final int maxTokens;
+    private final int maxTurnsPerConversation;
+    private final int maxTurns;
+    private final TokenCountEstimator tokenCounter;
+    private final Executor indexingExecutor;
+    private final int order;
+    @Nullable
+    private final Counter recalledCounter;
+    @Nullable
+    private final Counter evictedCounter;
+
+    // access order: iteration starts at the least recently used conversation; guarded by itself, taken before a Turns
+    private final Map<String, Turns> conversations = new LinkedHashMap<>(16, 0.75f, true);
+    // turns held by the conversations in the map, embedded or still being embedded
+    private int turns;
+
+    private LongTermMemoryAdvisor(Builder builder) {
+        this.chatMemory = builder.chatMemory;
+        this.embeddingModel = builder.embeddingModel;
+        this.memoryTemplate = builder.memoryTemplate;
+        this.index = HnswVectorStore.builder(builder.embeddingModel)
+                .indexedMetadataKeys(CONVERSATION)
+                .build();
+        this.topK = builder.topK;
+        this.similarityThreshold = builder.similarityThreshold;
+        this.recentMessages = builder.recentMessages;
+        this.maxTokens = builder.maxTokens;
+        this.maxTurnsPerConversation = builder.maxTurnsPerConversation;
+        this.maxTurns = builder.maxTurns;
+        this.tokenCounter = builder.tokenCounter;
+        this.indexingExecutor = builder.indexingExecutor != null
+                ? builder.indexingExecutor : Executors.newVirtualThreadPerTaskExecutor();
+        this.order = builder.order;
+        if (builder.meterRegistry != null) {
+            Gauge.builder("chat.memory.long-term.turns", this.index, HnswVectorStore::size)
+                    .description("Turns embedded for recall").register(builder.meterRegistry);
+            this.recalledCounter = Counter.builder("chat.memory.long-term.recalled")
+                    .description("Older turns recalled into a prompt by relevance").register(builder.meterRegistry);
+            this.evictedCounter = Counter.builder("chat.memory.long-term.evicted")
+                    .description("Turns dropped from the index with their idle conversation").register(builder.meterRegistry);
+        }
+        else {
+            this.recalledCounter = null;
+            this.evictedCounter = null;
+        }
+    }
+
+    public static Builder builder(ChatMemory chatMemory, EmbeddingModel embeddingModel, CompiledTemplate memoryTemplate) {
+        return new Builder(chatMemory, embeddingModel, memoryTemplate);
+    }
+
+    @Override
+    public ChatClientResponse adviseCall(ChatClientRequest chatClientRequest, CallAdvisorChain callAdvisorChain) {
+        String conversationId = conversationId(chatClientRequest);
+        ChatClientResponse chatClientResponse = callAdvisorChain.nextCall(before(conversationId, chatClientRequest));
+        after(conversationId, chatClientRequest, chatClientResponse.chatResponse());
+        return chatClientResponse;
+    }
+
+    @Override
+    public Flux<ChatClientResponse> adviseStream(ChatClientRequest chatClientRequest, StreamAdvisorChain streamAdvisorChain) {
+        String conversationId = conversationId(chatClientRequest);
+        // embedding the question blocks, keep it off the caller's event loop
+        return Mono.fromCallable(() -> before(conversationId, chatClientRequest))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMapMany(request -> new ChatClientMessageAggregator().aggregateChatClientResponse(
+                        streamAdvisorChain.nextStream(request),
+                        aggregated -> after(conversationId, chatClientRequest, aggregated.chatResponse())));
+    }
+
+    @Override
+    public String getName() {
+        return this.getClass().getSimpleName();
+    }
+
+    @Override
+    public int getOrder() {
+        return this.order;
+    }
+
+    /**
+     * Forgets a conversation, in the {@link ChatMemory} and in the index.
+     */
+    public void clear(String conversationId) {
+        this.chatMemory.clear(conversationId);
+        List<String> ids;
+        synchronized (this.conversations) {
+            Turns turns = this.conversations.remove(conversationId);
+            ids = turns != null ? release(turns) : List.of();
+        }
+        if (!ids.isEmpty()) {
+            this.index.delete(ids);
+        }
+    }
+
+    /**
+     * Turns embedded so far, across conversations.
+     */
+    public int size() {
+        return this.index.size();
+    }
+
+    private ChatClientRequest before(String conversationId, ChatClientRequest request) {
+        UserMessage userMessage = request.prompt().getUserMessage();
+        int budget = this.maxTokens;
+        List<Message> history = this.chatMemory.get(conversationId);
+        List<Message> recent = recent(history);
+        int userTurns = 0;
+        for (int i = recent.size() - 1; i >= 0; i--) {
+            int tokens = this.tokenCounter.estimate(text(recent.get(i)));
+            if (tokens > budget) {
+                recent = drop(recent.subList(i + 1, recent.size()));
+                break;
+            }
+            budget -= tokens;
+        }
+        for (Message message : recent) {
+            if (message instanceof UserMessage) {
+                userTurns++;
+            }
+        }
+        String summary = summary(history);
+        if (summary != null) {
+            int tokens = this.tokenCounter.estimate(summary);
+            if (tokens <= budget) {
+                budget -= tokens;
+            }
+            else {
+                summary = null;
+            }
+        }
+        List<Document> recalled = StringUtils.hasText(userMessage.getText())
+                ? recall(conversationId, userMessage.getText(), userTurns, budget) : List.of();
+
+        List<Message> messages = new ArrayList<>(recent.size() + request.prompt().getInstructions().size() + 1);
+        SystemMessage system = request.prompt().getSystemMessage();
+        String systemText = system.getText() != null ? system.getText() : "";
+        if (summary != null) {
+            systemText = systemText.isEmpty() ? summary : systemText + "\n\n" + summary;
+        }
+        if (!recalled.isEmpty()) {
+            StringBuilder memory = new StringBuilder();
+            for (Document turn : recalled) {
+                memory.append(turn.getText()).append("\n\n");
+            }
+            String section = this.memoryTemplate.render("memory", memory.toString().strip());
+            systemText = systemText.isEmpty() ? section : systemText + "\n\n" + section;
+        }
+        if (!systemText.isEmpty()) {
+            messages.add(system.mutate().text(systemText).build());
+        }
+        messages.addAll(recent);
+        for (Message message : request.prompt().getInstructions()) {
+            if (!(message instanceof SystemMessage)) {
+                messages.add(message);
+            }
+        }
+        return request.mutate().prompt(request.prompt().mutate().messages(messages).build()).build();
+    }
+
+    /**
+     * The most relevant older turns that fit {@code budget}, oldest first, leaving out the {@code recentTurns} newest
+     * ones, which are in the prompt already.
+     */
+    private List<Document> recall(String conversationId, String question, int recentTurns, int budget) {
+        Turns turns;
+        synchronized (this.conversations) {
+            turns = this.conversations.get(conversationId);
+        }
+        if (turns == null) {
+            return List.of();
+        }
+        long firstRecent;
+        synchronized (turns) {
+            firstRecent = turns.next - recentTurns;
+        }
+        List<Document> nearest = this.index.similaritySearch(this.embeddingModel.embed(question), SearchRequest.builder()
+                // asks for as many more as may be left out for being recent
+                .topK(this.topK + recentTurns)
+                .similarityThreshold(this.similarityThreshold)
+                .filterExpression(new FilterExpressionBuilder().eq(CONVERSATION, conversationId).build())
+                .build());
+        List<Document> recalled = new ArrayList<>(this.topK);
+        for (Document turn : nearest) {
+            if (recalled.size() == this.topK) {
+                break;
+            }
+            if (turn(turn) >= firstRecent) {
+                continue;
+            }
+            int tokens = this.tokenCounter.estimate(turn.getText());
+            if (tokens <= budget) {
+                recalled.add(turn);
+                budget -= tokens;
+            }
+        }
+        recalled.sort(Comparator.comparingLong(LongTermMemoryAdvisor::turn));
+        if (this.recalledCounter != null) {
+            this.recalledCounter.increment(recalled.size());
+        }
+        return recalled;
+    }
+
+    private List<Message> recent(List<Message> messages) {
+        List<Message> recent = new ArrayList<>(this.recentMessages);
+        for (int i = messages.size() - 1; i >= 0 && recent.size() < this.recentMessages; i--) {
+            // summaries go into the system message, see summary()
+            if (!(messages.get(i) instanceof SystemMessage)) {
+                recent.add(0, messages.get(i));
+            }
+        }
+        return drop(recent);
+    }
+
+    /**
+     * The text of the newest rolling summary in the history, or {@code null} when it has none.
+     */
+    @Nullable
+    private static String summary(List<Message> messages) {
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            Message message = messages.get(i);
+            if (message instanceof SystemMessage && Boolean.TRUE.equals(message.getMetadata().get(ShardedChatMemory.SUMMARY_METADATA))
+                    && StringUtils.hasText(message.getText())) {
+                return message.getText();
+            }
+        }
+        return null;
+    }
+
+    private void after(String conversationId, ChatClientRequest request, @Nullable ChatResponse response) {
+        if (response == null || response.getResult() == null) {
+            return;
+        }
+        UserMessage userMessage = request.prompt().getUserMessage();
+        AssistantMessage answer = response.getResult().getOutput();
+        this.chatMemory.add(conversationId, List.of(userMessage, answer));
+        if (!StringUtils.hasText(userMessage.getText()) || !StringUtils.hasText(answer.getText())) {
+            return;
+        }
+        String id = UUID.randomUUID().toString();
+        Turns turns;
+        long turn;
+        List<String> evicted = new ArrayList<>();
+        synchronized (this.conversations) {
+            turns = this.conversations.computeIfAbsent(conversationId, key -> new Turns());
+            synchronized (turns) {
+                turn = turns.next++;
+                turns.ids.addLast(id);
+            }
+            this.turns++;
+            Iterator<Turns> eldest = this.conversations.values().iterator();
+            while (this.turns > this.maxTurns && eldest.hasNext()) {
+                Turns idle = eldest.next();
+                if (idle != turns) {
+                    eldest.remove();
+                    evicted.addAll(release(idle));
+                }
+            }
+        }
+        if (!evicted.isEmpty()) {
+            this.index.delete(evicted);
+            if (this.evictedCounter != null) {
+                this.evictedCounter.increment(evicted.size());
+            }
+        }
+        Document document = new Document(id, "User: " + userMessage.getText().strip() + "\nAssistant: " + answer.getText().strip(),
+                Map.of(CONVERSATION, conversationId, TURN, turn));
+        try {
+            this.indexingExecutor.execute(() -> index(turns, document));
+        }
+        catch (RuntimeException ex) {
+            log.warn("Could not schedule embedding of a turn of conversation {}, it will not be recalled", conversationId, ex);
+        }
+    }
+
+    private void index(Turns turns, Document document) {
+        try {
+            this.index.add(document, this.embeddingModel.embed(document.getText()));
+        }
+        catch (RuntimeException ex) {
+            log.warn("Could not embed a turn of conversation {}, it will not be recalled",
+                    document.getMetadata().get(CONVERSATION), ex);
+            return;
+        }
+        List<String> evicted = new ArrayList<>();
+        synchronized (this.conversations) {
+            synchronized (turns) {
+                if (turns.cleared) {
+                    evicted.add(document.getId());
+                }
+                else {
+                    while (turns.ids.size() > this.maxTurnsPerConversation) {
+                        evicted.add(turns.ids.removeFirst());
+                    }
+                    this.turns -= evicted.size();
+                }
+            }
+        }
+        if (!evicted.isEmpty()) {
+            this.index.delete(evicted);
+        }
+    }
+
+    /**
+     * Called holding {@code conversations}, once a conversation has been removed from it: its turns to delete from the
+     * index. Turns still being embedded are deleted once they are in.
+     */
+    private List<String> release(Turns turns) {
+        synchronized (turns) {
+            turns.cleared = true;
+            this.turns -= turns.ids.size();
+            return new ArrayList<>(turns.ids);
+        }
+    }
+
+    private static String conversationId(ChatClientRequest request) {
+        Object conversationId = request.context().get(ChatMemory.CONVERSATION_ID);
+        return conversationId != null ? conversationId.toString() : ChatMemory.DEFAULT_CONVERSATION_ID;
+    }
+
+    /**
+     * Drops what would start the window mid-exchange: a tool response without the call it answers.
+     */
+    private static List<Message> drop(List<Message> messages) {
+        int start = 0;
+        while (start < messages.size() && messages.get(start) instanceof ToolResponseMessage) {
+            start++;
+        }
+        return new ArrayList<>(messages.subList(start, messages.size()));
+    }
+
+    private static String text(Message message) {
+        return message.getText() != null ? message.getText() : "";
+    }
+
+    private static long turn(Document document) {
+        return ((Number) document.getMetadata().get(TURN)).longValue();
+    }
+
+    /**
+     * A conversation's next turn number and the ids of its embedded turns, oldest first. Guarded by itself.
+     */
+    private static final class Turns {
+
+        private long next;
+        private final ArrayDeque<String> ids = new ArrayDeque<>();
+        private boolean cleared;
+
+    }
+
+    public static final class Builder {
+
+        private final ChatMemory chatMemory;
+        private final EmbeddingModel embeddingModel;
+        private final CompiledTemplate memoryTemplate;
+        private int topK = 4;
+        private double similarityThreshold = 0.3;
+        private int recentMessages = 6;
+        private int maxTokens = 1_500;
+        private int maxTurnsPerConversation = 1_000;
+        private int maxTurns = 50_000;
+        private TokenCountEstimator tokenCounter = new JTokkitTokenCountEstimator();
+        @Nullable
+        private Executor indexingExecutor;
+        private int order = Advisor.DEFAULT_CHAT_MEMORY_PRECEDENCE_ORDER;
+        @Nullable
+        private MeterRegistry meterRegistry;
+
+        private Builder(ChatMemory chatMemory, EmbeddingModel embeddingModel, CompiledTemplate memoryTemplate) {
+            Assert.notNull(chatMemory, "ChatMemory must not be null");
+            Assert.notNull(embeddingModel, "EmbeddingModel must not be null");
+            Assert.isTrue(memoryTemplate.variables().contains("memory"), "memoryTemplate must have a {memory} variable");
+            this.chatMemory = chatMemory;
+            this.embeddingModel = embeddingModel;
+            this.memoryTemplate = memoryTemplate;
+        }
+
+        public Builder topK(int topK) {
+            Assert.isTrue(topK > 0, "topK must be positive");
+            this.topK = topK;
+            return this;
+        }
+
+        public Builder similarityThreshold(double similarityThreshold) {
+            Assert.isTrue(similarityThreshold >= 0 && similarityThreshold <= 1, "similarityThreshold must be in [0, 1]");
+            this.similarityThreshold = similarityThreshold;
+            return this;
+        }
+
+        /**
+         * Newest messages replayed verbatim, before any older turn is recalled.
+         */
+        public Builder recentMessages(int recentMessages) {
+            Assert.isTrue(recentMessages >= 0, "recentMessages must not be negative");
+            this.recentMessages = recentMessages;
+            return this;
+        }
+
+        /**
+         * Tokens for recent and recalled messages together; the system text and new user message are not counted.
+         */
+        public Builder maxTokens(int maxTokens) {
+            Assert.isTrue(maxTokens > 0, "maxTokens must be positive");
+            this.maxTokens = maxTokens;
+            return this;
+        }
+
+        public Builder maxTurnsPerConversation(int maxTurnsPerConversation) {
+            Assert.isTrue(maxTurnsPerConversation > 0, "maxTurnsPerConversation must be positive");
+            this.maxTurnsPerConversation = maxTurnsPerConversation;
+            return this;
+        }
+
+        /**
+         * Turns in the index across conversations, before the least recently used conversations are dropped from it.
+         */
+        public Builder maxTurns(int maxTurns) {
+            Assert.isTrue(maxTurns > 0, "maxTurns must be positive");
+            this.maxTurns = maxTurns;
+            return this;
+        }
+
+        public Builder tokenCounter(TokenCountEstimator tokenCounter) {
+            this.tokenCounter = tokenCounter;
+            return this;
+        }
+
+        /**
+         * Where turns are embedded, a new virtual thread for each by default.
+         */
+        public Builder indexingExecutor(Executor indexingExecutor) {
+            this.indexingExecutor = indexingExecutor;
+            return this;
+        }
+
+        public Builder order(int order) {
+            this.order = order;
+            return this;
+        }
+
+        public Builder meterRegistry(@Nullable MeterRegistry meterRegistry) {
+            this.meterRegistry = meterRegistry;
+            return this;
+        }
+
+        public LongTermMemoryAdvisor build() {
+            return new LongTermMemoryAdvisor(this);
+        }
+
+    }
+
+}
@@ -0,0 +1,53 @@
+package dev.danvega.workshop.memory;
+
+import dev.danvega.workshop.prompt.PromptTemplateRegistry;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Recalls older turns of {@code /memory} conversations by relevance with a {@link LongTermMemoryAdvisor}, in place of
+ * replaying the whole history.
+ */
+@Configuration
+@ConditionalOnProperty(name = "workshop.chat.memory.long-term.enabled", havingValue = "true")
+public class LongTermMemoryConfiguration {
+
+    @Value("${workshop.chat.memory.long-term.top-k:4}")
+    private int topK;
+
+    @Value("${workshop.chat.memory.long-term.similarity-threshold:0.3}")
+    private double similarityThreshold;
+
+    @Value("${workshop.chat.memory.long-term.recent-messages:6}")
+    private int recentMessages;
+
+    @Value("${workshop.chat.memory.long-term.max-tokens:1500}")
+    private int maxTokens;
+
+    @Value("${workshop.chat.memory.long-term.max-turns-per-conversation:1000}")
+    private int maxTurnsPerConversation;
+
+    @Value("${workshop.chat.memory.long-term.max-turns:50000}")
+    private int maxTurns;
+
+    @Bean
+    LongTermMemoryAdvisor longTermMemoryAdvisor(ChatMemory chatMemory, EmbeddingModel embeddingModel,
+            PromptTemplateRegistry promptTemplates, ObjectProvider<MeterRegistry> meterRegistry) {
+        return LongTermMemoryAdvisor.builder(chatMemory, embeddingModel, promptTemplates.get("long-term-memory"))
+                .topK(topK)
+                .similarityThreshold(similarityThreshold)
+                .recentMessages(recentMessages)
+                .maxTokens(maxTokens)
+                .maxTurnsPerConversation(maxTurnsPerConversation)
+                .maxTurns(maxTurns)
+                .meterRegistry(meterRegistry.getIfAvailable())
+                .build();
+    }
+
+}
@@ -0,0 +1,198 @@
+package dev.danvega.workshop.memory;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.lang.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary form of a chat message, little-endian: the type ordinal, the text, the metadata as JSON, then the tool calls
+ * of an assistant message or the responses of a tool message, every string an int32 length (-1 for null) followed by
+ * UTF-8 bytes. Media are not kept.
+ */
+final class MessageCodec {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final TypeReference<Map<String, Object>> METADATA_TYPE = new TypeReference<>() {
+    };
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private MessageCodec() {
+    }
+
+    static byte[] encode(Message message) {
+        Encoder out = new Encoder();
+        out.buffer.put((byte) message.getMessageType().ordinal());
+        out.putString(message.getText());
+        out.putString(metadataJson(message.getMetadata()));
+        if (message instanceof AssistantMessage assistant) {
+            out.putInt(assistant.getToolCalls().size());
+            for (AssistantMessage.ToolCall call : assistant.getToolCalls()) {
+                out.putString(call.id());
+                out.putString(call.type());
+                out.putString(call.name());
+                out.putString(call.arguments());
+            }
+        }
+        else if (message instanceof ToolResponseMessage toolResponse) {
+            out.putInt(toolResponse.getResponses().size());
+            for (ToolResponseMessage.ToolResponse response : toolResponse.getResponses()) {
+                out.putString(response.id());
+                out.putString(response.name());
+                out.putString(response.responseData());
+            }
+        }
+        return out.toByteArray();
+    }
+
+    static Message decode(byte[] bytes) {
+        ByteBuffer in = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        MessageType type = MessageType.values()[in.get()];
+        String text = getString(in);
+        Map<String, Object> metadata = metadata(getString(in));
+        return switch (type) {
+            case USER -> UserMessage.builder().text(text != null ? text : "").metadata(metadata).build();
+            case SYSTEM -> SystemMessage.builder().text(text != null ? text : "").metadata(metadata).build();
+            case ASSISTANT -> {
+                List<AssistantMessage.ToolCall> calls = new ArrayList<>();
+                for (int i = in.getInt(); i > 0; i--) {
+                    calls.add(new AssistantMessage.ToolCall(getString(in), getString(in), getString(in), getString(in)));
+                }
+                yield AssistantMessage.builder().content(text).properties(metadata).toolCalls(calls).build();
+            }
+            case TOOL -> {
+                List<ToolResponseMessage.ToolResponse> responses = new ArrayList<>();
+                for (int i = in.getInt(); i > 0; i--) {
+                    responses.add(new ToolResponseMessage.ToolResponse(getString(in), getString(in), getString(in)));
+                }
+                yield ToolResponseMessage.builder().responses(responses).metadata(metadata).build();
+            }
+        };
+    }
+
+    /**
+     * A 64-bit FNV-1a hash of what the model sees of a message, used to tell which messages of a conversation are
+     * already in the log without reading them back.
+     */
+    static long fingerprint(Message message) {
+        long hash = mix(FNV_OFFSET, message.getMessageType().ordinal());
+        hash = mix(hash, message.getText());
+        if (message instanceof AssistantMessage assistant) {
+            for (AssistantMessage.ToolCall call : assistant.getToolCalls()) {
+                hash = mix(mix(mix(hash, call.id()), call.name()), call.arguments());
+            }
+        }
+        else if (message instanceof ToolResponseMessage toolResponse) {
+            for (ToolResponseMessage.ToolResponse response : toolResponse.getResponses()) {
+                hash = mix(mix(hash, response.id()), response.responseData());
+            }
+        }
+        return hash;
+    }
+
+    private static long mix(long hash, @Nullable String text) {
+        if (text == null) {
+            return mix(hash, -1);
+        }
+        for (int i = 0; i < text.length(); i++) {
+            hash = mix(hash, text.charAt(i));
+        }
+        // separates "ab" + "c" from "a" + "bc"
+        return mix(hash, text.length());
+    }
+
+    private static long mix(long hash, int value) {
+        return (hash ^ value) * FNV_PRIME;
+    }
+
+    @Nullable
+    private static String metadataJson(Map<String, Object> metadata) {
+        if (metadata.isEmpty()) {
+            return null;
+        }
+        try {
+            return objectMapper.writeValueAsString(metadata);
+        }
+        catch (JsonProcessingException ex) {
+            // metadata is informational, a value Jackson cannot write is not worth losing the message over
+            return null;
+        }
+    }
+
+    private static Map<String, Object> metadata(@Nullable String json) {
+        if (json == null) {
+            return Map.of();
+        }
+        try {
+            return objectMapper.readValue(json, METADATA_TYPE);
+        }
+        catch (IOException ex) {
+            return Map.of();
+        }
+    }
+
+    @Nullable
+    private static String getString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+
+    private static final class Encoder {
+
+        private ByteBuffer buffer = ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
+
+        void putInt(int value) {
+            ensure(Integer.BYTES);
+            this.buffer.putInt(value);
+        }
+
+        void putString(@Nullable String value) {
+            if (value == null) {
+                putInt(-1);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            ensure(bytes.length);
+            this.buffer.put(bytes);
+        }
+
+        byte[] toByteArray() {
+            byte[] bytes = new byte[this.buffer.position()];
+            this.buffer.get(0, bytes);
+            return bytes;
+        }
+
+        private void ensure(int bytes) {
+            if (this.buffer.remaining() < bytes) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(this.buffer.capacity() * 2, this.buffer.position() + bytes))
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                this.buffer.flip();
+                grown.put(this.buffer);
+                this.buffer = grown;
+            }
+        }
+
+    }
+
+}
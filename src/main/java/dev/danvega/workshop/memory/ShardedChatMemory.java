@@ -0,0 +1,603 @@
+package dev.danvega.workshop.memory;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A {@link ChatMemory} bounded in tokens, per conversation and overall.
+ * <p>
+ * Conversations are spread over {@code shards} by id, each shard with its own lock, so turns of different
+ * conversations rarely contend. A conversation keeps its newest messages up to {@code maxTokensPerConversation}:
+ * older messages are dropped first, system messages are kept, and a tool response never survives without the
+ * assistant message that asked for it. Each shard holds at most its share of {@code maxTotalTokens} and, when
+ * over it, evicts its least recently used conversations, never the one being written.
+ * <p>
+ * Every conversation is charged {@value #CONVERSATION_OVERHEAD_TOKENS} tokens on top of its messages, so many
+ * short conversations are bounded as well as a few long ones.
+ * <p>
+ * With a {@link ConversationSummarizer}, a conversation that grows past {@code compactionThresholdTokens} is
+ * compacted in the background: its older turns, all but the newest {@code keepRecentTokens}, are folded with the
+ * previous summary into a new summary, a system message marked with {@value #SUMMARY_METADATA}. A turn never waits
+ * for it; until the new summary is in, reads see the previous one and the turns as they are. At most
+ * {@code maxConcurrentCompactions} run at once, a conversation that finds none free tries again on its next turn.
+ * <p>
+ * With a {@link ChatMemoryRepository}, every change to a conversation is saved to it and a conversation that is not
+ * held, after a restart or an idle eviction, is loaded from it, summary included.
+ */
+public class ShardedChatMemory implements ChatMemory {
+
+    static final int CONVERSATION_OVERHEAD_TOKENS = 32;
+
+    public static final String SUMMARY_METADATA = "conversation_summary";
+
+    private static final String SUMMARY_PREFIX = "Summary of the conversation so far: ";
+
+    private static final Logger log = LoggerFactory.getLogger(ShardedChatMemory.class);
+
+    // role and framing tokens the provider adds around every message
+    private static final int MESSAGE_OVERHEAD_TOKENS = 4;
+
+    private final Shard[] shards;
+    private final int maxTokensPerConversation;
+    private final TokenCountEstimator tokenCounter;
+    private final AtomicLong conversations = new AtomicLong();
+    private final AtomicLong tokens = new AtomicLong();
+    @Nullable
+    private final Counter trimmedCounter;
+    @Nullable
+    private final Counter evictedCounter;
+    @Nullable
+    private final ConversationSummarizer summarizer;
+    private final int compactionThresholdTokens;
+    private final int keepRecentTokens;
+    private final Semaphore compactions;
+    private final Executor compactionExecutor;
+    @Nullable
+    private final MeterRegistry meterRegistry;
+    @Nullable
+    private final ChatMemoryRepository repository;
+
+    private ShardedChatMemory(Builder builder) {
+        this.maxTokensPerConversation = builder.maxTokensPerConversation;
+        this.tokenCounter = builder.tokenCounter;
+        this.summarizer = builder.summarizer;
+        this.compactionThresholdTokens = builder.compactionThresholdTokens;
+        this.keepRecentTokens = builder.keepRecentTokens;
+        this.compactions = new Semaphore(builder.maxConcurrentCompactions);
+        this.compactionExecutor = builder.compactionExecutor != null
+                ? builder.compactionExecutor : Executors.newVirtualThreadPerTaskExecutor();
+        this.meterRegistry = builder.meterRegistry;
+        this.repository = builder.repository;
+        this.shards = new Shard[builder.shards];
+        long shardTokens = Math.max(1, builder.maxTotalTokens / builder.shards);
+        for (int i = 0; i < this.shards.length; i++) {
+            this.shards[i] = new Shard(shardTokens);
+        }
+        if (builder.meterRegistry != null) {
+            Gauge.builder("chat.memory.conversations", this.conversations, AtomicLong::get)
+                    .description("Conversations held in chat memory").register(builder.meterRegistry);
+            Gauge.builder("chat.memory.tokens", this.tokens, AtomicLong::get)
+                    .description("Estimated tokens held in chat memory").register(builder.meterRegistry);
+            this.trimmedCounter = Counter.builder("chat.memory.evictions").tag("reason", "token-budget")
+                    .description("Messages dropped from a conversation over its token budget").register(builder.meterRegistry);
+            this.evictedCounter = Counter.builder("chat.memory.evictions").tag("reason", "idle")
+                    .description("Least recently used conversations dropped to stay under the memory cap").register(builder.meterRegistry);
+        }
+        else {
+            this.trimmedCounter = null;
+            this.evictedCounter = null;
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public void add(String conversationId, List<Message> messages) {
+        Assert.hasText(conversationId, "conversationId must not be empty");
+        if (messages.isEmpty()) {
+            return;
+        }
+        // count outside the lock, it is the expensive part
+        List<Entry> entries = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            entries.add(new Entry(message, tokens(message)));
+        }
+        Shard shard = shard(conversationId);
+        shard.lock.lock();
+        try {
+            Conversation conversation = load(shard, conversationId);
+            if (conversation == null) {
+                conversation = new Conversation();
+                shard.conversations.put(conversationId, conversation);
+                charge(shard, 1, CONVERSATION_OVERHEAD_TOKENS);
+            }
+            long before = conversation.tokens;
+            int dropped = conversation.append(entries, this.maxTokensPerConversation);
+            charge(shard, 0, conversation.tokens - before);
+            increment(this.trimmedCounter, dropped);
+            save(conversationId, conversation);
+            evictIdle(shard, conversation);
+            if (this.summarizer != null && !conversation.compacting && conversation.tokens > this.compactionThresholdTokens) {
+                compact(conversationId, conversation);
+            }
+        }
+        finally {
+            shard.lock.unlock();
+        }
+    }
+
+    @Override
+    public List<Message> get(String conversationId) {
+        Shard shard = shard(conversationId);
+        shard.lock.lock();
+        try {
+            Conversation conversation = load(shard, conversationId);
+            if (conversation != null) {
+                evictIdle(shard, conversation);
+            }
+            return conversation != null ? conversation.messages() : List.of();
+        }
+        finally {
+            shard.lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear(String conversationId) {
+        Shard shard = shard(conversationId);
+        shard.lock.lock();
+        try {
+            Conversation conversation = shard.conversations.remove(conversationId);
+            if (conversation != null) {
+                conversation.removed = true;
+                charge(shard, -1, -conversation.tokens - CONVERSATION_OVERHEAD_TOKENS);
+            }
+            if (this.repository != null) {
+                this.repository.deleteByConversationId(conversationId);
+            }
+        }
+        finally {
+            shard.lock.unlock();
+        }
+    }
+
+    public long conversations() {
+        return this.conversations.get();
+    }
+
+    /**
+     * Estimated tokens held, including the per-conversation overhead.
+     */
+    public long tokens() {
+        return this.tokens.get();
+    }
+
+    int tokens(Message message) {
+        int count = MESSAGE_OVERHEAD_TOKENS;
+        if (message.getText() != null && !message.getText().isEmpty()) {
+            count += this.tokenCounter.estimate(message.getText());
+        }
+        if (message instanceof AssistantMessage assistant) {
+            for (AssistantMessage.ToolCall call : assistant.getToolCalls()) {
+                count += this.tokenCounter.estimate(call.name() + call.arguments());
+            }
+        }
+        else if (message instanceof ToolResponseMessage toolResponse) {
+            for (ToolResponseMessage.ToolResponse response : toolResponse.getResponses()) {
+                count += this.tokenCounter.estimate(response.responseData());
+            }
+        }
+        return count;
+    }
+
+    private Shard shard(String conversationId) {
+        int hash = conversationId.hashCode();
+        return this.shards[(hash ^ (hash >>> 16)) & (this.shards.length - 1)];
+    }
+
+    /**
+     * Called with the shard locked: the conversation held, or else the one saved in the repository, trimmed to the
+     * current budget. The read blocks the shard, but it is a local one and only happens once per conversation.
+     */
+    @Nullable
+    private Conversation load(Shard shard, String conversationId) {
+        Conversation conversation = shard.conversations.get(conversationId);
+        if (conversation != null || this.repository == null) {
+            return conversation;
+        }
+        List<Message> saved = this.repository.findByConversationId(conversationId);
+        if (saved.isEmpty()) {
+            return null;
+        }
+        List<Entry> entries = new ArrayList<>(saved.size());
+        conversation = new Conversation();
+        for (Message message : saved) {
+            Entry entry = new Entry(message, tokens(message));
+            entries.add(entry);
+            if (Boolean.TRUE.equals(message.getMetadata().get(SUMMARY_METADATA))) {
+                conversation.summary = entry;
+                conversation.summaryText = message.getText().startsWith(SUMMARY_PREFIX)
+                        ? message.getText().substring(SUMMARY_PREFIX.length()) : message.getText();
+            }
+        }
+        increment(this.trimmedCounter, conversation.append(entries, this.maxTokensPerConversation));
+        shard.conversations.put(conversationId, conversation);
+        charge(shard, 1, CONVERSATION_OVERHEAD_TOKENS + conversation.tokens);
+        return conversation;
+    }
+
+    /**
+     * Called with the shard locked, which keeps saves of one conversation in order.
+     */
+    private void save(String conversationId, Conversation conversation) {
+        if (this.repository != null) {
+            this.repository.saveAll(conversationId, conversation.messages());
+        }
+    }
+
+    private void evictIdle(Shard shard, Conversation writing) {
+        Iterator<Conversation> eldest = shard.conversations.values().iterator();
+        while (shard.tokens > shard.maxTokens && eldest.hasNext()) {
+            Conversation conversation = eldest.next();
+            if (conversation != writing) {
+                eldest.remove();
+                conversation.removed = true;
+                charge(shard, -1, -conversation.tokens - CONVERSATION_OVERHEAD_TOKENS);
+                increment(this.evictedCounter, 1);
+            }
+        }
+    }
+
+    /**
+     * Called with the shard locked: takes a snapshot of what to fold and summarizes it on the compaction executor.
+     */
+    private void compact(String conversationId, Conversation conversation) {
+        Compaction compaction = conversation.compaction(this.keepRecentTokens);
+        if (compaction == null || !this.compactions.tryAcquire()) {
+            return;
+        }
+        conversation.compacting = true;
+        try {
+            this.compactionExecutor.execute(() -> summarize(conversationId, conversation, compaction));
+        }
+        catch (RuntimeException ex) {
+            conversation.compacting = false;
+            this.compactions.release();
+            throw ex;
+        }
+    }
+
+    private void summarize(String conversationId, Conversation conversation, Compaction compaction) {
+        long start = System.nanoTime();
+        String outcome = "failure";
+        Shard shard = shard(conversationId);
+        try {
+            List<Message> turns = new ArrayList<>(compaction.folded().size());
+            for (Entry entry : compaction.folded()) {
+                turns.add(entry.message());
+            }
+            String summary = this.summarizer.summarize(compaction.previousSummary(), turns);
+            Assert.hasText(summary, "summarizer returned no summary");
+            Message message = SystemMessage.builder()
+                    .text(SUMMARY_PREFIX + summary.strip())
+                    .metadata(Map.of(SUMMARY_METADATA, true))
+                    .build();
+            Entry entry = new Entry(message, tokens(message));
+            shard.lock.lock();
+            try {
+                if (conversation.removed) {
+                    outcome = "discarded";
+                }
+                else {
+                    long before = conversation.tokens;
+                    conversation.apply(compaction, entry, summary.strip());
+                    charge(shard, 0, conversation.tokens - before);
+                    outcome = "success";
+                    save(conversationId, conversation);
+                }
+            }
+            finally {
+                shard.lock.unlock();
+            }
+        }
+        catch (RuntimeException ex) {
+            log.warn("Could not compact conversation {}, it will be retried on its next turn", conversationId, ex);
+        }
+        finally {
+            shard.lock.lock();
+            try {
+                conversation.compacting = false;
+            }
+            finally {
+                shard.lock.unlock();
+            }
+            this.compactions.release();
+            if (this.meterRegistry != null) {
+                Timer.builder("chat.memory.compaction")
+                        .description("Background summarization of older turns")
+                        .tag("outcome", outcome)
+                        .register(this.meterRegistry)
+                        .record(Duration.ofNanos(System.nanoTime() - start));
+            }
+        }
+    }
+
+    private void charge(Shard shard, int conversations, long tokens) {
+        shard.tokens += tokens;
+        this.conversations.addAndGet(conversations);
+        this.tokens.addAndGet(tokens);
+    }
+
+    private static void increment(@Nullable Counter counter, int amount) {
+        if (counter != null && amount > 0) {
+            counter.increment(amount);
+        }
+    }
+
+    private static final class Shard {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        // access order: iteration starts at the least recently used conversation
+        private final Map<String, Conversation> conversations = new LinkedHashMap<>(16, 0.75f, true);
+        private final long maxTokens;
+        private long tokens;
+
+        Shard(long maxTokens) {
+            this.maxTokens = maxTokens;
+        }
+
+    }
+
+    private record Entry(Message message, int tokens) {
+    }
+
+    /**
+     * What a compaction folds: the summary it continues and the turns after it, identified by instance so that
+     * messages trimmed in the meantime are simply not found again.
+     */
+    private record Compaction(@Nullable Entry summary, @Nullable String previousSummary, List<Entry> folded) {
+    }
+
+    private static final class Conversation {
+
+        private final ArrayList<Entry> entries = new ArrayList<>();
+        private long tokens;
+        @Nullable
+        private Entry summary;
+        @Nullable
+        private String summaryText;
+        // guarded by the shard lock
+        private boolean compacting;
+        private boolean removed;
+
+        /**
+         * Appends and trims back to {@code maxTokens}, returning the number of messages dropped.
+         */
+        int append(List<Entry> added, int maxTokens) {
+            for (Entry entry : added) {
+                this.entries.add(entry);
+                this.tokens += entry.tokens();
+            }
+            if (this.tokens <= maxTokens) {
+                return 0;
+            }
+            int size = this.entries.size();
+            List<Entry> kept = new ArrayList<>(size);
+            boolean dropping = true;
+            for (int i = 0; i < size; i++) {
+                Entry entry = this.entries.get(i);
+                boolean last = i == size - 1;
+                if (dropping && !last && !(entry.message() instanceof SystemMessage)
+                        && (this.tokens > maxTokens || entry.message() instanceof ToolResponseMessage)) {
+                    this.tokens -= entry.tokens();
+                    continue;
+                }
+                if (!(entry.message() instanceof SystemMessage)) {
+                    dropping = false;
+                }
+                kept.add(entry);
+            }
+            this.entries.clear();
+            this.entries.addAll(kept);
+            return size - kept.size();
+        }
+
+        /**
+         * The oldest turns down to the newest {@code keepRecentTokens}, ending before a user message so an exchange
+         * is never split, and never the newest message.
+         */
+        @Nullable
+        Compaction compaction(int keepRecentTokens) {
+            long remaining = 0;
+            for (Entry entry : this.entries) {
+                if (!(entry.message() instanceof SystemMessage)) {
+                    remaining += entry.tokens();
+                }
+            }
+            List<Entry> folded = new ArrayList<>();
+            for (int i = 0; i < this.entries.size() - 1; i++) {
+                Entry entry = this.entries.get(i);
+                if (entry.message() instanceof SystemMessage) {
+                    continue;
+                }
+                if (remaining <= keepRecentTokens && entry.message() instanceof UserMessage) {
+                    break;
+                }
+                folded.add(entry);
+                remaining -= entry.tokens();
+            }
+            return folded.isEmpty() ? null : new Compaction(this.summary, this.summaryText, folded);
+        }
+
+        /**
+         * Replaces the folded turns and the summary they followed with {@code summary}, placed after the other system
+         * messages at the head of the conversation.
+         */
+        void apply(Compaction compaction, Entry summary, String summaryText) {
+            Set<Entry> replaced = Collections.newSetFromMap(new IdentityHashMap<>());
+            replaced.addAll(compaction.folded());
+            if (compaction.summary() != null) {
+                replaced.add(compaction.summary());
+            }
+            Iterator<Entry> iterator = this.entries.iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                if (replaced.contains(entry)) {
+                    iterator.remove();
+                    this.tokens -= entry.tokens();
+                }
+            }
+            int head = 0;
+            while (head < this.entries.size() && this.entries.get(head).message() instanceof SystemMessage
+                    && this.entries.get(head) != this.summary) {
+                head++;
+            }
+            this.entries.add(head, summary);
+            this.tokens += summary.tokens();
+            this.summary = summary;
+            this.summaryText = summaryText;
+        }
+
+        List<Message> messages() {
+            List<Message> messages = new ArrayList<>(this.entries.size());
+            for (Entry entry : this.entries) {
+                messages.add(entry.message());
+            }
+            return messages;
+        }
+
+    }
+
+    public static final class Builder {
+
+        private int shards = 64;
+        private int maxTokensPerConversation = 2_000;
+        private long maxTotalTokens = 20_000_000;
+        private TokenCountEstimator tokenCounter = new JTokkitTokenCountEstimator();
+        @Nullable
+        private MeterRegistry meterRegistry;
+        @Nullable
+        private ConversationSummarizer summarizer;
+        private int compactionThresholdTokens = 1_200;
+        private int keepRecentTokens = 400;
+        private int maxConcurrentCompactions = 16;
+        @Nullable
+        private Executor compactionExecutor;
+        @Nullable
+        private ChatMemoryRepository repository;
+
+        private Builder() {
+        }
+
+        /**
+         * Rounded up to a power of two.
+         */
+        public Builder shards(int shards) {
+            Assert.isTrue(shards > 0, "shards must be positive");
+            this.shards = Integer.highestOneBit(shards) == shards ? shards : Integer.highestOneBit(shards) << 1;
+            return this;
+        }
+
+        public Builder maxTokensPerConversation(int maxTokensPerConversation) {
+            Assert.isTrue(maxTokensPerConversation > 0, "maxTokensPerConversation must be positive");
+            this.maxTokensPerConversation = maxTokensPerConversation;
+            return this;
+        }
+
+        public Builder maxTotalTokens(long maxTotalTokens) {
+            Assert.isTrue(maxTotalTokens > 0, "maxTotalTokens must be positive");
+            this.maxTotalTokens = maxTotalTokens;
+            return this;
+        }
+
+        public Builder tokenCounter(TokenCountEstimator tokenCounter) {
+            this.tokenCounter = tokenCounter;
+            return this;
+        }
+
+        public Builder meterRegistry(@Nullable MeterRegistry meterRegistry) {
+            this.meterRegistry = meterRegistry;
+            return this;
+        }
+
+        /**
+         * Turns on background compaction.
+         */
+        public Builder summarizer(@Nullable ConversationSummarizer summarizer) {
+            this.summarizer = summarizer;
+            return this;
+        }
+
+        public Builder compactionThresholdTokens(int compactionThresholdTokens) {
+            this.compactionThresholdTokens = compactionThresholdTokens;
+            return this;
+        }
+
+        public Builder keepRecentTokens(int keepRecentTokens) {
+            this.keepRecentTokens = keepRecentTokens;
+            return this;
+        }
+
+        public Builder maxConcurrentCompactions(int maxConcurrentCompactions) {
+            Assert.isTrue(maxConcurrentCompactions > 0, "maxConcurrentCompactions must be positive");
+            this.maxConcurrentCompactions = maxConcurrentCompactions;
+            return this;
+        }
+
+        /**
+         * Where summaries are made, a new virtual thread for each by default.
+         */
+        public Builder compactionExecutor(Executor compactionExecutor) {
+            this.compactionExecutor = compactionExecutor;
+            return this;
+        }
+
+        /**
+         * Where conversations are saved, and loaded from when not held. Held in memory only by default.
+         */
+        public Builder repository(@Nullable ChatMemoryRepository repository) {
+            this.repository = repository;
+            return this;
+        }
+
+        public ShardedChatMemory build() {
+            Assert.isTrue(this.summarizer == null || this.keepRecentTokens < this.compactionThresholdTokens,
+                    "keepRecentTokens must be below compactionThresholdTokens");
+            return new ShardedChatMemory(this);
+        }
+
+    }
+
+}
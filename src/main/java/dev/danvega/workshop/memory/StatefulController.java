@@ -2,7 +2,9 @@ package dev.danvega.workshop.memory;
 
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.client.advisor.MessageChatMemoryAdvisor;
+import org.springframework.ai.chat.client.advisor.api.Advisor;
 import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
@@ -12,15 +14,20 @@ public class StatefulController {
 
     private final ChatClient chatClient;
 
-    public StatefulController(ChatClient.Builder builder, ChatMemory chatMemory) {
+    public StatefulController(ChatClient.Builder builder, ChatMemory chatMemory,
+                              ObjectProvider<LongTermMemoryAdvisor> longTermMemory) {
+        LongTermMemoryAdvisor recall = longTermMemory.getIfAvailable();
+        Advisor memory = recall != null ? recall : MessageChatMemoryAdvisor.builder(chatMemory).build();
         this.chatClient = builder
-                .defaultAdvisors(MessageChatMemoryAdvisor.builder(chatMemory).build())
+                .defaultAdvisors(memory)
                 .build();
     }
 
     @GetMapping("/memory")
-    public String home(@RequestParam String message) {
+    public String home(@RequestParam String message,
+                       @RequestParam(defaultValue = ChatMemory.DEFAULT_CONVERSATION_ID) String conversationId) {
         return chatClient.prompt()
+                .advisors(a -> a.param(ChatMemory.CONVERSATION_ID, conversationId))
                 .user(message)
                 .call()
                 .content();
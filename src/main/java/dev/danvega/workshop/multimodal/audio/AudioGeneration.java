@@ -1,6 +1,6 @@
 package dev.danvega.workshop.multimodal.audio;
 
-import org.springframework.ai.openai.OpenAiAudioSpeechModel;
+import org.springframework.ai.audio.tts.TextToSpeechModel;
 import org.springframework.ai.openai.OpenAiAudioSpeechOptions;
 import org.springframework.ai.openai.api.OpenAiAudioApi;
 import org.springframework.ai.audio.tts.TextToSpeechPrompt;
@@ -14,9 +14,9 @@ import org.springframework.web.bind.annotation.RestController;
 @RestController
 public class AudioGeneration {
 
-    private final OpenAiAudioSpeechModel audioSpeechModel;
+    private final TextToSpeechModel audioSpeechModel;
 
-    public AudioGeneration(OpenAiAudioSpeechModel audioSpeechModel) {
+    public AudioGeneration(TextToSpeechModel audioSpeechModel) {
         this.audioSpeechModel = audioSpeechModel;
     }
 
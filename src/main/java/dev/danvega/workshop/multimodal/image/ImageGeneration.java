@@ -3,7 +3,7 @@ package dev.danvega.workshop.multimodal.image;
 import org.springframework.ai.image.ImageOptions;
 import org.springframework.ai.image.ImagePrompt;
 import org.springframework.ai.image.ImageResponse;
-import org.springframework.ai.openai.OpenAiImageModel;
+import org.springframework.ai.image.ImageModel;
 import org.springframework.ai.openai.OpenAiImageOptions;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -15,9 +15,9 @@ import java.util.Map;
 @RestController
 public class ImageGeneration {
 
-    private final OpenAiImageModel imageModel;
+    private final ImageModel imageModel;
 
-    public ImageGeneration(OpenAiImageModel imageModel) {
+    public ImageGeneration(ImageModel imageModel) {
         this.imageModel = imageModel;
     }
 
@@ -0,0 +1,230 @@
+package dev.danvega.workshop.observability;
+
+import dev.danvega.workshop.advisor.ResponseCacheAdvisor;
+import dev.danvega.workshop.advisor.SemanticCacheAdvisor;
+import dev.danvega.workshop.advisor.SingleFlightAdvisor;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.ai.chat.client.ChatClientMessageAggregator;
+import org.springframework.ai.chat.client.ChatClientRequest;
+import org.springframework.ai.chat.client.ChatClientResponse;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisor;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisorChain;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisor;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisorChain;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.core.Ordered;
+import org.springframework.lang.Nullable;
+import org.springframework.util.StringUtils;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerMapping;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Records latency, time to first token and token usage for every exchange that passes through a {@code ChatClient}.
+ * <p>
+ * Meters are tagged with the handler method that made the call ({@code controller}, {@code none} outside a web
+ * request), the model that answered, the portable options the request was sent with, and how it was served
+ * ({@code cache}: {@code exact}, {@code semantic}, {@code coalesced} or {@code miss}). The advisor runs first so it
+ * sees responses the caching advisors answer without reaching the model.
+ * <ul>
+ * <li>{@code chat.client.requests}: timer per exchange, with {@code mode} ({@code call}, {@code stream}) and
+ * {@code outcome}; streams are timed to their last chunk.</li>
+ * <li>{@code chat.client.time-to-first-token}: timer from subscription to the first chunk of a stream.</li>
+ * <li>{@code chat.client.tokens}: counter of prompt and completion tokens reported by the model; cached answers are
+ * counted under their cache tag, so billed tokens are those with {@code cache=miss}.</li>
+ * <li>{@code chat.client.tool.round-trips}: tool execution round trips per blocking exchange, as counted by
+ * {@link MeteredToolCallingManager}.</li>
+ * </ul>
+ */
+public class ChatMetricsAdvisor implements CallAdvisor, StreamAdvisor {
+
+    public static final int DEFAULT_ORDER = Ordered.HIGHEST_PRECEDENCE;
+
+    private static final String NONE = "none";
+    private static final String DEFAULT = "default";
+
+    private final MeterRegistry registry;
+    private final int order;
+
+    public ChatMetricsAdvisor(MeterRegistry registry) {
+        this(registry, DEFAULT_ORDER);
+    }
+
+    public ChatMetricsAdvisor(MeterRegistry registry, int order) {
+        this.registry = registry;
+        this.order = order;
+    }
+
+    @Override
+    public ChatClientResponse adviseCall(ChatClientRequest chatClientRequest, CallAdvisorChain callAdvisorChain) {
+        String controller = controller();
+        long start = System.nanoTime();
+        ChatClientResponse chatClientResponse;
+        int roundTrips;
+        try (MeteredToolCallingManager.RoundTrips counter = MeteredToolCallingManager.countRoundTrips()) {
+            chatClientResponse = callAdvisorChain.nextCall(chatClientRequest);
+            roundTrips = counter.count();
+        }
+        catch (RuntimeException ex) {
+            recordExchange(chatClientRequest, null, null, controller, "call", ex, System.nanoTime() - start);
+            throw ex;
+        }
+        long elapsed = System.nanoTime() - start;
+        ChatResponse chatResponse = chatClientResponse.chatResponse();
+        Tags tags = recordExchange(chatClientRequest, chatResponse, chatClientResponse.context(), controller, "call", null, elapsed);
+        DistributionSummary.builder("chat.client.tool.round-trips")
+                .description("Tool execution round trips per exchange")
+                .tags(tags)
+                .register(this.registry)
+                .record(roundTrips);
+        return chatClientResponse;
+    }
+
+    @Override
+    public Flux<ChatClientResponse> adviseStream(ChatClientRequest chatClientRequest, StreamAdvisorChain streamAdvisorChain) {
+        // resolved while still on the request thread
+        String controller = controller();
+        return Flux.defer(() -> {
+            long start = System.nanoTime();
+            AtomicBoolean first = new AtomicBoolean(true);
+            AtomicReference<Map<String, Object>> context = new AtomicReference<>(Map.of());
+            Flux<ChatClientResponse> chunks = streamAdvisorChain.nextStream(chatClientRequest).doOnNext(chunk -> {
+                if (first.compareAndSet(true, false)) {
+                    Timer.builder("chat.client.time-to-first-token")
+                            .description("Time from subscription to the first streamed chunk")
+                            .tags(tags(chatClientRequest, chunk.chatResponse(), chunk.context(), controller))
+                            .publishPercentileHistogram()
+                            .register(this.registry)
+                            .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                }
+                if (!chunk.context().isEmpty()) {
+                    context.set(chunk.context());
+                }
+            });
+            return new ChatClientMessageAggregator()
+                    .aggregateChatClientResponse(chunks, aggregated -> recordExchange(chatClientRequest,
+                            aggregated.chatResponse(), context.get(), controller, "stream", null, System.nanoTime() - start))
+                    .doOnError(ex -> recordExchange(chatClientRequest, null, null, controller, "stream", ex,
+                            System.nanoTime() - start));
+        });
+    }
+
+    @Override
+    public String getName() {
+        return this.getClass().getSimpleName();
+    }
+
+    @Override
+    public int getOrder() {
+        return this.order;
+    }
+
+    private Tags recordExchange(ChatClientRequest request, @Nullable ChatResponse response,
+            @Nullable Map<String, Object> context, String controller, String mode, @Nullable Throwable error, long nanos) {
+        Tags tags = tags(request, response, context, controller);
+        Timer.builder("chat.client.requests")
+                .description("ChatClient exchanges, blocking calls and complete streams")
+                .tags(tags)
+                .tag("mode", mode)
+                .tag("outcome", error == null ? "success" : "error")
+                .tag("exception", error == null ? NONE : error.getClass().getSimpleName())
+                .publishPercentileHistogram()
+                .register(this.registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+        Usage usage = response != null && response.getMetadata() != null ? response.getMetadata().getUsage() : null;
+        if (usage != null) {
+            countTokens(tags, "prompt", usage.getPromptTokens());
+            countTokens(tags, "completion", usage.getCompletionTokens());
+        }
+        return tags;
+    }
+
+    private void countTokens(Tags tags, String type, @Nullable Integer tokens) {
+        if (tokens != null && tokens > 0) {
+            this.registry.counter("chat.client.tokens", tags.and("type", type)).increment(tokens);
+        }
+    }
+
+    private static Tags tags(ChatClientRequest request, @Nullable ChatResponse response,
+            @Nullable Map<String, Object> context, String controller) {
+        ChatOptions options = request.prompt().getOptions();
+        return Tags.of("controller", controller,
+                "model", model(options, response),
+                "options", options(options),
+                "cache", cache(context));
+    }
+
+    private static String model(@Nullable ChatOptions options, @Nullable ChatResponse response) {
+        if (response != null && response.getMetadata() != null && StringUtils.hasText(response.getMetadata().getModel())) {
+            return response.getMetadata().getModel();
+        }
+        if (options != null && StringUtils.hasText(options.getModel())) {
+            return options.getModel();
+        }
+        return DEFAULT;
+    }
+
+    /**
+     * The sampling options that were set, e.g. {@code temperature=0.1,maxTokens=200}; free-form fields such as stop
+     * sequences are left out to keep the tag's cardinality bounded.
+     */
+    static String options(@Nullable ChatOptions options) {
+        if (options == null) {
+            return DEFAULT;
+        }
+        List<String> set = new ArrayList<>(6);
+        append(set, "temperature", options.getTemperature());
+        append(set, "topP", options.getTopP());
+        append(set, "topK", options.getTopK());
+        append(set, "maxTokens", options.getMaxTokens());
+        append(set, "frequencyPenalty", options.getFrequencyPenalty());
+        append(set, "presencePenalty", options.getPresencePenalty());
+        return set.isEmpty() ? DEFAULT : String.join(",", set);
+    }
+
+    private static void append(List<String> set, String name, @Nullable Object value) {
+        if (value != null) {
+            set.add(name + "=" + value);
+        }
+    }
+
+    private static String cache(@Nullable Map<String, Object> context) {
+        if (context == null) {
+            return "miss";
+        }
+        if (Boolean.TRUE.equals(context.get(ResponseCacheAdvisor.CACHE_HIT))) {
+            return "exact";
+        }
+        if (Boolean.TRUE.equals(context.get(SemanticCacheAdvisor.CACHE_HIT))) {
+            return "semantic";
+        }
+        if (Boolean.TRUE.equals(context.get(SingleFlightAdvisor.COALESCED))) {
+            return "coalesced";
+        }
+        return "miss";
+    }
+
+    private static String controller() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes != null && attributes.getAttribute(HandlerMapping.BEST_MATCHING_HANDLER_ATTRIBUTE,
+                RequestAttributes.SCOPE_REQUEST) instanceof HandlerMethod handler) {
+            return handler.getBeanType().getSimpleName() + "." + handler.getMethod().getName();
+        }
+        return NONE;
+    }
+
+}
@@ -0,0 +1,48 @@
+package dev.danvega.workshop.observability;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import org.springframework.ai.chat.client.ChatClientCustomizer;
+import org.springframework.ai.model.tool.ToolCallingManager;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Instruments every {@code ChatClient} built from the auto-configured {@code ChatClient.Builder} with a
+ * {@link ChatMetricsAdvisor}, and the tool calling manager the chat models share with a
+ * {@link MeteredToolCallingManager}.
+ */
+@Configuration
+@ConditionalOnProperty(name = "workshop.chat.metrics.enabled", havingValue = "true")
+public class ChatMetricsConfiguration {
+
+    @Bean
+    ChatMetricsAdvisor chatMetricsAdvisor(ObjectProvider<MeterRegistry> meterRegistry) {
+        return new ChatMetricsAdvisor(meterRegistry.getIfAvailable(() -> Metrics.globalRegistry));
+    }
+
+    @Bean
+    ChatClientCustomizer chatMetricsCustomizer(ChatMetricsAdvisor chatMetricsAdvisor) {
+        return builder -> builder.defaultAdvisors(chatMetricsAdvisor);
+    }
+
+    @Bean
+    static BeanPostProcessor meteredToolCallingManagerPostProcessor(ObjectProvider<MeterRegistry> meterRegistry) {
+        return new BeanPostProcessor() {
+
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof ToolCallingManager toolCallingManager && !(bean instanceof MeteredToolCallingManager)) {
+                    return new MeteredToolCallingManager(toolCallingManager,
+                            meterRegistry.getIfAvailable(() -> Metrics.globalRegistry));
+                }
+                return bean;
+            }
+
+        };
+    }
+
+}
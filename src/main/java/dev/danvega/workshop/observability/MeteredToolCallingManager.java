@@ -0,0 +1,102 @@
+package dev.danvega.workshop.observability;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.model.tool.ToolCallingChatOptions;
+import org.springframework.ai.model.tool.ToolCallingManager;
+import org.springframework.ai.model.tool.ToolExecutionResult;
+import org.springframework.ai.tool.definition.ToolDefinition;
+
+import java.util.List;
+
+/**
+ * Decorates the {@link ToolCallingManager} the chat models use to run tools, timing each round trip (one model
+ * response whose tool calls are executed and sent back) as {@code chat.client.tool.execution} and counting the calls
+ * per tool as {@code chat.client.tool.calls}.
+ * <p>
+ * Round trips made while a blocking {@link ChatMetricsAdvisor} exchange is running on the same thread are also added
+ * to that exchange's count, see {@link #countRoundTrips()}.
+ */
+public class MeteredToolCallingManager implements ToolCallingManager {
+
+    private static final ThreadLocal<RoundTrips> current = new ThreadLocal<>();
+
+    private final ToolCallingManager delegate;
+    private final MeterRegistry registry;
+
+    public MeteredToolCallingManager(ToolCallingManager delegate, MeterRegistry registry) {
+        this.delegate = delegate;
+        this.registry = registry;
+    }
+
+    /**
+     * Starts counting round trips on the calling thread until the returned counter is closed. Counters nest, so a
+     * tool that itself calls a {@code ChatClient} does not disturb the outer count.
+     */
+    static RoundTrips countRoundTrips() {
+        RoundTrips roundTrips = new RoundTrips(current.get());
+        current.set(roundTrips);
+        return roundTrips;
+    }
+
+    @Override
+    public List<ToolDefinition> resolveToolDefinitions(ToolCallingChatOptions chatOptions) {
+        return this.delegate.resolveToolDefinitions(chatOptions);
+    }
+
+    @Override
+    public ToolExecutionResult executeToolCalls(Prompt prompt, ChatResponse chatResponse) {
+        RoundTrips roundTrips = current.get();
+        if (roundTrips != null) {
+            roundTrips.count++;
+        }
+        for (Generation generation : chatResponse.getResults()) {
+            for (AssistantMessage.ToolCall toolCall : generation.getOutput().getToolCalls()) {
+                this.registry.counter("chat.client.tool.calls", "tool", toolCall.name()).increment();
+            }
+        }
+        Timer.Sample sample = Timer.start(this.registry);
+        String outcome = "error";
+        try {
+            ToolExecutionResult result = this.delegate.executeToolCalls(prompt, chatResponse);
+            outcome = "success";
+            return result;
+        }
+        finally {
+            sample.stop(Timer.builder("chat.client.tool.execution")
+                    .description("Tool execution round trips")
+                    .tag("outcome", outcome)
+                    .register(this.registry));
+        }
+    }
+
+    static final class RoundTrips implements AutoCloseable {
+
+        private final RoundTrips outer;
+        private int count;
+
+        private RoundTrips(RoundTrips outer) {
+            this.outer = outer;
+        }
+
+        int count() {
+            return this.count;
+        }
+
+        @Override
+        public void close() {
+            if (this.outer != null) {
+                current.set(this.outer);
+            }
+            else {
+                current.remove();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,60 @@
+package dev.danvega.workshop.observability;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.ai.converter.BeanOutputConverter;
+import org.springframework.ai.converter.StructuredOutputConverter;
+import org.springframework.lang.NonNull;
+
+/**
+ * A {@link StructuredOutputConverter} that times the conversion of the model's text into {@code T} as
+ * {@code chat.client.output.conversion}, tagged with the target type and outcome. Pass it to
+ * {@code .call().entity(...)} in place of the class:
+ * <pre>
+ * .entity(TimedOutputConverter.of(Itinerary.class))
+ * </pre>
+ */
+public class TimedOutputConverter<T> implements StructuredOutputConverter<T> {
+
+    private final StructuredOutputConverter<T> delegate;
+    private final String type;
+    private final MeterRegistry registry;
+
+    public TimedOutputConverter(StructuredOutputConverter<T> delegate, String type, MeterRegistry registry) {
+        this.delegate = delegate;
+        this.type = type;
+        this.registry = registry;
+    }
+
+    /**
+     * Wraps a {@link BeanOutputConverter} for {@code type}, recording to the global registry.
+     */
+    public static <T> TimedOutputConverter<T> of(Class<T> type) {
+        return new TimedOutputConverter<>(new BeanOutputConverter<>(type), type.getSimpleName(), Metrics.globalRegistry);
+    }
+
+    @Override
+    public T convert(@NonNull String text) {
+        Timer.Sample sample = Timer.start(this.registry);
+        String outcome = "error";
+        try {
+            T converted = this.delegate.convert(text);
+            outcome = "success";
+            return converted;
+        }
+        finally {
+            sample.stop(Timer.builder("chat.client.output.conversion")
+                    .description("Structured output conversion of model responses")
+                    .tag("type", this.type)
+                    .tag("outcome", outcome)
+                    .register(this.registry));
+        }
+    }
+
+    @Override
+    public String getFormat() {
+        return this.delegate.getFormat();
+    }
+
+}
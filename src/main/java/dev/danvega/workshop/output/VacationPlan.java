@@ -1,6 +1,10 @@
 package dev.danvega.workshop.output;
 
+import dev.danvega.workshop.advisor.SemanticCacheAdvisor;
+import dev.danvega.workshop.observability.TimedOutputConverter;
+import dev.danvega.workshop.prompt.PromptTemplateRegistry;
 import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
@@ -11,9 +15,13 @@ import java.util.List;
 public class VacationPlan {
 
     private final ChatClient chatClient;
+    private final PromptTemplateRegistry promptTemplates;
 
-    public VacationPlan(ChatClient.Builder builder) {
+    public VacationPlan(ChatClient.Builder builder, ObjectProvider<SemanticCacheAdvisor> semanticCache,
+                        PromptTemplateRegistry promptTemplates) {
+        semanticCache.ifAvailable(advisor -> builder.defaultAdvisors(advisor));
         this.chatClient = builder.build();
+        this.promptTemplates = promptTemplates;
     }
 
     @GetMapping("/vacation/unstructured")
@@ -27,12 +35,11 @@ public class VacationPlan {
     @GetMapping("/vacation/structured")
     public Itinerary vacationStructured(@RequestParam(value = "destination", defaultValue = "Cleveland, OH") String destination) {
         return chatClient.prompt()
-                .user(u -> {
-                    u.text("What's a good vacation plan while I'm in {destination} for 3 days?");
-                    u.param("destination", destination);
-                })
+                .advisors(a -> a.param(SemanticCacheAdvisor.SCOPE, "vacation-structured")
+                        .param(SemanticCacheAdvisor.PARTITION_KEY, destination))
+                .user(promptTemplates.render("vacation-plan", "destination", destination))
                 .call()
-                .entity(Itinerary.class);
+                .entity(TimedOutputConverter.of(Itinerary.class));
     }
 
 }
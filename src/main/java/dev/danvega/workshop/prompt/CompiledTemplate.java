@@ -0,0 +1,144 @@
+package dev.danvega.workshop.prompt;
+
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A prompt template parsed once into literal text and {@code {name}} placeholders, so rendering is a single pass of
+ * appends into one presized {@link StringBuilder}.
+ * <p>
+ * The syntax is the subset of StringTemplate that {@code PromptTemplate} templates in this project use: {@code {name}}
+ * placeholders and {@code \{} / {@code \}} for literal braces. Any other expression fails at compile time rather than
+ * on the first request.
+ */
+public final class CompiledTemplate {
+
+    private final String name;
+    private final String[] literals;
+    private final String[] variables;
+    private final int literalLength;
+    private final String staticPrefix;
+    private final int staticPrefixTokens;
+
+    private CompiledTemplate(String name, List<String> literals, List<String> variables, TokenCountEstimator tokenCounter) {
+        this.name = name;
+        this.literals = literals.toArray(String[]::new);
+        this.variables = variables.toArray(String[]::new);
+        this.literalLength = literals.stream().mapToInt(String::length).sum();
+        this.staticPrefix = this.literals[0];
+        this.staticPrefixTokens = this.staticPrefix.isEmpty() ? 0 : tokenCounter.estimate(this.staticPrefix);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the template uses anything but {@code {name}} placeholders
+     */
+    public static CompiledTemplate compile(String name, String template, TokenCountEstimator tokenCounter) {
+        List<String> literals = new ArrayList<>();
+        List<String> variables = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while (i < template.length()) {
+            char c = template.charAt(i);
+            if (c == '\\' && i + 1 < template.length() && (template.charAt(i + 1) == '{' || template.charAt(i + 1) == '}')) {
+                literal.append(template.charAt(i + 1));
+                i += 2;
+            }
+            else if (c == '{') {
+                int end = template.indexOf('}', i);
+                String variable = end < 0 ? "" : template.substring(i + 1, end).strip();
+                if (!isIdentifier(variable)) {
+                    throw new IllegalArgumentException("Unsupported expression in prompt template '%s' at offset %d: %s"
+                            .formatted(name, i, template.substring(i, end < 0 ? template.length() : end + 1)));
+                }
+                literals.add(literal.toString());
+                variables.add(variable);
+                literal.setLength(0);
+                i = end + 1;
+            }
+            else {
+                literal.append(c);
+                i++;
+            }
+        }
+        literals.add(literal.toString());
+        return new CompiledTemplate(name, literals, variables, tokenCounter);
+    }
+
+    public String name() {
+        return this.name;
+    }
+
+    /**
+     * The distinct placeholder names, in order of first use.
+     */
+    public Set<String> variables() {
+        return new LinkedHashSet<>(Arrays.asList(this.variables));
+    }
+
+    /**
+     * The text before the first placeholder, the same for every render. Providers that cache prompt prefixes can
+     * only reuse this part.
+     */
+    public String staticPrefix() {
+        return this.staticPrefix;
+    }
+
+    public int staticPrefixTokens() {
+        return this.staticPrefixTokens;
+    }
+
+    /**
+     * @throws IllegalArgumentException if a placeholder has no value
+     */
+    public String render(Map<String, ?> values) {
+        if (this.variables.length == 0) {
+            return this.staticPrefix;
+        }
+        StringBuilder out = new StringBuilder(this.literalLength + 32 * this.variables.length);
+        for (int i = 0; i < this.variables.length; i++) {
+            Object value = values.get(this.variables[i]);
+            if (value == null) {
+                throw missing(this.variables[i]);
+            }
+            out.append(this.literals[i]).append(value);
+        }
+        return out.append(this.literals[this.variables.length]).toString();
+    }
+
+    /**
+     * Renders a template whose only placeholder is {@code variable}, without building a map.
+     */
+    public String render(String variable, Object value) {
+        StringBuilder out = new StringBuilder(this.literalLength + 32 * this.variables.length);
+        for (int i = 0; i < this.variables.length; i++) {
+            if (!this.variables[i].equals(variable)) {
+                throw missing(this.variables[i]);
+            }
+            out.append(this.literals[i]).append(value);
+        }
+        return out.append(this.literals[this.variables.length]).toString();
+    }
+
+    private IllegalArgumentException missing(String variable) {
+        return new IllegalArgumentException("No value for '%s' in prompt template '%s'".formatted(variable, this.name));
+    }
+
+    private static boolean isIdentifier(String text) {
+        if (text.isEmpty() || !Character.isJavaIdentifierStart(text.charAt(0))) {
+            return false;
+        }
+        for (int i = 1; i < text.length(); i++) {
+            if (!Character.isJavaIdentifierPart(text.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
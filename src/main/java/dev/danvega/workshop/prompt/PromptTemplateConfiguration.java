@@ -0,0 +1,23 @@
+package dev.danvega.workshop.prompt;
+
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.support.ResourcePatternResolver;
+
+@Configuration
+public class PromptTemplateConfiguration {
+
+    @Value("${workshop.prompts.location:classpath:/prompts/}")
+    private String location;
+
+    @Value("${workshop.prompts.reload:false}")
+    private boolean reload;
+
+    @Bean
+    PromptTemplateRegistry promptTemplateRegistry(ResourcePatternResolver resourcePatternResolver) {
+        return new PromptTemplateRegistry(resourcePatternResolver, location, reload, new JTokkitTokenCountEstimator());
+    }
+
+}
@@ -0,0 +1,123 @@
+package dev.danvega.workshop.prompt;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.ResourcePatternResolver;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Every {@code .st} file under a location, compiled once at startup and looked up by file name without the
+ * extension: {@code prompts/blog-post-guidelines.st} is {@code blog-post-guidelines}.
+ * <p>
+ * With {@code reload} on, a lookup recompiles a template whose file changed since it was compiled, and a lookup of
+ * an unknown name rescans the location. Point the location at {@code file:src/main/resources/prompts/} in development
+ * to pick up edits without a rebuild.
+ */
+public class PromptTemplateRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(PromptTemplateRegistry.class);
+
+    private final ResourcePatternResolver resolver;
+    private final String location;
+    private final boolean reload;
+    private final TokenCountEstimator tokenCounter;
+    private final Map<String, Entry> templates = new ConcurrentHashMap<>();
+
+    public PromptTemplateRegistry(ResourcePatternResolver resolver, String location, boolean reload,
+                                  TokenCountEstimator tokenCounter) {
+        this.resolver = resolver;
+        this.location = location.endsWith("/") ? location : location + "/";
+        this.reload = reload;
+        this.tokenCounter = tokenCounter;
+        scan();
+        log.info("Compiled {} prompt templates from {}{}", this.templates.size(), this.location, reload ? " (reload on)" : "");
+    }
+
+    /**
+     * @throws IllegalArgumentException if there is no template with that name
+     */
+    public CompiledTemplate get(String name) {
+        Entry entry = this.templates.get(name);
+        if (entry == null && this.reload) {
+            scan();
+            entry = this.templates.get(name);
+        }
+        if (entry == null) {
+            throw new IllegalArgumentException("No prompt template '%s' in %s".formatted(name, this.location));
+        }
+        if (this.reload && lastModified(entry.resource()) != entry.lastModified()) {
+            entry = this.templates.compute(name, (key, current) -> {
+                if (lastModified(current.resource()) == current.lastModified()) {
+                    return current;
+                }
+                log.info("Recompiling prompt template '{}'", key);
+                return compile(key, current.resource());
+            });
+        }
+        return entry.template();
+    }
+
+    public String render(String name, Map<String, ?> values) {
+        return get(name).render(values);
+    }
+
+    public String render(String name, String variable, Object value) {
+        return get(name).render(variable, value);
+    }
+
+    public Set<String> names() {
+        return new TreeSet<>(this.templates.keySet());
+    }
+
+    private void scan() {
+        try {
+            for (Resource resource : this.resolver.getResources(this.location + "**/*.st")) {
+                String path = resource.getURL().toString();
+                String name = path.substring(path.lastIndexOf('/') + 1, path.length() - ".st".length());
+                if (!this.templates.containsKey(name)) {
+                    Entry entry = compile(name, resource);
+                    this.templates.put(name, entry);
+                    log.debug("Prompt template '{}': {} placeholders, static prefix of {} tokens", name,
+                            entry.template().variables().size(), entry.template().staticPrefixTokens());
+                }
+            }
+        }
+        catch (IOException ex) {
+            throw new UncheckedIOException("Could not list prompt templates in " + this.location, ex);
+        }
+    }
+
+    private Entry compile(String name, Resource resource) {
+        long lastModified = lastModified(resource);
+        try {
+            String text = resource.getContentAsString(StandardCharsets.UTF_8);
+            return new Entry(resource, lastModified, CompiledTemplate.compile(name, text, this.tokenCounter));
+        }
+        catch (IOException ex) {
+            throw new UncheckedIOException("Could not read prompt template " + resource, ex);
+        }
+    }
+
+    private static long lastModified(Resource resource) {
+        try {
+            return resource.lastModified();
+        }
+        catch (IOException ex) {
+            // packaged in a jar: never changes
+            return 0;
+        }
+    }
+
+    private record Entry(Resource resource, long lastModified, CompiledTemplate template) {
+    }
+
+}
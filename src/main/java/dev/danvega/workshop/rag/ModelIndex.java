@@ -0,0 +1,104 @@
+package dev.danvega.workshop.rag;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Immutable in-memory index over the {@link Model} records in {@code models.json}: by company (including
+ * unambiguous short forms such as "Mistral" for "Mistral AI"), by model name, and by context window size.
+ * <p>
+ * Names are compared on a canonical key that ignores case, spaces, hyphens and slashes, so "gpt 4o", "GPT-4o"
+ * and "gpt4o" all find the same record.
+ */
+public class ModelIndex {
+
+    private static final Set<String> GENERIC_COMPANY_WORDS = Set.of("ai", "labs", "cloud", "inc");
+
+    private final List<Model> models;
+    private final Map<String, List<Model>> byCompany = new HashMap<>();
+    private final Map<String, Model> byName = new HashMap<>();
+    private final NavigableMap<Integer, List<Model>> byContextWindow = new TreeMap<>();
+
+    public ModelIndex(List<Model> models) {
+        this.models = List.copyOf(models);
+        Map<String, Set<String>> companiesByWord = new HashMap<>();
+        for (Model model : this.models) {
+            this.byCompany.computeIfAbsent(key(model.company()), k -> new ArrayList<>()).add(model);
+            this.byName.putIfAbsent(key(model.model()), model);
+            this.byContextWindow.computeIfAbsent(model.contextWindowSize(), k -> new ArrayList<>()).add(model);
+            for (String word : model.company().toLowerCase(Locale.ROOT).split("\\s+")) {
+                companiesByWord.computeIfAbsent(key(word), k -> new HashSet<>()).add(key(model.company()));
+            }
+        }
+        companiesByWord.forEach((word, companies) -> {
+            if (companies.size() == 1 && !GENERIC_COMPANY_WORDS.contains(word) && !this.byCompany.containsKey(word)) {
+                this.byCompany.put(word, this.byCompany.get(companies.iterator().next()));
+            }
+        });
+    }
+
+    /**
+     * Reads the {@code [{"company", "model", "context_window_size"}]} layout of {@code models.json}.
+     */
+    public static ModelIndex load(Resource resource, ObjectMapper objectMapper) throws IOException {
+        try (InputStream in = resource.getInputStream()) {
+            List<Map<String, Object>> records = objectMapper.readValue(in, new TypeReference<>() {
+            });
+            List<Model> models = new ArrayList<>(records.size());
+            for (Map<String, Object> record : records) {
+                models.add(new Model((String) record.get("company"), (String) record.get("model"),
+                        ((Number) record.get("context_window_size")).intValue()));
+            }
+            return new ModelIndex(models);
+        }
+    }
+
+    public List<Model> models() {
+        return this.models;
+    }
+
+    public Optional<List<Model>> byCompany(String company) {
+        return Optional.ofNullable(this.byCompany.get(key(company))).map(List::copyOf);
+    }
+
+    public Optional<Model> byName(String name) {
+        return Optional.ofNullable(this.byName.get(key(name)));
+    }
+
+    /**
+     * Models whose context window lies in {@code [min, max]}, smallest window first.
+     */
+    public List<Model> byContextWindow(int min, int max) {
+        if (min > max) {
+            return List.of();
+        }
+        List<Model> result = new ArrayList<>();
+        this.byContextWindow.subMap(min, true, max, true).values().forEach(result::addAll);
+        return result;
+    }
+
+    static String key(String name) {
+        StringBuilder key = new StringBuilder(name.length());
+        for (char c : name.toLowerCase(Locale.ROOT).toCharArray()) {
+            if (Character.isLetterOrDigit(c) || c == '.' || c == '+') {
+                key.append(c);
+            }
+        }
+        return key.toString();
+    }
+
+}
@@ -0,0 +1,147 @@
+package dev.danvega.workshop.rag;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Recognizes the handful of lookup shapes {@code /rag/models} is mostly asked and answers them straight from the
+ * {@link ModelIndex}:
+ * <ul>
+ * <li>all models from a company — "Give me a list of all the models from OpenAI along with their context window."</li>
+ * <li>the context window of one model — "What is the context window of GPT-4o?"</li>
+ * <li>models by context window size — "Which models have a context window over 200k?"</li>
+ * </ul>
+ * The templates are anchored to the whole question, so anything that adds a qualifier ("the best", "cheapest",
+ * "compare") or names a company or model the index does not know is left to retrieval and the chat model.
+ */
+public class ModelQueryMatcher {
+
+    public enum Kind {
+        COMPANY, MODEL, CONTEXT_WINDOW
+    }
+
+    public record Match(Kind kind, Models models) {
+    }
+
+    private static final String LEAD = "(?:(?:please|can you|could you|would you)\\s+)?"
+            + "(?:(?:give me|show me|tell me|list|show|get|return|find|what are|which are|name)\\s+)?"
+            + "(?:(?:a|the)\\s+list\\s+of\\s+)?(?:all\\s+)?(?:(?:of\\s+)?the\\s+)?";
+
+    private static final String CONTEXT_TAIL = "(?:\\s+(?:along\\s+)?with\\s+(?:their|its|the)\\s+context\\s+windows?(?:\\s+sizes?)?)?";
+
+    private static final String END = "\\s*[.?!]*$";
+
+    private static final String WINDOW = "(?:(?:a|the)\\s+)?context\\s+(?:window|length)s?(?:\\s+size)?";
+
+    private static final List<Pattern> COMPANY = List.of(
+            Pattern.compile("^" + LEAD + "(?:models|llms)\\s+(?:from|by|made\\s+by|offered\\s+by|of)\\s+(?<company>.+?)" + CONTEXT_TAIL + END),
+            Pattern.compile("^" + LEAD + "(?<company>.+?)(?:'s)?\\s+(?:models|llms)" + CONTEXT_TAIL + END),
+            Pattern.compile("^(?:which|what)\\s+models\\s+(?:does|do)\\s+(?<company>.+?)\\s+(?:offer|have|make|provide)" + CONTEXT_TAIL + END));
+
+    private static final List<Pattern> MODEL = List.of(
+            Pattern.compile("^(?:(?:what\\s+is|what's|whats|tell\\s+me|give\\s+me|show\\s+me)\\s+)?(?:the\\s+)?context\\s+(?:window|length)(?:\\s+size)?\\s+(?:of|for)\\s+(?:the\\s+)?(?<model>.+?)(?:\\s+model)?" + END),
+            Pattern.compile("^how\\s+(?:big|large|long)\\s+is\\s+(?:the\\s+)?(?<model>.+?)(?:'s)?(?:\\s+model)?(?:'s)?\\s+context\\s+(?:window|length)" + END),
+            Pattern.compile("^(?:(?:what\\s+is|what's|whats)\\s+)?(?:the\\s+)?(?<model>.+?)(?:'s)?\\s+context\\s+(?:window|length)(?:\\s+size)?" + END));
+
+    private static final String SIZE = "(?<%s>\\d[\\d,]*(?:\\.\\d+)?)\\s*(?<%sunit>k|m|thousand|million)?(?:\\s+tokens)?";
+
+    private static final String RANGE_LEAD = "^(?:(?:which|what|list|show\\s+me|give\\s+me|find)\\s+)?(?:all\\s+)?(?:(?:of\\s+)?the\\s+)?"
+            + "(?:models|llms)\\s+(?:(?:that\\s+)?(?:have|has|with|support|supports|supporting|offer|offering)\\s+)?" + WINDOW + "\\s+";
+
+    private static final Pattern RANGE = Pattern.compile(RANGE_LEAD
+            + "(?:(?:of|is|are)\\s+)?(?<op>over|above|more\\s+than|greater\\s+than|larger\\s+than|bigger\\s+than|at\\s+least|under|below|less\\s+than|smaller\\s+than|at\\s+most|up\\s+to)\\s+"
+            + SIZE.formatted("n", "n") + END);
+
+    private static final Pattern BETWEEN = Pattern.compile(RANGE_LEAD
+            + "(?:(?:of|is|are)\\s+)?between\\s+" + SIZE.formatted("lo", "lo") + "\\s+and\\s+" + SIZE.formatted("hi", "hi") + END);
+
+    private final ModelIndex index;
+
+    public ModelQueryMatcher(ModelIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * @return the answer for a recognized lookup, or empty when the question needs retrieval and the chat model
+     */
+    public Optional<Match> match(String question) {
+        String normalized = normalize(question);
+        Optional<Match> match = matchRange(normalized);
+        if (match.isEmpty()) {
+            match = matchModel(normalized);
+        }
+        if (match.isEmpty()) {
+            match = matchCompany(normalized);
+        }
+        return match;
+    }
+
+    private Optional<Match> matchCompany(String question) {
+        for (Pattern pattern : COMPANY) {
+            Matcher matcher = pattern.matcher(question);
+            if (matcher.matches()) {
+                Optional<List<Model>> models = this.index.byCompany(matcher.group("company"));
+                if (models.isPresent()) {
+                    return Optional.of(new Match(Kind.COMPANY, new Models(models.get())));
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    private Optional<Match> matchModel(String question) {
+        for (Pattern pattern : MODEL) {
+            Matcher matcher = pattern.matcher(question);
+            if (matcher.matches()) {
+                Optional<Model> model = this.index.byName(matcher.group("model"));
+                if (model.isPresent()) {
+                    return Optional.of(new Match(Kind.MODEL, new Models(List.of(model.get()))));
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    private Optional<Match> matchRange(String question) {
+        Matcher matcher = BETWEEN.matcher(question);
+        if (matcher.matches()) {
+            long lo = tokens(matcher.group("lo"), matcher.group("lounit"));
+            long hi = tokens(matcher.group("hi"), matcher.group("hiunit"));
+            return range(Math.min(lo, hi), Math.max(lo, hi));
+        }
+        matcher = RANGE.matcher(question);
+        if (!matcher.matches()) {
+            return Optional.empty();
+        }
+        long n = tokens(matcher.group("n"), matcher.group("nunit"));
+        return switch (matcher.group("op").replaceAll("\\s+", " ")) {
+            case "at least" -> range(n, Long.MAX_VALUE);
+            case "under", "below", "less than", "smaller than" -> range(Long.MIN_VALUE, n - 1);
+            case "at most", "up to" -> range(Long.MIN_VALUE, n);
+            default -> range(n + 1, Long.MAX_VALUE);
+        };
+    }
+
+    private Optional<Match> range(long min, long max) {
+        int lo = (int) Math.max(0, Math.min(min, Integer.MAX_VALUE));
+        int hi = (int) Math.max(-1, Math.min(max, Integer.MAX_VALUE));
+        return Optional.of(new Match(Kind.CONTEXT_WINDOW, new Models(this.index.byContextWindow(lo, hi))));
+    }
+
+    static long tokens(String number, String unit) {
+        BigDecimal value = new BigDecimal(number.replace(",", ""));
+        if (unit != null) {
+            value = value.multiply(BigDecimal.valueOf(unit.startsWith("m") ? 1_000_000 : 1_000));
+        }
+        return value.longValue();
+    }
+
+    private static String normalize(String question) {
+        return question.strip().toLowerCase(Locale.ROOT).replace('’', '\'').replaceAll("\\s+", " ");
+    }
+
+}
@@ -1,31 +1,66 @@
 package dev.danvega.workshop.rag;
 
+import dev.danvega.workshop.observability.TimedOutputConverter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.client.advisor.vectorstore.QuestionAnswerAdvisor;
 import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
-import java.util.List;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
 
 @RestController
 public class ModelsController {
 
     private final ChatClient chatClient;
+    private final ModelQueryMatcher matcher;
+    private final Map<ModelQueryMatcher.Kind, Counter> indexHits = new EnumMap<>(ModelQueryMatcher.Kind.class);
+    private final Counter fallbacks;
 
-    public ModelsController(ChatClient.Builder builder, VectorStore vectorStore) {
+    public ModelsController(ChatClient.Builder builder, VectorStore vectorStore, ModelQueryMatcher matcher,
+                            ObjectProvider<MeterRegistry> meterRegistry) {
         this.chatClient = builder
                 .defaultAdvisors(QuestionAnswerAdvisor.builder(vectorStore).build())
                 .build();
+        this.matcher = matcher;
+        MeterRegistry registry = meterRegistry.getIfAvailable(() -> Metrics.globalRegistry);
+        for (ModelQueryMatcher.Kind kind : ModelQueryMatcher.Kind.values()) {
+            this.indexHits.put(kind, lookups(registry, "index", kind.name().toLowerCase()));
+        }
+        this.fallbacks = lookups(registry, "rag", "none");
     }
 
+    /**
+     * Simple lookups (models by company, a model's context window, models by window size) are answered from the
+     * in-memory {@link ModelIndex}; everything else goes through retrieval and the chat model.
+     */
     @GetMapping("/rag/models")
     public Models faq(@RequestParam(value = "message", defaultValue = "Give me a list of all the models from OpenAI along with their context window.") String message) {
+        Optional<ModelQueryMatcher.Match> match = matcher.match(message);
+        if (match.isPresent()) {
+            indexHits.get(match.get().kind()).increment();
+            return match.get().models();
+        }
+        fallbacks.increment();
         return chatClient.prompt()
                 .user(message)
                 .call()
-                .entity(Models.class);
+                .entity(TimedOutputConverter.of(Models.class));
+    }
+
+    private static Counter lookups(MeterRegistry registry, String path, String kind) {
+        return Counter.builder("rag.models.lookups")
+                .description("Model questions answered from the in-memory index versus retrieval and the chat model")
+                .tag("path", path)
+                .tag("kind", kind)
+                .register(registry);
     }
 
 }
@@ -1,5 +1,11 @@
 package dev.danvega.workshop.rag;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.danvega.workshop.rag.ingest.IngestionPipeline;
+import dev.danvega.workshop.rag.store.HnswVectorStore;
+import dev.danvega.workshop.rag.store.HybridVectorStore;
+import dev.danvega.workshop.rag.store.VectorQuantization;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.ai.document.Document;
@@ -9,6 +15,7 @@ import org.springframework.ai.transformer.splitter.TextSplitter;
 import org.springframework.ai.transformer.splitter.TokenTextSplitter;
 import org.springframework.ai.vectorstore.SimpleVectorStore;
 import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -28,11 +35,86 @@ public class RagConfiguration {
     @Value("vectorstore.json")
     private String vectorStoreName;
 
+    @Value("vectorstore.bin")
+    private String snapshotName;
+
     @Value("classpath:/data/models.json")
     private Resource models;
 
+    @Value("${workshop.rag.index:simple}")
+    private String index;
+
+    @Value("${workshop.rag.hnsw.m:16}")
+    private int hnswM;
+
+    @Value("${workshop.rag.hnsw.ef-construction:200}")
+    private int hnswEfConstruction;
+
+    @Value("${workshop.rag.hnsw.ef-search:64}")
+    private int hnswEfSearch;
+
+    @Value("${workshop.rag.hnsw.quantization:none}")
+    private VectorQuantization hnswQuantization;
+
+    @Value("${workshop.rag.hnsw.rerank-factor:4}")
+    private int hnswRerankFactor;
+
+    @Value("${workshop.rag.hnsw.pq-sub-dimensions:4}")
+    private int hnswPqSubDimensions;
+
+    @Value("${workshop.rag.hnsw.indexed-metadata-keys:}")
+    private List<String> hnswIndexedMetadataKeys;
+
+    @Value("${workshop.rag.hnsw.flat-search-threshold:4096}")
+    private int hnswFlatSearchThreshold;
+
+    @Value("${workshop.rag.hybrid.enabled:false}")
+    private boolean hybrid;
+
+    @Value("${workshop.rag.hybrid.candidates:20}")
+    private int hybridCandidates;
+
+    @Value("${workshop.rag.hybrid.rank-constant:60}")
+    private int hybridRankConstant;
+
+    @Value("${workshop.rag.ingest.batch-size:64}")
+    private int ingestBatchSize;
+
+    @Value("${workshop.rag.ingest.concurrency:4}")
+    private int ingestConcurrency;
+
+    @Value("${workshop.rag.ingest.queue-capacity:1024}")
+    private int ingestQueueCapacity;
+
+    @Bean
+    ModelIndex modelIndex(ObjectMapper objectMapper) throws IOException {
+        var modelIndex = ModelIndex.load(models, objectMapper);
+        log.info("Indexed {} models for direct lookups", modelIndex.models().size());
+        return modelIndex;
+    }
+
+    @Bean
+    ModelQueryMatcher modelQueryMatcher(ModelIndex modelIndex) {
+        return new ModelQueryMatcher(modelIndex);
+    }
+
     @Bean
-    SimpleVectorStore simpleVectorStore(EmbeddingModel embeddingModel) throws IOException {
+    VectorStore vectorStore(EmbeddingModel embeddingModel, ObjectProvider<MeterRegistry> meterRegistry) throws IOException, InterruptedException {
+        if (!"hnsw".equalsIgnoreCase(index)) {
+            return simpleVectorStore(embeddingModel);
+        }
+        var hnswVectorStore = hnswVectorStore(embeddingModel, meterRegistry.getIfAvailable());
+        if (!hybrid) {
+            return hnswVectorStore;
+        }
+        log.info("Hybrid retrieval enabled: BM25 + vector, reciprocal rank fusion over {} candidates each", hybridCandidates);
+        return HybridVectorStore.builder(hnswVectorStore)
+                .candidates(hybridCandidates)
+                .rankConstant(hybridRankConstant)
+                .build();
+    }
+
+    private SimpleVectorStore simpleVectorStore(EmbeddingModel embeddingModel) {
         var simpleVectorStore = SimpleVectorStore.builder(embeddingModel).build();
         var vectorStoreFile = getVectorStoreFile();
         if (vectorStoreFile.exists()) {
@@ -40,20 +122,77 @@ public class RagConfiguration {
             simpleVectorStore.load(vectorStoreFile);
         } else {
             log.info("Vector Store File Does Not Exist, loading documents");
-            TextReader textReader = new TextReader(models);
-            textReader.getCustomMetadata().put("filename", "models.txt");
-            List<Document> documents = textReader.get();
-            TextSplitter textSplitter = new TokenTextSplitter();
-            List<Document> splitDocuments = textSplitter.apply(documents);
-            simpleVectorStore.add(splitDocuments);
+            simpleVectorStore.add(loadDocuments());
             simpleVectorStore.save(vectorStoreFile);
         }
         return simpleVectorStore;
     }
 
+    private HnswVectorStore hnswVectorStore(EmbeddingModel embeddingModel, MeterRegistry meterRegistry) throws IOException, InterruptedException {
+        var hnswVectorStore = hnswBuilder(embeddingModel).build();
+        var snapshotFile = getDataFile(snapshotName);
+        var vectorStoreFile = getVectorStoreFile();
+        if (snapshotFile.exists()) {
+            long start = System.nanoTime();
+            hnswVectorStore.loadSnapshot(snapshotFile.toPath());
+            log.info("Vector Store Snapshot Exists, mapped {} documents in {} ms ({} quantization, {} KB of vectors on heap)",
+                    hnswVectorStore.size(), (System.nanoTime() - start) / 1_000_000, hnswQuantization, hnswVectorStore.vectorMemoryBytes() / 1024);
+            return hnswVectorStore;
+        } else if (vectorStoreFile.exists()) {
+            log.info("Vector Store Snapshot Does Not Exist, converting {} (M={}, efConstruction={})", vectorStoreName, hnswM, hnswEfConstruction);
+            hnswVectorStore.load(vectorStoreFile);
+            hnswVectorStore.saveSnapshot(snapshotFile.toPath());
+        } else {
+            log.info("Vector Store File Does Not Exist, ingesting documents into HNSW index (batch size {}, concurrency {})", ingestBatchSize, ingestConcurrency);
+            IngestionPipeline.builder(embeddingModel, hnswVectorStore::add)
+                    .batchSize(ingestBatchSize)
+                    .concurrency(ingestConcurrency)
+                    .queueCapacity(ingestQueueCapacity)
+                    .meterRegistry(meterRegistry)
+                    .build()
+                    .run(List.of(modelsReader()));
+            hnswVectorStore.saveSnapshot(snapshotFile.toPath());
+        }
+        if (hnswQuantization == VectorQuantization.NONE) {
+            return hnswVectorStore;
+        }
+        // quantized stores re-rank from the snapshot, so reopen the one just written
+        var quantizedStore = hnswBuilder(embeddingModel).build();
+        quantizedStore.loadSnapshot(snapshotFile.toPath());
+        return quantizedStore;
+    }
+
+    private HnswVectorStore.Builder hnswBuilder(EmbeddingModel embeddingModel) {
+        return HnswVectorStore.builder(embeddingModel)
+                .m(hnswM)
+                .efConstruction(hnswEfConstruction)
+                .efSearch(hnswEfSearch)
+                .quantization(hnswQuantization)
+                .rerankFactor(hnswRerankFactor)
+                .productSubDimensions(hnswPqSubDimensions)
+                .indexedMetadataKeys(hnswIndexedMetadataKeys)
+                .flatSearchThreshold(hnswFlatSearchThreshold);
+    }
+
+    private List<Document> loadDocuments() {
+        List<Document> documents = modelsReader().get();
+        TextSplitter textSplitter = new TokenTextSplitter();
+        return textSplitter.apply(documents);
+    }
+
+    private TextReader modelsReader() {
+        TextReader textReader = new TextReader(models);
+        textReader.getCustomMetadata().put("filename", "models.txt");
+        return textReader;
+    }
+
     private File getVectorStoreFile() {
+        return getDataFile(vectorStoreName);
+    }
+
+    private File getDataFile(String name) {
         Path path = Paths.get("src", "main", "resources", "data");
-        String absolutePath = path.toFile().getAbsolutePath() + "/" + vectorStoreName;
+        String absolutePath = path.toFile().getAbsolutePath() + "/" + name;
         return new File(absolutePath);
     }
 
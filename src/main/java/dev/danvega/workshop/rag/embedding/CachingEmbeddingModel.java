@@ -0,0 +1,227 @@
+package dev.danvega.workshop.rag.embedding;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.MetadataMode;
+import org.springframework.ai.embedding.BatchingStrategy;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptions;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.embedding.EmbeddingResponseMetadata;
+import org.springframework.lang.Nullable;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link EmbeddingModel} decorator that remembers every embedding it has seen, keyed by model name and a hash of
+ * the normalized input text. Lookups go to an in-memory LRU first and an on-disk append-only file second; only the
+ * texts missing from both are sent to the delegate, in a single request.
+ * <p>
+ * Ingestion and query embedding both go through the memory tier, so re-ingesting a corpus or asking the same
+ * question twice costs no provider round trip. Only document embeddings, requested through
+ * {@link #embed(List, EmbeddingOptions, BatchingStrategy)} as vector stores and the ingestion pipeline do, are
+ * written to disk: queries, cached prompts and conversation turns are user content and stay in memory.
+ */
+public class CachingEmbeddingModel implements EmbeddingModel, AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(CachingEmbeddingModel.class);
+
+    private final EmbeddingModel delegate;
+    private final String defaultModel;
+    private final Map<CacheKey, float[]> memory;
+    @Nullable
+    private final EmbeddingDiskCache disk;
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param diskFile append-only file backing the second tier, or {@code null} for a memory-only cache
+     * @param maxDiskBytes size the file is compacted at
+     */
+    public CachingEmbeddingModel(EmbeddingModel delegate, String defaultModel, int maxMemoryEntries, @Nullable Path diskFile,
+            long maxDiskBytes) throws IOException {
+        this.delegate = delegate;
+        this.defaultModel = defaultModel;
+        this.disk = diskFile != null ? new EmbeddingDiskCache(diskFile, maxDiskBytes) : null;
+        this.memory = new LinkedHashMap<>(Math.min(maxMemoryEntries, 1024), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CacheKey, float[]> eldest) {
+                return size() > maxMemoryEntries;
+            }
+        };
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        return call(request, false);
+    }
+
+    @Override
+    public List<float[]> embed(List<Document> documents, EmbeddingOptions options, BatchingStrategy batchingStrategy) {
+        List<float[]> embeddings = new ArrayList<>(documents.size());
+        for (List<Document> batch : batchingStrategy.batch(documents)) {
+            List<String> texts = batch.stream().map(Document::getText).toList();
+            call(new EmbeddingRequest(texts, options), true).getResults().forEach(embedding -> embeddings.add(embedding.getOutput()));
+        }
+        return embeddings;
+    }
+
+    private EmbeddingResponse call(EmbeddingRequest request, boolean persist) {
+        String model = modelFor(request.getOptions());
+        List<String> texts = request.getInstructions();
+        float[][] results = new float[texts.size()][];
+        CacheKey[] keys = new CacheKey[texts.size()];
+        List<Integer> missing = new ArrayList<>();
+
+        for (int i = 0; i < texts.size(); i++) {
+            keys[i] = CacheKey.of(model, texts.get(i));
+            results[i] = lookup(keys[i]);
+            if (results[i] == null) {
+                missing.add(i);
+            }
+        }
+
+        EmbeddingResponseMetadata metadata = new EmbeddingResponseMetadata();
+        if (!missing.isEmpty()) {
+            misses.addAndGet(missing.size());
+            List<String> missingTexts = missing.stream().map(texts::get).toList();
+            EmbeddingResponse response = delegate.call(new EmbeddingRequest(missingTexts, request.getOptions()));
+            metadata = response.getMetadata();
+            List<Embedding> embedded = response.getResults();
+            for (int j = 0; j < missing.size(); j++) {
+                int i = missing.get(j);
+                results[i] = embedded.get(j).getOutput();
+                store(keys[i], results[i], persist);
+            }
+        }
+
+        List<Embedding> embeddings = new ArrayList<>(results.length);
+        for (int i = 0; i < results.length; i++) {
+            embeddings.add(new Embedding(results[i], i));
+        }
+        return new EmbeddingResponse(embeddings, metadata);
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return embed(document.getFormattedContent(MetadataMode.EMBED));
+    }
+
+    @Override
+    public int dimensions() {
+        return delegate.dimensions();
+    }
+
+    public long hits() {
+        return memoryHits.get() + diskHits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    public double hitRatio() {
+        long hits = hits();
+        long total = hits + misses.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Publishes hit/miss counters per tier and the overall hit ratio, visible under {@code /actuator/metrics}.
+     */
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("rag.embedding.cache.hit.ratio", this, CachingEmbeddingModel::hitRatio).register(registry);
+        Gauge.builder("rag.embedding.cache.size", memory, m -> sizeOf()).tag("tier", "memory").register(registry);
+        if (disk != null) {
+            Gauge.builder("rag.embedding.cache.size", disk, EmbeddingDiskCache::size).tag("tier", "disk").register(registry);
+            Gauge.builder("rag.embedding.cache.file.size", disk, EmbeddingDiskCache::bytes).baseUnit("bytes").register(registry);
+        }
+        registerCounter(registry, "hit", "memory", memoryHits);
+        registerCounter(registry, "hit", "disk", diskHits);
+        registerCounter(registry, "miss", "none", misses);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (disk != null) {
+            disk.close();
+        }
+    }
+
+    private float[] lookup(CacheKey key) {
+        float[] embedding;
+        synchronized (memory) {
+            embedding = memory.get(key);
+        }
+        if (embedding != null) {
+            memoryHits.incrementAndGet();
+            return embedding;
+        }
+        if (disk == null) {
+            return null;
+        }
+        try {
+            embedding = disk.get(key);
+        }
+        catch (IOException ex) {
+            log.warn("Embedding cache read failed, falling back to the model", ex);
+            return null;
+        }
+        if (embedding != null) {
+            diskHits.incrementAndGet();
+            synchronized (memory) {
+                memory.put(key, embedding);
+            }
+        }
+        return embedding;
+    }
+
+    private void store(CacheKey key, float[] embedding, boolean persist) {
+        synchronized (memory) {
+            memory.put(key, embedding);
+        }
+        if (disk != null && persist) {
+            try {
+                disk.put(key, embedding);
+            }
+            catch (IOException ex) {
+                log.warn("Embedding cache write failed", ex);
+            }
+        }
+    }
+
+    private int sizeOf() {
+        synchronized (memory) {
+            return memory.size();
+        }
+    }
+
+    private String modelFor(@Nullable EmbeddingOptions options) {
+        if (options == null || options.getModel() == null) {
+            return defaultModel;
+        }
+        return options.getDimensions() != null ? options.getModel() + "/" + options.getDimensions() : options.getModel();
+    }
+
+    private static void registerCounter(MeterRegistry registry, String result, String tier, AtomicLong value) {
+        FunctionCounter.builder("rag.embedding.cache.requests", value, AtomicLong::get)
+                .tag("result", result)
+                .tag("tier", tier)
+                .register(registry);
+    }
+
+}
@@ -0,0 +1,41 @@
+package dev.danvega.workshop.rag.embedding;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.openai.OpenAiEmbeddingModel;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+@Configuration
+@ConditionalOnProperty(name = "workshop.rag.embedding-cache.enabled", havingValue = "true", matchIfMissing = true)
+public class EmbeddingCacheConfiguration {
+
+    @Value("${spring.ai.openai.embedding.options.model:text-embedding-ada-002}")
+    private String embeddingModelName;
+
+    @Value("${workshop.rag.embedding-cache.max-entries:10000}")
+    private int maxEntries;
+
+    @Value("${workshop.rag.embedding-cache.file:.cache/embeddings.bin}")
+    private String file;
+
+    @Value("${workshop.rag.embedding-cache.max-file-size:256MB}")
+    private DataSize maxFileSize;
+
+    @Bean
+    @Primary
+    CachingEmbeddingModel cachingEmbeddingModel(OpenAiEmbeddingModel openAiEmbeddingModel, ObjectProvider<MeterRegistry> meterRegistry) throws IOException {
+        var cachingEmbeddingModel = new CachingEmbeddingModel(openAiEmbeddingModel, embeddingModelName, maxEntries,
+                file.isBlank() ? null : Path.of(file), maxFileSize.toBytes());
+        meterRegistry.ifAvailable(cachingEmbeddingModel::bindTo);
+        return cachingEmbeddingModel;
+    }
+
+}
@@ -0,0 +1,181 @@
+package dev.danvega.workshop.rag.embedding;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only file of embeddings keyed by a 128-bit content hash. Each record is the two key halves, the vector
+ * length and the float32 components, little-endian. The file is scanned once on open to rebuild the key → offset
+ * index; a record torn by a crash at the tail is truncated away.
+ * <p>
+ * The file is bounded by {@code maxBytes}: a write that would pass it first compacts the file down to its newest
+ * records, at most half the limit, rewritten to a sibling file that then replaces it.
+ */
+class EmbeddingDiskCache implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(EmbeddingDiskCache.class);
+    private static final int RECORD_HEADER_BYTES = Long.BYTES * 2 + Integer.BYTES;
+
+    private final Path file;
+    private final long maxBytes;
+    private final Map<CacheKey, Long> offsets = new HashMap<>();
+    private FileChannel channel;
+    private long end;
+
+    EmbeddingDiskCache(Path file, long maxBytes) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        this.file = file;
+        this.maxBytes = maxBytes;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        recover();
+        log.info("Embedding cache {} holds {} embeddings", file, offsets.size());
+    }
+
+    synchronized float[] get(CacheKey key) throws IOException {
+        Long offset = offsets.get(key);
+        if (offset == null) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(header, offset);
+        int dimensions = header.getInt(Long.BYTES * 2);
+        ByteBuffer body = ByteBuffer.allocate(dimensions * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(body, offset + RECORD_HEADER_BYTES);
+        float[] embedding = new float[dimensions];
+        body.flip();
+        body.asFloatBuffer().get(embedding);
+        return embedding;
+    }
+
+    synchronized void put(CacheKey key, float[] embedding) throws IOException {
+        if (offsets.containsKey(key)) {
+            return;
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + embedding.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        record.putLong(key.high()).putLong(key.low()).putInt(embedding.length);
+        record.asFloatBuffer().put(embedding);
+        record.position(record.limit());
+        record.flip();
+        if (end + record.limit() > maxBytes) {
+            compact(maxBytes / 2 - record.limit());
+        }
+        long offset = end;
+        while (record.hasRemaining()) {
+            end += channel.write(record, end);
+        }
+        offsets.put(key, offset);
+    }
+
+    synchronized int size() {
+        return offsets.size();
+    }
+
+    synchronized long bytes() {
+        return end;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.force(false);
+        channel.close();
+    }
+
+    private void recover() throws IOException {
+        long size = channel.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        while (position + RECORD_HEADER_BYTES <= size) {
+            header.clear();
+            readFully(header, position);
+            int dimensions = header.getInt(Long.BYTES * 2);
+            long next = position + RECORD_HEADER_BYTES + (long) dimensions * Float.BYTES;
+            if (dimensions <= 0 || next > size) {
+                break;
+            }
+            offsets.put(new CacheKey(header.getLong(0), header.getLong(Long.BYTES)), position);
+            position = next;
+        }
+        if (position < size) {
+            log.warn("Truncating {} bytes of incomplete embedding cache record", size - position);
+            channel.truncate(position);
+        }
+        end = position;
+    }
+
+    /**
+     * Rewrites the file with the newest records that fit in {@code budget} bytes and drops the rest.
+     */
+    private void compact(long budget) throws IOException {
+        List<Map.Entry<CacheKey, Long>> newestFirst = new ArrayList<>(offsets.entrySet());
+        newestFirst.sort(Map.Entry.<CacheKey, Long>comparingByValue().reversed());
+        List<Map.Entry<CacheKey, ByteBuffer>> kept = new ArrayList<>();
+        long keptBytes = 0;
+        for (Map.Entry<CacheKey, Long> entry : newestFirst) {
+            ByteBuffer record = readRecord(entry.getValue());
+            if (keptBytes + record.limit() > budget) {
+                break;
+            }
+            kept.add(Map.entry(entry.getKey(), record));
+            keptBytes += record.limit();
+        }
+
+        Path compacted = file.resolveSibling(file.getFileName() + ".compact");
+        Map<CacheKey, Long> compactedOffsets = new HashMap<>();
+        long position = 0;
+        try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            // oldest first, so the file keeps its append order
+            for (int i = kept.size() - 1; i >= 0; i--) {
+                ByteBuffer record = kept.get(i).getValue();
+                compactedOffsets.put(kept.get(i).getKey(), position);
+                while (record.hasRemaining()) {
+                    position += out.write(record, position);
+                }
+            }
+            out.force(false);
+        }
+        channel.close();
+        Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        log.info("Compacted embedding cache {} from {} to {} embeddings ({} bytes)", file, offsets.size(), compactedOffsets.size(), position);
+        offsets.clear();
+        offsets.putAll(compactedOffsets);
+        end = position;
+    }
+
+    private ByteBuffer readRecord(long offset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(header, offset);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + header.getInt(Long.BYTES * 2) * Float.BYTES);
+        readFully(record, offset);
+        return record.flip();
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        long at = position;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, at);
+            if (read < 0) {
+                throw new IOException("Unexpected end of embedding cache at " + at);
+            }
+            at += read;
+        }
+    }
+
+}
@@ -0,0 +1,328 @@
+package dev.danvega.workshop.rag.ingest;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.DocumentReader;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptions;
+import org.springframework.ai.transformer.splitter.TextSplitter;
+import org.springframework.ai.transformer.splitter.TokenTextSplitter;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Staged ingestion: read → split → embed → index, each stage on its own virtual thread and connected by bounded
+ * queues. A slow stage fills the queue in front of it and the stages upstream block on {@code put}, so memory stays
+ * bounded no matter how large the corpus is.
+ * <p>
+ * The embed stage groups chunks into batches of {@code batchSize} and keeps up to {@code concurrency} embedding
+ * requests in flight at once, each on its own virtual thread. The index stage is a single writer, so the target
+ * store never sees concurrent writes from the pipeline.
+ */
+public class IngestionPipeline {
+
+    private static final Logger log = LoggerFactory.getLogger(IngestionPipeline.class);
+
+    private static final Object END = new Object();
+
+    /**
+     * Receives each embedded batch, in the order the batches complete.
+     */
+    @FunctionalInterface
+    public interface EmbeddedDocumentWriter {
+
+        void write(List<Document> documents, List<float[]> embeddings);
+
+    }
+
+    private final EmbeddingModel embeddingModel;
+    private final EmbeddedDocumentWriter writer;
+    private final TextSplitter splitter;
+    private final int batchSize;
+    private final int concurrency;
+    private final int queueCapacity;
+    private final Duration progressInterval;
+
+    private final AtomicLong documentsRead = new AtomicLong();
+    private final AtomicLong chunksSplit = new AtomicLong();
+    private final AtomicLong chunksEmbedded = new AtomicLong();
+    private final AtomicLong chunksIndexed = new AtomicLong();
+    private final AtomicLong batchesInFlight = new AtomicLong();
+    @Nullable
+    private final Timer batchTimer;
+
+    private volatile BlockingQueue<Object> splitQueue = new ArrayBlockingQueue<>(1);
+    private volatile BlockingQueue<Object> embedQueue = new ArrayBlockingQueue<>(1);
+    private volatile BlockingQueue<Object> indexQueue = new ArrayBlockingQueue<>(1);
+
+    private IngestionPipeline(Builder builder) {
+        this.embeddingModel = builder.embeddingModel;
+        this.writer = builder.writer;
+        this.splitter = builder.splitter;
+        this.batchSize = builder.batchSize;
+        this.concurrency = builder.concurrency;
+        this.queueCapacity = builder.queueCapacity;
+        this.progressInterval = builder.progressInterval;
+        this.batchTimer = builder.meterRegistry != null ? bindMetrics(builder.meterRegistry) : null;
+    }
+
+    public static Builder builder(EmbeddingModel embeddingModel, EmbeddedDocumentWriter writer) {
+        return new Builder(embeddingModel, writer);
+    }
+
+    /**
+     * Runs every reader through the pipeline and blocks until the last batch is indexed. The first failure in any
+     * stage stops the pipeline and is rethrown here.
+     */
+    public IngestionProgress run(List<? extends DocumentReader> readers) throws InterruptedException {
+        long start = System.nanoTime();
+        this.splitQueue = new ArrayBlockingQueue<>(this.queueCapacity);
+        this.embedQueue = new ArrayBlockingQueue<>(this.queueCapacity);
+        this.indexQueue = new ArrayBlockingQueue<>(Math.max(1, this.concurrency * 2));
+        Outcome outcome = new Outcome(4);
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            executor.submit(stage("read", outcome, () -> read(readers)));
+            executor.submit(stage("split", outcome, this::split));
+            executor.submit(stage("embed", outcome, () -> embed(executor, outcome)));
+            executor.submit(stage("index", outcome, this::index));
+
+            // wakes as soon as the last stage finishes or anything fails, and every progressInterval in between
+            while (!outcome.settled.await(this.progressInterval.toNanos(), TimeUnit.NANOSECONDS)) {
+                log.info("Ingestion progress: {}", progress(start));
+            }
+            if (outcome.failure.get() != null) {
+                // unblocks stages and embedding calls stuck on a queue whose consumer is gone
+                executor.shutdownNow();
+            }
+        }
+
+        Throwable error = outcome.failure.get();
+        if (error != null) {
+            throw new IllegalStateException("Ingestion failed after " + progress(start), error);
+        }
+        IngestionProgress progress = progress(start);
+        log.info("Ingestion finished: {}", progress);
+        return progress;
+    }
+
+    private void read(List<? extends DocumentReader> readers) throws InterruptedException {
+        for (DocumentReader reader : readers) {
+            for (Document document : reader.read()) {
+                this.splitQueue.put(document);
+                this.documentsRead.incrementAndGet();
+            }
+        }
+        this.splitQueue.put(END);
+    }
+
+    private void split() throws InterruptedException {
+        for (Object item = this.splitQueue.take(); item != END; item = this.splitQueue.take()) {
+            for (Document chunk : this.splitter.split((Document) item)) {
+                this.embedQueue.put(chunk);
+                this.chunksSplit.incrementAndGet();
+            }
+        }
+        this.embedQueue.put(END);
+    }
+
+    private void embed(ExecutorService executor, Outcome outcome) throws InterruptedException {
+        Semaphore permits = new Semaphore(this.concurrency);
+        List<Document> batch = new ArrayList<>(this.batchSize);
+        for (Object item = this.embedQueue.take(); item != END; item = this.embedQueue.take()) {
+            batch.add((Document) item);
+            if (batch.size() == this.batchSize) {
+                submitBatch(executor, permits, batch, outcome);
+                batch = new ArrayList<>(this.batchSize);
+            }
+        }
+        if (!batch.isEmpty()) {
+            submitBatch(executor, permits, batch, outcome);
+        }
+        // wait for every in-flight batch before signalling the index stage
+        permits.acquire(this.concurrency);
+        this.indexQueue.put(END);
+    }
+
+    private void submitBatch(ExecutorService executor, Semaphore permits, List<Document> batch,
+                             Outcome outcome) throws InterruptedException {
+        permits.acquire();
+        this.batchesInFlight.incrementAndGet();
+        executor.submit(() -> {
+            try {
+                long start = System.nanoTime();
+                List<float[]> embeddings = this.embeddingModel.embed(batch, EmbeddingOptions.builder().build(), List::of);
+                if (this.batchTimer != null) {
+                    this.batchTimer.record(Duration.ofNanos(System.nanoTime() - start));
+                }
+                this.chunksEmbedded.addAndGet(batch.size());
+                this.indexQueue.put(new EmbeddedBatch(batch, embeddings));
+            }
+            catch (Throwable ex) {
+                outcome.fail(ex);
+            }
+            finally {
+                this.batchesInFlight.decrementAndGet();
+                permits.release();
+            }
+        });
+    }
+
+    private void index() throws InterruptedException {
+        for (Object item = this.indexQueue.take(); item != END; item = this.indexQueue.take()) {
+            EmbeddedBatch batch = (EmbeddedBatch) item;
+            this.writer.write(batch.documents(), batch.embeddings());
+            this.chunksIndexed.addAndGet(batch.documents().size());
+        }
+    }
+
+    private static Runnable stage(String name, Outcome outcome, Stage stage) {
+        return () -> {
+            Thread.currentThread().setName("ingest-" + name);
+            try {
+                stage.run();
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            catch (Throwable ex) {
+                outcome.fail(ex);
+            }
+            finally {
+                outcome.stageFinished();
+            }
+        };
+    }
+
+    private IngestionProgress progress(long startNanos) {
+        return new IngestionProgress(this.documentsRead.get(), this.chunksSplit.get(), this.chunksEmbedded.get(),
+                this.chunksIndexed.get(), this.batchesInFlight.get(), this.embedQueue.size(),
+                Duration.ofNanos(System.nanoTime() - startNanos));
+    }
+
+    private Timer bindMetrics(MeterRegistry registry) {
+        FunctionCounter.builder("rag.ingest.items", this.documentsRead, AtomicLong::get).tag("stage", "read").register(registry);
+        FunctionCounter.builder("rag.ingest.items", this.chunksSplit, AtomicLong::get).tag("stage", "split").register(registry);
+        FunctionCounter.builder("rag.ingest.items", this.chunksEmbedded, AtomicLong::get).tag("stage", "embed").register(registry);
+        FunctionCounter.builder("rag.ingest.items", this.chunksIndexed, AtomicLong::get).tag("stage", "index").register(registry);
+        Gauge.builder("rag.ingest.batches.in-flight", this.batchesInFlight, AtomicLong::get).register(registry);
+        Gauge.builder("rag.ingest.queue.size", this, pipeline -> pipeline.embedQueue.size()).tag("queue", "embed").register(registry);
+        Gauge.builder("rag.ingest.queue.size", this, pipeline -> pipeline.indexQueue.size()).tag("queue", "index").register(registry);
+        return Timer.builder("rag.ingest.embedding.batch").register(registry);
+    }
+
+    /**
+     * How a run ends: {@code settled} opens once every stage has finished or on the first failure, whichever comes
+     * first.
+     */
+    private static final class Outcome {
+
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        private final AtomicInteger running;
+        private final CountDownLatch settled = new CountDownLatch(1);
+
+        private Outcome(int stages) {
+            this.running = new AtomicInteger(stages);
+        }
+
+        void fail(Throwable ex) {
+            this.failure.compareAndSet(null, ex);
+            this.settled.countDown();
+        }
+
+        void stageFinished() {
+            if (this.running.decrementAndGet() == 0) {
+                this.settled.countDown();
+            }
+        }
+
+    }
+
+    private record EmbeddedBatch(List<Document> documents, List<float[]> embeddings) {
+    }
+
+    @FunctionalInterface
+    private interface Stage {
+
+        void run() throws Exception;
+
+    }
+
+    public static class Builder {
+
+        private final EmbeddingModel embeddingModel;
+        private final EmbeddedDocumentWriter writer;
+        private TextSplitter splitter = new TokenTextSplitter();
+        private int batchSize = 64;
+        private int concurrency = 4;
+        private int queueCapacity = 1024;
+        private Duration progressInterval = Duration.ofSeconds(5);
+        @Nullable
+        private MeterRegistry meterRegistry;
+
+        private Builder(EmbeddingModel embeddingModel, EmbeddedDocumentWriter writer) {
+            Assert.notNull(embeddingModel, "EmbeddingModel must not be null");
+            Assert.notNull(writer, "EmbeddedDocumentWriter must not be null");
+            this.embeddingModel = embeddingModel;
+            this.writer = writer;
+        }
+
+        public Builder splitter(TextSplitter splitter) {
+            this.splitter = splitter;
+            return this;
+        }
+
+        public Builder batchSize(int batchSize) {
+            Assert.isTrue(batchSize > 0, "batchSize must be positive");
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        public Builder concurrency(int concurrency) {
+            Assert.isTrue(concurrency > 0, "concurrency must be positive");
+            this.concurrency = concurrency;
+            return this;
+        }
+
+        public Builder queueCapacity(int queueCapacity) {
+            Assert.isTrue(queueCapacity > 0, "queueCapacity must be positive");
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        public Builder progressInterval(Duration progressInterval) {
+            this.progressInterval = progressInterval;
+            return this;
+        }
+
+        public Builder meterRegistry(@Nullable MeterRegistry meterRegistry) {
+            this.meterRegistry = meterRegistry;
+            return this;
+        }
+
+        public IngestionPipeline build() {
+            return new IngestionPipeline(this);
+        }
+
+    }
+
+}
@@ -0,0 +1,23 @@
+package dev.danvega.workshop.rag.ingest;
+
+import java.time.Duration;
+
+/**
+ * Point-in-time counters of an {@link IngestionPipeline} run.
+ */
+public record IngestionProgress(long documentsRead, long chunksSplit, long chunksEmbedded, long chunksIndexed,
+                                long batchesInFlight, int embedQueueDepth, Duration elapsed) {
+
+    public double chunksPerSecond() {
+        double seconds = elapsed.toNanos() / 1e9;
+        return seconds > 0 ? chunksIndexed / seconds : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("read=%d split=%d embedded=%d indexed=%d inFlight=%d queued=%d elapsed=%dms (%.1f chunks/s)",
+                documentsRead, chunksSplit, chunksEmbedded, chunksIndexed, batchesInFlight, embedQueueDepth,
+                elapsed.toMillis(), chunksPerSecond());
+    }
+
+}
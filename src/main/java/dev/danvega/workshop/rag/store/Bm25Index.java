@@ -0,0 +1,309 @@
+package dev.danvega.workshop.rag.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * In-memory inverted index with Okapi BM25 ranking ({@code k1 = 1.2}, {@code b = 0.75}).
+ * <p>
+ * Terms are lower-cased runs of letters, digits, dots and hyphens, so model names such as
+ * {@code qwen2.5-14b-instruct-1m} or {@code 8x22b} survive as single terms; hyphenated terms are also indexed by
+ * their parts. Each term maps to a postings list of (document, term frequency) pairs. Removed and replaced
+ * documents are skipped at query time; once they make up a quarter of the index they are purged and the live
+ * documents renumbered, so the postings and per-document arrays only hold what is live.
+ */
+final class Bm25Index {
+
+    record Hit(String id, float score) {
+    }
+
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Integer> docIds = new HashMap<>();
+    private final Map<String, Postings> postings = new HashMap<>();
+    private final BitSet live = new BitSet();
+    private String[] ids = new String[16];
+    private int[] lengths = new int[16];
+    private int next;
+    private int liveCount;
+    private long totalLength;
+
+    void add(String id, String text) {
+        List<String> terms = tokenize(text);
+        Map<String, Integer> frequencies = new HashMap<>();
+        for (String term : terms) {
+            frequencies.merge(term, 1, Integer::sum);
+        }
+        lock.writeLock().lock();
+        try {
+            removeLocked(id);
+            purgeIfSparse();
+            if (next == ids.length) {
+                ids = Arrays.copyOf(ids, next * 2);
+                lengths = Arrays.copyOf(lengths, next * 2);
+            }
+            int doc = next++;
+            ids[doc] = id;
+            lengths[doc] = terms.size();
+            docIds.put(id, doc);
+            live.set(doc);
+            liveCount++;
+            totalLength += terms.size();
+            frequencies.forEach((term, frequency) -> postings.computeIfAbsent(term, t -> new Postings()).add(doc, frequency));
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void remove(String id) {
+        lock.writeLock().lock();
+        try {
+            removeLocked(id);
+            purgeIfSparse();
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return liveCount;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int capacity() {
+        lock.readLock().lock();
+        try {
+            return ids.length;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    List<String> ids() {
+        lock.readLock().lock();
+        try {
+            return new ArrayList<>(docIds.keySet());
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the {@code k} best-scoring documents for the query, best first, skipping ids rejected by
+     * {@code accept} (which may be {@code null}).
+     */
+    List<Hit> search(String query, int k, Predicate<String> accept) {
+        Set<String> terms = new LinkedHashSet<>(tokenize(query));
+        lock.readLock().lock();
+        try {
+            if (liveCount == 0 || k <= 0) {
+                return List.of();
+            }
+            float averageLength = (float) totalLength / liveCount;
+            Map<Integer, Float> scores = new HashMap<>();
+            for (String term : terms) {
+                Postings list = postings.get(term);
+                if (list == null) {
+                    continue;
+                }
+                int df = list.liveCount(live);
+                if (df == 0) {
+                    continue;
+                }
+                float idf = (float) Math.log(1 + (liveCount - df + 0.5) / (df + 0.5));
+                for (int i = 0; i < list.size; i++) {
+                    int doc = list.docs[i];
+                    if (!live.get(doc)) {
+                        continue;
+                    }
+                    float tf = list.frequencies[i];
+                    float norm = K1 * (1 - B + B * lengths[doc] / averageLength);
+                    scores.merge(doc, idf * tf * (K1 + 1) / (tf + norm), Float::sum);
+                }
+            }
+            NeighborQueue top = new NeighborQueue(k + 1, false);
+            scores.forEach((doc, score) -> {
+                if (accept != null && !accept.test(ids[doc])) {
+                    return;
+                }
+                if (top.size() < k) {
+                    top.add(doc, score);
+                }
+                else if (score > top.peekScore()) {
+                    top.poll();
+                    top.add(doc, score);
+                }
+            });
+            Hit[] hits = new Hit[top.size()];
+            for (int i = hits.length - 1; i >= 0; i--) {
+                float score = top.peekScore();
+                hits[i] = new Hit(ids[top.poll()], score);
+            }
+            return Arrays.asList(hits);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        if (text == null) {
+            return terms;
+        }
+        String lower = text.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean termChar = i < lower.length() && isTermChar(lower.charAt(i));
+            if (termChar && start < 0) {
+                start = i;
+            }
+            else if (!termChar && start >= 0) {
+                addTerm(terms, lower.substring(start, i));
+                start = -1;
+            }
+        }
+        return terms;
+    }
+
+    private static boolean isTermChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '.' || c == '-';
+    }
+
+    private static void addTerm(List<String> terms, String raw) {
+        String term = strip(raw);
+        if (term.isEmpty()) {
+            return;
+        }
+        terms.add(term);
+        if (term.indexOf('-') >= 0) {
+            for (String part : term.split("-")) {
+                String stripped = strip(part);
+                if (!stripped.isEmpty()) {
+                    terms.add(stripped);
+                }
+            }
+        }
+    }
+
+    /**
+     * Trailing sentence dots and stray hyphens are not part of a term.
+     */
+    private static String strip(String term) {
+        int from = 0;
+        int to = term.length();
+        while (from < to && (term.charAt(from) == '.' || term.charAt(from) == '-')) {
+            from++;
+        }
+        while (to > from && (term.charAt(to - 1) == '.' || term.charAt(to - 1) == '-')) {
+            to--;
+        }
+        return term.substring(from, to);
+    }
+
+    private void removeLocked(String id) {
+        Integer doc = docIds.remove(id);
+        if (doc != null) {
+            live.clear(doc);
+            liveCount--;
+            totalLength -= lengths[doc];
+        }
+    }
+
+    private void purgeIfSparse() {
+        if (next - liveCount > Math.max(64, liveCount / 4)) {
+            purge();
+        }
+    }
+
+    /**
+     * Drops removed documents and renumbers the live ones densely from zero, in their existing order, so every
+     * postings list stays sorted.
+     */
+    private void purge() {
+        int[] renumbered = new int[next];
+        int capacity = Math.max(16, liveCount * 2);
+        String[] liveIds = new String[capacity];
+        int[] liveLengths = new int[capacity];
+        int count = 0;
+        for (int doc = live.nextSetBit(0); doc >= 0 && doc < next; doc = live.nextSetBit(doc + 1)) {
+            renumbered[doc] = count;
+            liveIds[count] = ids[doc];
+            liveLengths[count] = lengths[doc];
+            docIds.put(ids[doc], count);
+            count++;
+        }
+        postings.values().removeIf(list -> {
+            list.retain(live, renumbered);
+            return list.size == 0;
+        });
+        ids = liveIds;
+        lengths = liveLengths;
+        next = count;
+        live.clear();
+        live.set(0, count);
+    }
+
+    private static final class Postings {
+
+        private int[] docs = new int[4];
+        private int[] frequencies = new int[4];
+        private int size;
+
+        void add(int doc, int frequency) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                frequencies = Arrays.copyOf(frequencies, size * 2);
+            }
+            docs[size] = doc;
+            frequencies[size++] = frequency;
+        }
+
+        int liveCount(BitSet live) {
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                if (live.get(docs[i])) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        void retain(BitSet live, int[] renumbered) {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (live.get(docs[i])) {
+                    docs[kept] = renumbered[docs[i]];
+                    frequencies[kept++] = frequencies[i];
+                }
+            }
+            size = kept;
+            if (docs.length > Math.max(4, size * 4)) {
+                docs = Arrays.copyOf(docs, Math.max(4, size * 2));
+                frequencies = Arrays.copyOf(frequencies, docs.length);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,74 @@
+package dev.danvega.workshop.rag.store;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * Full-precision vectors in one contiguous float arena.
+ */
+final class FloatVectorValues implements VectorValues {
+
+    private final int dimensions;
+    private float[] arena;
+
+    FloatVectorValues(int dimensions, int capacity) {
+        this.dimensions = dimensions;
+        this.arena = new float[Math.max(capacity, 1) * dimensions];
+    }
+
+    static FloatVectorValues copyOf(FloatBuffer vectors, int count, int dimensions) {
+        FloatVectorValues values = new FloatVectorValues(dimensions, Math.max(16, count));
+        vectors.duplicate().get(values.arena, 0, count * dimensions);
+        return values;
+    }
+
+    @Override
+    public int dimensions() {
+        return dimensions;
+    }
+
+    @Override
+    public void ensureCapacity(int capacity) {
+        if (capacity * dimensions > arena.length) {
+            arena = Arrays.copyOf(arena, Math.max(capacity, arena.length / dimensions * 2) * dimensions);
+        }
+    }
+
+    @Override
+    public void set(int ordinal, float[] unitVector) {
+        System.arraycopy(unitVector, 0, arena, ordinal * dimensions, dimensions);
+    }
+
+    @Override
+    public QueryScorer scorer(float[] unitQuery) {
+        return new QueryScorer() {
+
+            @Override
+            public float score(int ordinal) {
+                return VectorSimilarity.dot(unitQuery, 0, arena, ordinal * dimensions, dimensions);
+            }
+
+            @Override
+            public void score(int[] ordinals, int count, float[] scores) {
+                VectorSimilarity.dotBlock(unitQuery, arena, ordinals, count, dimensions, scores);
+            }
+
+        };
+    }
+
+    @Override
+    public float similarity(int a, int b) {
+        return VectorSimilarity.dot(arena, a * dimensions, arena, b * dimensions, dimensions);
+    }
+
+    @Override
+    public float[] vector(int ordinal) {
+        return Arrays.copyOfRange(arena, ordinal * dimensions, (ordinal + 1) * dimensions);
+    }
+
+    @Override
+    public long bytesPerVector() {
+        return (long) dimensions * Float.BYTES;
+    }
+
+}
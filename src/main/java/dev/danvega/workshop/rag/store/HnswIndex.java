@@ -0,0 +1,629 @@
+package dev.danvega.workshop.rag.store;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+
+/**
+ * Hierarchical Navigable Small World graph (Malkov &amp; Yashunin) over unit-length float vectors.
+ * <p>
+ * Nodes are addressed by int ordinals and their vectors live in a {@link VectorValues}, either a contiguous float
+ * arena or quantized codes. Deletes unlink the node from
+ * its neighbours and repair their adjacency lists straight away; links that other nodes still hold to a deleted
+ * node are skipped during traversal and swept out once enough tombstones pile up, at which point the ordinals are
+ * recycled. Searches run concurrently with each other, writes are serialized.
+ */
+final class HnswIndex {
+
+    record Match(int ordinal, float score) {
+    }
+
+    /**
+     * Point-in-time copy of the live graph with ordinals renumbered densely from zero.
+     * {@code originalOrdinals[i]} is the ordinal node {@code i} had in the index it was exported from.
+     */
+    record Export(int m, int efConstruction, int dimensions, int count, float[] vectors, int[] levels, int[][][] links,
+                  int entryPoint, int maxLevel, int[] originalOrdinals) {
+    }
+
+    private final VectorValues values;
+    private final int dimensions;
+    private final int m;
+    private final int maxConnectionsLevel0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final SplittableRandom random;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private volatile int efSearch;
+
+    private int[] levels;
+    // links[ordinal][level] = {count, neighbour1, neighbour2, ...}
+    private int[][][] links;
+    private final BitSet live = new BitSet();
+    private final BitSet tombstones = new BitSet();
+    private int[] free = new int[16];
+    private int freeCount;
+    private int highWater;
+    private int size;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    HnswIndex(int dimensions, int m, int efConstruction, int efSearch, long seed) {
+        this(new FloatVectorValues(checkDimensions(dimensions), 16), m, efConstruction, efSearch, seed);
+    }
+
+    HnswIndex(VectorValues values, int m, int efConstruction, int efSearch, long seed) {
+        if (m < 2 || efConstruction < 1 || efSearch < 1) {
+            throw new IllegalArgumentException("m >= 2, efConstruction >= 1 and efSearch >= 1 required");
+        }
+        this.values = values;
+        this.dimensions = values.dimensions();
+        this.m = m;
+        this.maxConnectionsLevel0 = 2 * m;
+        this.efConstruction = efConstruction;
+        this.efSearch = efSearch;
+        this.levelMultiplier = 1 / Math.log(m);
+        this.random = new SplittableRandom(seed);
+        this.levels = new int[16];
+        this.links = new int[16][][];
+    }
+
+    int dimensions() {
+        return dimensions;
+    }
+
+    /**
+     * Heap bytes spent on vector storage for the current nodes, the figure quantization shrinks.
+     */
+    long vectorBytes() {
+        lock.readLock().lock();
+        try {
+            return values.bytesPerVector() * highWater;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int efSearch() {
+        return efSearch;
+    }
+
+    void efSearch(int efSearch) {
+        if (efSearch < 1) {
+            throw new IllegalArgumentException("efSearch must be >= 1");
+        }
+        this.efSearch = efSearch;
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    boolean contains(int ordinal) {
+        lock.readLock().lock();
+        try {
+            return ordinal >= 0 && live.get(ordinal);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Inserts a vector and returns the ordinal assigned to it. The vector is copied and normalized.
+     */
+    int add(float[] vector) {
+        if (vector.length != dimensions) {
+            throw new IllegalArgumentException("Expected " + dimensions + " dimensions but got " + vector.length);
+        }
+        float[] query = VectorSimilarity.normalize(vector);
+        lock.writeLock().lock();
+        try {
+            int ordinal = allocate();
+            values.set(ordinal, query);
+            VectorValues.QueryScorer scorer = values.scorer(query);
+            int level = (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier);
+            levels[ordinal] = level;
+            links[ordinal] = new int[level + 1][];
+            for (int l = 0; l <= level; l++) {
+                links[ordinal][l] = new int[maxConnections(l) + 1];
+            }
+            live.set(ordinal);
+            size++;
+
+            if (entryPoint < 0) {
+                entryPoint = ordinal;
+                maxLevel = level;
+                return ordinal;
+            }
+
+            int current = entryPoint;
+            for (int l = maxLevel; l > level; l--) {
+                current = greedyClosest(scorer, current, l);
+            }
+            for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+                NeighborQueue candidates = searchLayer(scorer, current, efConstruction, l, null);
+                List<Match> nearest = drainDescending(candidates);
+                current = nearest.get(0).ordinal();
+                int[] selected = selectNeighbors(nearest, m);
+                for (int neighbour : selected) {
+                    appendLink(ordinal, l, neighbour);
+                    connect(neighbour, l, ordinal);
+                }
+            }
+            if (level > maxLevel) {
+                entryPoint = ordinal;
+                maxLevel = level;
+            }
+            return ordinal;
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the node from the graph. Its former neighbours are re-linked among themselves so the graph stays
+     * navigable around the hole.
+     */
+    boolean remove(int ordinal) {
+        lock.writeLock().lock();
+        try {
+            if (ordinal < 0 || !live.get(ordinal)) {
+                return false;
+            }
+            live.clear(ordinal);
+            tombstones.set(ordinal);
+            size--;
+            for (int l = 0; l <= levels[ordinal]; l++) {
+                int[] removed = links[ordinal][l];
+                for (int i = 1; i <= removed[0]; i++) {
+                    int neighbour = removed[i];
+                    if (live.get(neighbour)) {
+                        repair(neighbour, l, ordinal, removed);
+                    }
+                }
+            }
+            if (ordinal == entryPoint) {
+                electEntryPoint();
+            }
+            if (tombstones.cardinality() > Math.max(64, size / 10)) {
+                sweepTombstones();
+            }
+            return true;
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Approximate k-nearest-neighbour search using the configured efSearch.
+     */
+    List<Match> search(float[] query, int k, IntPredicate accept) {
+        return search(query, k, efSearch, accept);
+    }
+
+    List<Match> search(float[] query, int k, int ef, IntPredicate accept) {
+        VectorValues.QueryScorer scorer = values.scorer(VectorSimilarity.normalize(query));
+        lock.readLock().lock();
+        try {
+            if (entryPoint < 0 || k <= 0) {
+                return List.of();
+            }
+            int current = entryPoint;
+            for (int l = maxLevel; l > 0; l--) {
+                current = greedyClosest(scorer, current, l);
+            }
+            NeighborQueue results = searchLayer(scorer, current, Math.max(ef, k), 0, accept);
+            while (results.size() > k) {
+                results.poll();
+            }
+            return drainDescending(results);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Brute-force scan over every live vector. This is the ground truth the approximate search is measured against.
+     */
+    List<Match> exactSearch(float[] query, int k, IntPredicate accept) {
+        return exactSearch(query, k, null, accept);
+    }
+
+    /**
+     * Brute-force scan restricted to the live ordinals in {@code candidates}, e.g. one metadata partition. Only
+     * those vectors are scored, so a selective filter costs time proportional to the partition, not the index.
+     */
+    List<Match> exactSearch(float[] query, int k, BitSet candidates, IntPredicate accept) {
+        VectorValues.QueryScorer scorer = values.scorer(VectorSimilarity.normalize(query));
+        lock.readLock().lock();
+        try {
+            NeighborQueue results = new NeighborQueue(k + 1, false);
+            int[] batch = new int[256];
+            float[] scores = new float[batch.length];
+            int pending = 0;
+            BitSet scan = live;
+            if (candidates != null) {
+                scan = (BitSet) candidates.clone();
+                scan.and(live);
+            }
+            for (int ordinal = scan.nextSetBit(0); ordinal >= 0; ordinal = scan.nextSetBit(ordinal + 1)) {
+                if (accept != null && !accept.test(ordinal)) {
+                    continue;
+                }
+                batch[pending++] = ordinal;
+                if (pending == batch.length) {
+                    collect(scorer, batch, pending, scores, results, k);
+                    pending = 0;
+                }
+            }
+            collect(scorer, batch, pending, scores, results, k);
+            return drainDescending(results);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static void collect(VectorValues.QueryScorer scorer, int[] batch, int count, float[] scores,
+                                NeighborQueue results, int k) {
+        scorer.score(batch, count, scores);
+        for (int i = 0; i < count; i++) {
+            if (results.size() < k) {
+                results.add(batch[i], scores[i]);
+            }
+            else if (k > 0 && scores[i] > results.peekScore()) {
+                results.poll();
+                results.add(batch[i], scores[i]);
+            }
+        }
+    }
+
+    /**
+     * Returns a copy of the normalized vector stored for the ordinal, reconstructed from its codes when the index
+     * is quantized.
+     */
+    float[] vector(int ordinal) {
+        lock.readLock().lock();
+        try {
+            return values.vector(ordinal);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    Export export() {
+        return export(null);
+    }
+
+    /**
+     * @param fullPrecision source of the original vectors when the index only holds quantized codes, or
+     * {@code null} to export the stored vectors as they are
+     */
+    Export export(IntFunction<float[]> fullPrecision) {
+        lock.readLock().lock();
+        try {
+            int[] renumbered = new int[highWater];
+            int[] originalOrdinals = new int[size];
+            int next = 0;
+            for (int ordinal = live.nextSetBit(0); ordinal >= 0; ordinal = live.nextSetBit(ordinal + 1)) {
+                renumbered[ordinal] = next;
+                originalOrdinals[next++] = ordinal;
+            }
+            float[] denseVectors = new float[size * dimensions];
+            int[] denseLevels = new int[size];
+            int[][][] denseLinks = new int[size][][];
+            for (int i = 0; i < size; i++) {
+                int ordinal = originalOrdinals[i];
+                float[] vector = fullPrecision != null ? fullPrecision.apply(ordinal) : values.vector(ordinal);
+                System.arraycopy(vector, 0, denseVectors, i * dimensions, dimensions);
+                denseLevels[i] = levels[ordinal];
+                denseLinks[i] = new int[levels[ordinal] + 1][];
+                for (int l = 0; l <= levels[ordinal]; l++) {
+                    int[] list = links[ordinal][l];
+                    int[] copy = new int[list.length];
+                    for (int j = 1; j <= list[0]; j++) {
+                        if (live.get(list[j])) {
+                            copy[++copy[0]] = renumbered[list[j]];
+                        }
+                    }
+                    denseLinks[i][l] = copy;
+                }
+            }
+            int entry = entryPoint < 0 ? -1 : renumbered[entryPoint];
+            return new Export(m, efConstruction, dimensions, size, denseVectors, denseLevels, denseLinks, entry, maxLevel, originalOrdinals);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Rebuilds an index from a graph region written by {@link VectorSnapshot}, without re-running graph
+     * construction. {@code values} must already hold the first {@code count} vectors. The graph region holds the
+     * entry point, the top level, and for every node its level followed by a count-prefixed link list per layer.
+     */
+    static HnswIndex restore(VectorValues values, int m, int efConstruction, int efSearch, int count,
+                             IntBuffer graphRegion) {
+        HnswIndex index = new HnswIndex(values, m, efConstruction, efSearch, 42L);
+        int capacity = Math.max(16, count);
+        values.ensureCapacity(capacity);
+        index.levels = new int[capacity];
+        index.links = new int[capacity][][];
+
+        IntBuffer graph = graphRegion.duplicate();
+        index.entryPoint = graph.get();
+        index.maxLevel = graph.get();
+        for (int ordinal = 0; ordinal < count; ordinal++) {
+            int level = graph.get();
+            index.levels[ordinal] = level;
+            index.links[ordinal] = new int[level + 1][];
+            for (int l = 0; l <= level; l++) {
+                int[] list = new int[index.maxConnections(l) + 1];
+                list[0] = graph.get();
+                graph.get(list, 1, list[0]);
+                index.links[ordinal][l] = list;
+            }
+        }
+        index.live.set(0, count);
+        index.highWater = count;
+        index.size = count;
+        return index;
+    }
+
+    private int maxConnections(int level) {
+        return level == 0 ? maxConnectionsLevel0 : m;
+    }
+
+    private static int checkDimensions(int dimensions) {
+        if (dimensions <= 0) {
+            throw new IllegalArgumentException("dimensions must be > 0");
+        }
+        return dimensions;
+    }
+
+    private float similarity(int a, int b) {
+        return values.similarity(a, b);
+    }
+
+    private int greedyClosest(VectorValues.QueryScorer scorer, int start, int level) {
+        int current = start;
+        float best = scorer.score(current);
+        int[] batch = new int[maxConnectionsLevel0];
+        float[] scores = new float[maxConnectionsLevel0];
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            int[] neighbours = links[current][level];
+            int pending = 0;
+            for (int i = 1; i <= neighbours[0]; i++) {
+                if (live.get(neighbours[i])) {
+                    batch[pending++] = neighbours[i];
+                }
+            }
+            scorer.score(batch, pending, scores);
+            for (int i = 0; i < pending; i++) {
+                if (scores[i] > best) {
+                    best = scores[i];
+                    current = batch[i];
+                    improved = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Beam search on a single layer. Rejected nodes are still traversed so a selective filter does not cut the
+     * graph apart, they just never make it into the result set. Returns a min-heap of at most ef results.
+     * <p>
+     * The unvisited neighbours of each expanded node are scored as one block so the kernel can stream the query
+     * once per group of rows instead of once per neighbour.
+     */
+    private NeighborQueue searchLayer(VectorValues.QueryScorer scorer, int entry, int ef, int level, IntPredicate accept) {
+        BitSet visited = new BitSet(highWater);
+        NeighborQueue candidates = new NeighborQueue(ef * 2, true);
+        NeighborQueue results = new NeighborQueue(ef + 1, false);
+        int[] batch = new int[maxConnectionsLevel0];
+        float[] scores = new float[maxConnectionsLevel0];
+        visited.set(entry);
+        float entryScore = scorer.score(entry);
+        candidates.add(entry, entryScore);
+        if (accept == null || accept.test(entry)) {
+            results.add(entry, entryScore);
+        }
+        while (!candidates.isEmpty()) {
+            float candidateScore = candidates.peekScore();
+            if (results.size() >= ef && candidateScore < results.peekScore()) {
+                break;
+            }
+            int candidate = candidates.poll();
+            int[] neighbours = links[candidate][level];
+            int pending = 0;
+            for (int i = 1; i <= neighbours[0]; i++) {
+                int neighbour = neighbours[i];
+                if (!visited.get(neighbour) && live.get(neighbour)) {
+                    visited.set(neighbour);
+                    batch[pending++] = neighbour;
+                }
+            }
+            scorer.score(batch, pending, scores);
+            for (int j = 0; j < pending; j++) {
+                int neighbour = batch[j];
+                float score = scores[j];
+                if (results.size() < ef || score > results.peekScore()) {
+                    candidates.add(neighbour, score);
+                    if (accept == null || accept.test(neighbour)) {
+                        results.add(neighbour, score);
+                        if (results.size() > ef) {
+                            results.poll();
+                        }
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    private static List<Match> drainDescending(NeighborQueue minHeap) {
+        Match[] matches = new Match[minHeap.size()];
+        for (int i = matches.length - 1; i >= 0; i--) {
+            float score = minHeap.peekScore();
+            matches[i] = new Match(minHeap.poll(), score);
+        }
+        return Arrays.asList(matches);
+    }
+
+    /**
+     * Neighbour selection heuristic: a candidate is kept only if it is closer to the base than to every neighbour
+     * already kept, which favours links in diverse directions. Remaining slots are topped up with the closest
+     * discarded candidates so sparse regions stay connected.
+     */
+    private int[] selectNeighbors(List<Match> candidatesDescending, int limit) {
+        int[] selected = new int[Math.min(limit, candidatesDescending.size())];
+        int count = 0;
+        List<Match> discarded = new ArrayList<>();
+        for (Match candidate : candidatesDescending) {
+            if (count == selected.length) {
+                break;
+            }
+            boolean diverse = true;
+            for (int i = 0; i < count; i++) {
+                if (similarity(candidate.ordinal(), selected[i]) > candidate.score()) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                selected[count++] = candidate.ordinal();
+            }
+            else {
+                discarded.add(candidate);
+            }
+        }
+        for (int i = 0; count < selected.length && i < discarded.size(); i++) {
+            selected[count++] = discarded.get(i).ordinal();
+        }
+        return Arrays.copyOf(selected, count);
+    }
+
+    private void appendLink(int ordinal, int level, int neighbour) {
+        int[] list = links[ordinal][level];
+        list[++list[0]] = neighbour;
+    }
+
+    private void connect(int ordinal, int level, int newNeighbour) {
+        int[] list = links[ordinal][level];
+        if (list[0] < list.length - 1) {
+            list[++list[0]] = newNeighbour;
+            return;
+        }
+        List<Match> candidates = new ArrayList<>(list[0] + 1);
+        for (int i = 1; i <= list[0]; i++) {
+            candidates.add(new Match(list[i], similarity(ordinal, list[i])));
+        }
+        candidates.add(new Match(newNeighbour, similarity(ordinal, newNeighbour)));
+        relink(ordinal, level, candidates);
+    }
+
+    private void repair(int ordinal, int level, int removed, int[] removedNeighbours) {
+        int[] list = links[ordinal][level];
+        List<Match> candidates = new ArrayList<>();
+        BitSet seen = new BitSet();
+        seen.set(ordinal);
+        seen.set(removed);
+        for (int i = 1; i <= list[0]; i++) {
+            int neighbour = list[i];
+            if (!seen.get(neighbour) && live.get(neighbour)) {
+                seen.set(neighbour);
+                candidates.add(new Match(neighbour, similarity(ordinal, neighbour)));
+            }
+        }
+        for (int i = 1; i <= removedNeighbours[0]; i++) {
+            int neighbour = removedNeighbours[i];
+            if (!seen.get(neighbour) && live.get(neighbour) && levels[neighbour] >= level) {
+                seen.set(neighbour);
+                candidates.add(new Match(neighbour, similarity(ordinal, neighbour)));
+            }
+        }
+        relink(ordinal, level, candidates);
+    }
+
+    private void relink(int ordinal, int level, List<Match> candidates) {
+        candidates.sort((a, b) -> Float.compare(b.score(), a.score()));
+        int[] selected = selectNeighbors(candidates, maxConnections(level));
+        int[] list = links[ordinal][level];
+        Arrays.fill(list, 0);
+        list[0] = selected.length;
+        System.arraycopy(selected, 0, list, 1, selected.length);
+    }
+
+    private void electEntryPoint() {
+        entryPoint = -1;
+        maxLevel = -1;
+        for (int ordinal = live.nextSetBit(0); ordinal >= 0; ordinal = live.nextSetBit(ordinal + 1)) {
+            if (levels[ordinal] > maxLevel) {
+                maxLevel = levels[ordinal];
+                entryPoint = ordinal;
+            }
+        }
+    }
+
+    /**
+     * Drops every link that still points at a deleted node and returns the deleted ordinals to the free list.
+     */
+    private void sweepTombstones() {
+        for (int ordinal = live.nextSetBit(0); ordinal >= 0; ordinal = live.nextSetBit(ordinal + 1)) {
+            for (int l = 0; l <= levels[ordinal]; l++) {
+                int[] list = links[ordinal][l];
+                int kept = 0;
+                for (int i = 1; i <= list[0]; i++) {
+                    if (!tombstones.get(list[i])) {
+                        list[++kept] = list[i];
+                    }
+                }
+                list[0] = kept;
+            }
+        }
+        for (int ordinal = tombstones.nextSetBit(0); ordinal >= 0; ordinal = tombstones.nextSetBit(ordinal + 1)) {
+            links[ordinal] = null;
+            if (freeCount == free.length) {
+                free = Arrays.copyOf(free, freeCount * 2);
+            }
+            free[freeCount++] = ordinal;
+        }
+        tombstones.clear();
+    }
+
+    private int allocate() {
+        if (freeCount > 0) {
+            return free[--freeCount];
+        }
+        if (highWater == levels.length) {
+            int capacity = levels.length * 2;
+            values.ensureCapacity(capacity);
+            levels = Arrays.copyOf(levels, capacity);
+            links = Arrays.copyOf(links, capacity);
+        }
+        return highWater++;
+    }
+
+}
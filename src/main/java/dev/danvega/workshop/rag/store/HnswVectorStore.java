@@ -0,0 +1,544 @@
+package dev.danvega.workshop.rag.store;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.BatchingStrategy;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptions;
+import org.springframework.ai.embedding.TokenCountBatchingStrategy;
+import org.springframework.ai.util.JacksonUtils;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.SimpleVectorStoreContent;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.converter.SimpleVectorStoreFilterExpressionConverter;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+import org.springframework.util.Assert;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+
+/**
+ * In-process {@link VectorStore} backed by an HNSW graph, a drop-in replacement for {@code SimpleVectorStore}
+ * whose similarity search does not scan every stored embedding.
+ * <p>
+ * {@code m} bounds the links per node (twice that on the bottom layer), {@code efConstruction} is the beam width
+ * used while inserting and {@code efSearch} the beam width used while querying. Higher values trade latency for
+ * recall. Documents can be added and deleted at any time.
+ * <p>
+ * With a {@link VectorQuantization} other than {@code NONE}, a store restored from a snapshot keeps only compressed
+ * codes on the heap. The graph is traversed on the codes, and the best {@code topK * rerankFactor} candidates are
+ * re-scored against the full-precision vectors, which stay in the memory-mapped snapshot and are paged in per hit.
+ * Vectors added after the snapshot was loaded keep a full-precision heap copy until the next snapshot.
+ * <p>
+ * Metadata keys listed in {@code indexedMetadataKeys} get a bitmap per value. A filter over those keys is resolved
+ * to a set of ordinals before any vector is scored: partitions of up to {@code flatSearchThreshold} documents are
+ * scanned exactly, larger ones are searched through the graph with a bitmap lookup per visited node. Filters the
+ * bitmaps cannot answer fall back to evaluating the expression against each candidate's metadata.
+ */
+public class HnswVectorStore implements VectorStore {
+
+    private static final ObjectMapper OBJECT_MAPPER = JsonMapper.builder()
+            .addModules(JacksonUtils.instantiateAvailableModules())
+            .build();
+
+    private final EmbeddingModel embeddingModel;
+    private final BatchingStrategy batchingStrategy;
+    private final int m;
+    private final int efConstruction;
+    private final int initialEfSearch;
+    private final VectorQuantization quantization;
+    private final int rerankFactor;
+    private final int productSubDimensions;
+    private final int flatSearchThreshold;
+    private final MetadataIndex metadataIndex;
+    private final SimpleVectorStoreFilterExpressionConverter filterExpressionConverter = new SimpleVectorStoreFilterExpressionConverter();
+    private final SpelExpressionParser parser = new SpelExpressionParser();
+
+    private final Map<String, Integer> ordinals = new ConcurrentHashMap<>();
+    private final Map<Integer, Document> documents = new ConcurrentHashMap<>();
+    private final Map<Integer, float[]> fullPrecision = new ConcurrentHashMap<>();
+    private volatile HnswIndex index;
+    private volatile VectorSnapshot snapshot;
+    private volatile boolean quantized;
+
+    protected HnswVectorStore(Builder builder) {
+        this.embeddingModel = builder.embeddingModel;
+        this.batchingStrategy = builder.batchingStrategy;
+        this.m = builder.m;
+        this.efConstruction = builder.efConstruction;
+        this.initialEfSearch = builder.efSearch;
+        this.quantization = builder.quantization;
+        this.rerankFactor = builder.rerankFactor;
+        this.productSubDimensions = builder.productSubDimensions;
+        this.flatSearchThreshold = builder.flatSearchThreshold;
+        this.metadataIndex = new MetadataIndex(builder.indexedMetadataKeys);
+    }
+
+    public static Builder builder(EmbeddingModel embeddingModel) {
+        return new Builder(embeddingModel);
+    }
+
+    @Override
+    public void add(List<Document> documents) {
+        Assert.notNull(documents, "Documents must not be null");
+        if (documents.isEmpty()) {
+            return;
+        }
+        add(documents, this.embeddingModel.embed(documents, EmbeddingOptions.builder().build(), this.batchingStrategy));
+    }
+
+    /**
+     * Adds documents whose embeddings have already been computed, e.g. by an ingestion pipeline.
+     */
+    public void add(List<Document> documents, List<float[]> embeddings) {
+        Assert.isTrue(documents.size() == embeddings.size(), "Expected one embedding per document");
+        for (int i = 0; i < documents.size(); i++) {
+            add(documents.get(i), embeddings.get(i));
+        }
+    }
+
+    /**
+     * Adds a document whose embedding has already been computed, e.g. when restoring a saved store.
+     */
+    public synchronized void add(Document document, float[] embedding) {
+        HnswIndex hnsw = indexFor(embedding.length);
+        Integer previous = this.ordinals.remove(document.getId());
+        if (previous != null) {
+            hnsw.remove(previous);
+            this.documents.remove(previous);
+            this.fullPrecision.remove(previous);
+            this.metadataIndex.remove(previous);
+        }
+        int ordinal = hnsw.add(embedding);
+        this.metadataIndex.add(ordinal, document.getMetadata());
+        if (this.quantized) {
+            this.fullPrecision.put(ordinal, VectorSimilarity.normalize(embedding));
+        }
+        this.documents.put(ordinal, document);
+        this.ordinals.put(document.getId(), ordinal);
+    }
+
+    @Override
+    public synchronized void delete(List<String> idList) {
+        if (this.index == null) {
+            return;
+        }
+        for (String id : idList) {
+            Integer ordinal = this.ordinals.remove(id);
+            if (ordinal != null) {
+                this.index.remove(ordinal);
+                this.documents.remove(ordinal);
+                this.fullPrecision.remove(ordinal);
+                this.metadataIndex.remove(ordinal);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void delete(Filter.Expression filterExpression) {
+        IntPredicate predicate = filterPlan(filterExpression).accept();
+        List<String> matching = new ArrayList<>();
+        this.ordinals.forEach((id, ordinal) -> {
+            if (predicate.test(ordinal)) {
+                matching.add(id);
+            }
+        });
+        delete(matching);
+    }
+
+    @Override
+    public List<Document> similaritySearch(SearchRequest request) {
+        return search(this.embeddingModel.embed(request.getQuery()), request, false);
+    }
+
+    /**
+     * Same as {@link #similaritySearch(SearchRequest)} for a query that has already been embedded; the request's
+     * query text is ignored.
+     */
+    public List<Document> similaritySearch(float[] embedding, SearchRequest request) {
+        return search(embedding, request, false);
+    }
+
+    /**
+     * Brute-force search over every stored embedding. Same contract as {@link #similaritySearch(SearchRequest)},
+     * used to measure the recall of the graph search.
+     */
+    public List<Document> exactSimilaritySearch(SearchRequest request) {
+        return search(this.embeddingModel.embed(request.getQuery()), request, true);
+    }
+
+    /**
+     * Changes the query-time beam width without rebuilding the graph.
+     */
+    public void setEfSearch(int efSearch) {
+        HnswIndex hnsw = this.index;
+        if (hnsw != null) {
+            hnsw.efSearch(efSearch);
+        }
+    }
+
+    /**
+     * Writes the store in the same JSON layout {@code SimpleVectorStore} uses, so either store can load the file.
+     */
+    public void save(File file) throws IOException {
+        Map<String, SimpleVectorStoreContent> contents = new LinkedHashMap<>();
+        HnswIndex hnsw = this.index;
+        this.ordinals.forEach((id, ordinal) -> {
+            Document document = document(ordinal);
+            if (document != null) {
+                contents.put(id, new SimpleVectorStoreContent(id, document.getText(), document.getMetadata(), vector(hnsw, ordinal)));
+            }
+        });
+        OBJECT_MAPPER.writerWithDefaultPrettyPrinter().writeValue(file, contents);
+    }
+
+    /**
+     * Loads a file written by {@link #save(File)} or {@code SimpleVectorStore#save(File)} without re-embedding.
+     */
+    public void load(File file) throws IOException {
+        Map<String, SimpleVectorStoreContent> contents = OBJECT_MAPPER.readValue(file, new TypeReference<LinkedHashMap<String, SimpleVectorStoreContent>>() {
+        });
+        for (SimpleVectorStoreContent content : contents.values()) {
+            add(new Document(content.getId(), content.getText(), content.getMetadata()), content.getEmbedding());
+        }
+    }
+
+    /**
+     * Writes a binary snapshot (see {@link VectorSnapshot}) holding the vectors, the HNSW graph and the documents.
+     */
+    public void saveSnapshot(Path path) throws IOException {
+        HnswIndex hnsw = this.index;
+        if (hnsw == null) {
+            throw new IllegalStateException("Cannot snapshot an empty store");
+        }
+        VectorSnapshot.write(path, hnsw.export(this.quantized ? this::fullPrecisionVector : null), this::document, OBJECT_MAPPER);
+    }
+
+    /**
+     * Restores an empty store from a binary snapshot. The file is memory-mapped: graph links are bulk copied out of
+     * the mapping and vectors are either copied or encoded according to the configured {@link VectorQuantization};
+     * document text and metadata stay in the mapping and are decoded per search hit.
+     */
+    public synchronized void loadSnapshot(Path path) throws IOException {
+        Assert.state(this.index == null, "Snapshots can only be loaded into an empty store");
+        VectorSnapshot opened = VectorSnapshot.open(path, OBJECT_MAPPER);
+        VectorValues values = switch (this.quantization) {
+            case NONE -> FloatVectorValues.copyOf(opened.vectors(), opened.size(), opened.dimensions());
+            case INT8 -> Int8VectorValues.encode(opened.vectors(), opened.size(), opened.dimensions());
+            case PRODUCT -> ProductQuantizedVectorValues.train(opened.vectors(), opened.size(), opened.dimensions(),
+                    this.productSubDimensions);
+        };
+        HnswIndex restored = HnswIndex.restore(values, opened.m(), opened.efConstruction(), this.initialEfSearch,
+                opened.size(), opened.graph());
+        for (int ordinal = 0; ordinal < opened.size(); ordinal++) {
+            this.ordinals.put(opened.id(ordinal), ordinal);
+            if (!this.metadataIndex.isEmpty()) {
+                this.metadataIndex.add(ordinal, opened.metadata(ordinal));
+            }
+        }
+        this.snapshot = opened;
+        this.quantized = this.quantization != VectorQuantization.NONE;
+        this.index = restored;
+    }
+
+    public int size() {
+        return this.ordinals.size();
+    }
+
+    /**
+     * Looks a document up by id, or returns {@code null} if the store does not hold it.
+     */
+    public Document getDocument(String id) {
+        Integer ordinal = this.ordinals.get(id);
+        return ordinal != null ? document(ordinal) : null;
+    }
+
+    /**
+     * Visits every stored document, e.g. to build a secondary index over a store restored from a snapshot.
+     */
+    public void forEachDocument(Consumer<Document> action) {
+        this.ordinals.values().forEach(ordinal -> {
+            Document document = document(ordinal);
+            if (document != null) {
+                action.accept(document);
+            }
+        });
+    }
+
+    /**
+     * Heap bytes held by the in-memory vector representation (float arena or quantized codes).
+     */
+    public long vectorMemoryBytes() {
+        HnswIndex hnsw = this.index;
+        return hnsw != null ? hnsw.vectorBytes() : 0;
+    }
+
+    @Override
+    public String getName() {
+        return "HnswVectorStore";
+    }
+
+    private List<Document> search(float[] query, SearchRequest request, boolean exact) {
+        HnswIndex hnsw = this.index;
+        if (hnsw == null) {
+            return List.of();
+        }
+        FilterPlan plan = request.hasFilterExpression() ? filterPlan(request.getFilterExpression()) : FilterPlan.NONE;
+        int k = request.getTopK();
+        int candidates = this.quantized ? k * this.rerankFactor : k;
+        List<HnswIndex.Match> matches;
+        if (exact && this.quantized) {
+            IntPredicate accept = plan.accept();
+            matches = this.ordinals.values().stream().mapToInt(Integer::intValue)
+                    .filter(accept::test)
+                    .mapToObj(ordinal -> new HnswIndex.Match(ordinal, 0f))
+                    .toList();
+        }
+        else if (exact || plan.partition() != null && plan.partition().cardinality() <= this.flatSearchThreshold) {
+            matches = hnsw.exactSearch(query, candidates, plan.partition(), plan.residual());
+        }
+        else {
+            matches = hnsw.search(query, candidates, efFor(hnsw, candidates, plan), plan.accept());
+        }
+        if (this.quantized) {
+            matches = rerank(query, matches, k);
+        }
+
+        List<Document> results = new ArrayList<>(matches.size());
+        for (HnswIndex.Match match : matches) {
+            Document document = document(match.ordinal());
+            if (document != null && match.score() >= request.getSimilarityThreshold()) {
+                results.add(document.mutate().score((double) match.score()).build());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Re-scores approximate candidates against their full-precision vectors and keeps the best {@code k}.
+     */
+    private List<HnswIndex.Match> rerank(float[] query, List<HnswIndex.Match> candidates, int k) {
+        float[] q = VectorSimilarity.normalize(query);
+        List<HnswIndex.Match> rescored = new ArrayList<>(candidates.size());
+        for (HnswIndex.Match candidate : candidates) {
+            float[] vector = fullPrecisionVector(candidate.ordinal());
+            if (vector != null) {
+                rescored.add(new HnswIndex.Match(candidate.ordinal(), VectorSimilarity.dot(q, vector)));
+            }
+        }
+        rescored.sort((a, b) -> Float.compare(b.score(), a.score()));
+        return rescored.size() > k ? rescored.subList(0, k) : rescored;
+    }
+
+    private float[] vector(HnswIndex hnsw, int ordinal) {
+        return this.quantized ? fullPrecisionVector(ordinal) : hnsw.vector(ordinal);
+    }
+
+    private float[] fullPrecisionVector(int ordinal) {
+        float[] vector = this.fullPrecision.get(ordinal);
+        if (vector != null) {
+            return vector;
+        }
+        VectorSnapshot mapped = this.snapshot;
+        return mapped != null && ordinal < mapped.size() ? mapped.vector(ordinal) : null;
+    }
+
+    /**
+     * The filter as a predicate on document ids, for secondary indexes that rank documents by id.
+     */
+    Predicate<String> idFilter(Filter.Expression filterExpression) {
+        IntPredicate accept = filterPlan(filterExpression).accept();
+        return id -> {
+            Integer ordinal = this.ordinals.get(id);
+            return ordinal != null && accept.test(ordinal);
+        };
+    }
+
+    /**
+     * Resolves as much of the filter as possible from the metadata bitmaps; whatever they cannot answer is left as
+     * a per-document SpEL check.
+     */
+    private FilterPlan filterPlan(Filter.Expression filterExpression) {
+        BitSet matching = this.metadataIndex.matching(filterExpression);
+        if (matching != null) {
+            return new FilterPlan(matching, null);
+        }
+        Expression expression = this.parser.parseExpression(this.filterExpressionConverter.convertExpression(filterExpression));
+        return new FilterPlan(this.metadataIndex.candidates(filterExpression), ordinal -> {
+            Document document = document(ordinal);
+            return document != null && matches(expression, document);
+        });
+    }
+
+    /**
+     * A filter that rejects most nodes leaves the beam with fewer usable results, so it is widened in proportion
+     * to the filter's selectivity, up to ten times.
+     */
+    private int efFor(HnswIndex hnsw, int k, FilterPlan plan) {
+        int ef = Math.max(hnsw.efSearch(), k);
+        int size = hnsw.size();
+        if (plan.partition() == null || size == 0) {
+            return ef;
+        }
+        double selectivity = Math.max(plan.partition().cardinality() / (double) size, 0.1);
+        return (int) Math.ceil(ef / selectivity);
+    }
+
+    /**
+     * Documents added at runtime live on the heap; documents restored from a snapshot are decoded from the mapping
+     * until their ordinal is deleted and recycled.
+     */
+    private Document document(int ordinal) {
+        Document document = this.documents.get(ordinal);
+        if (document != null) {
+            return document;
+        }
+        VectorSnapshot mapped = this.snapshot;
+        if (mapped != null && ordinal < mapped.size() && this.index.contains(ordinal)) {
+            return mapped.document(ordinal);
+        }
+        return null;
+    }
+
+    private static boolean matches(Expression expression, Document document) {
+        StandardEvaluationContext context = new StandardEvaluationContext();
+        context.setVariable("metadata", document.getMetadata());
+        return Boolean.TRUE.equals(expression.getValue(context, Boolean.class));
+    }
+
+    private HnswIndex indexFor(int dimensions) {
+        if (this.index == null) {
+            this.index = new HnswIndex(dimensions, this.m, this.efConstruction, this.initialEfSearch, 42L);
+        }
+        return this.index;
+    }
+
+    /**
+     * @param partition ordinals that can match, or {@code null} if every ordinal can
+     * @param residual check still required on ordinals inside the partition, or {@code null} if none
+     */
+    private record FilterPlan(BitSet partition, IntPredicate residual) {
+
+        static final FilterPlan NONE = new FilterPlan(null, null);
+
+        IntPredicate accept() {
+            if (partition == null) {
+                return residual != null ? residual : ordinal -> true;
+            }
+            return residual != null ? ordinal -> partition.get(ordinal) && residual.test(ordinal) : partition::get;
+        }
+
+    }
+
+    public static class Builder {
+
+        private final EmbeddingModel embeddingModel;
+        private BatchingStrategy batchingStrategy = new TokenCountBatchingStrategy();
+        private int m = 16;
+        private int efConstruction = 200;
+        private int efSearch = 64;
+        private VectorQuantization quantization = VectorQuantization.NONE;
+        private int rerankFactor = 4;
+        private int productSubDimensions = 4;
+        private List<String> indexedMetadataKeys = List.of();
+        private int flatSearchThreshold = 4096;
+
+        private Builder(EmbeddingModel embeddingModel) {
+            Assert.notNull(embeddingModel, "EmbeddingModel must not be null");
+            this.embeddingModel = embeddingModel;
+        }
+
+        public Builder batchingStrategy(BatchingStrategy batchingStrategy) {
+            this.batchingStrategy = batchingStrategy;
+            return this;
+        }
+
+        public Builder m(int m) {
+            this.m = m;
+            return this;
+        }
+
+        public Builder efConstruction(int efConstruction) {
+            this.efConstruction = efConstruction;
+            return this;
+        }
+
+        public Builder efSearch(int efSearch) {
+            this.efSearch = efSearch;
+            return this;
+        }
+
+        /**
+         * In-memory vector representation used once a snapshot is loaded. Requires {@link #loadSnapshot(Path)},
+         * since re-ranking reads full-precision vectors from the snapshot file.
+         */
+        public Builder quantization(VectorQuantization quantization) {
+            Assert.notNull(quantization, "VectorQuantization must not be null");
+            this.quantization = quantization;
+            return this;
+        }
+
+        /**
+         * How many quantized candidates per requested result are re-scored at full precision.
+         */
+        public Builder rerankFactor(int rerankFactor) {
+            Assert.isTrue(rerankFactor >= 1, "rerankFactor must be >= 1");
+            this.rerankFactor = rerankFactor;
+            return this;
+        }
+
+        /**
+         * Dimensions per product-quantization sub-vector; each group costs one byte. Must divide the embedding
+         * dimensions.
+         */
+        public Builder productSubDimensions(int productSubDimensions) {
+            Assert.isTrue(productSubDimensions >= 1, "productSubDimensions must be >= 1");
+            this.productSubDimensions = productSubDimensions;
+            return this;
+        }
+
+        /**
+         * Metadata keys to keep value bitmaps for, so filters on them prune candidates before scoring. Suited to
+         * low-cardinality keys such as {@code filename} or {@code company}.
+         */
+        public Builder indexedMetadataKeys(List<String> indexedMetadataKeys) {
+            Assert.notNull(indexedMetadataKeys, "indexedMetadataKeys must not be null");
+            this.indexedMetadataKeys = List.copyOf(indexedMetadataKeys);
+            return this;
+        }
+
+        public Builder indexedMetadataKeys(String... indexedMetadataKeys) {
+            return indexedMetadataKeys(List.of(indexedMetadataKeys));
+        }
+
+        /**
+         * Largest filtered partition that is scanned exactly instead of searched through the graph.
+         */
+        public Builder flatSearchThreshold(int flatSearchThreshold) {
+            Assert.isTrue(flatSearchThreshold >= 0, "flatSearchThreshold must be >= 0");
+            this.flatSearchThreshold = flatSearchThreshold;
+            return this;
+        }
+
+        public HnswVectorStore build() {
+            return new HnswVectorStore(this);
+        }
+
+    }
+
+}
@@ -0,0 +1,137 @@
+package dev.danvega.workshop.rag.store;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * {@link VectorStore} that answers each search from two rankings, embedding similarity from an
+ * {@link HnswVectorStore} and BM25 keyword relevance from an in-memory inverted index, fused with reciprocal rank
+ * fusion: every document scores {@code sum(1 / (rankConstant + rank))} over the rankings it appears in.
+ * <p>
+ * Exact terms such as model names are where embeddings are weakest and BM25 is strongest, so fusing both puts the
+ * right chunk in the top few results and lets callers like {@code QuestionAnswerAdvisor} use a small top-k.
+ * Writes go through this store so the keyword index stays in sync with the vector index. Filters apply to both
+ * rankings; the similarity threshold applies to the vector ranking only, since BM25 scores are not comparable to
+ * it. Returned documents carry the fused score.
+ */
+public class HybridVectorStore implements VectorStore {
+
+    private final HnswVectorStore vectorStore;
+    private final Bm25Index keywordIndex = new Bm25Index();
+    private final int candidates;
+    private final int rankConstant;
+
+    protected HybridVectorStore(Builder builder) {
+        this.vectorStore = builder.vectorStore;
+        this.candidates = builder.candidates;
+        this.rankConstant = builder.rankConstant;
+        this.vectorStore.forEachDocument(document -> this.keywordIndex.add(document.getId(), document.getText()));
+    }
+
+    public static Builder builder(HnswVectorStore vectorStore) {
+        return new Builder(vectorStore);
+    }
+
+    @Override
+    public void add(List<Document> documents) {
+        this.vectorStore.add(documents);
+        documents.forEach(document -> this.keywordIndex.add(document.getId(), document.getText()));
+    }
+
+    @Override
+    public void delete(List<String> idList) {
+        this.vectorStore.delete(idList);
+        idList.forEach(this.keywordIndex::remove);
+    }
+
+    @Override
+    public void delete(Filter.Expression filterExpression) {
+        Predicate<String> matches = this.vectorStore.idFilter(filterExpression);
+        delete(this.keywordIndex.ids().stream().filter(matches).toList());
+    }
+
+    @Override
+    public List<Document> similaritySearch(SearchRequest request) {
+        int depth = Math.max(this.candidates, request.getTopK());
+        List<Document> semantic = this.vectorStore.similaritySearch(SearchRequest.from(request).topK(depth).build());
+        Predicate<String> accept = request.hasFilterExpression() ? this.vectorStore.idFilter(request.getFilterExpression()) : null;
+        List<Bm25Index.Hit> keyword = this.keywordIndex.search(request.getQuery(), depth, accept);
+
+        // keyword hits go in first so that, on equal fused scores, the lexical match wins the tie
+        Map<String, Double> fused = new LinkedHashMap<>();
+        for (int rank = 0; rank < keyword.size(); rank++) {
+            fused.merge(keyword.get(rank).id(), 1.0 / (this.rankConstant + rank + 1), Double::sum);
+        }
+        Map<String, Document> byId = new HashMap<>();
+        for (int rank = 0; rank < semantic.size(); rank++) {
+            Document document = semantic.get(rank);
+            fused.merge(document.getId(), 1.0 / (this.rankConstant + rank + 1), Double::sum);
+            byId.put(document.getId(), document);
+        }
+
+        List<Document> results = new ArrayList<>(request.getTopK());
+        fused.entrySet().stream()
+                .sorted(Map.Entry.<String, Double>comparingByValue().reversed())
+                .limit(request.getTopK())
+                .forEach(entry -> {
+                    Document document = byId.containsKey(entry.getKey())
+                            ? byId.get(entry.getKey())
+                            : this.vectorStore.getDocument(entry.getKey());
+                    if (document != null) {
+                        results.add(document.mutate().score(entry.getValue()).build());
+                    }
+                });
+        return results;
+    }
+
+    @Override
+    public String getName() {
+        return "HybridVectorStore";
+    }
+
+    public static class Builder {
+
+        private final HnswVectorStore vectorStore;
+        private int candidates = 20;
+        private int rankConstant = 60;
+
+        private Builder(HnswVectorStore vectorStore) {
+            Assert.notNull(vectorStore, "HnswVectorStore must not be null");
+            this.vectorStore = vectorStore;
+        }
+
+        /**
+         * How many results each ranking contributes to the fusion; at least the requested top-k.
+         */
+        public Builder candidates(int candidates) {
+            Assert.isTrue(candidates > 0, "candidates must be positive");
+            this.candidates = candidates;
+            return this;
+        }
+
+        /**
+         * The {@code k} in {@code 1 / (k + rank)}; larger values flatten the difference between top and lower ranks.
+         */
+        public Builder rankConstant(int rankConstant) {
+            Assert.isTrue(rankConstant >= 0, "rankConstant must be >= 0");
+            this.rankConstant = rankConstant;
+            return this;
+        }
+
+        public HybridVectorStore build() {
+            return new HybridVectorStore(this);
+        }
+
+    }
+
+}
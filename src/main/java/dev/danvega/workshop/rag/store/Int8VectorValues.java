@@ -0,0 +1,100 @@
+package dev.danvega.workshop.rag.store;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * Scalar-quantized vectors: one signed byte per component plus one float scale per vector. Each vector is scaled
+ * by its own largest absolute component, so the full int8 range is used even though the components of a
+ * unit-length embedding are tiny. Queries stay in float32 (asymmetric scoring), which keeps most of the precision.
+ */
+final class Int8VectorValues implements VectorValues {
+
+    private final int dimensions;
+    private byte[] codes;
+    private float[] scales;
+
+    Int8VectorValues(int dimensions, int capacity) {
+        this.dimensions = dimensions;
+        this.codes = new byte[Math.max(capacity, 1) * dimensions];
+        this.scales = new float[Math.max(capacity, 1)];
+    }
+
+    static Int8VectorValues encode(FloatBuffer vectors, int count, int dimensions) {
+        Int8VectorValues values = new Int8VectorValues(dimensions, Math.max(16, count));
+        FloatBuffer source = vectors.duplicate();
+        float[] vector = new float[dimensions];
+        for (int ordinal = 0; ordinal < count; ordinal++) {
+            source.get(vector);
+            values.set(ordinal, vector);
+        }
+        return values;
+    }
+
+    @Override
+    public int dimensions() {
+        return dimensions;
+    }
+
+    @Override
+    public void ensureCapacity(int capacity) {
+        if (capacity > scales.length) {
+            int grown = Math.max(capacity, scales.length * 2);
+            codes = Arrays.copyOf(codes, grown * dimensions);
+            scales = Arrays.copyOf(scales, grown);
+        }
+    }
+
+    @Override
+    public void set(int ordinal, float[] unitVector) {
+        float max = 0f;
+        for (float component : unitVector) {
+            max = Math.max(max, Math.abs(component));
+        }
+        float scale = max > 0f ? max / 127f : 1f;
+        int offset = ordinal * dimensions;
+        for (int i = 0; i < dimensions; i++) {
+            codes[offset + i] = (byte) Math.round(unitVector[i] / scale);
+        }
+        scales[ordinal] = scale;
+    }
+
+    @Override
+    public QueryScorer scorer(float[] unitQuery) {
+        return ordinal -> {
+            int offset = ordinal * dimensions;
+            float sum = 0f;
+            for (int i = 0; i < dimensions; i++) {
+                sum += unitQuery[i] * codes[offset + i];
+            }
+            return sum * scales[ordinal];
+        };
+    }
+
+    @Override
+    public float similarity(int a, int b) {
+        int aOffset = a * dimensions;
+        int bOffset = b * dimensions;
+        int sum = 0;
+        for (int i = 0; i < dimensions; i++) {
+            sum += codes[aOffset + i] * codes[bOffset + i];
+        }
+        return sum * scales[a] * scales[b];
+    }
+
+    @Override
+    public float[] vector(int ordinal) {
+        float[] vector = new float[dimensions];
+        int offset = ordinal * dimensions;
+        for (int i = 0; i < dimensions; i++) {
+            vector[i] = codes[offset + i] * scales[ordinal];
+        }
+        return vector;
+    }
+
+    @Override
+    public long bytesPerVector() {
+        return dimensions + Float.BYTES;
+    }
+
+}
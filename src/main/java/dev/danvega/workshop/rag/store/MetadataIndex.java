@@ -0,0 +1,171 @@
+package dev.danvega.workshop.rag.store;
+
+import org.springframework.ai.vectorstore.filter.Filter;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Secondary index from metadata values to the ordinals that carry them, one bitmap per (key, value) pair, for a
+ * fixed set of low-cardinality keys such as {@code filename} or {@code company}.
+ * <p>
+ * Filter expressions built only from {@code ==}, {@code !=}, {@code in}, {@code nin}, {@code &&}, {@code ||} and
+ * {@code !} over indexed keys are answered with bitmap algebra, with the same semantics as the SpEL evaluation in
+ * {@link HnswVectorStore}: a missing key never equals anything, so it satisfies {@code !=} and {@code nin}.
+ */
+final class MetadataIndex {
+
+    private final Set<String> keys;
+    private final Map<String, Map<Object, BitSet>> bitmaps = new HashMap<>();
+    private final BitSet all = new BitSet();
+
+    MetadataIndex(Collection<String> keys) {
+        this.keys = Set.copyOf(keys);
+    }
+
+    boolean isEmpty() {
+        return keys.isEmpty();
+    }
+
+    synchronized void add(int ordinal, Map<String, Object> metadata) {
+        all.set(ordinal);
+        for (String key : keys) {
+            Object value = metadata.get(key);
+            if (value != null) {
+                bitmaps.computeIfAbsent(key, k -> new HashMap<>())
+                        .computeIfAbsent(normalize(value), v -> new BitSet())
+                        .set(ordinal);
+            }
+        }
+    }
+
+    synchronized void remove(int ordinal) {
+        if (!all.get(ordinal)) {
+            return;
+        }
+        all.clear(ordinal);
+        for (Map<Object, BitSet> values : bitmaps.values()) {
+            values.values().removeIf(ordinals -> {
+                ordinals.clear(ordinal);
+                return ordinals.isEmpty();
+            });
+        }
+    }
+
+    /**
+     * Ordinals that satisfy the expression, or {@code null} if it touches an unindexed key or an operator the
+     * bitmaps cannot answer.
+     */
+    synchronized BitSet matching(Filter.Expression expression) {
+        return evaluate(expression);
+    }
+
+    /**
+     * A superset of the ordinals that satisfy the expression, or {@code null} if nothing can be ruled out. Differs
+     * from {@link #matching} for conjunctions with an unanswerable side: the answerable side still narrows the
+     * candidates, and the caller checks the full expression on what is left.
+     */
+    synchronized BitSet candidates(Filter.Expression expression) {
+        BitSet exact = evaluate(expression);
+        if (exact != null || expression.type() != Filter.ExpressionType.AND) {
+            return exact;
+        }
+        BitSet left = candidates(operand(expression.left()));
+        BitSet right = candidates(operand(expression.right()));
+        if (left == null) {
+            return right;
+        }
+        if (right != null) {
+            left.and(right);
+        }
+        return left;
+    }
+
+    private BitSet evaluate(Filter.Expression expression) {
+        if (expression == null) {
+            return null;
+        }
+        return switch (expression.type()) {
+            case AND, OR -> {
+                BitSet left = evaluate(operand(expression.left()));
+                BitSet right = left != null ? evaluate(operand(expression.right())) : null;
+                if (right == null) {
+                    yield null;
+                }
+                if (expression.type() == Filter.ExpressionType.AND) {
+                    left.and(right);
+                }
+                else {
+                    left.or(right);
+                }
+                yield left;
+            }
+            case NOT -> complement(evaluate(operand(expression.left())));
+            case EQ -> lookup(expression, false);
+            case IN -> lookup(expression, true);
+            case NE -> complement(lookup(expression, false));
+            case NIN -> complement(lookup(expression, true));
+            default -> null;
+        };
+    }
+
+    private BitSet lookup(Filter.Expression expression, boolean list) {
+        if (!(expression.left() instanceof Filter.Key key) || !(expression.right() instanceof Filter.Value value)) {
+            return null;
+        }
+        String name = unquote(key.key());
+        if (!keys.contains(name)) {
+            return null;
+        }
+        Map<Object, BitSet> values = bitmaps.getOrDefault(name, Map.of());
+        List<?> wanted = list && value.value() instanceof List<?> items ? items : List.of(value.value());
+        BitSet result = new BitSet();
+        for (Object item : wanted) {
+            BitSet ordinals = values.get(normalize(item));
+            if (ordinals != null) {
+                result.or(ordinals);
+            }
+        }
+        return result;
+    }
+
+    private BitSet complement(BitSet matching) {
+        if (matching == null) {
+            return null;
+        }
+        BitSet result = (BitSet) all.clone();
+        result.andNot(matching);
+        return result;
+    }
+
+    private static Filter.Expression operand(Filter.Operand operand) {
+        if (operand instanceof Filter.Group group) {
+            return group.content();
+        }
+        return operand instanceof Filter.Expression expression ? expression : null;
+    }
+
+    private static String unquote(String key) {
+        if (key.length() > 1 && (key.startsWith("'") && key.endsWith("'") || key.startsWith("\"") && key.endsWith("\""))) {
+            return key.substring(1, key.length() - 1);
+        }
+        return key;
+    }
+
+    /**
+     * Filter literals and stored metadata may disagree on numeric type (Integer vs Long, JSON doubles), so
+     * numbers are compared by value.
+     */
+    private static Object normalize(Object value) {
+        if (value instanceof Number number) {
+            double asDouble = number.doubleValue();
+            return asDouble == Math.rint(asDouble) && !Double.isInfinite(asDouble) ? (Object) number.longValue() : (Object) asDouble;
+        }
+        return value;
+    }
+
+}
@@ -0,0 +1,89 @@
+package dev.danvega.workshop.rag.store;
+
+import java.util.Arrays;
+
+/**
+ * Binary heap of (ordinal, score) pairs backed by primitive arrays, so graph traversal does not box every
+ * candidate. A max-heap pops the best score first, a min-heap pops the worst.
+ */
+final class NeighborQueue {
+
+    private final boolean maxHeap;
+    private int[] ordinals;
+    private float[] scores;
+    private int size;
+
+    NeighborQueue(int initialCapacity, boolean maxHeap) {
+        this.maxHeap = maxHeap;
+        this.ordinals = new int[Math.max(initialCapacity, 4)];
+        this.scores = new float[this.ordinals.length];
+    }
+
+    void add(int ordinal, float score) {
+        if (size == ordinals.length) {
+            ordinals = Arrays.copyOf(ordinals, size * 2);
+            scores = Arrays.copyOf(scores, size * 2);
+        }
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!before(score, scores[parent])) {
+                break;
+            }
+            ordinals[i] = ordinals[parent];
+            scores[i] = scores[parent];
+            i = parent;
+        }
+        ordinals[i] = ordinal;
+        scores[i] = score;
+    }
+
+    int peekOrdinal() {
+        return ordinals[0];
+    }
+
+    float peekScore() {
+        return scores[0];
+    }
+
+    int poll() {
+        int top = ordinals[0];
+        size--;
+        if (size > 0) {
+            int ordinal = ordinals[size];
+            float score = scores[size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && before(scores[child + 1], scores[child])) {
+                    child++;
+                }
+                if (!before(scores[child], score)) {
+                    break;
+                }
+                ordinals[i] = ordinals[child];
+                scores[i] = scores[child];
+                i = child;
+            }
+            ordinals[i] = ordinal;
+            scores[i] = score;
+        }
+        return top;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    private boolean before(float a, float b) {
+        return maxHeap ? a > b : a < b;
+    }
+
+}
@@ -0,0 +1,87 @@
+package dev.danvega.workshop.rag.store;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link VectorSimilarity.Kernel} on the JDK Vector API. Lanes are fused-multiply-added into vector accumulators
+ * and reduced once at the end; the block entry point scores four rows per pass so each query chunk is loaded once
+ * and reused four times.
+ * <p>
+ * Only instantiated reflectively by {@link VectorSimilarity#simdKernel()}, so this class is never loaded when the
+ * {@code jdk.incubator.vector} module is absent.
+ */
+final class PanamaSimilarityKernel implements VectorSimilarity.Kernel {
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    @Override
+    public float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        FloatVector acc0 = FloatVector.zero(SPECIES);
+        FloatVector acc1 = FloatVector.zero(SPECIES);
+        int step = SPECIES.length();
+        int i = 0;
+        int bound = SPECIES.loopBound(length);
+        for (; i + step < bound; i += 2 * step) {
+            acc0 = FloatVector.fromArray(SPECIES, a, aOffset + i).fma(FloatVector.fromArray(SPECIES, b, bOffset + i), acc0);
+            acc1 = FloatVector.fromArray(SPECIES, a, aOffset + i + step).fma(FloatVector.fromArray(SPECIES, b, bOffset + i + step), acc1);
+        }
+        for (; i < bound; i += step) {
+            acc0 = FloatVector.fromArray(SPECIES, a, aOffset + i).fma(FloatVector.fromArray(SPECIES, b, bOffset + i), acc0);
+        }
+        float sum = acc0.add(acc1).reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public void dotBlock(float[] query, float[] vectors, int[] ordinals, int count, int dimensions, float[] scores) {
+        int step = SPECIES.length();
+        int bound = SPECIES.loopBound(dimensions);
+        int row = 0;
+        for (; row + 4 <= count; row += 4) {
+            int o0 = ordinals[row] * dimensions;
+            int o1 = ordinals[row + 1] * dimensions;
+            int o2 = ordinals[row + 2] * dimensions;
+            int o3 = ordinals[row + 3] * dimensions;
+            FloatVector acc0 = FloatVector.zero(SPECIES);
+            FloatVector acc1 = FloatVector.zero(SPECIES);
+            FloatVector acc2 = FloatVector.zero(SPECIES);
+            FloatVector acc3 = FloatVector.zero(SPECIES);
+            int i = 0;
+            for (; i < bound; i += step) {
+                FloatVector q = FloatVector.fromArray(SPECIES, query, i);
+                acc0 = FloatVector.fromArray(SPECIES, vectors, o0 + i).fma(q, acc0);
+                acc1 = FloatVector.fromArray(SPECIES, vectors, o1 + i).fma(q, acc1);
+                acc2 = FloatVector.fromArray(SPECIES, vectors, o2 + i).fma(q, acc2);
+                acc3 = FloatVector.fromArray(SPECIES, vectors, o3 + i).fma(q, acc3);
+            }
+            float s0 = acc0.reduceLanes(VectorOperators.ADD);
+            float s1 = acc1.reduceLanes(VectorOperators.ADD);
+            float s2 = acc2.reduceLanes(VectorOperators.ADD);
+            float s3 = acc3.reduceLanes(VectorOperators.ADD);
+            for (; i < dimensions; i++) {
+                s0 += query[i] * vectors[o0 + i];
+                s1 += query[i] * vectors[o1 + i];
+                s2 += query[i] * vectors[o2 + i];
+                s3 += query[i] * vectors[o3 + i];
+            }
+            scores[row] = s0;
+            scores[row + 1] = s1;
+            scores[row + 2] = s2;
+            scores[row + 3] = s3;
+        }
+        for (; row < count; row++) {
+            scores[row] = dot(query, 0, vectors, ordinals[row] * dimensions, dimensions);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "simd (" + SPECIES + ")";
+    }
+
+}
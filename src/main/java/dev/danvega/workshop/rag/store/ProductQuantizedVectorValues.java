@@ -0,0 +1,199 @@
+package dev.danvega.workshop.rag.store;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Product-quantized vectors (Jégou et al.): each vector is cut into sub-vectors of {@code subDimensions}
+ * components and every sub-vector is replaced by the one-byte id of its nearest centroid in a per-subspace
+ * codebook of up to 256 entries, trained with k-means on the vectors being encoded.
+ * <p>
+ * A query builds one lookup table of query-to-centroid dot products per subspace, after which scoring a stored
+ * vector is one table lookup per subspace. Codes are much coarser than int8, so results should always be
+ * re-ranked against full-precision vectors.
+ */
+final class ProductQuantizedVectorValues implements VectorValues {
+
+    private static final int CENTROIDS = 256;
+    private static final int TRAINING_SAMPLE = 16_384;
+    private static final int TRAINING_ITERATIONS = 12;
+
+    private final int dimensions;
+    private final int subDimensions;
+    private final int subspaces;
+    private final int centroids;
+    // codebooks[subspace] = centroids * subDimensions floats
+    private final float[][] codebooks;
+    private byte[] codes;
+
+    private ProductQuantizedVectorValues(int dimensions, int subDimensions, float[][] codebooks, int centroids, int capacity) {
+        this.dimensions = dimensions;
+        this.subDimensions = subDimensions;
+        this.subspaces = dimensions / subDimensions;
+        this.codebooks = codebooks;
+        this.centroids = centroids;
+        this.codes = new byte[Math.max(capacity, 1) * subspaces];
+    }
+
+    /**
+     * Trains the codebooks on the first {@code count} vectors of the region and encodes all of them.
+     */
+    static ProductQuantizedVectorValues train(FloatBuffer vectors, int count, int dimensions, int subDimensions) {
+        if (subDimensions <= 0 || dimensions % subDimensions != 0) {
+            throw new IllegalArgumentException("subDimensions must divide " + dimensions + " but was " + subDimensions);
+        }
+        if (count == 0) {
+            throw new IllegalArgumentException("At least one vector is required to train a product quantizer");
+        }
+        int subspaces = dimensions / subDimensions;
+        int sampleSize = Math.min(count, TRAINING_SAMPLE);
+        int centroids = Math.min(CENTROIDS, sampleSize);
+        float[] sample = sample(vectors, count, dimensions, sampleSize);
+
+        float[][] codebooks = new float[subspaces][];
+        for (int s = 0; s < subspaces; s++) {
+            codebooks[s] = kMeans(sample, sampleSize, dimensions, s * subDimensions, subDimensions, centroids, s);
+        }
+
+        ProductQuantizedVectorValues values = new ProductQuantizedVectorValues(dimensions, subDimensions, codebooks,
+                centroids, Math.max(16, count));
+        FloatBuffer source = vectors.duplicate();
+        float[] vector = new float[dimensions];
+        for (int ordinal = 0; ordinal < count; ordinal++) {
+            source.get(vector);
+            values.set(ordinal, vector);
+        }
+        return values;
+    }
+
+    @Override
+    public int dimensions() {
+        return dimensions;
+    }
+
+    @Override
+    public void ensureCapacity(int capacity) {
+        if (capacity * subspaces > codes.length) {
+            codes = Arrays.copyOf(codes, Math.max(capacity, codes.length / subspaces * 2) * subspaces);
+        }
+    }
+
+    @Override
+    public void set(int ordinal, float[] unitVector) {
+        int offset = ordinal * subspaces;
+        for (int s = 0; s < subspaces; s++) {
+            codes[offset + s] = (byte) nearest(codebooks[s], centroids, unitVector, s * subDimensions, subDimensions);
+        }
+    }
+
+    @Override
+    public QueryScorer scorer(float[] unitQuery) {
+        float[] table = new float[subspaces * centroids];
+        for (int s = 0; s < subspaces; s++) {
+            for (int c = 0; c < centroids; c++) {
+                table[s * centroids + c] = VectorSimilarity.dot(unitQuery, s * subDimensions, codebooks[s], c * subDimensions, subDimensions);
+            }
+        }
+        return ordinal -> {
+            int offset = ordinal * subspaces;
+            float sum = 0f;
+            for (int s = 0; s < subspaces; s++) {
+                sum += table[s * centroids + (codes[offset + s] & 0xFF)];
+            }
+            return sum;
+        };
+    }
+
+    @Override
+    public float similarity(int a, int b) {
+        int aOffset = a * subspaces;
+        int bOffset = b * subspaces;
+        float sum = 0f;
+        for (int s = 0; s < subspaces; s++) {
+            sum += VectorSimilarity.dot(codebooks[s], (codes[aOffset + s] & 0xFF) * subDimensions,
+                    codebooks[s], (codes[bOffset + s] & 0xFF) * subDimensions, subDimensions);
+        }
+        return sum;
+    }
+
+    @Override
+    public float[] vector(int ordinal) {
+        float[] vector = new float[dimensions];
+        int offset = ordinal * subspaces;
+        for (int s = 0; s < subspaces; s++) {
+            System.arraycopy(codebooks[s], (codes[offset + s] & 0xFF) * subDimensions, vector, s * subDimensions, subDimensions);
+        }
+        return vector;
+    }
+
+    @Override
+    public long bytesPerVector() {
+        return subspaces;
+    }
+
+    private static float[] sample(FloatBuffer vectors, int count, int dimensions, int sampleSize) {
+        float[] sample = new float[sampleSize * dimensions];
+        FloatBuffer source = vectors.duplicate();
+        // evenly strided rather than random so the codebooks are reproducible for a given snapshot
+        for (int i = 0; i < sampleSize; i++) {
+            source.get((int) ((long) i * count / sampleSize) * dimensions, sample, i * dimensions, dimensions);
+        }
+        return sample;
+    }
+
+    private static float[] kMeans(float[] sample, int sampleSize, int dimensions, int offset, int subDimensions,
+                                  int centroids, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        float[] codebook = new float[centroids * subDimensions];
+        int[] start = random.ints(0, sampleSize).distinct().limit(centroids).toArray();
+        for (int c = 0; c < centroids; c++) {
+            System.arraycopy(sample, start[c] * dimensions + offset, codebook, c * subDimensions, subDimensions);
+        }
+
+        float[] sums = new float[centroids * subDimensions];
+        int[] counts = new int[centroids];
+        float[] subVector = new float[subDimensions];
+        for (int iteration = 0; iteration < TRAINING_ITERATIONS; iteration++) {
+            Arrays.fill(sums, 0f);
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < sampleSize; i++) {
+                System.arraycopy(sample, i * dimensions + offset, subVector, 0, subDimensions);
+                int c = nearest(codebook, centroids, subVector, 0, subDimensions);
+                counts[c]++;
+                for (int d = 0; d < subDimensions; d++) {
+                    sums[c * subDimensions + d] += subVector[d];
+                }
+            }
+            for (int c = 0; c < centroids; c++) {
+                if (counts[c] == 0) {
+                    // re-seed an empty cluster from a random sample point
+                    System.arraycopy(sample, random.nextInt(sampleSize) * dimensions + offset, codebook, c * subDimensions, subDimensions);
+                    continue;
+                }
+                for (int d = 0; d < subDimensions; d++) {
+                    codebook[c * subDimensions + d] = sums[c * subDimensions + d] / counts[c];
+                }
+            }
+        }
+        return codebook;
+    }
+
+    private static int nearest(float[] codebook, int centroids, float[] vector, int offset, int subDimensions) {
+        int best = 0;
+        float bestDistance = Float.MAX_VALUE;
+        for (int c = 0; c < centroids; c++) {
+            float distance = 0f;
+            for (int d = 0; d < subDimensions; d++) {
+                float diff = vector[offset + d] - codebook[c * subDimensions + d];
+                distance += diff * diff;
+            }
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+}
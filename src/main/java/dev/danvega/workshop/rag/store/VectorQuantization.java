@@ -0,0 +1,23 @@
+package dev.danvega.workshop.rag.store;
+
+/**
+ * How {@link HnswVectorStore} holds embeddings in memory once it has been restored from a snapshot.
+ */
+public enum VectorQuantization {
+
+    /**
+     * Full float32 vectors on the heap, 4 bytes per dimension.
+     */
+    NONE,
+
+    /**
+     * One signed byte per dimension plus a per-vector scale, roughly 4x smaller than float32.
+     */
+    INT8,
+
+    /**
+     * Product quantization, one byte per group of dimensions; 16x smaller than float32 with 4-dimension groups.
+     */
+    PRODUCT
+
+}
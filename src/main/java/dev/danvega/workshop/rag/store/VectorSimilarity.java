@@ -0,0 +1,128 @@
+package dev.danvega.workshop.rag.store;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Similarity math shared by the in-process vector indexes. Vectors are stored unit-length, so cosine similarity
+ * reduces to a dot product.
+ * <p>
+ * The arithmetic is delegated to a {@link Kernel}. When the JVM was started with
+ * {@code --add-modules jdk.incubator.vector} the {@link PanamaSimilarityKernel} is used, otherwise the portable
+ * {@link ScalarKernel}. {@code -Dworkshop.rag.simd.disabled=true} forces the scalar kernel.
+ */
+final class VectorSimilarity {
+
+    private static final Logger log = LoggerFactory.getLogger(VectorSimilarity.class);
+
+    static final Kernel SCALAR = new ScalarKernel();
+
+    private static final Kernel KERNEL = selectKernel();
+
+    private VectorSimilarity() {
+    }
+
+    static float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        return KERNEL.dot(a, aOffset, b, bOffset, length);
+    }
+
+    static float dot(float[] a, float[] b) {
+        return KERNEL.dot(a, 0, b, 0, a.length);
+    }
+
+    /**
+     * Scores one query against a block of vectors stored row-major in {@code vectors}: {@code scores[i]} receives
+     * the dot product of {@code query} with row {@code ordinals[i]}, for the first {@code count} ordinals.
+     */
+    static void dotBlock(float[] query, float[] vectors, int[] ordinals, int count, int dimensions, float[] scores) {
+        KERNEL.dotBlock(query, vectors, ordinals, count, dimensions, scores);
+    }
+
+    /**
+     * Returns a unit-length copy of the given vector. A zero vector is returned unchanged.
+     */
+    static float[] normalize(float[] vector) {
+        float[] copy = vector.clone();
+        float norm = (float) Math.sqrt(dot(copy, copy));
+        if (norm > 0f) {
+            for (int i = 0; i < copy.length; i++) {
+                copy[i] /= norm;
+            }
+        }
+        return copy;
+    }
+
+    static Kernel kernel() {
+        return KERNEL;
+    }
+
+    /**
+     * The SIMD kernel, or {@code null} when the Vector API module is not available in this JVM.
+     */
+    static Kernel simdKernel() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return null;
+        }
+        try {
+            return (Kernel) Class.forName(VectorSimilarity.class.getPackageName() + ".PanamaSimilarityKernel")
+                    .getDeclaredConstructor()
+                    .newInstance();
+        }
+        catch (ReflectiveOperationException | LinkageError ex) {
+            log.debug("Vector API present but unusable, using scalar similarity kernel", ex);
+            return null;
+        }
+    }
+
+    private static Kernel selectKernel() {
+        Kernel simd = Boolean.getBoolean("workshop.rag.simd.disabled") ? null : simdKernel();
+        Kernel kernel = simd != null ? simd : SCALAR;
+        log.info("Vector similarity kernel: {}", kernel);
+        return kernel;
+    }
+
+    interface Kernel {
+
+        float dot(float[] a, int aOffset, float[] b, int bOffset, int length);
+
+        void dotBlock(float[] query, float[] vectors, int[] ordinals, int count, int dimensions, float[] scores);
+
+    }
+
+    /**
+     * Plain Java kernel; four independent accumulators give the JIT room to pipeline the multiplies.
+     */
+    static final class ScalarKernel implements Kernel {
+
+        @Override
+        public float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+            float s0 = 0f, s1 = 0f, s2 = 0f, s3 = 0f;
+            int i = 0;
+            int bound = length - (length % 4);
+            for (; i < bound; i += 4) {
+                s0 += a[aOffset + i] * b[bOffset + i];
+                s1 += a[aOffset + i + 1] * b[bOffset + i + 1];
+                s2 += a[aOffset + i + 2] * b[bOffset + i + 2];
+                s3 += a[aOffset + i + 3] * b[bOffset + i + 3];
+            }
+            for (; i < length; i++) {
+                s0 += a[aOffset + i] * b[bOffset + i];
+            }
+            return (s0 + s1) + (s2 + s3);
+        }
+
+        @Override
+        public void dotBlock(float[] query, float[] vectors, int[] ordinals, int count, int dimensions, float[] scores) {
+            for (int i = 0; i < count; i++) {
+                scores[i] = dot(query, 0, vectors, ordinals[i] * dimensions, dimensions);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "scalar";
+        }
+
+    }
+
+}
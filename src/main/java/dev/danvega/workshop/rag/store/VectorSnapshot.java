@@ -0,0 +1,319 @@
+package dev.danvega.workshop.rag.store;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.ai.document.Document;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+/**
+ * Binary, memory-mapped snapshot of an {@link HnswVectorStore}.
+ * <p>
+ * Layout, little-endian throughout:
+ * <pre>
+ * header   64 bytes  magic, version, count, dimensions, m, efConstruction,
+ *                    then the absolute offsets of the four sections below
+ * vectors  float32[count * dimensions], unit-length, one contiguous region
+ * graph    int32 stream: entry point, max level, then per node its level and a count-prefixed link list per layer
+ * index    int64[count + 1] offsets of each record relative to the start of the records section
+ * records  per document: id, text and metadata JSON, each as an int32 length followed by UTF-8 bytes
+ * </pre>
+ * Opening a snapshot maps the file and reads nothing but the header. Records are decoded one at a time, on demand.
+ */
+final class VectorSnapshot {
+
+    static final int MAGIC = 0x504E5356; // "VSNP"
+    static final int VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+    private static final TypeReference<Map<String, Object>> METADATA_TYPE = new TypeReference<>() {
+    };
+
+    private final Path path;
+    private final int count;
+    private final int dimensions;
+    private final int m;
+    private final int efConstruction;
+    private final MappedByteBuffer vectors;
+    private final MappedByteBuffer graph;
+    private final MappedByteBuffer recordIndex;
+    private final MappedByteBuffer records;
+    private final ObjectMapper objectMapper;
+
+    private VectorSnapshot(Path path, FileChannel channel, ByteBuffer header, ObjectMapper objectMapper) throws IOException {
+        this.path = path;
+        this.objectMapper = objectMapper;
+        if (header.getInt(0) != MAGIC) {
+            throw new IOException(path + " is not a vector store snapshot");
+        }
+        if (header.getInt(4) != VERSION) {
+            throw new IOException("Unsupported snapshot version " + header.getInt(4) + " in " + path);
+        }
+        this.count = header.getInt(8);
+        this.dimensions = header.getInt(12);
+        this.m = header.getInt(16);
+        this.efConstruction = header.getInt(20);
+        long vectorsOffset = header.getLong(24);
+        long graphOffset = header.getLong(32);
+        long recordIndexOffset = header.getLong(40);
+        long recordsOffset = header.getLong(48);
+        long end = channel.size();
+        this.vectors = map(channel, vectorsOffset, graphOffset);
+        this.graph = map(channel, graphOffset, recordIndexOffset);
+        this.recordIndex = map(channel, recordIndexOffset, recordsOffset);
+        this.records = map(channel, recordsOffset, end);
+    }
+
+    static VectorSnapshot open(Path path, ObjectMapper objectMapper) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            // mappings stay valid after the channel is closed
+            return new VectorSnapshot(path, channel, header, objectMapper);
+        }
+    }
+
+    /**
+     * Writes the exported graph and the documents for its nodes. The file is written next to the target and moved
+     * into place, so readers never observe a partial snapshot.
+     */
+    static void write(Path path, HnswIndex.Export export, IntFunction<Document> documentForOriginalOrdinal,
+                      ObjectMapper objectMapper) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            BufferedChannelWriter out = new BufferedChannelWriter(channel);
+            out.skip(HEADER_BYTES);
+
+            long vectorsOffset = out.position();
+            for (float value : export.vectors()) {
+                out.putFloat(value);
+            }
+
+            long graphOffset = out.position();
+            out.putInt(export.entryPoint());
+            out.putInt(export.maxLevel());
+            for (int i = 0; i < export.count(); i++) {
+                out.putInt(export.levels()[i]);
+                for (int[] list : export.links()[i]) {
+                    for (int j = 0; j <= list[0]; j++) {
+                        out.putInt(list[j]);
+                    }
+                }
+            }
+
+            long recordIndexOffset = out.position();
+            long[] recordOffsets = new long[export.count() + 1];
+            out.skip((long) recordOffsets.length * Long.BYTES);
+
+            long recordsOffset = out.position();
+            for (int i = 0; i < export.count(); i++) {
+                recordOffsets[i] = out.position() - recordsOffset;
+                Document document = documentForOriginalOrdinal.apply(export.originalOrdinals()[i]);
+                out.putString(document.getId());
+                out.putString(document.getText() != null ? document.getText() : "");
+                out.putBytes(objectMapper.writeValueAsBytes(document.getMetadata()));
+            }
+            recordOffsets[export.count()] = out.position() - recordsOffset;
+            out.flush();
+
+            ByteBuffer index = ByteBuffer.allocate(recordOffsets.length * Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            for (long offset : recordOffsets) {
+                index.putLong(offset);
+            }
+            channel.write(index.flip(), recordIndexOffset);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(export.count()).putInt(export.dimensions())
+                    .putInt(export.m()).putInt(export.efConstruction())
+                    .putLong(vectorsOffset).putLong(graphOffset).putLong(recordIndexOffset).putLong(recordsOffset);
+            channel.write(header.flip(), 0);
+            channel.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    Path path() {
+        return path;
+    }
+
+    int size() {
+        return count;
+    }
+
+    int dimensions() {
+        return dimensions;
+    }
+
+    int m() {
+        return m;
+    }
+
+    int efConstruction() {
+        return efConstruction;
+    }
+
+    FloatBuffer vectors() {
+        return vectors.duplicate().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+    }
+
+    /**
+     * Reads one full-precision vector straight from the mapping. Only the pages it touches become resident, which
+     * is what lets a quantized store keep its float vectors on disk.
+     */
+    float[] vector(int ordinal) {
+        if (ordinal < 0 || ordinal >= count) {
+            throw new IndexOutOfBoundsException(ordinal);
+        }
+        float[] vector = new float[dimensions];
+        vectors().get(ordinal * dimensions, vector);
+        return vector;
+    }
+
+    IntBuffer graph() {
+        return graph.duplicate().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+    }
+
+    String id(int ordinal) {
+        ByteBuffer record = record(ordinal);
+        return readString(record);
+    }
+
+    Document document(int ordinal) {
+        ByteBuffer record = record(ordinal);
+        String id = readString(record);
+        String text = readString(record);
+        byte[] metadata = new byte[record.getInt()];
+        record.get(metadata);
+        try {
+            return new Document(id, text, objectMapper.readValue(metadata, METADATA_TYPE));
+        }
+        catch (IOException ex) {
+            throw new IllegalStateException("Corrupt metadata for record " + ordinal + " in " + path, ex);
+        }
+    }
+
+    /**
+     * Decodes only the metadata of a record, skipping its text.
+     */
+    Map<String, Object> metadata(int ordinal) {
+        ByteBuffer record = record(ordinal);
+        skipString(record);
+        skipString(record);
+        byte[] metadata = new byte[record.getInt()];
+        record.get(metadata);
+        try {
+            return objectMapper.readValue(metadata, METADATA_TYPE);
+        }
+        catch (IOException ex) {
+            throw new IllegalStateException("Corrupt metadata for record " + ordinal + " in " + path, ex);
+        }
+    }
+
+    private ByteBuffer record(int ordinal) {
+        if (ordinal < 0 || ordinal >= count) {
+            throw new IndexOutOfBoundsException(ordinal);
+        }
+        ByteBuffer index = recordIndex.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int start = (int) index.getLong(ordinal * Long.BYTES);
+        int end = (int) index.getLong((ordinal + 1) * Long.BYTES);
+        return records.duplicate().order(ByteOrder.LITTLE_ENDIAN).position(start).limit(end);
+    }
+
+    private static void skipString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        buffer.position(buffer.position() + length);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long from, long to) throws IOException {
+        if (to - from > Integer.MAX_VALUE) {
+            throw new IOException("Snapshot section of " + (to - from) + " bytes exceeds the 2 GB mapping limit");
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+    }
+
+    /**
+     * Little-endian writer that stages primitives in a direct buffer and drains it to the channel when full.
+     */
+    private static final class BufferedChannelWriter {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+        private long position;
+
+        BufferedChannelWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        long position() {
+            return position;
+        }
+
+        void skip(long bytes) throws IOException {
+            flush();
+            position += bytes;
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(Integer.BYTES);
+            buffer.putInt(value);
+            position += Integer.BYTES;
+        }
+
+        void putFloat(float value) throws IOException {
+            ensure(Float.BYTES);
+            buffer.putFloat(value);
+            position += Float.BYTES;
+        }
+
+        void putString(String value) throws IOException {
+            putBytes(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        void putBytes(byte[] bytes) throws IOException {
+            putInt(bytes.length);
+            int written = 0;
+            while (written < bytes.length) {
+                ensure(1);
+                int chunk = Math.min(buffer.remaining(), bytes.length - written);
+                buffer.put(bytes, written, chunk);
+                written += chunk;
+                position += chunk;
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            long writeAt = position - buffer.remaining();
+            while (buffer.hasRemaining()) {
+                writeAt += channel.write(buffer, writeAt);
+            }
+            buffer.clear();
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,67 @@
+package dev.danvega.workshop.rag.store;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.vectorstore.SimpleVectorStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * One-shot conversion of a {@code SimpleVectorStore} JSON file into a binary {@link VectorSnapshot}, printing
+ * file sizes and the time each format takes to become queryable.
+ * <pre>
+ * ./mvnw exec:java -Dexec.mainClass=dev.danvega.workshop.rag.store.VectorSnapshotConverter \
+ *     -Dexec.args="src/main/resources/data/vectorstore.json src/main/resources/data/vectorstore.bin"
+ * </pre>
+ */
+public class VectorSnapshotConverter {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: VectorSnapshotConverter <vectorstore.json> <vectorstore.bin>");
+            System.exit(1);
+        }
+        File json = new File(args[0]);
+        Path snapshot = Path.of(args[1]);
+
+        HnswVectorStore converted = HnswVectorStore.builder(new OfflineEmbeddingModel()).build();
+        converted.load(json);
+        converted.saveSnapshot(snapshot);
+
+        long jsonStart = System.nanoTime();
+        SimpleVectorStore.builder(new OfflineEmbeddingModel()).build().load(json);
+        long jsonMillis = (System.nanoTime() - jsonStart) / 1_000_000;
+
+        long snapshotStart = System.nanoTime();
+        HnswVectorStore.builder(new OfflineEmbeddingModel()).build().loadSnapshot(snapshot);
+        long snapshotMillis = (System.nanoTime() - snapshotStart) / 1_000_000;
+
+        System.out.printf("Converted %d documents%n", converted.size());
+        System.out.printf("%-28s %12s %12s%n", "format", "bytes", "load (ms)");
+        System.out.printf("%-28s %12d %12d%n", "JSON (SimpleVectorStore)", Files.size(json.toPath()), jsonMillis);
+        System.out.printf("%-28s %12d %12d%n", "binary snapshot (mmap)", Files.size(snapshot), snapshotMillis);
+    }
+
+    /**
+     * Loading and converting never embeds anything, so no provider is needed.
+     */
+    static class OfflineEmbeddingModel implements EmbeddingModel {
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            throw new UnsupportedOperationException("No embedding model available during conversion");
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            throw new UnsupportedOperationException("No embedding model available during conversion");
+        }
+
+    }
+
+}
@@ -0,0 +1,55 @@
+package dev.danvega.workshop.rag.store;
+
+/**
+ * Per-ordinal vector storage behind {@link HnswIndex}. Implementations decide how vectors are held in memory —
+ * full float32, int8 codes or product-quantized codes — and how a query is scored against them.
+ */
+interface VectorValues {
+
+    int dimensions();
+
+    void ensureCapacity(int capacity);
+
+    /**
+     * Stores (or encodes) a unit-length vector for the ordinal.
+     */
+    void set(int ordinal, float[] unitVector);
+
+    /**
+     * Prepares per-query state, e.g. lookup tables, for scoring a unit-length query against stored ordinals.
+     */
+    QueryScorer scorer(float[] unitQuery);
+
+    /**
+     * Similarity between two stored vectors, used while linking the graph.
+     */
+    float similarity(int a, int b);
+
+    /**
+     * The stored vector, reconstructed from its codes when the storage is lossy.
+     */
+    float[] vector(int ordinal);
+
+    /**
+     * Heap bytes held per stored vector, excluding fixed-size tables such as codebooks.
+     */
+    long bytesPerVector();
+
+    @FunctionalInterface
+    interface QueryScorer {
+
+        float score(int ordinal);
+
+        /**
+         * Scores the first {@code count} ordinals into {@code scores}. Storage backed by a float arena overrides this
+         * with the batched SIMD kernel.
+         */
+        default void score(int[] ordinals, int count, float[] scores) {
+            for (int i = 0; i < count; i++) {
+                scores[i] = score(ordinals[i]);
+            }
+        }
+
+    }
+
+}
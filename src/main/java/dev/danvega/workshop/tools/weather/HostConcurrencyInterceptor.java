@@ -0,0 +1,50 @@
+package dev.danvega.workshop.tools.weather;
+
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.Assert;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Caps the requests of a {@code RestClient} in flight to any one host, so a fan-out over many virtual threads queues
+ * here instead of opening a burst of streams the origin would throttle. Registered after an
+ * {@link HttpCacheInterceptor}, requests served from the cache never take a permit.
+ */
+public class HostConcurrencyInterceptor implements ClientHttpRequestInterceptor {
+
+    private final Map<String, Semaphore> permits = new ConcurrentHashMap<>();
+    private final int maxConcurrentPerHost;
+
+    public HostConcurrencyInterceptor(int maxConcurrentPerHost) {
+        Assert.isTrue(maxConcurrentPerHost > 0, "maxConcurrentPerHost must be positive");
+        this.maxConcurrentPerHost = maxConcurrentPerHost;
+    }
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
+        String host = request.getURI().getHost() + ":" + request.getURI().getPort();
+        Semaphore semaphore = this.permits.computeIfAbsent(host, key -> new Semaphore(this.maxConcurrentPerHost));
+        try {
+            semaphore.acquire();
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a connection to " + host);
+        }
+        // the permit covers the exchange up to the response headers; bodies here are small and read right after
+        try {
+            return execution.execute(request, body);
+        }
+        finally {
+            semaphore.release();
+        }
+    }
+
+}
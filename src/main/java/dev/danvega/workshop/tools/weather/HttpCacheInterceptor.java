@@ -0,0 +1,273 @@
+package dev.danvega.workshop.tools.weather;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A private HTTP cache for the GET requests of a {@code RestClient}.
+ * <p>
+ * A {@code 200} response is stored when it says how long it stays fresh, with {@code Cache-Control: max-age} (less
+ * its {@code Age}) or else {@code Expires}, or when it carries a validator, an {@code ETag} or {@code Last-Modified};
+ * {@code no-store} is never stored, {@code no-cache} is stored but revalidated on every use. A fresh entry is served
+ * without a request. A stale one is revalidated with {@code If-None-Match} or {@code If-Modified-Since}, and a
+ * {@code 304} renews its freshness and validators from the headers that came with it. Entries are keyed by URI and
+ * {@code Accept}, bounded by {@code maxBytes} of body.
+ */
+public class HttpCacheInterceptor implements ClientHttpRequestInterceptor {
+
+    private static final List<String> REVALIDATION_HEADERS = List.of(HttpHeaders.CACHE_CONTROL, HttpHeaders.EXPIRES,
+            HttpHeaders.DATE, HttpHeaders.AGE, HttpHeaders.ETAG, HttpHeaders.LAST_MODIFIED);
+    private static final Pattern MAX_AGE = Pattern.compile("(?:^|[,\\s])max-age\\s*=\\s*\"?(\\d+)");
+
+    private final Cache<String, CachedResponse> cache;
+    private final Clock clock;
+    @Nullable
+    private final Counter hitCounter;
+    @Nullable
+    private final Counter revalidatedCounter;
+    @Nullable
+    private final Counter missCounter;
+
+    private HttpCacheInterceptor(Builder builder) {
+        this.clock = builder.clock;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(builder.maxBytes)
+                .weigher((String key, CachedResponse value) -> key.length() + value.body().length)
+                .recordStats()
+                .build();
+        if (builder.meterRegistry != null) {
+            CaffeineCacheMetrics.monitor(builder.meterRegistry, this.cache, builder.name + ".http");
+            this.hitCounter = counter(builder, "hit");
+            this.revalidatedCounter = counter(builder, "revalidated");
+            this.missCounter = counter(builder, "miss");
+        }
+        else {
+            this.hitCounter = null;
+            this.revalidatedCounter = null;
+            this.missCounter = null;
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
+        if (request.getMethod() != HttpMethod.GET) {
+            return execution.execute(request, body);
+        }
+        String key = request.getURI() + " " + request.getHeaders().getAccept();
+        CachedResponse cached = this.cache.getIfPresent(key);
+        if (cached != null && cached.freshUntil().isAfter(this.clock.instant())) {
+            increment(this.hitCounter);
+            return cached.toResponse();
+        }
+        if (cached != null) {
+            if (cached.headers().getETag() != null) {
+                request.getHeaders().setIfNoneMatch(cached.headers().getETag());
+            }
+            else if (cached.headers().getLastModified() >= 0) {
+                request.getHeaders().setIfModifiedSince(cached.headers().getLastModified());
+            }
+        }
+        ClientHttpResponse response = execution.execute(request, body);
+        if (cached != null && response.getStatusCode().isSameCodeAs(HttpStatus.NOT_MODIFIED)) {
+            HttpHeaders headers = copy(cached.headers());
+            // the 304 carries the new freshness, and may carry a new validator; the rest, Content-Length above all,
+            // describes the 304 itself and not the stored body (RFC 9111, section 3.2)
+            for (String name : REVALIDATION_HEADERS) {
+                List<String> values = response.getHeaders().get(name);
+                if (values != null) {
+                    headers.put(name, values);
+                }
+                else if (name.equals(HttpHeaders.AGE)) {
+                    // an Age the 304 does not repeat was already counted against the stored response
+                    headers.remove(name);
+                }
+            }
+            response.close();
+            CachedResponse renewed = new CachedResponse(cached.status(), headers, cached.body(), storable(headers));
+            if (renewed.freshUntil() != null) {
+                this.cache.put(key, renewed);
+            }
+            else {
+                this.cache.invalidate(key);
+            }
+            increment(this.revalidatedCounter);
+            return renewed.toResponse();
+        }
+        increment(this.missCounter);
+        Instant freshUntil = response.getStatusCode().isSameCodeAs(HttpStatus.OK) ? storable(response.getHeaders()) : null;
+        if (freshUntil == null) {
+            this.cache.invalidate(key);
+            return response;
+        }
+        byte[] content;
+        try (response) {
+            content = StreamUtils.copyToByteArray(response.getBody());
+        }
+        CachedResponse stored = new CachedResponse(response.getStatusCode(), copy(response.getHeaders()), content, freshUntil);
+        this.cache.put(key, stored);
+        return stored.toResponse();
+    }
+
+    /**
+     * Until when a response with these headers is fresh, the past when it has to be revalidated before each use, or
+     * {@code null} when it must not be stored.
+     */
+    @Nullable
+    private Instant storable(HttpHeaders headers) {
+        String cacheControl = String.join(",", headers.getOrEmpty(HttpHeaders.CACHE_CONTROL)).toLowerCase(Locale.ROOT);
+        if (cacheControl.contains("no-store")) {
+            return null;
+        }
+        boolean validator = headers.getETag() != null || headers.getLastModified() >= 0;
+        Instant now = this.clock.instant();
+        if (cacheControl.contains("no-cache")) {
+            return validator ? Instant.MIN : null;
+        }
+        Matcher maxAge = MAX_AGE.matcher(cacheControl);
+        if (maxAge.find()) {
+            long age = parseAge(headers.getFirst(HttpHeaders.AGE));
+            return now.plusSeconds(Long.parseLong(maxAge.group(1)) - age);
+        }
+        long expires = headers.getExpires();
+        if (expires >= 0) {
+            // relative to the origin's clock, not ours
+            long date = headers.getDate() >= 0 ? headers.getDate() : now.toEpochMilli();
+            return now.plusMillis(expires - date);
+        }
+        return validator ? Instant.MIN : null;
+    }
+
+    private static HttpHeaders copy(HttpHeaders headers) {
+        HttpHeaders copy = new HttpHeaders();
+        copy.addAll(headers);
+        return copy;
+    }
+
+    private static long parseAge(@Nullable String age) {
+        try {
+            return age != null ? Math.max(0, Long.parseLong(age.trim())) : 0;
+        }
+        catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+    private static Counter counter(Builder builder, String result) {
+        return Counter.builder(builder.name + ".http.cache.requests")
+                .description("GET requests by how the HTTP cache served them")
+                .tag("result", result)
+                .register(builder.meterRegistry);
+    }
+
+    private static void increment(@Nullable Counter counter) {
+        if (counter != null) {
+            counter.increment();
+        }
+    }
+
+    private record CachedResponse(HttpStatusCode status, HttpHeaders headers, byte[] body, @Nullable Instant freshUntil) {
+
+        ClientHttpResponse toResponse() {
+            return new ClientHttpResponse() {
+
+                private final InputStream content = new ByteArrayInputStream(body);
+
+                @Override
+                public HttpStatusCode getStatusCode() {
+                    return status;
+                }
+
+                @Override
+                public String getStatusText() {
+                    return status instanceof HttpStatus known ? known.getReasonPhrase() : "";
+                }
+
+                @Override
+                public HttpHeaders getHeaders() {
+                    return HttpHeaders.readOnlyHttpHeaders(headers);
+                }
+
+                @Override
+                public InputStream getBody() {
+                    return this.content;
+                }
+
+                @Override
+                public void close() {
+                }
+
+            };
+        }
+
+    }
+
+    public static final class Builder {
+
+        private long maxBytes = 8L * 1024 * 1024;
+        private String name = "http.client";
+        private Clock clock = Clock.systemUTC();
+        @Nullable
+        private MeterRegistry meterRegistry;
+
+        private Builder() {
+        }
+
+        public Builder maxBytes(long maxBytes) {
+            Assert.isTrue(maxBytes > 0, "maxBytes must be positive");
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        /**
+         * Prefix of the meter names.
+         */
+        public Builder name(String name) {
+            this.name = name;
+            return this;
+        }
+
+        public Builder clock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        public Builder meterRegistry(@Nullable MeterRegistry meterRegistry) {
+            this.meterRegistry = meterRegistry;
+            return this;
+        }
+
+        public HttpCacheInterceptor build() {
+            return new HttpCacheInterceptor(this);
+        }
+
+    }
+
+}
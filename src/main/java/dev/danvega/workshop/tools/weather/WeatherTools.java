@@ -2,28 +2,115 @@ package dev.danvega.workshop.tools.weather;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyDescription;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import org.springframework.ai.tool.annotation.Tool;
 import org.springframework.ai.tool.annotation.ToolParam;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
 import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.client.RestClient;
 import org.springframework.web.client.RestClientException;
 
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 
+/**
+ * Tools over the National Weather Service API.
+ * <p>
+ * Requests go through an {@link HttpCacheInterceptor}, so forecasts and alerts are served from memory for as long as
+ * their {@code Cache-Control} allows and revalidated after that. The forecast URL of a location, looked up with
+ * {@code /points}, is memoized for {@code gridpoint-ttl} per location rounded to {@code gridpoint-resolution}
+ * degrees; the NWS forecast grid is 2.5 km, so nearby locations share one lookup and, through it, one forecast.
+ * <p>
+ * {@link #getWeatherForLocations} answers for many places at once: each location and state is looked up on its own
+ * virtual thread over one shared HTTP/2 client, at most {@code max-concurrent-per-host} requests in flight per host,
+ * and whatever has not answered within {@code batch-timeout} is reported as unavailable instead of failing the rest.
+ */
 @Service
-public class WeatherTools {
+public class WeatherTools implements AutoCloseable {
 
-    private static final String BASE_URL = "https://api.weather.gov";
+    private final HttpClient httpClient;
     private final RestClient restClient;
+    private final Cache<String, String> forecastUrls;
+    private final BigDecimal gridpointResolution;
+    private final Duration batchTimeout;
+    private final ExecutorService fanOut = Executors.newVirtualThreadPerTaskExecutor();
 
-    public WeatherTools(RestClient.Builder builder) {
+    public WeatherTools(RestClient.Builder builder,
+                        @Value("${workshop.weather.base-url:https://api.weather.gov}") String baseUrl,
+                        @Value("${workshop.weather.gridpoint-resolution:0.02}") BigDecimal gridpointResolution,
+                        @Value("${workshop.weather.gridpoint-ttl:7d}") Duration gridpointTtl,
+                        @Value("${workshop.weather.http-cache.max-size:8MB}") DataSize httpCacheMaxSize,
+                        @Value("${workshop.weather.timeout:10s}") Duration timeout,
+                        @Value("${workshop.weather.max-concurrent-per-host:8}") int maxConcurrentPerHost,
+                        @Value("${workshop.weather.batch-timeout:10s}") Duration batchTimeout,
+                        ObjectProvider<MeterRegistry> meterRegistry) {
+        // one client, so concurrent requests to a host are multiplexed over a single HTTP/2 connection
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(timeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+        JdkClientHttpRequestFactory requestFactory = new JdkClientHttpRequestFactory(this.httpClient);
+        requestFactory.setReadTimeout(timeout);
         this.restClient = builder
-                .baseUrl(BASE_URL)
+                .requestFactory(requestFactory)
+                .baseUrl(baseUrl)
                 .defaultHeader("Accept", "application/geo+json")
                 .defaultHeader("User-Agent", "WeatherApiClient/1.0 (your@email.com)")
+                .requestInterceptor(HttpCacheInterceptor.builder()
+                        .name("weather")
+                        .maxBytes(httpCacheMaxSize.toBytes())
+                        .meterRegistry(meterRegistry.getIfAvailable())
+                        .build())
+                .requestInterceptor(new HostConcurrencyInterceptor(maxConcurrentPerHost))
+                .build();
+        this.gridpointResolution = gridpointResolution;
+        this.batchTimeout = batchTimeout;
+        this.forecastUrls = Caffeine.newBuilder()
+                .maximumSize(10_000)
+                .expireAfterWrite(gridpointTtl)
+                .recordStats()
                 .build();
+        meterRegistry.ifAvailable(registry -> CaffeineCacheMetrics.monitor(registry, this.forecastUrls, "weather.gridpoints"));
+    }
+
+    /**
+     * Interrupts lookups still in flight and stops the HTTP client.
+     */
+    @Override
+    public void close() {
+        this.fanOut.shutdownNow();
+        this.httpClient.shutdownNow();
+    }
+
+    public record Location(@JsonPropertyDescription("Place name, e.g. Cleveland, OH") String name,
+                           @JsonPropertyDescription("Latitude") double latitude,
+                           @JsonPropertyDescription("Longitude") double longitude) {
+
+        @Override
+        public String toString() {
+            String coordinates = latitude + "," + longitude;
+            return name != null && !name.isBlank() ? name + " (" + coordinates + ")" : coordinates;
+        }
     }
 
     @JsonIgnoreProperties(ignoreUnknown = true)
@@ -75,13 +162,20 @@ public class WeatherTools {
      */
     @Tool(description = "Get weather forecast for a specific latitude/longitude")
     public String getWeatherForecastByLocation(double latitude, double longitude) {
+        String location = round(latitude) + "," + round(longitude);
+        String forecastUrl = forecastUrls.getIfPresent(location);
+        if (forecastUrl == null) {
+            // not loaded through the cache: blocking in its compute lock would pin a virtual thread to its carrier
+            forecastUrl = restClient.get()
+                    .uri("/points/{location}", location)
+                    .retrieve()
+                    .body(Points.class)
+                    .properties()
+                    .forecast();
+            forecastUrls.put(location, forecastUrl);
+        }
 
-        var points = restClient.get()
-                .uri("/points/{latitude},{longitude}", latitude, longitude)
-                .retrieve()
-                .body(Points.class);
-
-        var forecast = restClient.get().uri(points.properties().forecast()).retrieve().body(Forecast.class);
+        var forecast = restClient.get().uri(forecastUrl).retrieve().body(Forecast.class);
 
         String forecastText = forecast.properties().periods().stream().map(p -> {
             return String.format("""
@@ -119,4 +213,59 @@ public class WeatherTools {
                 .collect(Collectors.joining("\n"));
     }
 
+    /**
+     * Get forecasts for several locations and alerts for several states in one call, all looked up concurrently
+     * @param locations Locations to forecast
+     * @param states Two-letter US state codes to get alerts for
+     * @return One section per location and state, in the order asked; those that failed or did not answer within
+     * the batch timeout say so
+     */
+    @Tool(description = "Get weather forecasts for several latitude/longitude locations and active alerts for several US states at once. "
+            + "Use this instead of repeated single-location calls when comparing or listing places")
+    public String getWeatherForLocations(
+            @ToolParam(description = "Locations to forecast", required = false) List<Location> locations,
+            @ToolParam(description = "Two-letter US state codes (e.g. CA, NY) to get alerts for", required = false) List<String> states) {
+        Map<String, Future<String>> sections = new LinkedHashMap<>();
+        for (Location location : locations != null ? locations : List.<Location>of()) {
+            sections.putIfAbsent("Forecast for " + location,
+                    fanOut.submit(() -> getWeatherForecastByLocation(location.latitude(), location.longitude())));
+        }
+        for (String state : states != null ? states : List.<String>of()) {
+            sections.putIfAbsent("Alerts for " + state, fanOut.submit(() -> getAlerts(state)));
+        }
+        long deadline = System.nanoTime() + batchTimeout.toNanos();
+        return sections.entrySet().stream().map(section -> {
+            Future<String> result = section.getValue();
+            String text;
+            try {
+                text = result.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+            catch (TimeoutException ex) {
+                result.cancel(true);
+                text = "Unavailable: no response within " + batchTimeout.toSeconds() + "s\n";
+            }
+            catch (ExecutionException ex) {
+                text = "Unavailable: " + ex.getCause().getMessage() + "\n";
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                result.cancel(true);
+                text = "Unavailable: interrupted\n";
+            }
+            return section.getKey() + ":\n" + text;
+        }).collect(Collectors.joining("\n"));
+    }
+
+    /**
+     * To the nearest multiple of the grid resolution, at most 4 decimals, which is all {@code /points} accepts.
+     */
+    private String round(double degrees) {
+        return BigDecimal.valueOf(degrees)
+                .divide(gridpointResolution, 0, RoundingMode.HALF_UP)
+                .multiply(gridpointResolution)
+                .setScale(4, RoundingMode.HALF_UP)
+                .stripTrailingZeros()
+                .toPlainString();
+    }
+
 }
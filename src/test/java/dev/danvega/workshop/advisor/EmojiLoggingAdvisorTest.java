@@ -0,0 +1,197 @@
+package dev.danvega.workshop.advisor;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.AppenderBase;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.client.ChatClientRequest;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EmojiLoggingAdvisorTest {
+
+    private final Logger advisorLogger = (Logger) LoggerFactory.getLogger(EmojiLoggingAdvisor.class);
+    private final CapturingAppender appender = new CapturingAppender();
+    private final AtomicInteger formatted = new AtomicInteger();
+    private AsyncLogWriter writer;
+    private Level previousLevel;
+
+    @BeforeEach
+    void attachAppender() {
+        this.previousLevel = this.advisorLogger.getLevel();
+        this.appender.start();
+        this.advisorLogger.addAppender(this.appender);
+        this.writer = new AsyncLogWriter(64);
+    }
+
+    @AfterEach
+    void detachAppender() throws InterruptedException {
+        this.writer.close();
+        this.advisorLogger.detachAppender(this.appender);
+        this.advisorLogger.setLevel(this.previousLevel);
+    }
+
+    @Test
+    void nothingIsFormattedWhenDebugIsOff() {
+        this.advisorLogger.setLevel(Level.INFO);
+        ChatClient chatClient = client(EmojiLoggingAdvisor.builder().requestToString(counting()).writer(this.writer).build());
+
+        chatClient.prompt().user("Tell me a joke").call().content();
+        chatClient.prompt().user("Tell me a joke").stream().content().blockLast();
+
+        assertEquals(0, this.formatted.get());
+        assertEquals(0, this.writer.written() + this.writer.dropped());
+    }
+
+    @Test
+    void logsCallsWithTruncatedPayloads() throws InterruptedException {
+        this.advisorLogger.setLevel(Level.DEBUG);
+        ChatClient chatClient = client(EmojiLoggingAdvisor.builder()
+                .responseToString(response -> response.getResult().getOutput().getText())
+                .maxPayloadLength(10)
+                .writer(this.writer)
+                .build());
+
+        chatClient.prompt().user("Tell me a joke").call().content();
+
+        List<String> messages = this.appender.await(2);
+        assertTrue(messages.get(0).contains("Request:"), messages.get(0));
+        assertTrue(messages.get(1).matches("(?s).*Response \\(\\d+ ms\\): answer one… \\(\\d+ more chars\\)"), messages.get(1));
+    }
+
+    @Test
+    void logsStreamsOnceWithTheAggregatedResponse() throws InterruptedException {
+        this.advisorLogger.setLevel(Level.DEBUG);
+        ChatClient chatClient = client(EmojiLoggingAdvisor.builder()
+                .responseToString(response -> response.getResult().getOutput().getText())
+                .writer(this.writer)
+                .build());
+
+        List<String> chunks = chatClient.prompt().user("Tell me a joke").stream().content().collectList().block();
+
+        assertEquals(3, chunks.size());
+        List<String> messages = this.appender.await(2);
+        assertTrue(messages.get(1).endsWith(String.join("", chunks)), messages.get(1));
+    }
+
+    @Test
+    void sampleRateZeroSkipsEveryExchange() {
+        this.advisorLogger.setLevel(Level.DEBUG);
+        ChatClient chatClient = client(EmojiLoggingAdvisor.builder().requestToString(counting()).sampleRate(0).writer(this.writer).build());
+
+        for (int i = 0; i < 20; i++) {
+            chatClient.prompt().user("Tell me a joke").call().content();
+        }
+        assertEquals(0, this.formatted.get());
+    }
+
+    @Test
+    void fullBufferDropsInsteadOfBlocking() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch writing = new CountDownLatch(1);
+        try (AsyncLogWriter small = new AsyncLogWriter(2)) {
+            org.slf4j.Logger logger = LoggerFactory.getLogger("test");
+            small.submit(logger, org.slf4j.event.Level.INFO, "first", () -> {
+                writing.countDown();
+                await(release);
+                return "";
+            });
+            assertTrue(writing.await(5, TimeUnit.SECONDS));
+
+            // the writer is held until release, so submits that waited for it could never complete before then
+            CompletableFuture<Integer> submitted = CompletableFuture.supplyAsync(() -> {
+                int count = 0;
+                for (int i = 0; i < 10; i++) {
+                    count += small.submit(logger, org.slf4j.event.Level.INFO, "record", () -> "") ? 1 : 0;
+                }
+                return count;
+            });
+            int accepted = submitted.get(5, TimeUnit.SECONDS);
+            assertEquals(1, release.getCount(), "the writer is still held");
+            assertEquals(2, accepted);
+            assertEquals(8, small.dropped());
+            assertFalse(small.written() > 0);
+            release.countDown();
+        }
+    }
+
+    private Function<ChatClientRequest, String> counting() {
+        return request -> {
+            this.formatted.incrementAndGet();
+            return request.toString();
+        };
+    }
+
+    private static ChatClient client(EmojiLoggingAdvisor advisor) {
+        return ChatClient.builder(new FixedChatModel()).defaultAdvisors(advisor).build();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class FixedChatModel implements ChatModel {
+
+        @Override
+        public ChatResponse call(Prompt prompt) {
+            return response("answer one two three");
+        }
+
+        @Override
+        public Flux<ChatResponse> stream(Prompt prompt) {
+            return Flux.just("answer ", "one ", "two").map(FixedChatModel::response);
+        }
+
+        private static ChatResponse response(String text) {
+            return new ChatResponse(List.of(new Generation(new AssistantMessage(text))));
+        }
+
+    }
+
+    private static class CapturingAppender extends AppenderBase<ILoggingEvent> {
+
+        private final List<String> messages = new CopyOnWriteArrayList<>();
+
+        @Override
+        protected void append(ILoggingEvent event) {
+            this.messages.add(event.getFormattedMessage());
+        }
+
+        List<String> await(int count) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (this.messages.size() < count && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(count, this.messages.size());
+            return this.messages;
+        }
+
+    }
+
+}
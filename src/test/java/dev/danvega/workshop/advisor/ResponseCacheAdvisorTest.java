@@ -0,0 +1,146 @@
+package dev.danvega.workshop.advisor;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.client.ChatClientResponse;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.metadata.ChatResponseMetadata;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.util.MimeTypeUtils;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResponseCacheAdvisorTest {
+
+    private final CountingChatModel chatModel = new CountingChatModel();
+
+    @Test
+    void identicalPromptsAreAnsweredFromTheCache() {
+        ChatClient chatClient = client(ResponseCacheAdvisor.builder().build());
+
+        ChatClientResponse first = chatClient.prompt().user("Tell me a dad joke about Dogs").call().chatClientResponse();
+        ChatClientResponse second = chatClient.prompt().user("Tell me a dad joke about Dogs").call().chatClientResponse();
+
+        assertEquals(1, this.chatModel.calls.get());
+        assertEquals(first.chatResponse().getResult().getOutput().getText(), second.chatResponse().getResult().getOutput().getText());
+        assertEquals("response-1", second.chatResponse().getMetadata().getId(), "full responses keep their metadata");
+        assertEquals(true, second.context().get(ResponseCacheAdvisor.CACHE_HIT));
+        assertNull(first.context().get(ResponseCacheAdvisor.CACHE_HIT));
+    }
+
+    @Test
+    void anyDifferenceInThePromptIsAMiss() {
+        ChatClient chatClient = client(ResponseCacheAdvisor.builder().build());
+
+        chatClient.prompt().user("Tell me a joke").call().content();
+        chatClient.prompt().user("Tell me a joke!").call().content();
+        chatClient.prompt().system("Be brief").user("Tell me a joke").call().content();
+        chatClient.prompt().options(ChatOptions.builder().temperature(0.1).build()).user("Tell me a joke").call().content();
+        chatClient.prompt().user(u -> u.text("Tell me a joke").media(MimeTypeUtils.IMAGE_PNG, new ByteArrayResource(new byte[] {1}))).call().content();
+        chatClient.prompt().user(u -> u.text("Tell me a joke").media(MimeTypeUtils.IMAGE_PNG, new ByteArrayResource(new byte[] {2}))).call().content();
+        assertEquals(6, this.chatModel.calls.get());
+
+        chatClient.prompt().options(ChatOptions.builder().temperature(0.1).build()).user("Tell me a joke").call().content();
+        chatClient.prompt().user(u -> u.text("Tell me a joke").media(MimeTypeUtils.IMAGE_PNG, new ByteArrayResource(new byte[] {2}))).call().content();
+        assertEquals(6, this.chatModel.calls.get());
+    }
+
+    @Test
+    void bypassedAndToolPromptsAlwaysReachTheModel() {
+        ChatClient chatClient = client(ResponseCacheAdvisor.builder().build());
+
+        for (int i = 0; i < 2; i++) {
+            chatClient.prompt().advisors(a -> a.param(ResponseCacheAdvisor.BYPASS, true)).user("What time is it?").call().content();
+            chatClient.prompt().toolNames("getCurrentDateTime").user("What day is it?").call().content();
+        }
+        assertEquals(4, this.chatModel.calls.get());
+    }
+
+    @Test
+    void contentOnlyStorageReplaysTextWithoutMetadata() {
+        ChatClient chatClient = client(ResponseCacheAdvisor.builder().storage(ResponseCacheAdvisor.Storage.CONTENT_ONLY).build());
+
+        String first = chatClient.prompt().user("Tell me a joke").call().content();
+        ChatResponse replayed = chatClient.prompt().user("Tell me a joke").call().chatResponse();
+
+        assertEquals(first, replayed.getResult().getOutput().getText());
+        assertNotEquals("response-1", replayed.getMetadata().getId());
+    }
+
+    @Test
+    void entriesExpireAndTheByteBudgetIsEnforced() {
+        AtomicLong nanos = new AtomicLong();
+        ResponseCacheAdvisor cache = ResponseCacheAdvisor.builder()
+                .timeToLive(Duration.ofMinutes(10))
+                .maxBytes(8 * 1024)
+                .ticker(nanos::get)
+                .build();
+        ChatClient chatClient = client(cache);
+
+        chatClient.prompt().user("Tell me a joke").call().content();
+        nanos.addAndGet(Duration.ofMinutes(11).toNanos());
+        chatClient.prompt().user("Tell me a joke").call().content();
+        assertEquals(2, this.chatModel.calls.get(), "expired entries are not served");
+
+        for (int i = 0; i < 200; i++) {
+            chatClient.prompt().user("Tell me joke number " + i).call().content();
+        }
+        cache.cleanUp();
+        // each entry weighs well over 512 bytes, so 8 KiB holds only a handful
+        assertTrue(cache.size() <= 16, "cache holds " + cache.size() + " entries");
+    }
+
+    @Test
+    void streamedAnswersAreAggregatedAndReplayed() {
+        ChatClient chatClient = client(ResponseCacheAdvisor.builder().build());
+
+        List<String> streamed = chatClient.prompt().user("Places in Charleston").stream().content().collectList().block();
+        List<String> replayed = chatClient.prompt().user("Places in Charleston").stream().content().collectList().block();
+
+        assertEquals(3, streamed.size());
+        assertEquals(List.of(String.join("", streamed)), replayed);
+        assertEquals(1, this.chatModel.calls.get());
+    }
+
+    private ChatClient client(ResponseCacheAdvisor cache) {
+        return ChatClient.builder(this.chatModel).defaultAdvisors(cache).build();
+    }
+
+    private static class CountingChatModel implements ChatModel {
+
+        private final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public ChatResponse call(Prompt prompt) {
+            int call = this.calls.incrementAndGet();
+            return response(call, "answer " + call);
+        }
+
+        @Override
+        public Flux<ChatResponse> stream(Prompt prompt) {
+            int call = this.calls.incrementAndGet();
+            return Flux.just("streamed ", "answer ", String.valueOf(call)).map(text -> response(call, text));
+        }
+
+        private static ChatResponse response(int call, String text) {
+            return new ChatResponse(List.of(new Generation(new AssistantMessage(text))),
+                    ChatResponseMetadata.builder().id("response-" + call).build());
+        }
+
+    }
+
+}
@@ -0,0 +1,231 @@
+package dev.danvega.workshop.advisor;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import reactor.core.publisher.Flux;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class SemanticCacheAdvisorTest {
+
+    private final CountingChatModel chatModel = new CountingChatModel();
+
+    @Test
+    void paraphrasesInTheSameScopeShareOneAnswer() {
+        SemanticCacheAdvisor cache = SemanticCacheAdvisor.builder(new BagOfWordsEmbeddingModel())
+                .similarityThreshold(0.9)
+                .build();
+        ChatClient chatClient = ChatClient.builder(this.chatModel).defaultAdvisors(cache).build();
+
+        String first = ask(chatClient, "jokes", "Tell me a joke about dogs");
+        assertEquals(first, ask(chatClient, "jokes", "tell me a joke about DOGS!"));
+        assertEquals(first, ask(chatClient, "jokes", "Tell me a joke about dogs please"));
+        assertNotEquals(first, ask(chatClient, "jokes", "Tell me a joke about cats"));
+        assertNotEquals(first, ask(chatClient, "other-endpoint", "Tell me a joke about dogs"));
+
+        assertEquals(3, this.chatModel.calls.get());
+        assertEquals(2, cache.hits());
+        assertEquals(3, cache.misses());
+
+        String strict = chatClient.prompt()
+                .advisors(a -> a.param(SemanticCacheAdvisor.SCOPE, "jokes").param(SemanticCacheAdvisor.SIMILARITY_THRESHOLD, 0.99))
+                .user("Tell me a joke about dogs please")
+                .call()
+                .content();
+        assertNotEquals(first, strict, "a per-request threshold overrides the default");
+    }
+
+    @Test
+    void requestsWithoutScopeOrWithOtherInstructionsAreNotShared() {
+        SemanticCacheAdvisor cache = SemanticCacheAdvisor.builder(new BagOfWordsEmbeddingModel()).build();
+        ChatClient chatClient = ChatClient.builder(this.chatModel).defaultAdvisors(cache).build();
+
+        chatClient.prompt().user("Tell me a joke about dogs").call().content();
+        chatClient.prompt().user("Tell me a joke about dogs").call().content();
+        assertEquals(0, cache.size(), "requests that do not opt in bypass the cache");
+
+        ask(chatClient, "jokes", "Tell me a joke about dogs");
+        chatClient.prompt()
+                .advisors(a -> a.param(SemanticCacheAdvisor.SCOPE, "jokes"))
+                .system("Answer like a pirate")
+                .user("Tell me a joke about dogs")
+                .call()
+                .content();
+        assertEquals(4, this.chatModel.calls.get());
+        assertEquals(0, cache.hits());
+    }
+
+    @Test
+    void templatedPromptsOnlyShareAnswersForTheSameParameter() {
+        SemanticCacheAdvisor cache = SemanticCacheAdvisor.builder(new BagOfWordsEmbeddingModel())
+                .similarityThreshold(0.8)
+                .build();
+        ChatClient chatClient = ChatClient.builder(this.chatModel).defaultAdvisors(cache).build();
+
+        String paris = plan(chatClient, "Paris");
+        String rome = plan(chatClient, "Rome");
+        assertNotEquals(paris, rome, "the two prompts are similar enough to match, the destinations are not the same");
+        assertEquals(paris, plan(chatClient, " paris "));
+        assertEquals(rome, plan(chatClient, "Rome"));
+        assertEquals(2, this.chatModel.calls.get());
+    }
+
+    @Test
+    void entriesExpireAndTheLeastRecentlyUsedIsEvicted() {
+        MutableClock clock = new MutableClock();
+        SemanticCacheAdvisor cache = SemanticCacheAdvisor.builder(new BagOfWordsEmbeddingModel())
+                .timeToLive(Duration.ofMinutes(10))
+                .maxEntries(2)
+                .clock(clock)
+                .build();
+        ChatClient chatClient = ChatClient.builder(this.chatModel).defaultAdvisors(cache).build();
+
+        ask(chatClient, "jokes", "dogs");
+        ask(chatClient, "jokes", "cats");
+        ask(chatClient, "jokes", "dogs");
+        ask(chatClient, "jokes", "birds");
+        assertEquals(2, cache.size());
+        assertEquals(3, this.chatModel.calls.get());
+
+        ask(chatClient, "jokes", "cats");
+        assertEquals(4, this.chatModel.calls.get(), "cats was least recently used and evicted");
+
+        clock.advance(Duration.ofMinutes(11));
+        ask(chatClient, "jokes", "cats");
+        assertEquals(5, this.chatModel.calls.get(), "expired entries are not served");
+    }
+
+    @Test
+    void streamedAnswersAreAggregatedAndReplayed() {
+        SemanticCacheAdvisor cache = SemanticCacheAdvisor.builder(new BagOfWordsEmbeddingModel()).build();
+        ChatClient chatClient = ChatClient.builder(this.chatModel).defaultAdvisors(cache).build();
+
+        String streamed = String.join("", stream(chatClient, "Places to visit in Charleston"));
+        List<String> replayed = stream(chatClient, "places to visit in Charleston?");
+
+        assertEquals(List.of(streamed), replayed);
+        assertEquals(1, this.chatModel.calls.get());
+        assertEquals(1, cache.hits());
+    }
+
+    private static String ask(ChatClient chatClient, String scope, String question) {
+        return chatClient.prompt()
+                .advisors(a -> a.param(SemanticCacheAdvisor.SCOPE, scope))
+                .user(question)
+                .call()
+                .content();
+    }
+
+    private static List<String> stream(ChatClient chatClient, String question) {
+        return chatClient.prompt()
+                .advisors(a -> a.param(SemanticCacheAdvisor.SCOPE, "stream"))
+                .user(question)
+                .stream()
+                .content()
+                .collectList()
+                .block();
+    }
+
+    private static String plan(ChatClient chatClient, String destination) {
+        return chatClient.prompt()
+                .advisors(a -> a.param(SemanticCacheAdvisor.SCOPE, "vacation")
+                        .param(SemanticCacheAdvisor.PARTITION_KEY, destination))
+                .user("Plan a four day vacation to " + destination.strip() + " with a day-by-day itinerary of activities")
+                .call()
+                .content();
+    }
+
+    private static class CountingChatModel implements ChatModel {
+
+        private final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public ChatResponse call(Prompt prompt) {
+            return response("answer " + this.calls.incrementAndGet());
+        }
+
+        @Override
+        public Flux<ChatResponse> stream(Prompt prompt) {
+            int call = this.calls.incrementAndGet();
+            return Flux.just("streamed ", "answer ", String.valueOf(call)).map(CountingChatModel::response);
+        }
+
+        private static ChatResponse response(String text) {
+            return new ChatResponse(List.of(new Generation(new AssistantMessage(text))));
+        }
+
+    }
+
+    /**
+     * One dimension per hashed lower-case word, so rewording changes the similarity and casing does not.
+     */
+    private static class BagOfWordsEmbeddingModel implements EmbeddingModel {
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            List<Embedding> embeddings = new ArrayList<>();
+            for (int i = 0; i < request.getInstructions().size(); i++) {
+                float[] vector = new float[256];
+                for (String token : request.getInstructions().get(i).toLowerCase().split("[^a-z0-9]+")) {
+                    if (!token.isEmpty()) {
+                        vector[Math.floorMod(token.hashCode(), vector.length)] += 1f;
+                    }
+                }
+                embeddings.add(new Embedding(vector, i));
+            }
+            return new EmbeddingResponse(embeddings);
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return embed(document.getText());
+        }
+
+    }
+
+    private static class MutableClock extends Clock {
+
+        private Instant now = Instant.parse("2026-01-01T00:00:00Z");
+
+        void advance(Duration duration) {
+            this.now = this.now.plus(duration);
+        }
+
+        @Override
+        public ZoneOffset getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return this.now;
+        }
+
+    }
+
+}
@@ -0,0 +1,140 @@
+package dev.danvega.workshop.advisor;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SingleFlightAdvisorTest {
+
+    private static final int CALLERS = 50;
+
+    private final GatedChatModel chatModel = new GatedChatModel();
+    private final SingleFlightAdvisor singleFlight = new SingleFlightAdvisor();
+    private final ChatClient chatClient = ChatClient.builder(this.chatModel).defaultAdvisors(this.singleFlight).build();
+
+    @Test
+    void concurrentIdenticalCallsShareOneModelCall() throws Exception {
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<String>> answers = new ArrayList<>();
+            for (int i = 0; i < CALLERS; i++) {
+                answers.add(executor.submit(() -> this.chatClient.prompt().user("Is the earth flat?").call().content()));
+            }
+            Future<String> other = executor.submit(() -> this.chatClient.prompt().user("Is the moon flat?").call().content());
+            await(() -> this.singleFlight.coalesced() == CALLERS - 1 && this.chatModel.calls.get() == 2);
+            this.chatModel.gate.countDown();
+
+            String first = answers.get(0).get();
+            for (Future<String> answer : answers) {
+                assertEquals(first, answer.get());
+            }
+            other.get();
+        }
+        assertEquals(2, this.chatModel.calls.get());
+        assertEquals(2, this.singleFlight.leaders());
+        assertEquals(0, this.singleFlight.inFlight());
+
+        this.chatClient.prompt().user("Is the earth flat?").call().content();
+        assertEquals(3, this.chatModel.calls.get(), "completed calls are not cached");
+    }
+
+    @Test
+    void followersSeeTheLeadersFailure() throws Exception {
+        this.chatModel.failure = new IllegalStateException("rate limited");
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<String>> answers = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                answers.add(executor.submit(() -> this.chatClient.prompt().user("Is the earth flat?").call().content()));
+            }
+            await(() -> this.singleFlight.coalesced() == 9);
+            this.chatModel.gate.countDown();
+            for (Future<String> answer : answers) {
+                Exception ex = assertThrows(Exception.class, answer::get);
+                assertEquals("rate limited", ex.getCause().getMessage());
+            }
+        }
+        assertEquals(1, this.chatModel.calls.get());
+    }
+
+    @Test
+    void lateStreamSubscribersReplayFromTheFirstChunk() throws Exception {
+        CompletableFuture<List<String>> leader = this.chatClient.prompt().user("Places in Charleston").stream().content()
+                .collectList().toFuture();
+        await(() -> this.chatModel.calls.get() == 1);
+        this.chatModel.sink.tryEmitNext(GatedChatModel.response("one "));
+
+        CompletableFuture<List<String>> follower = this.chatClient.prompt().user("Places in Charleston").stream().content()
+                .collectList().toFuture();
+        await(() -> this.singleFlight.coalesced() == 1);
+        this.chatModel.sink.tryEmitNext(GatedChatModel.response("two"));
+        this.chatModel.sink.tryEmitComplete();
+
+        assertEquals(List.of("one ", "two"), leader.get(5, TimeUnit.SECONDS));
+        assertEquals(List.of("one ", "two"), follower.get(5, TimeUnit.SECONDS));
+        assertEquals(1, this.chatModel.calls.get());
+        await(() -> this.singleFlight.inFlight() == 0);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "timed out waiting for callers to line up");
+            Thread.sleep(5);
+        }
+    }
+
+    private static class GatedChatModel implements ChatModel {
+
+        private final AtomicInteger calls = new AtomicInteger();
+        private final CountDownLatch gate = new CountDownLatch(1);
+        private final Sinks.Many<ChatResponse> sink = Sinks.many().unicast().onBackpressureBuffer();
+        private volatile RuntimeException failure;
+
+        @Override
+        public ChatResponse call(Prompt prompt) {
+            int call = this.calls.incrementAndGet();
+            try {
+                this.gate.await();
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            if (this.failure != null) {
+                throw this.failure;
+            }
+            return response("answer " + call);
+        }
+
+        @Override
+        public Flux<ChatResponse> stream(Prompt prompt) {
+            this.calls.incrementAndGet();
+            return this.sink.asFlux();
+        }
+
+        static ChatResponse response(String text) {
+            return new ChatResponse(List.of(new Generation(new AssistantMessage(text))));
+        }
+
+    }
+
+}
@@ -0,0 +1,166 @@
+package dev.danvega.workshop.evals;
+
+import dev.danvega.workshop.advisor.ResponseCacheAdvisor;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReviewServiceBatchTest {
+
+    private static final Pattern LINE = Pattern.compile("^\\[(\\d+)] (.*)$", Pattern.MULTILINE);
+
+    @Test
+    void classifiesManyReviewsWithFewCallsInInputOrder() {
+        LabellingChatModel chatModel = new LabellingChatModel(entries -> entries);
+        ReviewService service = new ReviewService(ChatClient.builder(chatModel), 4000, 25, 4, 3);
+        List<String> reviews = reviews(100);
+
+        List<Sentiment> sentiments = service.classifySentiments(reviews);
+
+        assertEquals(expected(reviews), sentiments);
+        assertEquals(4, chatModel.calls.get());
+        assertTrue(chatModel.peakConcurrency.get() > 1, "chunks run concurrently");
+    }
+
+    @Test
+    void chunksStayWithinTheTokenBudget() {
+        ReviewService service = new ReviewService(ChatClient.builder(new LabellingChatModel(entries -> entries)), 100, 100, 4, 3);
+        List<String> reviews = List.of("a".repeat(200), "b".repeat(200), "c".repeat(400), "d", "e");
+
+        List<List<Integer>> chunks = service.chunk(reviews, List.of(0, 1, 2, 3, 4));
+
+        // 58 + 58 tokens exceed 100, the 108 token review is alone even though it is over budget
+        assertEquals(List.of(List.of(0), List.of(1), List.of(2), List.of(3, 4)), chunks);
+    }
+
+    @Test
+    void retriesOnlyTheReviewsTheModelSkippedOrRepeated() {
+        Set<String> seen = ConcurrentHashMap.newKeySet();
+        LabellingChatModel chatModel = new LabellingChatModel(entries -> {
+            List<String> answered = new ArrayList<>(entries);
+            // the first time around, drop the second review and answer the third twice
+            if (entries.size() > 2 && seen.add("first")) {
+                answered.remove(1);
+                answered.add(answered.get(1));
+            }
+            return answered;
+        });
+        ReviewService service = new ReviewService(ChatClient.builder(chatModel), 4000, 100, 1, 3);
+        List<String> reviews = reviews(10);
+
+        List<Sentiment> sentiments = service.classifySentiments(reviews);
+
+        assertEquals(expected(reviews), sentiments);
+        assertEquals(List.of(10, 2), chatModel.chunkSizes);
+    }
+
+    @Test
+    void fallsBackToSingleCallsWhenBatchesKeepFailing() {
+        LabellingChatModel chatModel = new LabellingChatModel(entries -> List.of("not json"));
+        ReviewService service = new ReviewService(ChatClient.builder(chatModel), 4000, 100, 2, 2);
+        List<String> reviews = reviews(3);
+
+        List<Sentiment> sentiments = service.classifySentiments(reviews);
+
+        assertEquals(expected(reviews), sentiments);
+        assertEquals(List.of(3, 3), chatModel.chunkSizes);
+        assertEquals(2 + 3, chatModel.calls.get());
+    }
+
+    @Test
+    void retriesAreNotAnsweredFromTheResponseCache() {
+        AtomicInteger batches = new AtomicInteger();
+        LabellingChatModel chatModel = new LabellingChatModel(entries -> batches.incrementAndGet() == 1 ? List.of("not json") : entries);
+        // as the auto-configured builder is customized when the response cache is enabled
+        ChatClient.Builder builder = ChatClient.builder(chatModel).defaultAdvisors(ResponseCacheAdvisor.builder().build());
+        ReviewService service = new ReviewService(builder, 4000, 100, 1, 3);
+        List<String> reviews = reviews(3);
+
+        List<Sentiment> sentiments = service.classifySentiments(reviews);
+
+        assertEquals(expected(reviews), sentiments);
+        assertEquals(List.of(3, 3), chatModel.chunkSizes, "the identical second round reached the model");
+        assertEquals(2, chatModel.calls.get());
+    }
+
+    private static List<String> reviews(int count) {
+        List<String> labels = List.of("POSITIVE", "NEGATIVE", "NEUTRAL");
+        return IntStream.range(0, count).mapToObj(i -> "review " + i + " is " + labels.get(i % 3)).toList();
+    }
+
+    private static List<Sentiment> expected(List<String> reviews) {
+        return reviews.stream().map(review -> Sentiment.valueOf(review.substring(review.lastIndexOf(' ') + 1))).toList();
+    }
+
+    /**
+     * Reads each review's label off the end of its text. Batch prompts are answered with one JSON entry per line
+     * after {@code answer} has had its way with them; single prompts with the label as a JSON string.
+     */
+    private static class LabellingChatModel implements ChatModel {
+
+        private final Function<List<String>, List<String>> answer;
+        private final AtomicInteger calls = new AtomicInteger();
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicInteger peakConcurrency = new AtomicInteger();
+        private final List<Integer> chunkSizes = Collections.synchronizedList(new ArrayList<>());
+
+        LabellingChatModel(Function<List<String>, List<String>> answer) {
+            this.answer = answer;
+        }
+
+        @Override
+        public ChatResponse call(Prompt prompt) {
+            this.calls.incrementAndGet();
+            this.peakConcurrency.accumulateAndGet(this.running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(20);
+                String user = prompt.getUserMessage().getText();
+                Matcher matcher = LINE.matcher(user);
+                List<String> entries = new ArrayList<>();
+                while (matcher.find()) {
+                    String text = matcher.group(2);
+                    entries.add("{\"index\": %s, \"sentiment\": \"%s\"}"
+                            .formatted(matcher.group(1), text.substring(text.lastIndexOf(' ') + 1)));
+                }
+                if (entries.isEmpty()) {
+                    String review = user.lines().findFirst().orElseThrow();
+                    return response("\"" + review.substring(review.lastIndexOf(' ') + 1) + "\"");
+                }
+                this.chunkSizes.add(entries.size());
+                List<String> answered = this.answer.apply(entries);
+                return response(answered.size() == 1 && !answered.get(0).startsWith("{")
+                        ? answered.get(0) : "{\"sentiments\": [" + String.join(",\n", answered) + "]}");
+            }
+            catch (InterruptedException ex) {
+                throw new IllegalStateException(ex);
+            }
+            finally {
+                this.running.decrementAndGet();
+            }
+        }
+
+        private static ChatResponse response(String text) {
+            return new ChatResponse(List.of(new Generation(new AssistantMessage(text))));
+        }
+
+    }
+
+}
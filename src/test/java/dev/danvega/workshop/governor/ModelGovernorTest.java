@@ -0,0 +1,253 @@
+package dev.danvega.workshop.governor;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.metadata.ChatResponseMetadata;
+import org.springframework.ai.chat.metadata.DefaultUsage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ModelGovernorTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    void neverRunsMoreThanMaxConcurrencyCalls() throws Exception {
+        ModelGovernor governor = ModelGovernor.builder()
+                .limits("gpt-4o", new ModelLimits(3, 0, 0))
+                .maxWait(Duration.ofSeconds(10))
+                .build();
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> calls = new ArrayList<>();
+            for (int i = 0; i < 30; i++) {
+                calls.add(executor.submit(() -> {
+                    try (ModelGovernor.Permit permit = governor.acquire("gpt-4o", 10)) {
+                        peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+                        Thread.sleep(5);
+                        running.decrementAndGet();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> call : calls) {
+                call.get();
+            }
+        }
+        assertEquals(3, peak.get());
+        assertEquals(0, governor.inFlight("gpt-4o"));
+    }
+
+    @Test
+    void modelsHaveSeparateLanes() {
+        ModelGovernor governor = ModelGovernor.builder()
+                .limits("dall-e-3", new ModelLimits(1, 0, 0))
+                .maxWait(Duration.ZERO)
+                .build();
+        try (ModelGovernor.Permit image = governor.acquire("dall-e-3", 0)) {
+            assertThrows(ModelCapacityException.class, () -> governor.acquire("dall-e-3", 0));
+            try (ModelGovernor.Permit chat = governor.acquire("gpt-4o", 100)) {
+                assertEquals(1, governor.inFlight("gpt-4o"));
+            }
+        }
+    }
+
+    @Test
+    void shedsAtOnceWhenTheTokenBudgetCannotRefillInTime() {
+        ModelGovernor governor = ModelGovernor.builder()
+                .limits("gpt-5", new ModelLimits(0, 0, 6_000))
+                .maxWait(Duration.ofSeconds(5))
+                .meterRegistry(this.registry)
+                .build();
+        governor.acquire("gpt-5", 6_000).close();
+
+        // 6,000 tokens a minute refill 100 a second, 1,000 more tokens need ten seconds
+        ModelCapacityException ex = assertThrows(ModelCapacityException.class, () -> governor.acquire("gpt-5", 1_000));
+        assertEquals("gpt-5", ex.getModel());
+        // rejected on arrival from the predicted wait, not at the deadline after queueing
+        assertEquals(1, this.registry.get("model.governor.rejected").tags("model", "gpt-5", "reason", "predicted-wait").counter().count());
+    }
+
+    @Test
+    void waitsForTheBucketWhenTheRefillFitsTheBudget() throws Exception {
+        AtomicLong nanos = new AtomicLong();
+        ModelGovernor governor = ModelGovernor.builder()
+                .limits("gpt-5", new ModelLimits(0, 0, 60_000))
+                .maxWait(Duration.ofSeconds(5))
+                .ticker(nanos::get)
+                .meterRegistry(this.registry)
+                .build();
+        governor.acquire("gpt-5", 60_000).close();
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            Future<ModelGovernor.Permit> waiting = executor.submit(() -> governor.acquire("gpt-5", 100));
+            awaitQueued(1);
+            assertFalse(waiting.isDone(), "the bucket is empty until the ticker moves");
+
+            // 1,000 tokens a second, 100 tokens are available after 100 ms
+            nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+            waiting.get(5, TimeUnit.SECONDS).close();
+        }
+        assertEquals(100, this.registry.get("model.governor.wait").tag("model", "gpt-5").timer().max(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void actualUsageAboveTheEstimateIsChargedToLaterCalls() {
+        ModelGovernor governor = ModelGovernor.builder()
+                .limits("gpt-4o", new ModelLimits(0, 0, 6_000))
+                .maxWait(Duration.ofSeconds(1))
+                .build();
+        governor.acquire("gpt-4o", 100).complete(100);
+        governor.acquire("gpt-4o", 100).close();
+
+        governor.acquire("gpt-4o", 100).complete(6_000);
+        assertThrows(ModelCapacityException.class, () -> governor.acquire("gpt-4o", 100));
+    }
+
+    @Test
+    void queuedCallerIsRejectedAtItsDeadline() throws Exception {
+        ModelGovernor governor = ModelGovernor.builder()
+                .limits("tts-1-hd", new ModelLimits(1, 0, 0))
+                .meterRegistry(this.registry)
+                .build();
+        try (ModelGovernor.Permit permit = governor.acquire("tts-1-hd", 0)) {
+            // no call has finished yet, so there is no duration to predict a wait from
+            assertThrows(ModelCapacityException.class, () -> governor.acquire("tts-1-hd", 0, Duration.ofMillis(50)));
+        }
+        assertEquals(1, this.registry.get("model.governor.rejected").tags("model", "tts-1-hd", "reason", "deadline").counter().count());
+        governor.acquire("tts-1-hd", 0).close();
+    }
+
+    @Test
+    void queuedCallersStartInArrivalOrder() throws Exception {
+        ModelGovernor governor = ModelGovernor.builder()
+                .limits("gpt-4o", new ModelLimits(1, 0, 0))
+                .maxWait(Duration.ofSeconds(10))
+                .meterRegistry(this.registry)
+                .build();
+        List<Integer> order = new ArrayList<>();
+        ModelGovernor.Permit first = governor.acquire("gpt-4o", 0);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> calls = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                int caller = i;
+                CountDownLatch queued = new CountDownLatch(1);
+                calls.add(executor.submit(() -> {
+                    queued.countDown();
+                    try (ModelGovernor.Permit permit = governor.acquire("gpt-4o", 0)) {
+                        synchronized (order) {
+                            order.add(caller);
+                        }
+                    }
+                    return null;
+                }));
+                queued.await();
+                awaitQueued(i + 1);
+            }
+            first.close();
+            for (Future<?> call : calls) {
+                call.get();
+            }
+        }
+        assertEquals(List.of(0, 1, 2, 3, 4), order);
+    }
+
+    @Test
+    void governedChatModelEstimatesFromThePromptAndCorrectsFromUsage() {
+        ModelGovernor governor = ModelGovernor.builder()
+                .limits("gpt-4o", new ModelLimits(0, 0, 6_000))
+                .maxWait(Duration.ofSeconds(1))
+                .build();
+        GovernedChatModel chatModel = new GovernedChatModel(new UsageChatModel(6_000), governor, 512);
+        Prompt prompt = new Prompt("x".repeat(400), ChatOptions.builder().model("gpt-4o").maxTokens(200).build());
+
+        assertEquals("gpt-4o", chatModel.model(prompt));
+        assertEquals(300, chatModel.estimateTokens(prompt));
+        assertEquals(512, chatModel.estimateTokens(new Prompt("")));
+
+        chatModel.call(prompt);
+        assertThrows(ModelCapacityException.class, () -> chatModel.call(prompt), "usage drained the minute's budget");
+    }
+
+    @Test
+    void aStreamCancelledWhileQueuedGivesItsSlotBack() throws Exception {
+        ModelGovernor governor = ModelGovernor.builder()
+                .limits("gpt-4o", new ModelLimits(1, 0, 0))
+                .maxWait(Duration.ofSeconds(10))
+                .meterRegistry(this.registry)
+                .build();
+        GovernedChatModel chatModel = new GovernedChatModel(new UsageChatModel(10), governor, 0);
+        Prompt prompt = new Prompt("hi", ChatOptions.builder().model("gpt-4o").build());
+
+        ModelGovernor.Permit first = governor.acquire("gpt-4o", 0);
+        Disposable subscription = chatModel.stream(prompt).subscribe();
+        awaitQueued(1);
+        // the client disconnects while its stream still waits for a slot
+        subscription.dispose();
+        first.close();
+
+        // waits behind the cancelled caller, which must hand the slot back whether or not it got it
+        try (ModelGovernor.Permit next = governor.acquire("gpt-4o", 0, Duration.ofSeconds(5))) {
+            assertEquals(1, governor.inFlight("gpt-4o"));
+        }
+        assertEquals(0, governor.inFlight("gpt-4o"));
+    }
+
+    private void awaitQueued(int callers) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (this.registry.find("model.governor.queued").gauge() == null
+                || this.registry.get("model.governor.queued").gauge().value() < callers) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("callers never queued");
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    private static class UsageChatModel implements ChatModel {
+
+        private final int totalTokens;
+
+        UsageChatModel(int totalTokens) {
+            this.totalTokens = totalTokens;
+        }
+
+        @Override
+        public ChatResponse call(Prompt prompt) {
+            return ChatResponse.builder()
+                    .generations(List.of(new Generation(new AssistantMessage("ok"))))
+                    .metadata(ChatResponseMetadata.builder().usage(new DefaultUsage(0, this.totalTokens, this.totalTokens)).build())
+                    .build();
+        }
+
+        @Override
+        public Flux<ChatResponse> stream(Prompt prompt) {
+            return Flux.just(call(prompt));
+        }
+
+    }
+
+}
@@ -0,0 +1,242 @@
+package dev.danvega.workshop.memory;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LogChatMemoryRepositoryTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void keepsEveryMessageTypeAcrossARestart() throws IOException {
+        List<Message> messages = List.of(
+                new SystemMessage("be brief"),
+                UserMessage.builder().text("what's the weather like in Cleveland?").metadata(Map.of("user", "alice")).build(),
+                AssistantMessage.builder()
+                        .toolCalls(List.of(new AssistantMessage.ToolCall("1", "function", "weather", "{\"city\":\"Cleveland\"}")))
+                        .build(),
+                ToolResponseMessage.builder()
+                        .responses(List.of(new ToolResponseMessage.ToolResponse("1", "weather", "sunny")))
+                        .build(),
+                new AssistantMessage("It is sunny, with ünïcödé"));
+
+        try (LogChatMemoryRepository repository = open()) {
+            repository.saveAll("c", messages);
+            assertEquals(texts(messages), texts(repository.findByConversationId("c")));
+        }
+        try (LogChatMemoryRepository repository = open()) {
+            List<Message> restored = repository.findByConversationId("c");
+            assertEquals(texts(messages), texts(restored));
+            assertEquals("alice", restored.get(1).getMetadata().get("user"));
+            assertEquals(((AssistantMessage) messages.get(2)).getToolCalls(), ((AssistantMessage) restored.get(2)).getToolCalls());
+            assertEquals(((ToolResponseMessage) messages.get(3)).getResponses(), ((ToolResponseMessage) restored.get(3)).getResponses());
+            assertEquals(List.of("c"), repository.findConversationIds());
+        }
+    }
+
+    @Test
+    void savesOnlyWhatChangedAtEitherEnd() throws IOException {
+        try (LogChatMemoryRepository repository = open()) {
+            List<Message> messages = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                messages.add(new UserMessage("question number " + i + " with some padding to make it longer"));
+            }
+            repository.saveAll("c", messages);
+            long full = logBytes();
+
+            messages.add(new AssistantMessage("an answer"));
+            messages.remove(0);
+            repository.saveAll("c", messages);
+            // one message and a header, far from the twenty messages of a full write
+            assertTrue(logBytes() - full < full / 5, "appended " + (logBytes() - full) + " bytes");
+
+            long appended = logBytes();
+            repository.saveAll("c", messages);
+            assertEquals(appended, logBytes());
+            assertEquals(texts(messages), texts(repository.findByConversationId("c")));
+        }
+        try (LogChatMemoryRepository repository = open()) {
+            assertEquals(20, repository.findByConversationId("c").size());
+            assertEquals("an answer", repository.findByConversationId("c").get(19).getText());
+        }
+    }
+
+    @Test
+    void replacesAConversationThatNoLongerContinuesWhatWasSaved() throws IOException {
+        try (LogChatMemoryRepository repository = open()) {
+            repository.saveAll("c", List.of(new UserMessage("one"), new AssistantMessage("two")));
+            repository.saveAll("c", List.of(new SystemMessage("summary"), new AssistantMessage("two"), new UserMessage("three")));
+        }
+        try (LogChatMemoryRepository repository = open()) {
+            assertEquals(List.of("summary", "two", "three"), texts(repository.findByConversationId("c")));
+        }
+    }
+
+    @Test
+    void dropsARecordTornByACrash() throws IOException {
+        try (LogChatMemoryRepository repository = open()) {
+            repository.saveAll("c", List.of(new UserMessage("one")));
+            repository.saveAll("c", List.of(new UserMessage("one"), new AssistantMessage("two")));
+        }
+        Path segment = segments().get(0);
+        long intact = Files.size(segment);
+        // a header promising more than was written before the crash
+        Files.write(segment, new byte[] { 100, 0, 0, 0, 1, 2, 3, 4, 2, 0 }, StandardOpenOption.APPEND);
+
+        try (LogChatMemoryRepository repository = open()) {
+            assertEquals(List.of("one", "two"), texts(repository.findByConversationId("c")));
+            assertEquals(intact, Files.size(segment));
+            repository.saveAll("c", List.of(new UserMessage("one"), new AssistantMessage("two"), new UserMessage("three")));
+        }
+        try (LogChatMemoryRepository repository = open()) {
+            assertEquals(List.of("one", "two", "three"), texts(repository.findByConversationId("c")));
+        }
+    }
+
+    @Test
+    void stopsAtACorruptRecordInAnOlderSegment() throws IOException {
+        int saved = 200;
+        try (LogChatMemoryRepository repository = LogChatMemoryRepository.builder(this.dir).segmentBytes(4_096).build()) {
+            for (int i = 0; i < saved; i++) {
+                repository.saveAll("c" + i, List.of(new UserMessage("question " + i + " with some padding to make it longer")));
+            }
+        }
+        List<Path> written = segments();
+        assertTrue(written.size() > 3, written.size() + " segments");
+        // flip the operation byte of the first record in the second segment, so its checksum no longer matches
+        Path middle = written.get(1);
+        byte[] bytes = Files.readAllBytes(middle);
+        bytes[8] ^= 0x7f;
+        Files.write(middle, bytes);
+
+        try (LogChatMemoryRepository repository = open()) {
+            List<String> ids = repository.findConversationIds();
+            int kept = ids.size();
+            assertTrue(kept > 0 && kept < saved, kept + " conversations");
+            // only what the first segment held, none of the later segments replayed over the gap
+            assertEquals(Stream.iterate(0, i -> i + 1).limit(kept).map(i -> "c" + i).collect(Collectors.toSet()), Set.copyOf(ids));
+            assertEquals(0, Files.size(middle));
+            for (Path later : written.subList(2, written.size())) {
+                assertFalse(Files.exists(later), later + " still in the log");
+                assertTrue(Files.exists(later.resolveSibling(later.getFileName() + ".corrupt")));
+            }
+            repository.saveAll("after", List.of(new UserMessage("still writable")));
+        }
+        try (LogChatMemoryRepository repository = open()) {
+            assertEquals(List.of("still writable"), texts(repository.findByConversationId("after")));
+            assertEquals(List.of(), repository.findByConversationId("c" + (saved - 1)));
+        }
+    }
+
+    @Test
+    void deletesStayDeleted() throws IOException {
+        try (LogChatMemoryRepository repository = open()) {
+            repository.saveAll("a", List.of(new UserMessage("a")));
+            repository.saveAll("b", List.of(new UserMessage("b")));
+            repository.deleteByConversationId("a");
+            repository.saveAll("b", List.of());
+        }
+        try (LogChatMemoryRepository repository = open()) {
+            assertEquals(List.of(), repository.findConversationIds());
+            assertEquals(List.of(), repository.findByConversationId("a"));
+        }
+    }
+
+    @Test
+    void compactionDeletesSegmentsThatAreMostlyDead() throws IOException {
+        try (LogChatMemoryRepository repository = LogChatMemoryRepository.builder(this.dir).segmentBytes(4_096)
+                .compactionInterval(Duration.ofHours(1)).build()) {
+            for (int round = 0; round < 50; round++) {
+                for (String id : List.of("a", "b", "c")) {
+                    // a different first message each round, so every save rewrites the conversation
+                    repository.saveAll(id, List.of(new SystemMessage("round " + round), new UserMessage("a question from " + id)));
+                }
+            }
+            int before = segments().size();
+            assertTrue(before > 3, before + " segments");
+
+            assertEquals(before - 1, repository.compact());
+            assertEquals(1, segments().size());
+        }
+        try (LogChatMemoryRepository repository = open()) {
+            assertEquals(Set.of("a", "b", "c"), Set.copyOf(repository.findConversationIds()));
+            assertEquals(List.of("round 49", "a question from b"), texts(repository.findByConversationId("b")));
+        }
+    }
+
+    @Test
+    void syncSavesWaitForTheirCommit() throws IOException {
+        try (LogChatMemoryRepository repository = LogChatMemoryRepository.builder(this.dir).sync(true).build()) {
+            List<Message> messages = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                messages.add(new UserMessage("message " + i));
+                repository.saveAll("c", messages);
+            }
+        }
+        try (LogChatMemoryRepository repository = open()) {
+            assertEquals(100, repository.findByConversationId("c").size());
+        }
+    }
+
+    @Test
+    void backsShardedChatMemoryAcrossARestart() throws IOException {
+        try (LogChatMemoryRepository repository = open()) {
+            ShardedChatMemory memory = ShardedChatMemory.builder().repository(repository).build();
+            memory.add("c", List.of(new UserMessage("hi, I'm Alice"), new AssistantMessage("Hi Alice")));
+            memory.add("c", new UserMessage("what's my name?"));
+        }
+        try (LogChatMemoryRepository repository = open()) {
+            ShardedChatMemory memory = ShardedChatMemory.builder().repository(repository).build();
+            assertEquals(List.of("hi, I'm Alice", "Hi Alice", "what's my name?"), texts(memory.get("c")));
+            memory.clear("c");
+        }
+        try (LogChatMemoryRepository repository = open()) {
+            assertEquals(List.of(), repository.findConversationIds());
+        }
+    }
+
+    private LogChatMemoryRepository open() throws IOException {
+        return LogChatMemoryRepository.builder(this.dir).build();
+    }
+
+    private long logBytes() throws IOException {
+        long bytes = 0;
+        for (Path segment : segments()) {
+            bytes += Files.size(segment);
+        }
+        return bytes;
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(this.dir)) {
+            return files.sorted().toList();
+        }
+    }
+
+    private static List<String> texts(List<Message> messages) {
+        return messages.stream().map(Message::getText).toList();
+    }
+
+}
@@ -0,0 +1,251 @@
+package dev.danvega.workshop.memory;
+
+import dev.danvega.workshop.prompt.CompiledTemplate;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LongTermMemoryAdvisorTest {
+
+    private static final CompiledTemplate MEMORY_TEMPLATE = CompiledTemplate.compile("long-term-memory",
+            "Earlier turns:\n{memory}", new JTokkitTokenCountEstimator());
+
+    private final RecordingChatModel chatModel = new RecordingChatModel();
+    private final ShardedChatMemory chatMemory = ShardedChatMemory.builder().maxTokensPerConversation(100_000).build();
+
+    @Test
+    void recallsAnOldFactWhilePromptSizeStaysFlat() {
+        LongTermMemoryAdvisor memory = LongTermMemoryAdvisor.builder(this.chatMemory, new BagOfWordsEmbeddingModel(), MEMORY_TEMPLATE)
+                .recentMessages(4)
+                .maxTokens(300)
+                .indexingExecutor(Runnable::run)
+                .build();
+        ChatClient chatClient = ChatClient.builder(this.chatModel).defaultAdvisors(memory).build();
+
+        ask(chatClient, "alice", "My dog's name is Rex");
+        for (int i = 0; i < 40; i++) {
+            ask(chatClient, "alice", "Tell me about the history of topic " + i);
+        }
+        ask(chatClient, "alice", "What is my dog's name?");
+
+        assertTrue(this.chatModel.system(this.chatModel.prompts.size() - 1).contains("User: My dog's name is Rex"));
+        // the history grows by 40 turns, the prompt does not
+        int tenth = this.chatModel.length(10);
+        int last = this.chatModel.length(this.chatModel.prompts.size() - 2);
+        assertTrue(last <= tenth * 1.2, tenth + " then " + last + " characters");
+        assertEquals(42, memory.size());
+        assertEquals(84, this.chatMemory.get("alice").size());
+    }
+
+    @Test
+    void turnsAreEmbeddedAfterTheResponseAndKeptPerConversation() {
+        List<Runnable> pending = new ArrayList<>();
+        LongTermMemoryAdvisor memory = LongTermMemoryAdvisor.builder(this.chatMemory, new BagOfWordsEmbeddingModel(), MEMORY_TEMPLATE)
+                .recentMessages(0)
+                .indexingExecutor(pending::add)
+                .build();
+        ChatClient chatClient = ChatClient.builder(this.chatModel).defaultAdvisors(memory).build();
+
+        ask(chatClient, "alice", "My dog's name is Rex");
+        assertEquals(0, memory.size());
+        assertEquals(1, pending.size());
+        assertEquals(2, this.chatMemory.get("alice").size());
+
+        runAll(pending);
+        ask(chatClient, "bob", "What is my dog's name?");
+        assertFalse(this.chatModel.system(1).contains("Rex"), "another conversation's turns are never recalled");
+        ask(chatClient, "alice", "What is my dog's name?");
+        assertTrue(this.chatModel.system(2).contains("Rex"));
+
+        // alice's second turn is still being embedded when the conversation is cleared
+        memory.clear("alice");
+        assertEquals(0, this.chatMemory.get("alice").size());
+        runAll(pending);
+        assertEquals(1, memory.size(), "only bob's turn is left");
+    }
+
+    @Test
+    void recentTurnsAreReplayedNotRecalled() {
+        LongTermMemoryAdvisor memory = LongTermMemoryAdvisor.builder(this.chatMemory, new BagOfWordsEmbeddingModel(), MEMORY_TEMPLATE)
+                .indexingExecutor(Runnable::run)
+                .build();
+        ChatClient chatClient = ChatClient.builder(this.chatModel).defaultAdvisors(memory).build();
+
+        ask(chatClient, "alice", "My dog's name is Rex");
+        ask(chatClient, "alice", "What is my dog's name?");
+
+        Prompt prompt = this.chatModel.prompts.get(1);
+        assertEquals(List.of(MessageType.USER, MessageType.ASSISTANT, MessageType.USER),
+                prompt.getInstructions().stream().map(Message::getMessageType).toList());
+        assertEquals("My dog's name is Rex", prompt.getInstructions().get(0).getText());
+    }
+
+    @Test
+    void theIndexKeepsItsMostRecentlyUsedConversationsWithinMaxTurns() {
+        LongTermMemoryAdvisor memory = LongTermMemoryAdvisor.builder(this.chatMemory, new BagOfWordsEmbeddingModel(), MEMORY_TEMPLATE)
+                .recentMessages(0)
+                .maxTurns(50)
+                .indexingExecutor(Runnable::run)
+                .build();
+        ChatClient chatClient = ChatClient.builder(this.chatModel).defaultAdvisors(memory).build();
+
+        ask(chatClient, "alice", "My dog's name is Rex");
+        for (int i = 0; i < 200; i++) {
+            ask(chatClient, "session-" + i, "Tell me about the history of topic " + i);
+            ask(chatClient, "session-" + i, "And what came after topic " + i + "?");
+            assertTrue(memory.size() <= 50, memory.size() + " turns");
+            if (i % 10 == 0) {
+                // alice keeps coming back, so she is never the least recently used
+                ask(chatClient, "alice", "Hello again");
+            }
+        }
+        // whole conversations are dropped, so it may sit a turn under the cap
+        assertTrue(memory.size() >= 49, memory.size() + " turns");
+
+        ask(chatClient, "alice", "What is my dog's name?");
+        assertTrue(this.chatModel.system(this.chatModel.prompts.size() - 1).contains("User: My dog's name is Rex"));
+
+        ask(chatClient, "session-0", "What came after topic 0?");
+        assertFalse(this.chatModel.system(this.chatModel.prompts.size() - 1).contains("topic 0"),
+                "an idle conversation was dropped from the index");
+    }
+
+    @Test
+    void theRollingSummaryIsPartOfThePrompt() {
+        ShardedChatMemory compacted = ShardedChatMemory.builder()
+                .summarizer((previous, turns) -> "the user has a dog called Rex")
+                .compactionThresholdTokens(100)
+                .keepRecentTokens(40)
+                .compactionExecutor(Runnable::run)
+                .build();
+        LongTermMemoryAdvisor memory = LongTermMemoryAdvisor.builder(compacted, new BagOfWordsEmbeddingModel(), MEMORY_TEMPLATE)
+                .recentMessages(2)
+                .indexingExecutor(Runnable::run)
+                .build();
+        ChatClient chatClient = ChatClient.builder(this.chatModel).defaultAdvisors(memory).build();
+
+        for (int i = 0; i < 10; i++) {
+            ask(chatClient, "alice", "Tell me about the history of topic " + i);
+        }
+
+        String system = this.chatModel.system(this.chatModel.prompts.size() - 1);
+        assertTrue(system.contains("the user has a dog called Rex"), system);
+        assertEquals(List.of(MessageType.SYSTEM, MessageType.USER, MessageType.ASSISTANT, MessageType.USER),
+                this.chatModel.prompts.get(this.chatModel.prompts.size() - 1).getInstructions().stream()
+                        .map(Message::getMessageType).toList());
+    }
+
+    @Test
+    void streamedAnswersAreRemembered() {
+        LongTermMemoryAdvisor memory = LongTermMemoryAdvisor.builder(this.chatMemory, new BagOfWordsEmbeddingModel(), MEMORY_TEMPLATE)
+                .indexingExecutor(Runnable::run)
+                .build();
+        ChatClient chatClient = ChatClient.builder(this.chatModel).defaultAdvisors(memory).build();
+
+        chatClient.prompt()
+                .advisors(a -> a.param(ChatMemory.CONVERSATION_ID, "alice"))
+                .user("My dog's name is Rex")
+                .stream()
+                .content()
+                .blockLast();
+
+        assertEquals(List.of("My dog's name is Rex", "streamed answer 1"),
+                this.chatMemory.get("alice").stream().map(Message::getText).toList());
+        assertEquals(1, memory.size());
+    }
+
+    private static void runAll(List<Runnable> pending) {
+        List<Runnable> tasks = List.copyOf(pending);
+        pending.clear();
+        tasks.forEach(Runnable::run);
+    }
+
+    private static void ask(ChatClient chatClient, String conversationId, String message) {
+        chatClient.prompt()
+                .advisors(a -> a.param(ChatMemory.CONVERSATION_ID, conversationId))
+                .user(message)
+                .call()
+                .content();
+    }
+
+    private static class RecordingChatModel implements ChatModel {
+
+        private final List<Prompt> prompts = new CopyOnWriteArrayList<>();
+
+        @Override
+        public ChatResponse call(Prompt prompt) {
+            this.prompts.add(prompt);
+            return response("answer " + this.prompts.size());
+        }
+
+        @Override
+        public Flux<ChatResponse> stream(Prompt prompt) {
+            this.prompts.add(prompt);
+            return Flux.just("streamed ", "answer ", String.valueOf(this.prompts.size())).map(RecordingChatModel::response);
+        }
+
+        String system(int call) {
+            String text = this.prompts.get(call).getSystemMessage().getText();
+            return text != null ? text : "";
+        }
+
+        int length(int call) {
+            return this.prompts.get(call).getInstructions().stream().mapToInt(message -> message.getText().length()).sum();
+        }
+
+        private static ChatResponse response(String text) {
+            return new ChatResponse(List.of(new Generation(new AssistantMessage(text))));
+        }
+
+    }
+
+    /**
+     * One dimension per hashed lower-case word.
+     */
+    private static class BagOfWordsEmbeddingModel implements EmbeddingModel {
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            List<Embedding> embeddings = new ArrayList<>();
+            for (int i = 0; i < request.getInstructions().size(); i++) {
+                float[] vector = new float[256];
+                for (String token : request.getInstructions().get(i).toLowerCase().split("[^a-z0-9]+")) {
+                    if (!token.isEmpty()) {
+                        vector[Math.floorMod(token.hashCode(), vector.length)] += 1f;
+                    }
+                }
+                embeddings.add(new Embedding(vector, i));
+            }
+            return new EmbeddingResponse(embeddings);
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return embed(document.getText());
+        }
+
+    }
+
+}
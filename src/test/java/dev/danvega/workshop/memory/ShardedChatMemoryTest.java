@@ -0,0 +1,257 @@
+package dev.danvega.workshop.memory;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.content.MediaContent;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShardedChatMemoryTest {
+
+    // one token per character keeps the arithmetic readable
+    private static final TokenCountEstimator CHARACTERS = new TokenCountEstimator() {
+
+        @Override
+        public int estimate(String text) {
+            return text.length();
+        }
+
+        @Override
+        public int estimate(MediaContent content) {
+            return content.getText().length();
+        }
+
+        @Override
+        public int estimate(Iterable<MediaContent> messages) {
+            int total = 0;
+            for (MediaContent content : messages) {
+                total += estimate(content);
+            }
+            return total;
+        }
+
+    };
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    void conversationsAreKeptApart() {
+        ShardedChatMemory memory = memory(1_000, 1_000_000);
+
+        memory.add("alice", new UserMessage("hi, I'm Alice"));
+        memory.add("bob", new UserMessage("hi, I'm Bob"));
+
+        assertEquals(List.of(new UserMessage("hi, I'm Alice")), memory.get("alice"));
+        assertEquals(List.of(new UserMessage("hi, I'm Bob")), memory.get("bob"));
+        memory.clear("alice");
+        assertEquals(List.of(), memory.get("alice"));
+        assertEquals(1, memory.conversations());
+    }
+
+    @Test
+    void dropsTheOldestMessagesOverTheTokenBudgetAndKeepsSystemMessages() {
+        // every message costs its length plus 4
+        ShardedChatMemory memory = memory(40, 1_000_000);
+        memory.add("c", new SystemMessage("be brief"));
+        for (int i = 0; i < 5; i++) {
+            memory.add("c", List.of(new UserMessage("question " + i), new AssistantMessage("answer " + i)));
+        }
+
+        List<Message> messages = memory.get("c");
+
+        assertEquals(List.of(new SystemMessage("be brief"), new UserMessage("question 4"), new AssistantMessage("answer 4")), messages);
+        // from the second turn on, each turn pushes out the one before it
+        assertEquals(8, this.registry.get("chat.memory.evictions").tag("reason", "token-budget").counter().count());
+    }
+
+    @Test
+    void neverKeepsAToolResponseWithoutItsToolCall() {
+        ShardedChatMemory memory = memory(40, 1_000_000);
+        AssistantMessage toolCall = AssistantMessage.builder()
+                .toolCalls(List.of(new AssistantMessage.ToolCall("1", "function", "weather", "{\"city\":\"Cleveland\"}")))
+                .build();
+        ToolResponseMessage toolResponse = ToolResponseMessage.builder()
+                .responses(List.of(new ToolResponseMessage.ToolResponse("1", "weather", "sunny")))
+                .build();
+
+        memory.add("c", List.of(new UserMessage("what's the weather like in Cleveland today?"), toolCall, toolResponse,
+                new AssistantMessage("It is sunny")));
+
+        // the user message and the tool call go over the budget, the response they belong to goes with them
+        assertEquals(List.of(new AssistantMessage("It is sunny")), memory.get("c"));
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedConversationsPastTheTotal() {
+        // a single shard makes the eviction order exact: 3 conversations of 32 + 14 tokens fit in 150
+        ShardedChatMemory memory = ShardedChatMemory.builder().shards(1).maxTokensPerConversation(100).maxTotalTokens(150)
+                .tokenCounter(CHARACTERS).meterRegistry(this.registry).build();
+        memory.add("a", new UserMessage("aaaaaaaaaa"));
+        memory.add("b", new UserMessage("bbbbbbbbbb"));
+        memory.add("c", new UserMessage("cccccccccc"));
+        memory.get("a");
+
+        memory.add("d", new UserMessage("dddddddddd"));
+
+        assertEquals(List.of(), memory.get("b"));
+        assertEquals(1, memory.get("a").size());
+        assertEquals(1, memory.get("c").size());
+        assertEquals(1, memory.get("d").size());
+        assertEquals(3, memory.conversations());
+        assertEquals(1, this.registry.get("chat.memory.evictions").tag("reason", "idle").counter().count());
+    }
+
+    @Test
+    void memoryStaysFlatWithManySessions() throws Exception {
+        int shards = 64;
+        long maxTotalTokens = 2_000_000;
+        ShardedChatMemory memory = ShardedChatMemory.builder().shards(shards).maxTokensPerConversation(200)
+                .maxTotalTokens(maxTotalTokens).tokenCounter(CHARACTERS).build();
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> sessions = new ArrayList<>();
+            for (int t = 0; t < 16; t++) {
+                int thread = t;
+                sessions.add(executor.submit(() -> {
+                    for (int i = thread; i < 100_000; i += 16) {
+                        String id = "session-" + i;
+                        for (int turn = 0; turn < 3; turn++) {
+                            memory.add(id, List.of(new UserMessage("question " + turn + " from " + id),
+                                    new AssistantMessage("an answer of about forty characters " + turn)));
+                            assertTrue(memory.get(id).stream().mapToInt(memory::tokens).sum() <= 200);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> session : sessions) {
+                session.get();
+            }
+        }
+
+        assertTrue(memory.tokens() <= maxTotalTokens, "held " + memory.tokens());
+        assertTrue(memory.conversations() < 100_000, "idle conversations were evicted");
+        assertTrue(memory.conversations() > 0);
+    }
+
+    @Test
+    void foldsOlderTurnsIntoASummaryWithoutBlockingTheTurn() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> previousSummaries = new CopyOnWriteArrayList<>();
+        ConversationSummarizer summarizer = (previous, turns) -> {
+            await(release);
+            previousSummaries.add(String.valueOf(previous));
+            return "summary of " + turns.size() + " messages";
+        };
+        ShardedChatMemory memory = ShardedChatMemory.builder().maxTokensPerConversation(1_000).tokenCounter(CHARACTERS)
+                .summarizer(summarizer).compactionThresholdTokens(100).keepRecentTokens(40)
+                .meterRegistry(this.registry).build();
+
+        // each turn is 14 + 12 tokens, the fourth one passes the threshold
+        for (int i = 0; i < 4; i++) {
+            memory.add("c", List.of(new UserMessage("question " + i), new AssistantMessage("answer " + i)));
+        }
+        // the summarizer is held, the turn went through and reads see every turn
+        assertEquals(8, memory.get("c").size());
+
+        release.countDown();
+        awaitCompactions(1);
+        List<Message> messages = memory.get("c");
+        assertEquals(List.of("Summary of the conversation so far: summary of 6 messages", "question 3", "answer 3"),
+                messages.stream().map(Message::getText).toList());
+        assertEquals(true, messages.get(0).getMetadata().get(ShardedChatMemory.SUMMARY_METADATA));
+
+        for (int i = 4; i < 8; i++) {
+            memory.add("c", List.of(new UserMessage("question " + i), new AssistantMessage("answer " + i)));
+        }
+        awaitCompactions(2);
+        assertEquals("summary of 6 messages", previousSummaries.get(1));
+        // the next summary continues the first and takes its place
+        assertEquals(1, memory.get("c").stream().filter(message -> message.getMetadata().containsKey(ShardedChatMemory.SUMMARY_METADATA)).count());
+    }
+
+    @Test
+    void promptSizeFlattensOnceCompactionKicksIn() {
+        ShardedChatMemory memory = ShardedChatMemory.builder().maxTokensPerConversation(10_000).tokenCounter(CHARACTERS)
+                .summarizer((previous, turns) -> "a summary that stays about the same length")
+                .compactionThresholdTokens(200).keepRecentTokens(80)
+                .compactionExecutor(Runnable::run)
+                .build();
+
+        List<Integer> promptTokens = new ArrayList<>();
+        for (int turn = 0; turn < 50; turn++) {
+            memory.add("c", List.of(new UserMessage("question number " + turn), new AssistantMessage("answer number " + turn)));
+            promptTokens.add(memory.get("c").stream().mapToInt(memory::tokens).sum());
+        }
+
+        assertTrue(promptTokens.subList(10, 50).stream().allMatch(tokens -> tokens <= 200 + 40), promptTokens.toString());
+    }
+
+    @Test
+    void failedCompactionIsRetriedOnTheNextTurn() {
+        AtomicInteger attempts = new AtomicInteger();
+        ShardedChatMemory memory = ShardedChatMemory.builder().maxTokensPerConversation(1_000).tokenCounter(CHARACTERS)
+                .summarizer((previous, turns) -> {
+                    if (attempts.incrementAndGet() == 1) {
+                        throw new IllegalStateException("model unavailable");
+                    }
+                    return "summary";
+                })
+                .compactionThresholdTokens(100).keepRecentTokens(40)
+                .compactionExecutor(Runnable::run)
+                .build();
+
+        for (int i = 0; i < 4; i++) {
+            memory.add("c", List.of(new UserMessage("question " + i), new AssistantMessage("answer " + i)));
+        }
+        assertEquals(8, memory.get("c").size());
+
+        memory.add("c", List.of(new UserMessage("question 4"), new AssistantMessage("answer 4")));
+        assertEquals(2, attempts.get());
+        assertEquals("Summary of the conversation so far: summary", memory.get("c").get(0).getText());
+    }
+
+    private void awaitCompactions(long count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (this.registry.find("chat.memory.compaction").tag("outcome", "success").timer() == null
+                || this.registry.get("chat.memory.compaction").tag("outcome", "success").timer().count() < count) {
+            assertTrue(System.nanoTime() < deadline, "compaction never finished");
+            Thread.sleep(5);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        }
+        catch (InterruptedException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private ShardedChatMemory memory(int maxTokensPerConversation, long maxTotalTokens) {
+        return ShardedChatMemory.builder()
+                .maxTokensPerConversation(maxTokensPerConversation)
+                .maxTotalTokens(maxTotalTokens)
+                .tokenCounter(CHARACTERS)
+                .meterRegistry(this.registry)
+                .build();
+    }
+
+}
@@ -0,0 +1,133 @@
+package dev.danvega.workshop.observability;
+
+import dev.danvega.workshop.advisor.ResponseCacheAdvisor;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.metadata.ChatResponseMetadata;
+import org.springframework.ai.chat.metadata.DefaultUsage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.converter.BeanOutputConverter;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ChatMetricsAdvisorTest {
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    void callsAreTimedAndTheirTokensCountedByCacheOutcome() {
+        ChatClient chatClient = ChatClient.builder(new UsageChatModel())
+                .defaultAdvisors(new ChatMetricsAdvisor(this.registry), ResponseCacheAdvisor.builder().build())
+                .defaultOptions(ChatOptions.builder().temperature(0.2).build())
+                .build();
+
+        chatClient.prompt().user("Tell me a joke").call().content();
+        chatClient.prompt().user("Tell me a joke").call().content();
+
+        Timer miss = this.registry.get("chat.client.requests")
+                .tags("controller", "none", "model", "gpt-test", "options", "temperature=0.2", "cache", "miss",
+                        "mode", "call", "outcome", "success")
+                .timer();
+        assertEquals(1, miss.count());
+        assertEquals(1, this.registry.get("chat.client.requests").tags("cache", "exact").timer().count());
+        assertEquals(12, this.registry.get("chat.client.tokens").tags("type", "prompt", "cache", "miss").counter().count());
+        assertEquals(7, this.registry.get("chat.client.tokens").tags("type", "completion", "cache", "miss").counter().count());
+        assertEquals(1, this.registry.get("chat.client.tool.round-trips").tags("cache", "miss").summary().count());
+    }
+
+    @Test
+    void streamsRecordTimeToFirstTokenAndAggregatedUsage() {
+        ChatClient chatClient = ChatClient.builder(new UsageChatModel())
+                .defaultAdvisors(new ChatMetricsAdvisor(this.registry))
+                .build();
+
+        chatClient.prompt().user("Tell me a joke").stream().content().blockLast();
+
+        assertEquals(1, this.registry.get("chat.client.time-to-first-token").tags("model", "gpt-test").timer().count());
+        assertEquals(1, this.registry.get("chat.client.requests").tags("mode", "stream", "options", "default").timer().count());
+        assertEquals(7, this.registry.get("chat.client.tokens").tags("type", "completion").counter().count());
+    }
+
+    @Test
+    void failedCallsAreTimedWithTheException() {
+        ChatClient chatClient = ChatClient.builder(new UsageChatModel(new IllegalStateException("rate limited")))
+                .defaultAdvisors(new ChatMetricsAdvisor(this.registry))
+                .build();
+
+        assertThrows(IllegalStateException.class, () -> chatClient.prompt().user("Tell me a joke").call().content());
+
+        assertNotNull(this.registry.get("chat.client.requests")
+                .tags("outcome", "error", "exception", "IllegalStateException", "model", "default")
+                .timer());
+    }
+
+    @Test
+    void conversionIsTimedByType() {
+        record Joke(String setup, String punchline) {
+        }
+        var converter = new TimedOutputConverter<>(new BeanOutputConverter<>(Joke.class), "Joke", this.registry);
+
+        Joke joke = converter.convert("{\"setup\": \"a\", \"punchline\": \"b\"}");
+
+        assertEquals("b", joke.punchline());
+        assertEquals(1, this.registry.get("chat.client.output.conversion").tags("type", "Joke", "outcome", "success").timer().count());
+    }
+
+    @Test
+    void optionsTagOnlyNamesTheSamplingOptionsThatAreSet() {
+        assertEquals("default", ChatMetricsAdvisor.options(null));
+        assertEquals("default", ChatMetricsAdvisor.options(ChatOptions.builder().model("gpt-4o").build()));
+        assertEquals("temperature=0.1,maxTokens=200",
+                ChatMetricsAdvisor.options(ChatOptions.builder().temperature(0.1).maxTokens(200).stopSequences(List.of("x")).build()));
+    }
+
+    private static class UsageChatModel implements ChatModel {
+
+        private final RuntimeException failure;
+
+        UsageChatModel() {
+            this(null);
+        }
+
+        UsageChatModel(RuntimeException failure) {
+            this.failure = failure;
+        }
+
+        @Override
+        public ChatResponse call(Prompt prompt) {
+            if (this.failure != null) {
+                throw this.failure;
+            }
+            return response("a joke", new DefaultUsage(12, 7));
+        }
+
+        @Override
+        public Flux<ChatResponse> stream(Prompt prompt) {
+            // like OpenAI with stream usage on, only the last chunk carries the usage
+            return Flux.just(response("a ", null), response("joke", new DefaultUsage(12, 7)));
+        }
+
+        private static ChatResponse response(String text, DefaultUsage usage) {
+            var metadata = ChatResponseMetadata.builder().model("gpt-test");
+            if (usage != null) {
+                metadata.usage(usage);
+            }
+            return new ChatResponse(List.of(new Generation(new AssistantMessage(text))), metadata.build());
+        }
+
+    }
+
+}
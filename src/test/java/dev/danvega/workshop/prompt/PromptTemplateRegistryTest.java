@@ -0,0 +1,84 @@
+package dev.danvega.workshop.prompt;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.prompt.PromptTemplate;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PromptTemplateRegistryTest {
+
+    private final JTokkitTokenCountEstimator tokenCounter = new JTokkitTokenCountEstimator();
+
+    @Test
+    void rendersLikePromptTemplate() {
+        String template = "What's a good vacation plan while I'm in {destination} for {days} days?";
+        Map<String, Object> values = Map.of("destination", "Cleveland, OH", "days", 3);
+
+        CompiledTemplate compiled = CompiledTemplate.compile("vacation", template, this.tokenCounter);
+
+        assertEquals(new PromptTemplate(template).render(values), compiled.render(values));
+        assertEquals(Set.of("destination", "days"), compiled.variables());
+        assertEquals("What's a good vacation plan while I'm in ", compiled.staticPrefix());
+        assertEquals(this.tokenCounter.estimate(compiled.staticPrefix()), compiled.staticPrefixTokens());
+    }
+
+    @Test
+    void escapedBracesAreLiteral() {
+        CompiledTemplate compiled = CompiledTemplate.compile("json", "Answer as \\{\"joke\": \"...\"\\} about {topic}", this.tokenCounter);
+
+        assertEquals("Answer as {\"joke\": \"...\"} about dogs", compiled.render("topic", "dogs"));
+    }
+
+    @Test
+    void rejectsExpressionsItCannotCompileAndMissingValues() {
+        assertThrows(IllegalArgumentException.class,
+                () -> CompiledTemplate.compile("if", "{if(topic)}about {topic}{endif}", this.tokenCounter));
+        assertThrows(IllegalArgumentException.class, () -> CompiledTemplate.compile("open", "about {topic", this.tokenCounter));
+
+        CompiledTemplate compiled = CompiledTemplate.compile("two", "{a} and {b}", this.tokenCounter);
+        assertThrows(IllegalArgumentException.class, () -> compiled.render(Map.of("a", 1)));
+        assertThrows(IllegalArgumentException.class, () -> compiled.render("a", 1));
+    }
+
+    @Test
+    void loadsTheApplicationPrompts() {
+        PromptTemplateRegistry registry = new PromptTemplateRegistry(new PathMatchingResourcePatternResolver(),
+                "classpath:/prompts/", false, this.tokenCounter);
+
+        assertTrue(registry.names().containsAll(Set.of("blog-post-guidelines", "blog-post-request", "joke-by-topic", "vacation-plan")));
+        CompiledTemplate guidelines = registry.get("blog-post-guidelines");
+        assertEquals(guidelines.staticPrefix(), guidelines.render(Map.of()));
+        assertTrue(guidelines.staticPrefixTokens() > 100);
+        assertEquals("Tell me a joke about dogs", registry.render("joke-by-topic", "topic", "dogs"));
+        assertThrows(IllegalArgumentException.class, () -> registry.get("missing"));
+    }
+
+    @Test
+    void reloadPicksUpChangedAndNewFiles(@TempDir Path dir) throws IOException {
+        Path joke = Files.writeString(dir.resolve("joke.st"), "Tell me a joke about {topic}");
+        PromptTemplateRegistry registry = new PromptTemplateRegistry(new PathMatchingResourcePatternResolver(),
+                dir.toUri().toString(), true, this.tokenCounter);
+        assertEquals("Tell me a joke about dogs", registry.render("joke", "topic", "dogs"));
+
+        Files.writeString(joke, "Tell me a pun about {topic}");
+        Files.setLastModifiedTime(joke, FileTime.from(Instant.now().plusSeconds(10)));
+        Files.writeString(dir.resolve("poem.st"), "Write a poem about {topic}");
+
+        assertEquals("Tell me a pun about dogs", registry.render("joke", "topic", "dogs"));
+        assertEquals("Write a poem about cats", registry.render("poem", "topic", "cats"));
+    }
+
+}
@@ -0,0 +1,97 @@
+package dev.danvega.workshop.rag;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ModelQueryMatcherTest {
+
+    private static ModelIndex index;
+    private static ModelQueryMatcher matcher;
+
+    @BeforeAll
+    static void loadModels() throws Exception {
+        index = ModelIndex.load(new ClassPathResource("data/models.json"), new ObjectMapper());
+        matcher = new ModelQueryMatcher(index);
+    }
+
+    @Test
+    void indexesByCompanyNameAndContextWindow() {
+        List<Model> openAi = index.models().stream().filter(m -> m.company().equals("OpenAI")).toList();
+        assertEquals(Optional.of(openAi), index.byCompany("openai"));
+        assertEquals(index.byCompany("Mistral AI"), index.byCompany("mistral"));
+        assertTrue(index.byCompany("AI").isEmpty(), "words shared by several companies are not aliases");
+
+        Model first = index.models().get(0);
+        assertEquals(Optional.of(first), index.byName(first.model().toUpperCase().replace('-', ' ')));
+
+        List<Model> large = index.byContextWindow(200_000, Integer.MAX_VALUE);
+        assertEquals(index.models().stream().filter(m -> m.contextWindowSize() >= 200_000).count(), large.size());
+        for (int i = 1; i < large.size(); i++) {
+            assertTrue(large.get(i - 1).contextWindowSize() <= large.get(i).contextWindowSize());
+        }
+    }
+
+    @Test
+    void answersCompanyListings() {
+        List<Model> openAi = index.byCompany("OpenAI").orElseThrow();
+        for (String question : List.of(
+                "Give me a list of all the models from OpenAI along with their context window.",
+                "list OpenAI models",
+                "What are the OpenAI models?",
+                "Which models does OpenAI offer?")) {
+            ModelQueryMatcher.Match match = matcher.match(question).orElseThrow(() -> new AssertionError(question));
+            assertEquals(ModelQueryMatcher.Kind.COMPANY, match.kind());
+            assertEquals(openAi, match.models().models(), question);
+        }
+    }
+
+    @Test
+    void answersSingleModelContextWindow() {
+        Model model = index.models().get(0);
+        for (String question : List.of(
+                "What is the context window of " + model.model() + "?",
+                "How big is " + model.model() + "'s context window?",
+                model.model() + " context window")) {
+            ModelQueryMatcher.Match match = matcher.match(question).orElseThrow(() -> new AssertionError(question));
+            assertEquals(ModelQueryMatcher.Kind.MODEL, match.kind());
+            assertEquals(List.of(model), match.models().models());
+        }
+    }
+
+    @Test
+    void answersContextWindowRanges() {
+        assertRange("Which models have a context window over 128k?", 128_001, Integer.MAX_VALUE);
+        assertRange("models with a context window of at least 1M tokens", 1_000_000, Integer.MAX_VALUE);
+        assertRange("List models with context window under 100,000", 0, 99_999);
+        assertRange("Which models have a context window between 100k and 200k?", 100_000, 200_000);
+    }
+
+    @Test
+    void leavesOpenEndedQuestionsToRetrieval() {
+        for (String question : List.of(
+                "Which OpenAI model is best for coding?",
+                "Compare the Anthropic and Google models",
+                "What is the context window of a model that does not exist?",
+                "Give me a list of all the models from Initech",
+                "Which model has the largest context window?")) {
+            assertFalse(matcher.match(question).isPresent(), question);
+        }
+    }
+
+    private static void assertRange(String question, int min, int max) {
+        ModelQueryMatcher.Match match = matcher.match(question).orElseThrow(() -> new AssertionError(question));
+        assertEquals(ModelQueryMatcher.Kind.CONTEXT_WINDOW, match.kind());
+        assertEquals(index.byContextWindow(min, max), match.models().models(), question);
+        assertFalse(match.models().models().isEmpty(), question);
+    }
+
+}
@@ -0,0 +1,123 @@
+package dev.danvega.workshop.rag.embedding;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptions;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CachingEmbeddingModelTest {
+
+    private static final long MAX_DISK_BYTES = 1024 * 1024;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void onlyMissingTextsReachTheDelegate() throws Exception {
+        CountingEmbeddingModel delegate = new CountingEmbeddingModel();
+        try (CachingEmbeddingModel cache = new CachingEmbeddingModel(delegate, "test-model", 100, null, 0)) {
+            cache.embed(List.of("alpha", "beta"));
+            List<float[]> second = cache.embed(List.of("beta", "gamma", "  alpha \n"));
+
+            assertEquals(List.of(List.of("alpha", "beta"), List.of("gamma")), delegate.requests);
+            assertArrayEquals(CountingEmbeddingModel.vectorFor("alpha"), second.get(2));
+            assertEquals(2, cache.hits());
+            assertEquals(3, cache.misses());
+        }
+    }
+
+    @Test
+    void diskTierSurvivesRestartAndEviction() throws Exception {
+        Path file = this.tempDir.resolve("embeddings.bin");
+        CountingEmbeddingModel delegate = new CountingEmbeddingModel();
+        try (CachingEmbeddingModel cache = new CachingEmbeddingModel(delegate, "test-model", 1, file, MAX_DISK_BYTES)) {
+            cache.embed(documents("alpha", "beta", "gamma"), EmbeddingOptions.builder().build(), List::of);
+            // "alpha" was evicted from the one-entry memory tier but is still on disk
+            cache.embed("alpha");
+        }
+        try (CachingEmbeddingModel restarted = new CachingEmbeddingModel(delegate, "test-model", 10, file, MAX_DISK_BYTES)) {
+            assertArrayEquals(CountingEmbeddingModel.vectorFor("beta"), restarted.embed("beta"));
+            assertEquals(1.0, restarted.hitRatio());
+        }
+        try (CachingEmbeddingModel otherModel = new CachingEmbeddingModel(delegate, "other-model", 10, file, MAX_DISK_BYTES)) {
+            otherModel.embed("beta");
+            assertEquals(1, otherModel.misses(), "cache entries are scoped to the model name");
+        }
+        assertEquals(2, delegate.requests.size());
+    }
+
+    @Test
+    void queriesAreNeverWrittenToDisk() throws Exception {
+        Path file = this.tempDir.resolve("embeddings.bin");
+        CountingEmbeddingModel delegate = new CountingEmbeddingModel();
+        try (CachingEmbeddingModel cache = new CachingEmbeddingModel(delegate, "test-model", 10, file, MAX_DISK_BYTES)) {
+            cache.embed("what is my dog's name?");
+            cache.embed(List.of("private question"));
+            cache.embed(List.of("private question"));
+            assertEquals(1, cache.hits(), "still cached in memory");
+        }
+        assertEquals(0, Files.size(file));
+    }
+
+    @Test
+    void diskTierIsCompactedToItsNewestEmbeddings() throws Exception {
+        Path file = this.tempDir.resolve("embeddings.bin");
+        CountingEmbeddingModel delegate = new CountingEmbeddingModel();
+        // a record of a 2-d vector is 28 bytes, so 10 of them fit in 280
+        try (CachingEmbeddingModel cache = new CachingEmbeddingModel(delegate, "test-model", 1, file, 280)) {
+            for (int i = 0; i < 100; i++) {
+                cache.embed(documents("chunk " + i), EmbeddingOptions.builder().build(), List::of);
+                assertTrue(Files.size(file) <= 280, Files.size(file) + " bytes");
+            }
+        }
+        try (CachingEmbeddingModel restarted = new CachingEmbeddingModel(delegate, "test-model", 10, file, 280)) {
+            restarted.embed("chunk 99");
+            restarted.embed("chunk 0");
+            assertEquals(1, restarted.hits(), "the newest embedding survives compaction, the oldest does not");
+        }
+    }
+
+    private static List<Document> documents(String... texts) {
+        return Arrays.stream(texts).map(Document::new).toList();
+    }
+
+    private static class CountingEmbeddingModel implements EmbeddingModel {
+
+        private final List<List<String>> requests = new ArrayList<>();
+
+        static float[] vectorFor(String text) {
+            return new float[] {text.strip().length(), text.strip().charAt(0)};
+        }
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            requests.add(request.getInstructions());
+            List<Embedding> embeddings = new ArrayList<>();
+            for (int i = 0; i < request.getInstructions().size(); i++) {
+                embeddings.add(new Embedding(vectorFor(request.getInstructions().get(i)), i));
+            }
+            return new EmbeddingResponse(embeddings);
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return vectorFor(document.getText());
+        }
+
+    }
+
+}
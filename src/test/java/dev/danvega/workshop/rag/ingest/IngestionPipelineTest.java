@@ -0,0 +1,104 @@
+package dev.danvega.workshop.rag.ingest;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.DocumentReader;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IngestionPipelineTest {
+
+    @Test
+    void embedsInBoundedConcurrentBatchesAndIndexesEveryChunk() throws InterruptedException {
+        SlowEmbeddingModel model = new SlowEmbeddingModel(20, -1);
+        List<Document> indexed = Collections.synchronizedList(new ArrayList<>());
+
+        IngestionProgress progress = IngestionPipeline.builder(model, (documents, embeddings) -> indexed.addAll(documents))
+                .batchSize(50)
+                .concurrency(8)
+                .queueCapacity(64)
+                .build()
+                .run(List.of(reader(2_000)));
+
+        assertEquals(2_000, progress.documentsRead());
+        assertEquals(progress.chunksSplit(), progress.chunksIndexed());
+        assertEquals(progress.chunksSplit(), indexed.size());
+        assertTrue(model.maxConcurrent.get() <= 8, "at most 8 embedding calls in flight");
+        assertTrue(model.maxConcurrent.get() > 1, "embedding calls should overlap");
+        assertTrue(model.maxBatch.get() <= 50);
+    }
+
+    @Test
+    void firstFailureStopsThePipeline() {
+        SlowEmbeddingModel model = new SlowEmbeddingModel(1, 3);
+        IngestionPipeline pipeline = IngestionPipeline.builder(model, (documents, embeddings) -> { })
+                .batchSize(10)
+                .concurrency(2)
+                .build();
+
+        assertThrows(IllegalStateException.class, () -> pipeline.run(List.of(reader(500))));
+    }
+
+    private static DocumentReader reader(int documents) {
+        return () -> IntStream.range(0, documents)
+                .mapToObj(i -> new Document("Model " + i + " has a context window of " + (i * 1000) + " tokens."))
+                .toList();
+    }
+
+    private static class SlowEmbeddingModel implements EmbeddingModel {
+
+        private final long latencyMillis;
+        private final int failOnCall;
+        private final AtomicInteger calls = new AtomicInteger();
+        private final AtomicInteger concurrent = new AtomicInteger();
+        private final AtomicInteger maxConcurrent = new AtomicInteger();
+        private final AtomicInteger maxBatch = new AtomicInteger();
+
+        SlowEmbeddingModel(long latencyMillis, int failOnCall) {
+            this.latencyMillis = latencyMillis;
+            this.failOnCall = failOnCall;
+        }
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            if (calls.incrementAndGet() == failOnCall) {
+                throw new IllegalStateException("provider unavailable");
+            }
+            maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+            maxBatch.accumulateAndGet(request.getInstructions().size(), Math::max);
+            try {
+                Thread.sleep(latencyMillis);
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            finally {
+                concurrent.decrementAndGet();
+            }
+            List<Embedding> embeddings = new ArrayList<>();
+            for (int i = 0; i < request.getInstructions().size(); i++) {
+                embeddings.add(new Embedding(new float[] {i, 1f}, i));
+            }
+            return new EmbeddingResponse(embeddings);
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return new float[] {0f, 1f};
+        }
+
+    }
+
+}
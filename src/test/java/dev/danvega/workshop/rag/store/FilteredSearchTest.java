@@ -0,0 +1,145 @@
+package dev.danvega.workshop.rag.store;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.vectorstore.SearchRequest;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.IntPredicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FilteredSearchTest {
+
+    private static final int DIMENSIONS = 64;
+    private static final int DOCUMENTS = 20_000;
+    private static final int QUERIES = 100;
+    private static final int TOP_K = 5;
+
+    @TempDir
+    static Path tempDir;
+
+    private static QueryEmbeddingModel model;
+    private static HnswVectorStore indexed;
+    private static HnswVectorStore unindexed;
+
+    @BeforeAll
+    static void buildCorpus() throws Exception {
+        model = new QueryEmbeddingModel();
+        Random random = new Random(17);
+        HnswVectorStore builder = HnswVectorStore.builder(model).efConstruction(100).build();
+        for (int i = 0; i < DOCUMENTS; i++) {
+            builder.add(new Document("doc-" + i, "text " + i, Map.of("company", company(i), "year", year(i))), clusteredVector(random, i % 50));
+        }
+        for (int q = 0; q < QUERIES; q++) {
+            model.queries.put("query-" + q, clusteredVector(random, q % 50));
+        }
+        Path snapshot = tempDir.resolve("vectorstore.bin");
+        builder.saveSnapshot(snapshot);
+
+        indexed = HnswVectorStore.builder(model).indexedMetadataKeys("company").build();
+        indexed.loadSnapshot(snapshot);
+        unindexed = HnswVectorStore.builder(model).build();
+        unindexed.loadSnapshot(snapshot);
+    }
+
+    @Test
+    void filtersResolvedFromBitmapsReturnTheExactFilteredTopK() {
+        Map<String, IntPredicate> filters = new LinkedHashMap<>();
+        filters.put("company == 'OpenAI'", i -> company(i).equals("OpenAI"));
+        filters.put("company in ['OpenAI', 'Anthropic']", i -> !company(i).equals("Meta"));
+        filters.put("company != 'Meta'", i -> !company(i).equals("Meta"));
+        filters.put("company == 'OpenAI' && year >= 2024", i -> company(i).equals("OpenAI") && year(i) >= 2024);
+        filters.put("company in ['Anthropic', 'Meta']", i -> !company(i).equals("OpenAI"));
+        for (String filter : filters.keySet()) {
+            for (int q = 0; q < 3; q++) {
+                assertEquals(ids(unindexed.exactSimilaritySearch(request(q, filter))), ids(indexed.exactSimilaritySearch(request(q, filter))),
+                        "bitmaps and SpEL must agree on " + filter);
+            }
+            int found = 0;
+            int total = 0;
+            for (int q = 0; q < QUERIES; q++) {
+                SearchRequest request = request(q, filter);
+                List<String> expected = ids(indexed.exactSimilaritySearch(request));
+                total += expected.size();
+                for (Document document : indexed.similaritySearch(request)) {
+                    assertTrue(filters.get(filter).test(Integer.parseInt(document.getId().substring(4))),
+                            document.getId() + " does not match " + filter);
+                    if (expected.contains(document.getId())) {
+                        found++;
+                    }
+                }
+            }
+            double recall = (double) found / total;
+            assertTrue(recall >= 0.9, filter + " recall was " + recall);
+        }
+    }
+
+    @Test
+    void smallPartitionsAreSearchedExactly() {
+        for (int q = 0; q < QUERIES; q++) {
+            SearchRequest request = request(q, "company == 'OpenAI'");
+            List<Document> results = indexed.similaritySearch(request);
+            assertEquals(ids(indexed.exactSimilaritySearch(request)), ids(results));
+            results.forEach(document -> assertEquals("OpenAI", document.getMetadata().get("company")));
+        }
+    }
+
+    private static String company(int i) {
+        // 1% OpenAI, 9% Anthropic, 90% Meta
+        return i % 100 == 0 ? "OpenAI" : i % 10 == 0 ? "Anthropic" : "Meta";
+    }
+
+    private static int year(int i) {
+        return 2020 + i % 6;
+    }
+
+    private static SearchRequest request(int q, String filter) {
+        SearchRequest.Builder builder = SearchRequest.builder().query("query-" + q).topK(TOP_K);
+        return filter != null ? builder.filterExpression(filter).build() : builder.build();
+    }
+
+    private static List<String> ids(List<Document> documents) {
+        return documents.stream().map(Document::getId).toList();
+    }
+
+    private static float[] clusteredVector(Random random, int cluster) {
+        Random centre = new Random(cluster);
+        float[] vector = new float[DIMENSIONS];
+        for (int i = 0; i < DIMENSIONS; i++) {
+            vector[i] = (float) (centre.nextGaussian() + 0.6 * random.nextGaussian());
+        }
+        return vector;
+    }
+
+    private static class QueryEmbeddingModel implements EmbeddingModel {
+
+        private final Map<String, float[]> queries = new HashMap<>();
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            return new EmbeddingResponse(request.getInstructions().stream()
+                    .map(text -> new Embedding(this.queries.get(text), 0))
+                    .toList());
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            throw new UnsupportedOperationException();
+        }
+
+    }
+
+}
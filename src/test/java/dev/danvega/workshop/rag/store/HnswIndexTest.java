@@ -0,0 +1,96 @@
+package dev.danvega.workshop.rag.store;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HnswIndexTest {
+
+    private static final int DIMENSIONS = 64;
+    private static final int CORPUS = 20_000;
+    private static final int QUERIES = 200;
+    private static final int K = 10;
+
+    @Test
+    void recallAgainstBruteForce() {
+        Random random = new Random(7);
+        HnswIndex index = new HnswIndex(DIMENSIONS, 16, 200, 64, 42L);
+        for (int i = 0; i < CORPUS; i++) {
+            index.add(clustered(random));
+        }
+        float[][] queries = new float[QUERIES][];
+        for (int i = 0; i < QUERIES; i++) {
+            queries[i] = clustered(random);
+        }
+
+        int hits = 0;
+        for (float[] query : queries) {
+            Set<Integer> expected = ordinals(index.exactSearch(query, K, null));
+            for (HnswIndex.Match match : index.search(query, K, 128, null)) {
+                if (expected.contains(match.ordinal())) {
+                    hits++;
+                }
+            }
+        }
+        double recallAt128 = hits / (double) (QUERIES * K);
+        assertTrue(recallAt128 >= 0.95, "recall@10 at efSearch=128 was " + recallAt128);
+    }
+
+    @Test
+    void deletedNodesAreNeverReturnedAndGraphStaysNavigable() {
+        Random random = new Random(11);
+        HnswIndex index = new HnswIndex(16, 8, 100, 64, 1L);
+        float[][] vectors = new float[2_000][];
+        for (int i = 0; i < vectors.length; i++) {
+            vectors[i] = clustered(random, 16);
+            index.add(vectors[i]);
+        }
+        for (int i = 0; i < vectors.length; i += 2) {
+            assertTrue(index.remove(i));
+        }
+        assertFalse(index.remove(0));
+        assertEquals(1_000, index.size());
+
+        int found = 0;
+        for (int i = 1; i < vectors.length; i += 2) {
+            List<HnswIndex.Match> matches = index.search(vectors[i], 5, null);
+            matches.forEach(match -> assertEquals(1, match.ordinal() % 2, "deleted ordinal returned"));
+            if (!matches.isEmpty() && matches.get(0).ordinal() == i) {
+                found++;
+            }
+        }
+        assertTrue(found >= 990, "only " + found + " of 1000 surviving vectors found themselves");
+
+        // ordinals freed by the tombstone sweep are reused by later inserts
+        int reused = index.add(clustered(random, 16));
+        assertTrue(reused < vectors.length);
+    }
+
+    private static Set<Integer> ordinals(List<HnswIndex.Match> matches) {
+        Set<Integer> ordinals = new HashSet<>();
+        matches.forEach(match -> ordinals.add(match.ordinal()));
+        return ordinals;
+    }
+
+    private static float[] clustered(Random random) {
+        return clustered(random, DIMENSIONS);
+    }
+
+    // embeddings of real text are clustered rather than uniform, so sample around a handful of centroids
+    private static float[] clustered(Random random, int dimensions) {
+        Random centroids = new Random(random.nextInt(32));
+        float[] vector = new float[dimensions];
+        for (int i = 0; i < dimensions; i++) {
+            vector[i] = (float) (centroids.nextGaussian() + 0.35 * random.nextGaussian());
+        }
+        return vector;
+    }
+
+}
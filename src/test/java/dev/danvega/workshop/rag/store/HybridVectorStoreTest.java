@@ -0,0 +1,162 @@
+package dev.danvega.workshop.rag.store;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HybridVectorStoreTest {
+
+    @Test
+    void tokenizerKeepsModelNamesWhole() {
+        assertEquals(List.of("qwen2.5-14b-instruct-1m", "qwen2.5", "14b", "instruct", "1m", "has", "1m", "tokens"),
+                Bm25Index.tokenize("Qwen2.5-14B-Instruct-1M has 1M tokens."));
+        assertEquals(List.of("mixtral", "8x22b"), Bm25Index.tokenize("\"Mixtral 8x22B\","));
+    }
+
+    @Test
+    void exactModelNamesRankFirstWithFusion() {
+        HnswVectorStore vectors = HnswVectorStore.builder(new HashingEmbeddingModel()).build();
+        HybridVectorStore hybrid = HybridVectorStore.builder(vectors).build();
+        List<Document> documents = corpus();
+        hybrid.add(documents);
+
+        int[] vectorHits = new int[3];
+        int[] hybridHits = new int[3];
+        for (Document document : documents) {
+            String name = (String) document.getMetadata().get("model");
+            SearchRequest request = SearchRequest.builder().query(name).topK(3).similarityThresholdAll().build();
+            int vectorRank = ids(vectors.similaritySearch(request)).indexOf(document.getId());
+            int hybridRank = ids(hybrid.similaritySearch(request)).indexOf(document.getId());
+            for (int k = 0; k < 3; k++) {
+                vectorHits[k] += vectorRank >= 0 && vectorRank <= k ? 1 : 0;
+                hybridHits[k] += hybridRank >= 0 && hybridRank <= k ? 1 : 0;
+            }
+        }
+        double n = documents.size();
+        assertTrue(hybridHits[0] > vectorHits[0] * 1.3, "hybrid should clearly beat vector-only at k=1");
+        assertTrue(hybridHits[2] >= n * 0.95, "hybrid hit rate @3 was " + hybridHits[2] / n);
+    }
+
+    @Test
+    void keywordIndexFollowsDeletesAndFilters() {
+        HnswVectorStore vectors = HnswVectorStore.builder(new HashingEmbeddingModel()).indexedMetadataKeys("company").build();
+        HybridVectorStore hybrid = HybridVectorStore.builder(vectors).build();
+        hybrid.add(corpus());
+
+        SearchRequest mixtral = SearchRequest.builder().query("Mixtral 8x22B").topK(3).similarityThresholdAll().build();
+        assertTrue(ids(hybrid.similaritySearch(mixtral)).contains("mistral-ai-mixtral-8x22b"));
+
+        SearchRequest onlyMeta = SearchRequest.from(mixtral)
+                .filterExpression(new FilterExpressionBuilder().eq("company", "Meta").build())
+                .topK(5)
+                .build();
+        hybrid.similaritySearch(onlyMeta).forEach(document -> assertEquals("Meta", document.getMetadata().get("company")));
+
+        hybrid.delete(new FilterExpressionBuilder().eq("company", "Mistral AI").build());
+        assertTrue(hybrid.similaritySearch(mixtral).stream().noneMatch(document -> document.getId().startsWith("mistral-ai-")));
+    }
+
+    @Test
+    void purgeRenumbersLiveDocumentsAndShrinksTheIndex() {
+        Bm25Index index = new Bm25Index();
+        for (int i = 0; i < 1_000; i++) {
+            index.add("doc-" + i, "model " + i + (i % 2 == 0 ? " even" : " odd"));
+        }
+        for (int i = 0; i < 1_000; i++) {
+            if (i % 10 != 0) {
+                index.remove("doc-" + i);
+            }
+        }
+        // re-adding the same documents replaces them instead of growing the index
+        for (int round = 0; round < 50; round++) {
+            for (int i = 0; i < 1_000; i += 10) {
+                index.add("doc-" + i, "model " + i + " even");
+            }
+        }
+
+        assertEquals(100, index.size());
+        assertTrue(index.capacity() <= 512, "capacity " + index.capacity());
+        assertEquals("doc-990", index.search("990", 1, null).get(0).id());
+        assertEquals(10, index.search("even", 10, null).size());
+        assertTrue(index.search("odd", 10, null).isEmpty());
+    }
+
+    /**
+     * One document per record in the bundled models.json.
+     */
+    private static List<Document> corpus() {
+        try (InputStream json = new ClassPathResource("data/models.json").getInputStream()) {
+            List<Map<String, Object>> records = new ObjectMapper().readValue(json, new TypeReference<>() {
+            });
+            List<Document> documents = new ArrayList<>();
+            for (Map<String, Object> record : records) {
+                String company = (String) record.get("company");
+                String model = (String) record.get("model");
+                String id = (company + "-" + model).toLowerCase().replace(' ', '-');
+                documents.add(new Document(id, company + " model " + model + " has a context window of " + record.get("context_window_size") + " tokens.",
+                        Map.of("company", company, "model", model)));
+            }
+            return documents;
+        }
+        catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static List<String> ids(List<Document> documents) {
+        return documents.stream().map(Document::getId).toList();
+    }
+
+    /**
+     * Bag-of-words embedding that, like real embedding models, captures topical words well but barely tells
+     * identifiers such as "8x22b" and "8x7b" apart.
+     */
+    private static class HashingEmbeddingModel implements EmbeddingModel {
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            List<Embedding> embeddings = new ArrayList<>();
+            for (int i = 0; i < request.getInstructions().size(); i++) {
+                String text = request.getInstructions().get(i);
+                float[] vector = new float[64];
+                for (String token : text.toLowerCase().split("[^a-z0-9]+")) {
+                    if (!token.isEmpty()) {
+                        vector[Math.floorMod(token.hashCode(), vector.length)] += token.chars().allMatch(Character::isLetter) ? 1f : 0.15f;
+                    }
+                }
+                Random noise = new Random(text.hashCode());
+                for (int d = 0; d < vector.length; d++) {
+                    vector[d] += (float) (0.1 * noise.nextGaussian());
+                }
+                embeddings.add(new Embedding(vector, i));
+            }
+            return new EmbeddingResponse(embeddings);
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return embed(document.getText());
+        }
+
+    }
+
+}
@@ -0,0 +1,139 @@
+package dev.danvega.workshop.rag.store;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.vectorstore.SearchRequest;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QuantizedVectorStoreTest {
+
+    private static final int DIMENSIONS = 384;
+    private static final int DOCUMENTS = 2_000;
+    private static final int QUERIES = 50;
+    private static final int TOP_K = 10;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void quantizedStoresMatchFullPrecisionTopKWithFarLessMemory() throws Exception {
+        QueryEmbeddingModel model = new QueryEmbeddingModel();
+        Random random = new Random(11);
+        HnswVectorStore builder = HnswVectorStore.builder(model).efConstruction(100).build();
+        for (int i = 0; i < DOCUMENTS; i++) {
+            builder.add(new Document("doc-" + i, "text " + i, Map.of()), clusteredVector(random, i % 40));
+        }
+        for (int q = 0; q < QUERIES; q++) {
+            model.queries.put("query-" + q, clusteredVector(random, q % 40));
+        }
+        Path snapshot = this.tempDir.resolve("vectorstore.bin");
+        builder.saveSnapshot(snapshot);
+
+        HnswVectorStore full = open(model, snapshot, VectorQuantization.NONE);
+        HnswVectorStore int8 = open(model, snapshot, VectorQuantization.INT8);
+        HnswVectorStore product = open(model, snapshot, VectorQuantization.PRODUCT);
+
+        double int8Recall = recall(full, int8);
+        double productRecall = recall(full, product);
+
+        assertTrue(full.vectorMemoryBytes() >= 3.5 * int8.vectorMemoryBytes());
+        assertTrue(full.vectorMemoryBytes() >= 15 * product.vectorMemoryBytes());
+        assertTrue(int8Recall >= 0.95, "int8 recall@10 was " + int8Recall);
+        assertTrue(productRecall >= 0.9, "product recall@10 was " + productRecall);
+    }
+
+    @Test
+    void vectorsAddedAfterLoadAreRerankedFromTheHeap() throws Exception {
+        QueryEmbeddingModel model = new QueryEmbeddingModel();
+        Random random = new Random(5);
+        HnswVectorStore builder = HnswVectorStore.builder(model).build();
+        for (int i = 0; i < 200; i++) {
+            builder.add(new Document("doc-" + i, "text " + i, Map.of()), clusteredVector(random, i % 4));
+        }
+        Path snapshot = this.tempDir.resolve("small.bin");
+        builder.saveSnapshot(snapshot);
+
+        HnswVectorStore store = open(model, snapshot, VectorQuantization.INT8);
+        float[] fresh = clusteredVector(random, 2);
+        store.add(new Document("fresh", "fresh", Map.of()), fresh);
+        model.queries.put("fresh", fresh);
+
+        Document top = store.similaritySearch(SearchRequest.builder().query("fresh").topK(1).build()).get(0);
+        assertEquals("fresh", top.getId());
+        assertEquals(1.0, top.getScore(), 1e-5);
+
+        Path resaved = this.tempDir.resolve("resaved.bin");
+        store.saveSnapshot(resaved);
+        HnswVectorStore reopened = open(model, resaved, VectorQuantization.NONE);
+        assertEquals(201, reopened.size());
+        assertEquals(1.0, reopened.similaritySearch(SearchRequest.builder().query("fresh").topK(1).build()).get(0).getScore(), 1e-5,
+                "snapshots of a quantized store keep full-precision vectors");
+    }
+
+    private static HnswVectorStore open(EmbeddingModel model, Path snapshot, VectorQuantization quantization) throws Exception {
+        HnswVectorStore store = HnswVectorStore.builder(model).quantization(quantization).build();
+        store.loadSnapshot(snapshot);
+        return store;
+    }
+
+    private static double recall(HnswVectorStore truth, HnswVectorStore candidate) {
+        int found = 0;
+        for (int q = 0; q < QUERIES; q++) {
+            SearchRequest request = SearchRequest.builder().query("query-" + q).topK(TOP_K).build();
+            Set<String> expected = new HashSet<>();
+            truth.exactSimilaritySearch(request).forEach(document -> expected.add(document.getId()));
+            for (Document document : candidate.similaritySearch(request)) {
+                if (expected.contains(document.getId())) {
+                    found++;
+                }
+            }
+        }
+        return (double) found / (QUERIES * TOP_K);
+    }
+
+    /**
+     * Real embeddings are clustered by topic rather than uniformly spread; a shared cluster centre plus noise
+     * mimics that and gives the product quantizer structure to learn.
+     */
+    private static float[] clusteredVector(Random random, int cluster) {
+        Random centre = new Random(cluster);
+        float[] vector = new float[DIMENSIONS];
+        for (int i = 0; i < DIMENSIONS; i++) {
+            vector[i] = (float) (centre.nextGaussian() + 0.6 * random.nextGaussian());
+        }
+        return vector;
+    }
+
+    private static class QueryEmbeddingModel implements EmbeddingModel {
+
+        private final Map<String, float[]> queries = new HashMap<>();
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            List<String> texts = request.getInstructions();
+            return new EmbeddingResponse(texts.stream().map(text -> new Embedding(this.queries.get(text), 0)).toList());
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            throw new UnsupportedOperationException();
+        }
+
+    }
+
+}
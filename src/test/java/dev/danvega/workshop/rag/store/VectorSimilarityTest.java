@@ -0,0 +1,45 @@
+package dev.danvega.workshop.rag.store;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class VectorSimilarityTest {
+
+    @Test
+    void simdKernelAgreesWithScalarKernel() {
+        VectorSimilarity.Kernel simd = VectorSimilarity.simdKernel();
+        assumeTrue(simd != null, "jdk.incubator.vector not available");
+        Random random = new Random(7);
+        // odd sizes exercise the scalar tail after the last full lane
+        for (int dimensions : new int[] {3, 17, 384, 1539}) {
+            int rows = 11;
+            float[] query = VectorSimilarity.normalize(randomVector(random, dimensions));
+            float[] vectors = new float[rows * dimensions];
+            for (int i = 0; i < rows; i++) {
+                System.arraycopy(VectorSimilarity.normalize(randomVector(random, dimensions)), 0, vectors, i * dimensions, dimensions);
+            }
+            int[] ordinals = {10, 3, 7, 0, 1, 9, 2, 8, 4, 6, 5};
+            float[] expected = new float[rows];
+            float[] actual = new float[rows];
+            VectorSimilarity.SCALAR.dotBlock(query, vectors, ordinals, rows, dimensions, expected);
+            simd.dotBlock(query, vectors, ordinals, rows, dimensions, actual);
+            for (int i = 0; i < rows; i++) {
+                assertEquals(expected[i], actual[i], 1e-5f);
+                assertEquals(expected[i], simd.dot(query, 0, vectors, ordinals[i] * dimensions, dimensions), 1e-5f);
+            }
+        }
+    }
+
+    private static float[] randomVector(Random random, int dimensions) {
+        float[] vector = new float[dimensions];
+        for (int i = 0; i < dimensions; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+
+}
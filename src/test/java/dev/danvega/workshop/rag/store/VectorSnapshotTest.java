@@ -0,0 +1,69 @@
+package dev.danvega.workshop.rag.store;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VectorSnapshotTest {
+
+    private static final int DIMENSIONS = 384;
+    private static final int DOCUMENTS = 2_000;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void snapshotRoundTripsDocumentsAndGraph() throws Exception {
+        HnswVectorStore original = HnswVectorStore.builder(new VectorSnapshotConverter.OfflineEmbeddingModel())
+                .efConstruction(100)
+                .build();
+        Random random = new Random(3);
+        float[][] vectors = new float[DOCUMENTS][];
+        for (int i = 0; i < DOCUMENTS; i++) {
+            vectors[i] = randomVector(random);
+            original.add(new Document("doc-" + i, "text " + i, Map.of("company", i % 2 == 0 ? "OpenAI" : "Anthropic")), vectors[i]);
+        }
+        original.delete(List.of("doc-0", "doc-1"));
+
+        File json = this.tempDir.resolve("vectorstore.json").toFile();
+        Path snapshot = this.tempDir.resolve("vectorstore.bin");
+        original.save(json);
+        original.saveSnapshot(snapshot);
+
+        HnswVectorStore fromJson = HnswVectorStore.builder(new VectorSnapshotConverter.OfflineEmbeddingModel())
+                .efConstruction(100)
+                .build();
+        fromJson.load(json);
+        HnswVectorStore restored = HnswVectorStore.builder(new VectorSnapshotConverter.OfflineEmbeddingModel()).build();
+        restored.loadSnapshot(snapshot);
+
+        assertEquals(DOCUMENTS - 2, restored.size());
+        assertEquals(fromJson.size(), restored.size());
+        VectorSnapshot mapped = VectorSnapshot.open(snapshot, new ObjectMapper());
+        assertEquals(DIMENSIONS, mapped.dimensions());
+        Document document = mapped.document(0);
+        assertTrue(document.getId().startsWith("doc-"));
+        assertEquals("text " + document.getId().substring(4), document.getText());
+        assertTrue(Files.size(snapshot) < Files.size(json.toPath()) / 2, "snapshot should be well under half the JSON size");
+    }
+
+    private static float[] randomVector(Random random) {
+        float[] vector = new float[DIMENSIONS];
+        for (int i = 0; i < DIMENSIONS; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+
+}
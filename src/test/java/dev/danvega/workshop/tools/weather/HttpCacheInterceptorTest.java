@@ -0,0 +1,71 @@
+package dev.danvega.workshop.tools.weather;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class HttpCacheInterceptorTest {
+
+    private final HttpCacheInterceptor interceptor = HttpCacheInterceptor.builder().build();
+    private final Deque<MockClientHttpResponse> responses = new ArrayDeque<>();
+    private final List<HttpHeaders> sent = new ArrayList<>();
+    private final ClientHttpRequestExecution execution = (request, body) -> {
+        this.sent.add(HttpHeaders.readOnlyHttpHeaders(request.getHeaders()));
+        return this.responses.remove();
+    };
+
+    @Test
+    void aNotModifiedRenewsFreshnessButKeepsTheStoredRepresentationHeaders() throws IOException {
+        MockClientHttpResponse ok = new MockClientHttpResponse("{\"forecast\":1}".getBytes(StandardCharsets.UTF_8), HttpStatus.OK);
+        ok.getHeaders().setCacheControl("max-age=0");
+        ok.getHeaders().setETag("\"v1\"");
+        ok.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+        ok.getHeaders().setContentLength(14);
+        MockClientHttpResponse notModified = new MockClientHttpResponse(new byte[0], HttpStatus.NOT_MODIFIED);
+        notModified.getHeaders().setCacheControl("max-age=600");
+        notModified.getHeaders().setETag("\"v1\"");
+        notModified.getHeaders().setContentType(MediaType.TEXT_PLAIN);
+        notModified.getHeaders().setContentLength(0);
+        this.responses.add(ok);
+        this.responses.add(notModified);
+
+        get().close();
+        ClientHttpResponse revalidated = get();
+
+        assertEquals("\"v1\"", this.sent.get(1).getIfNoneMatch().get(0));
+        assertEquals(HttpStatus.OK, revalidated.getStatusCode());
+        assertEquals(14, revalidated.getHeaders().getContentLength());
+        assertEquals(MediaType.APPLICATION_JSON, revalidated.getHeaders().getContentType());
+        assertEquals("max-age=600", revalidated.getHeaders().getCacheControl());
+        assertEquals("{\"forecast\":1}", StreamUtils.copyToString(revalidated.getBody(), StandardCharsets.UTF_8));
+
+        // fresh again for ten minutes, so served without a request
+        ClientHttpResponse cached = get();
+        assertEquals(14, cached.getHeaders().getContentLength());
+        assertEquals(2, this.sent.size());
+    }
+
+    private ClientHttpResponse get() throws IOException {
+        MockClientHttpRequest request = new MockClientHttpRequest(HttpMethod.GET,
+                URI.create("https://api.weather.gov/gridpoints/BOX/71,90/forecast"));
+        return this.interceptor.intercept(request, new byte[0], this.execution);
+    }
+
+}
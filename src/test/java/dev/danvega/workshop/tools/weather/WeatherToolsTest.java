@@ -0,0 +1,200 @@
+package dev.danvega.workshop.tools.weather;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.client.RestClient;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WeatherToolsTest {
+
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private HttpServer nws;
+    private WeatherTools weatherTools;
+
+    // what the stub forecast endpoint answers with
+    private volatile String forecastCacheControl = "public, max-age=600";
+    private volatile String forecastETag = "\"v1\"";
+    private volatile String forecastText = "Sunny, with a high near 75.";
+    private volatile long latencyMillis;
+
+    @BeforeEach
+    void startStub() throws IOException {
+        this.nws = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        String base = "http://localhost:" + this.nws.getAddress().getPort();
+        this.nws.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        this.nws.createContext("/points/", exchange -> {
+            record(exchange);
+            String location = exchange.getRequestURI().getPath().substring("/points/".length());
+            String gridpoint = location.equals("42.36,-71.06") ? "BOX/71,90" : "XYZ/" + location;
+            respond(exchange, 200, Map.of("Cache-Control", "public, max-age=86400"),
+                    "{\"properties\":{\"forecast\":\"" + base + "/gridpoints/" + gridpoint + "/forecast\"}}");
+        });
+        this.nws.createContext("/gridpoints/", exchange -> {
+            record(exchange);
+            if (exchange.getRequestURI().getPath().contains("/0,0/")) {
+                // a gridpoint that never answers in time
+                pause(5_000);
+            }
+            if (this.forecastETag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                respond(exchange, 304, Map.of("Cache-Control", this.forecastCacheControl, "ETag", this.forecastETag), null);
+                return;
+            }
+            respond(exchange, 200, Map.of("Cache-Control", this.forecastCacheControl, "ETag", this.forecastETag),
+                    "{\"properties\":{\"periods\":[{\"number\":1,\"name\":\"Today\",\"temperature\":75,\"temperatureUnit\":\"F\","
+                            + "\"windSpeed\":\"5 mph\",\"windDirection\":\"SW\",\"detailedForecast\":\"" + this.forecastText + "\"}]}}");
+        });
+        this.nws.createContext("/alerts/", exchange -> {
+            record(exchange);
+            ZonedDateTime now = ZonedDateTime.now(ZoneOffset.UTC);
+            Map<String, String> headers = exchange.getRequestURI().getPath().endsWith("/MA")
+                    ? Map.of("Date", DateTimeFormatter.RFC_1123_DATE_TIME.format(now),
+                            "Expires", DateTimeFormatter.RFC_1123_DATE_TIME.format(now.plusMinutes(5)))
+                    : Map.of("Cache-Control", "no-store");
+            respond(exchange, 200, headers, "{\"features\":[{\"properties\":{\"event\":\"Wind Advisory\",\"areaDesc\":\"Suffolk\","
+                    + "\"severity\":\"Moderate\",\"description\":\"Gusts up to 50 mph\",\"instruction\":\"Secure objects\"}}]}");
+        });
+        this.nws.start();
+        this.weatherTools = new WeatherTools(RestClient.builder(), base, new BigDecimal("0.02"), Duration.ofDays(7),
+                DataSize.ofMegabytes(8), Duration.ofSeconds(10), 8, Duration.ofSeconds(1),
+                new StaticListableBeanFactory(Map.of("registry", this.registry)).getBeanProvider(MeterRegistry.class));
+    }
+
+    @AfterEach
+    void stopStub() {
+        this.weatherTools.close();
+        this.nws.stop(0);
+    }
+
+    @Test
+    void nearbyLocationsShareOneGridpointLookupAndAFreshForecast() {
+        String boston = this.weatherTools.getWeatherForecastByLocation(42.3601, -71.0589);
+        String nearby = this.weatherTools.getWeatherForecastByLocation(42.3610, -71.0580);
+
+        assertTrue(boston.contains("Sunny, with a high near 75."), boston);
+        assertEquals(boston, nearby);
+        assertEquals(List.of("/points/42.36,-71.06", "/gridpoints/BOX/71,90/forecast"), this.requests);
+        assertEquals(1, this.registry.get("weather.http.cache.requests").tag("result", "hit").counter().count());
+    }
+
+    @Test
+    void aStaleForecastIsRevalidatedAndReplacedWhenItChanged() {
+        this.forecastCacheControl = "public, max-age=0";
+        this.weatherTools.getWeatherForecastByLocation(42.3601, -71.0589);
+
+        String revalidated = this.weatherTools.getWeatherForecastByLocation(42.3601, -71.0589);
+        assertTrue(revalidated.contains("Sunny"), revalidated);
+        assertEquals(1, this.registry.get("weather.http.cache.requests").tag("result", "revalidated").counter().count());
+
+        this.forecastETag = "\"v2\"";
+        this.forecastText = "Rain likely.";
+        String changed = this.weatherTools.getWeatherForecastByLocation(42.3601, -71.0589);
+        assertTrue(changed.contains("Rain likely."), changed);
+        assertEquals(4, this.requests.size(), "one /points lookup and three forecast requests");
+    }
+
+    @Test
+    void alertsHonorExpiresAndNoStore() {
+        this.weatherTools.getAlerts("MA");
+        String alerts = this.weatherTools.getAlerts("MA");
+        this.weatherTools.getAlerts("TX");
+        this.weatherTools.getAlerts("TX");
+
+        assertTrue(alerts.contains("Wind Advisory"), alerts);
+        assertEquals(List.of("/alerts/active/area/MA", "/alerts/active/area/TX", "/alerts/active/area/TX"), this.requests);
+    }
+
+    @Test
+    void locationsAndStatesAreLookedUpConcurrently() {
+        // class loading and the first connection, which would eat into the one-second lookup timeout
+        this.weatherTools.getAlerts("TX");
+        this.requests.clear();
+        this.latencyMillis = 200;
+        List<WeatherTools.Location> locations = List.of(new WeatherTools.Location("Cleveland", 41.4993, -81.6944),
+                new WeatherTools.Location("Charleston", 32.7765, -79.9311),
+                new WeatherTools.Location("Hilton Head", 32.2163, -80.7526),
+                new WeatherTools.Location("Boston", 42.3601, -71.0589));
+
+        String weather = this.weatherTools.getWeatherForLocations(locations, List.of("OH", "SC"));
+
+        // ten requests held for 200 ms each overlap at the stub, but never more than the per-host limit of 8
+        int peak = this.peakInFlight.get();
+        assertTrue(peak > 1 && peak <= 8, peak + " requests in flight");
+        assertEquals(10, this.requests.size());
+        assertTrue(weather.startsWith("Forecast for Cleveland (41.4993,-81.6944):\n"), weather);
+        assertTrue(weather.contains("Alerts for SC:\nEvent: Wind Advisory"), weather);
+        assertEquals(4, weather.split("Sunny, with a high near 75.", -1).length - 1, weather);
+    }
+
+    @Test
+    void locationsThatTimeOutDoNotHoldBackTheRest() {
+        String weather = this.weatherTools.getWeatherForLocations(
+                List.of(new WeatherTools.Location("Null Island", 0, 0), new WeatherTools.Location("Boston", 42.3601, -71.0589)),
+                null);
+
+        assertTrue(weather.contains("Forecast for Null Island (0.0,0.0):\nUnavailable: no response within 1s"), weather);
+        assertTrue(weather.contains("Forecast for Boston (42.3601,-71.0589):\nToday:"), weather);
+    }
+
+    private void record(HttpExchange exchange) {
+        this.requests.add(exchange.getRequestURI().getPath());
+        this.peakInFlight.accumulateAndGet(this.inFlight.incrementAndGet(), Math::max);
+        try {
+            pause(this.latencyMillis);
+        }
+        finally {
+            this.inFlight.decrementAndGet();
+        }
+    }
+
+    private static void pause(long millis) {
+        try {
+            Thread.sleep(millis);
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, Map<String, String> headers, String body) throws IOException {
+        headers.forEach((name, value) -> exchange.getResponseHeaders().set(name, value));
+        exchange.getResponseHeaders().set("Content-Type", "application/geo+json");
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+            return;
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+}